@@ -19,3 +19,12 @@
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
 #-renamesourcefileattribute SourceFile
+
+# Drop verbose and debug log calls, arguments included, when the release build is minified.
+-assumenosideeffects class com.eevix.Logger {
+    void v(...);
+    void d(...);
+}
+
+# Upcalls and state constants of the renderer are looked up by name from libdlnamediarender.
+-keep class com.eevix.RendererInstance { *; }
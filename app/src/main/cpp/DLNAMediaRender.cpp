@@ -2,34 +2,59 @@
 #include <jni.h>
 #include <Log.h>
 #include <unistd.h>
+#include <pthread.h>
+#include <time.h>
 #include <semaphore.h>
+#include <stdio.h>
+#include <string.h>
+#include <algorithm>
+#include <atomic>
+#include <vector>
 #include "Thread.h"
 #include "Queue.h"
-#include "KeyedData.h"
+#include "Command.h"
+#include "Histogram.h"
+#include "MediaTime.h"
+#include "HandleRegistry.h"
 #include "PltUPnP.h"
 #include "PltMediaRenderer.h"
 
 using eevix::Thread;
 using eevix::Queue;
-using eevix::KeyedData;
-
-static void nativeInit(JNIEnv* env, jclass, jstring friendlyName, jstring uuid);
-static void nativeSetup(JNIEnv* env, jobject JMediaRender);
-static void onStateChanged(JNIEnv* env, jobject JMediaRender, jint state);
-
-static const char *                 sDLNAServiceClassName = "com/eevix/DLNAMediaRender";
-static PLT_DeviceHostReference      sMediaRender;
-static PLT_UPnP                     sUPNPService;
+using eevix::Command;
+using eevix::CommandPool;
+using eevix::Histogram;
+using eevix::MediaTime;
+using eevix::HandleRegistry;
+using eevix::Mutex;
+using eevix::AutoMutex;
+
+static void nativeClassInit(JNIEnv* env, jclass clazz);
+static jlong nativeCreate(JNIEnv* env, jclass, jobject peer, jstring friendlyName, jstring uuid, jboolean video);
+static void nativeDestroy(JNIEnv* env, jclass, jlong handle);
+static void nativeOnStateChanged(JNIEnv* env, jclass, jlong handle, jint state, jint position, jint duration);
+static void nativeOnTrackChanged(JNIEnv* env, jclass, jlong handle, jstring url);
+static void nativeCompleteAction(JNIEnv* env, jclass, jlong handle, jint token, jboolean success);
+static jstring nativeDump(JNIEnv* env, jclass, jlong handle);
+static jstring nativeBenchmarkUpcalls(JNIEnv* env, jclass, jlong handle, jint iterations);
+static jint nativeSetLogLevel(JNIEnv* env, jclass, jint level);
+
+static const char *                 sRendererClassName = "com/eevix/RendererInstance";
+static PLT_UPnP                     sUPNPService;   // one SSDP stack shared by every renderer
+static Mutex                        sUPNPLock;
 static JavaVM *                     sJavaVM = NULL;
-static jobject                      sJMediaRender = NULL;
+// RendererInstance methods, resolved once by nativeClassInit and valid for every peer
 static jmethodID                    sSetDataSource = NULL;
-static jmethodID                    sIsPlaying = NULL;
-static jmethodID                    sGetCurrentPosition = NULL;
-static jmethodID                    sGetDuration = NULL;
+static jmethodID                    sSetNextDataSource = NULL;
+static jmethodID                    sNext = NULL;
 static jmethodID                    sStop = NULL;
 static jmethodID                    sStart = NULL;
 static jmethodID                    sPause = NULL;
 static jmethodID                    sSeek = NULL;
+static jmethodID                    sGetPlaybackState = NULL;
+static jmethodID                    sFollowPosition = NULL;
+static pthread_key_t                sJNIEnvKey;
+static pthread_once_t               sJNIEnvKeyOnce = PTHREAD_ONCE_INIT;
 
 static struct PlayerState {
     int idle;
@@ -42,38 +67,185 @@ static class LogHandler : public NPT_LogHandler
 {
 public:
     void Log(const NPT_LogRecord &record) override {
-        LOGD("%s", record.m_Message);
+        LOGV("%s", record.m_Message);
     }
 } gLogHander;
 
-static inline char* formatTime(uint32_t time)
+static inline int64_t uptimeMillis()
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t)ts.tv_sec * 1000 + ts.tv_nsec / 1000000;
+}
+
+static inline int64_t uptimeNanos()
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+static void detachCurrentThread(void*)
+{
+    sJavaVM->DetachCurrentThread();
+}
+
+static void createJNIEnvKey()
+{
+    FATAL_IF(pthread_key_create(&sJNIEnvKey, detachCurrentThread) != 0);
+}
+
+/*
+ * JNIEnv of the calling thread. A native thread is attached on first use and its env cached in
+ * TLS, it is detached by the key destructor when the thread exits. Threads the VM created
+ * already have an env and are never detached here.
+ */
+static JNIEnv* getJNIEnv()
+{
+    pthread_once(&sJNIEnvKeyOnce, createJNIEnvKey);
+    JNIEnv* env = (JNIEnv*)pthread_getspecific(sJNIEnvKey);
+    if (env != NULL)
+    {
+        return env;
+    }
+
+    if (sJavaVM->GetEnv((void**)&env, JNI_VERSION_1_4) == JNI_OK)
+    {
+        return env;
+    }
+
+    if (sJavaVM->AttachCurrentThread(&env, NULL) != JNI_OK)
+    {
+        LOGE("AttachCurrentThread failed");
+        return NULL;
+    }
+
+    pthread_setspecific(sJNIEnvKey, env);
+    return env;
+}
+
+/*
+ * UTF chars of a jstring, released when it goes out of scope.
+ */
+class ScopedUtfChars
+{
+public:
+    ScopedUtfChars(JNIEnv* env, jstring string)
+        :mEnv(env),
+         mString(string),
+         mChars(string != NULL ? env->GetStringUTFChars(string, NULL) : NULL)
+    {
+    }
+
+    ~ScopedUtfChars()
+    {
+        if (mChars != NULL)
+        {
+            mEnv->ReleaseStringUTFChars(mString, mChars);
+        }
+    }
+
+    const char* c_str() const
+    {
+        return mChars;
+    }
+
+private:
+    ScopedUtfChars(const ScopedUtfChars&);
+    ScopedUtfChars& operator=(const ScopedUtfChars&);
+
+    JNIEnv*     mEnv;
+    jstring     mString;
+    const char* mChars;
+};
+
+static inline bool isXmlSpace(char c)
 {
-    char* formatTime = NULL;
-    time /= 1000;
-    asprintf(&formatTime, "%02u:%02u:%02u", time / 3600, time / 60 % 60, time % 60);
-    return formatTime;
+    return c == ' ' || c == '\t' || c == '\r' || c == '\n';
 }
 
-template <typename T>
-static inline void safeFree(T*& p)
+/*
+ * size attribute of the first res element of a DIDL-Lite document, in bytes, 0 when there is
+ * none. A X_DLNA_REL_BYTE seek is mapped to time in proportion to it.
+ */
+static uint64_t resourceSize(const char* didl)
 {
-    if (p != NULL)
+    const char* res = strstr(didl, "<res");
+    while (res != NULL && !isXmlSpace(res[4]))
+    {
+        res = strstr(res + 4, "<res");
+    }
+    if (res == NULL)
+    {
+        return 0;
+    }
+
+    const char* end = strchr(res, '>');
+    for (const char* p = res + 5; end != NULL && p + 6 < end; p++)
     {
-        free(p);
-        p = NULL;
+        if (!isXmlSpace(p[-1]) || strncmp(p, "size=", 5) != 0)
+        {
+            continue;
+        }
+
+        char quote = p[5];
+        const char* value = p + 6;
+        const char* close = quote == '"' || quote == '\'' ? strchr(value, quote) : NULL;
+        uint64_t size = 0;
+        if (close != NULL && close < end && MediaTime::parseCounter(value, close - value, &size))
+        {
+            return size;
+        }
+        return 0;
     }
+
+    return 0;
 }
 
+/*
+ * PLT_StateVariable keeps its allowed values to itself, they only come from the SCPD compiled
+ * into libplatinum. A member pointer named through a subclass reaches the list.
+ */
+class AllowedValues : public PLT_StateVariable
+{
+public:
+    static void add(PLT_StateVariable* variable, const char* value)
+    {
+        NPT_Array<NPT_String*>& values = variable->*(&AllowedValues::m_AllowedValues);
+        values.Add(new NPT_String(value));
+    }
+
+private:
+    AllowedValues();
+};
+
 class MediaRenderer : public PLT_MediaRenderer
 {
 public:
-    MediaRenderer(const char*  friendlyName,
+    MediaRenderer(JNIEnv*      env,
+                  jobject      peer,
+                  const char*  friendlyName,
+                  bool         video,
                   bool         showIP = false,
                   const char*  uuid = NULL,
                   unsigned int port = 0,
                   bool         portRebind = false);
     ~MediaRenderer();
-    void OnStateChanged(int state);
+    void quit();
+    void OnStateChanged(int state, int position, int duration);
+    void OnTrackChanged(const char* url);
+    void OnActionCompleted(int32_t token, bool success);
+    void dump(char* buffer, size_t size);
+    uint32_t getCurrentPosition();
+    jobject peer() const { return mPeer; }
+
+    // PLT_DeviceHost
+    NPT_Result SetupServices();
+    NPT_Result OnAction(PLT_ActionReference& action, const PLT_HttpRequestContext& context);
+    NPT_Result dispatchAction(PLT_ActionReference& action, const PLT_HttpRequestContext& context);
+    NPT_Result ProcessHttpSubscriberRequest(NPT_HttpRequest&              request,
+                                            const NPT_HttpRequestContext& context,
+                                            NPT_HttpResponse&             response);
 
 private:
     MediaRenderer();
@@ -88,6 +260,7 @@ private:
     NPT_Result OnSeek(PLT_ActionReference& action);
     NPT_Result OnStop(PLT_ActionReference& action);
     NPT_Result OnSetAVTransportURI(PLT_ActionReference& action);
+    NPT_Result OnSetNextAVTransportURI(PLT_ActionReference& action);
     NPT_Result OnSetPlayMode(PLT_ActionReference& action);
 
     // RenderingControl
@@ -95,9 +268,121 @@ private:
     NPT_Result OnSetVolumeDB(PLT_ActionReference &action);
     NPT_Result OnGetVolumeDBRange(PLT_ActionReference &action);
     NPT_Result OnSetMute(PLT_ActionReference& action);
-    void OnStateChanged_l(int state);
+    void OnStateChanged_l(JNIEnv* env, int state, int duration);
+    void OnTrackChanged_l(const char* url);
 
 private:
+    /*
+     * AVTransport state variable changes staged for one transition.
+     *
+     * Set one at a time, every LastChange variable rebuilds the LastChange document and the
+     * service event task may notify subscribers between two of them. A batch keeps the last
+     * value staged for each variable, drops the ones that already hold it, and applies the
+     * rest in one go with eventing paused, so a transition reaches subscribers as a single
+     * LastChange event. Whatever is still staged is committed when the batch goes out of scope.
+     */
+    class StateBatch
+    {
+    public:
+        explicit StateBatch(MediaRenderer* mediaRender);
+        ~StateBatch();
+        void set(const char* name, const char* value);
+        void commit();
+
+    private:
+        StateBatch();
+        StateBatch(const StateBatch&);
+        StateBatch& operator=(const StateBatch&);
+
+        enum
+        {
+            kCapacity = 16,
+        };
+
+        MediaRenderer* mMediaRender;
+        const char*    mNames[kCapacity];   // string literals, compared by content
+        NPT_String     mValues[kCapacity];
+        size_t         mCount;
+    };
+
+    /*
+     * SetAVTransportURI actions handed to the Java side and not confirmed yet.
+     *
+     * The HTTP worker only waits kActionReplyDeadline ms for the confirmation, after that the
+     * action stays here until DLNAMediaRender calls nativeCompleteAction with its token. Tokens
+     * are handed out in order and index a fixed ring, so when the ring is full the oldest
+     * action is failed to make room.
+     */
+    class PendingActions
+    {
+    public:
+        PendingActions();
+        void begin();
+        void cancel();
+        void expire();
+        int32_t add(Command* message);
+        bool complete(int32_t token, bool success);
+        void dump(char* buffer, size_t size);
+
+    private:
+        enum
+        {
+            kCapacity       = 16,
+            kLatencySamples = 256,
+        };
+
+        uint32_t percentile(const uint32_t* sorted, uint32_t count, uint32_t percent);
+
+        Mutex    mLock;
+        Command* mActions[kCapacity];
+        int32_t  mNextToken;
+        uint32_t mInFlight;
+        uint64_t mCompleted;
+        uint64_t mFailed;
+        uint64_t mExpired;
+        uint32_t mLatencies[kLatencySamples];   // ms, ring of the most recent completions
+        uint64_t mLatencyCount;
+    };
+
+    /*
+     * Control points that currently read the playback position.
+     *
+     * GetPositionInfo is answered from the native position model, which only drifts from the
+     * player between two OnStateChanged calls. The Java side re-anchors it periodically, but only
+     * while somebody follows the position: a GetPositionInfo poll keeps that going for
+     * kPollLease ms, an AVTransport event subscription for as long as it is live. Leases are
+     * handed out to the Java side in advance, a new one only once less than half of the last
+     * one is left, so a controller polling every second costs one upcall every few seconds.
+     */
+    class Followers
+    {
+    public:
+        Followers();
+        int32_t poll(int64_t now);
+        int32_t subscribe(const NPT_String& sid, int32_t seconds, int64_t now);
+        void unsubscribe(const NPT_String& sid);
+        int32_t refresh(int64_t now);
+        void dump(char* buffer, size_t size);
+
+        static const int32_t kPollLease         = 10000;  // ms
+        static const int32_t kSubscriptionLease = 60000;  // ms, renewed while the subscription lives
+
+    private:
+        enum
+        {
+            kCapacity = 16,
+        };
+
+        int32_t handOut_l(int64_t until, int64_t now);
+
+        Mutex      mLock;
+        NPT_String mSids[kCapacity];
+        int64_t    mExpiries[kCapacity];   // ms, CLOCK_MONOTONIC, 0 for a free slot
+        int64_t    mHandedOut;             // ms, end of the last lease given to the Java side
+        uint64_t   mPolls;
+        uint64_t   mLeases;
+    };
+
     class Looper : public Thread
     {
     public:
@@ -109,9 +394,9 @@ private:
         MediaRenderer* mMediaRender;
     };
 
-    class Message : public KeyedData
+    // Command types and parameter slots of the control path, carried by pooled eevix::Command records.
+    struct Message
     {
-    public:
         enum Type
         {
             kSetAVTransportURI,
@@ -119,67 +404,119 @@ private:
             kStart,
             kPause,
             kSeek,
+            kSetNextAVTransportURI,
+            kNext,
             kOnStateChanged,
+            kOnTrackChanged,
+            kFollowPosition,
+            kQuit,
+            kTypeCount,
         };
-        enum ParameterKeys
+        enum Int32Slots
         {
-            kUrl,
-            kReply,
-            kState,
-            kSeekTarget,
+            kState      = 0,
+            kPosition   = 1,
+            kDuration   = 2,
+            kSeekTarget = 0,
+            kToken      = 0,
+            kLease      = 0,
         };
-        explicit Message(Type type):
-            mType(type)
-        {
-            sem_init(&mSemaphore, true, 0) ;
-        }
-        ~Message()
-        {
-            sem_destroy(&mSemaphore);
-        }
-        inline Type type()
-        {
-            return mType;
-        }
-        void waitReply()
-        {
-            sem_wait(&mSemaphore);
-        }
-        void postReply()
+        enum Int64Slots
         {
-            sem_post(&mSemaphore);
-        }
-    private:
-        Message();
-        Message(const Message&);
-        Message& operator=(const Message&);
-        Type mType;
-        sem_t mSemaphore;
+            kStartTime   = 0,
+            kEnqueueTime = 1,   // ns, set by post()
+        };
     };
 
+    // How long an HTTP worker waits for the Java side before answering SetAVTransportURI.
+    static const uint32_t kActionReplyDeadline = 500; // ms
+
+    typedef std::vector<Command*> Batch;
+
     bool threadLoop();
-    void onMessage(JNIEnv* env, std::shared_ptr<Message>& message);
-    void update();
-    bool isPlaying();
-    uint32_t getCurrentPosition();
-    uint32_t getDuration();
+    void coalesce(Batch& batch);
+    void supersede(Batch& batch, size_t from, size_t to, uint32_t types, std::atomic<uint64_t>& counter);
+    void onMessage(JNIEnv* env, Command* message);
+    bool post(Command* message);
+    PLT_Service* avTransport();
+    void updatePosition(StateBatch& batch);
+    void updateDuration(StateBatch& batch, int duration);
+    int64_t timeOfByte(uint64_t offset);
+    void followPosition(int32_t lease);
+    void dropVideoSinks();
 
 private:
-    NPT_Reference<PLT_Service> mAVTransportService;
+    jobject                    mPeer;           // global ref to the RendererInstance the looper calls into
+    const bool                 mVideo;          // has a surface to render video into
+    std::atomic<PLT_Service*>  mAVTransport;    // resolved on first use, services live as long as the device
+    Mutex                      mStateLock;      // one batch committed at a time
+    std::atomic<uint64_t>      mStateBatches;   // committed batches that changed something
+    std::atomic<uint64_t>      mStateChanged;   // variables written
+    std::atomic<uint64_t>      mStateSkipped;   // variables staged with the value they already had
     Thread*                    mThread;
-    Queue<std::shared_ptr<Message> > mMessageQueue;
+    std::atomic<bool>          mQuitting;       // set by quit(), nothing is posted from then on
+    CommandPool                mCommandPool;
+    Queue<Command*>            mMessageQueue;
+    Batch                      mBatch;
+    std::atomic<uint64_t>      mMergedCommands;
+    std::atomic<uint64_t>      mDroppedCommands;
+    PendingActions             mPendingActions;
+    Followers                  mFollowers;
+    Histogram                  mActionTime;     // us, SOAP action handling on the HTTP worker
+    Histogram                  mQueueDwell;     // us, from post() until the looper dispatches
+    std::atomic<uint64_t>      mMessageCounts[Message::kTypeCount];
+    std::atomic<uint64_t>      mTimeSeeks;      // REL_TIME and ABS_TIME
+    std::atomic<uint64_t>      mByteSeeks;      // X_DLNA_REL_BYTE
+    std::atomic<uint64_t>      mRejectedSeeks;  // unsupported mode or malformed target
+    std::atomic<uint64_t>      mTrackSize;      // bytes, res@size of the current item, 0 if unknown
     int mPlayerState;
+    int mTrackDuration;      // ms, last duration published to CurrentTrackDuration
+
+    // Position model fed by OnStateChanged, RelativeTimePosition is derived from it on demand.
+    Mutex    mPositionLock;
+    int      mPositionState;
+    uint32_t mBasePosition;   // ms
+    int64_t  mBaseTime;       // ms, CLOCK_MONOTONIC
+    uint32_t mDuration;       // ms
 };
 
-MediaRenderer::MediaRenderer(const char*    friendlyName,
+MediaRenderer::MediaRenderer(JNIEnv*        env,
+                             jobject        peer,
+                             const char*    friendlyName,
+                             bool           video,
                              bool           showIP,
                              const char*    uuid,
                              unsigned int   port,
                              bool           portRebind)
      :PLT_MediaRenderer(friendlyName, showIP, uuid, port, portRebind),
-      mPlayerState(sPlayerState.idle)
+      mPeer(env->NewGlobalRef(peer)),
+      mVideo(video),
+      mAVTransport(NULL),
+      mStateBatches(0),
+      mStateChanged(0),
+      mStateSkipped(0),
+      mQuitting(false),
+      mMergedCommands(0),
+      mDroppedCommands(0),
+      mTimeSeeks(0),
+      mByteSeeks(0),
+      mRejectedSeeks(0),
+      mTrackSize(0),
+      mPlayerState(sPlayerState.idle),
+      mTrackDuration(-1),
+      mPositionState(sPlayerState.idle),
+      mBasePosition(0),
+      mBaseTime(0),
+      mDuration(0)
 {
-    LOGD("friendlyName:%s, showIP:%d, uuid:%s, port:%u, portRebind:%d", friendlyName, showIP, uuid, port, portRebind);
+    LOGD("friendlyName:%s, video:%d, showIP:%d, uuid:%s, port:%u, portRebind:%d", friendlyName, video, showIP, uuid, port,
+         portRebind);
+    FATAL_IF(mPeer == NULL);
+    for (int i = 0; i < Message::kTypeCount; i++)
+    {
+        mMessageCounts[i] = 0;
+    }
+    mBatch.reserve(mMessageQueue.capacity());
     mThread = new Looper(this);
     mThread->run("MediaRenderThread");
 }
@@ -187,207 +524,510 @@ MediaRenderer::MediaRenderer(const char*    friendlyName,
 MediaRenderer::~MediaRenderer()
 {
     LOGD();
-    mThread->requestExitAndWait();
+    quit();
     delete mThread;
+
+    // nativeDestroy stopped the looper, the last reference is dropped by it or by a call on
+    // another thread that outlived it, an HTTP worker for one, attached here then
+    JNIEnv* env = getJNIEnv();
+    if (env != NULL)
+    {
+        env->DeleteGlobalRef(mPeer);
+    }
+}
+
+/*
+ * Stops the looper and waits until it has returned from its last upcall, so none is in progress
+ * or will start. Must not be called on the looper, which cannot wait for itself.
+ */
+void MediaRenderer::quit()
+{
+    if (!mQuitting.exchange(true))
+    {
+        mThread->requestExit();
+        mMessageQueue.push(mCommandPool.obtain(Message::kQuit));
+    }
+    mThread->requestExitAndWait();
 }
 
-void MediaRenderer::OnStateChanged(int state)
+void MediaRenderer::OnStateChanged(int state, int position, int duration)
 {
-    std::shared_ptr<Message> message = std::make_shared<Message>(Message::kOnStateChanged);
+    {
+        AutoMutex lock(mPositionLock);
+        mPositionState = state;
+        mBasePosition = position > 0 ? position : 0;
+        mBaseTime = uptimeMillis();
+        mDuration = duration > 0 ? duration : 0;
+    }
+
+    Command* message = mCommandPool.obtain(Message::kOnStateChanged);
     message->setInt32(Message::kState, state);
-    mMessageQueue.push(message);
+    message->setInt32(Message::kPosition, position);
+    message->setInt32(Message::kDuration, duration);
+    post(message);
+}
+
+void MediaRenderer::OnTrackChanged(const char* url)
+{
+    Command* message = mCommandPool.obtain(Message::kOnTrackChanged);
+    message->setString(url, strlen(url));
+    post(message);
+}
+
+NPT_Result MediaRenderer::SetupServices()
+{
+    NPT_CHECK(PLT_MediaRenderer::SetupServices());
+
+    // the stock SCPD only offers REL_TIME and TRACK_NR
+    PLT_Service* service = avTransport();
+    PLT_StateVariable* seekMode = service != NULL ? service->FindStateVariable("A_ARG_TYPE_SeekMode") : NULL;
+    if (seekMode != NULL)
+    {
+        AllowedValues::add(seekMode, MediaTime::unitName(MediaTime::kAbsTime));
+        AllowedValues::add(seekMode, MediaTime::unitName(MediaTime::kRelByte));
+    }
+    if (!mVideo)
+    {
+        dropVideoSinks();
+    }
+    return NPT_SUCCESS;
+}
+
+/*
+ * Leaves only the audio formats in SinkProtocolInfo, so control points do not offer video or
+ * images to a renderer that has no surface to show them on.
+ */
+void MediaRenderer::dropVideoSinks()
+{
+    PLT_Service* service = NULL;
+    NPT_String sinks;
+    if (NPT_FAILED(FindServiceByType("urn:schemas-upnp-org:service:ConnectionManager:1", service)) ||
+        NPT_FAILED(service->GetStateVariableValue("SinkProtocolInfo", sinks)))
+    {
+        LOGE("no SinkProtocolInfo");
+        return;
+    }
+
+    NPT_List<NPT_String> kept;
+    NPT_List<NPT_String> entries = sinks.Split(",");
+    for (NPT_List<NPT_String>::Iterator entry = entries.GetFirstItem(); entry; ++entry)
+    {
+        // protocol:network:contentFormat:additionalInfo
+        NPT_List<NPT_String> fields = entry->Split(":");
+        NPT_List<NPT_String>::Iterator contentFormat = fields.GetItem(2);
+        if (contentFormat && contentFormat->StartsWith("audio/"))
+        {
+            kept.Add(*entry);
+        }
+    }
+    LOGD("audio only, %u of %u sink formats kept", kept.GetItemCount(), entries.GetItemCount());
+    service->SetStateVariable("SinkProtocolInfo", NPT_String::Join(kept, ","));
+}
+
+NPT_Result MediaRenderer::OnAction(PLT_ActionReference& action, const PLT_HttpRequestContext& context)
+{
+    int64_t start = uptimeNanos();
+    NPT_Result result = dispatchAction(action, context);
+    mActionTime.record((uptimeNanos() - start) / 1000);
+    return result;
+}
+
+NPT_Result MediaRenderer::dispatchAction(PLT_ActionReference& action, const PLT_HttpRequestContext& context)
+{
+    const NPT_String& name = action->GetActionDesc().GetName();
+    if (name.Compare("GetPositionInfo") == 0)
+    {
+        followPosition(mFollowers.poll(uptimeMillis()));
+        StateBatch batch(this);
+        updatePosition(batch);
+    }
+    else if (name.Compare("SetNextAVTransportURI") == 0)
+    {
+        // in our SCPD, but PLT_MediaRenderer has no delegate for it
+        return OnSetNextAVTransportURI(action);
+    }
+
+    return PLT_MediaRenderer::OnAction(action, context);
 }
 
 NPT_Result MediaRenderer::OnNext(PLT_ActionReference& action)
 {
+    LOGV("action:%s, counter:%d", action->GetActionDesc().GetName().GetChars(), action.GetCounter());
+    post(mCommandPool.obtain(Message::kNext));
     return NPT_SUCCESS;
 }
 
 NPT_Result MediaRenderer::OnPause(PLT_ActionReference& action)
 {
-    LOGD("action:%s, counter:%d", action->GetActionDesc().GetName().GetChars(), action.GetCounter());
-    mMessageQueue.push(std::make_shared<Message>(Message::kPause));
+    LOGV("action:%s, counter:%d", action->GetActionDesc().GetName().GetChars(), action.GetCounter());
+    post(mCommandPool.obtain(Message::kPause));
     return NPT_SUCCESS;
 }
 
 NPT_Result MediaRenderer::OnPlay(PLT_ActionReference& action)
 {
-    LOGD("action:%s, counter:%d", action->GetActionDesc().GetName().GetChars(), action.GetCounter());
-    mMessageQueue.push(std::make_shared<Message>(Message::kStart));
+    LOGV("action:%s, counter:%d", action->GetActionDesc().GetName().GetChars(), action.GetCounter());
+    post(mCommandPool.obtain(Message::kStart));
     return NPT_SUCCESS;
 }
 
 NPT_Result MediaRenderer::OnPrevious(PLT_ActionReference& action)
 {
-    LOGD();
+    LOGV();
+    // only the current and next item are known, restart the current one
+    Command* message = mCommandPool.obtain(Message::kSeek);
+    message->setInt32(Message::kSeekTarget, 0);
+    post(message);
     return NPT_SUCCESS;
 }
 
 NPT_Result MediaRenderer::OnSeek(PLT_ActionReference& action)
 {
-    LOGD("OnSeek");
     NPT_String unit;
     NPT_String target;
     action->GetArgumentValue("Unit", unit);
     action->GetArgumentValue("Target", target);
-    LOGD("unit:%s, target:%s", unit.GetChars(), target.GetChars());
-    std::shared_ptr<Message> message = std::make_shared<Message>(Message::kSeek);
-    uint32_t hour = 0;
-    uint32_t minute = 0;
-    uint32_t second = 0;
-    sscanf(target.GetChars(), "%u:%u:%u", &hour, &minute, &second);
-    message->setInt32(Message::kSeekTarget, hour * 60 * 60 * 1000 + minute * 60 * 1000 + second * 1000);
-    mMessageQueue.push(message);
+    LOGV("unit:%s, target:%s", unit.GetChars(), target.GetChars());
+
+    MediaTime::Unit seekUnit = MediaTime::parseUnit(unit.GetChars(), unit.GetLength());
+    int64_t value = 0;
+    int64_t millis = -1;
+    if (seekUnit != MediaTime::kRelTime && seekUnit != MediaTime::kAbsTime &&
+        seekUnit != MediaTime::kRelByte && seekUnit != MediaTime::kTrackNr)
+    {
+        mRejectedSeeks++;
+        action->SetError(710, "Seek mode not supported");
+        return NPT_FAILURE;
+    }
+    if (!MediaTime::parseTarget(seekUnit, target.GetChars(), target.GetLength(), &value))
+    {
+        mRejectedSeeks++;
+        action->SetError(711, "Illegal seek target");
+        return NPT_FAILURE;
+    }
+
+    if (MediaTime::isTime(seekUnit))
+    {
+        // one track per transport, both times count from its start
+        mTimeSeeks++;
+        millis = value;
+    }
+    else if (seekUnit == MediaTime::kRelByte)
+    {
+        // the player seeks by time, which reads the HTTP source from about that offset
+        millis = timeOfByte(value);
+        if (millis < 0)
+        {
+            mRejectedSeeks++;
+            action->SetError(710, "Seek mode not supported");
+            return NPT_FAILURE;
+        }
+        mByteSeeks++;
+    }
+    else if (value == 1)
+    {
+        // the only track, from its start
+        millis = 0;
+    }
+    else
+    {
+        mRejectedSeeks++;
+        action->SetError(711, "Illegal seek target");
+        return NPT_FAILURE;
+    }
+
+    Command* message = mCommandPool.obtain(Message::kSeek);
+    message->setInt32(Message::kSeekTarget, (int32_t)std::min<int64_t>(std::max<int64_t>(millis, 0), INT32_MAX));
+    post(message);
     return NPT_SUCCESS;
 }
 
 NPT_Result MediaRenderer::OnStop(PLT_ActionReference& action)
 {
-    LOGD("action:%s, counter:%d", action->GetActionDesc().GetName().GetChars(), action.GetCounter());
-    mMessageQueue.push(std::make_shared<Message>(Message::kStop));
+    LOGV("action:%s, counter:%d", action->GetActionDesc().GetName().GetChars(), action.GetCounter());
+    post(mCommandPool.obtain(Message::kStop));
     return NPT_SUCCESS;
 }
 
 NPT_Result MediaRenderer::OnSetAVTransportURI(PLT_ActionReference& action)
 {
-    LOGD("action:%s, counter:%d", action->GetActionDesc().GetName().GetChars(), action.GetCounter());
+    LOGV("action:%s, counter:%d", action->GetActionDesc().GetName().GetChars(), action.GetCounter());
     PLT_MediaRenderer::OnSetAVTransportURI(action);
-    std::shared_ptr<Message> message = std::make_shared<Message>(Message::kSetAVTransportURI);
-    LOGD("type:%d", message->type());
     NPT_String uri;
-    bool ret = false;
     NPT_CHECK_WARNING(action->GetArgumentValue("CurrentURI", uri));
-    message->setString(Message::kUrl, uri.GetChars(), uri.GetLength());
-    mMessageQueue.push(message);
-    message->waitReply();
-    message->getBool(Message::kReply, ret);
-    LOGD("ret:%d", ret);
+    Command* message = mCommandPool.obtain(Message::kSetAVTransportURI);
+    message->setString(uri.GetChars(), uri.GetLength());
+    message->setInt64(Message::kStartTime, uptimeMillis());
+    message->retain(); // for the reply
+    mPendingActions.begin();
+    if (!post(message))
+    {
+        // the renderer is going away, nothing will complete the action
+        mPendingActions.cancel();
+        message->release();
+        return NPT_FAILURE;
+    }
+
+    // A cold start of PlaybackActivity can take seconds, do not hold the HTTP worker for it:
+    // past the deadline the action is accepted as TRANSITIONING and completes in the
+    // background, a late failure is reported through TransportStatus.
+    bool replied = message->waitReply(kActionReplyDeadline);
+    bool ret = replied ? message->getBool() : true;
+    message->release();
+    LOGV("ret:%d, replied:%d", ret, replied);
     if (ret)
     {
-        PLT_Service* serviceAVT;
-        NPT_CHECK_WARNING(FindServiceByType("urn:schemas-upnp-org:service:AVTransport:1", serviceAVT));
+        StateBatch batch(this);
+        if (!replied)
+        {
+            mPendingActions.expire();
+            batch.set("TransportState", "TRANSITIONING");
+        }
+
         NPT_String metaData;
         NPT_CHECK_WARNING(action->GetArgumentValue("CurrentURIMetaData", metaData));
+        mTrackSize.store(resourceSize(metaData.GetChars()));
 
-        serviceAVT->SetStateVariable("NumberOfTracks", "1");
-        serviceAVT->SetStateVariable("AVTransportURI", uri);
-        serviceAVT->SetStateVariable("AVTransportURIMetadata", metaData);
+        batch.set("NumberOfTracks", "1");
+        batch.set("AVTransportURI", uri);
+        batch.set("AVTransportURIMetadata", metaData);
 
-        serviceAVT->SetStateVariable("CurrentTrack", "1");
-        serviceAVT->SetStateVariable("CurrentTrackURI", uri);
-        serviceAVT->SetStateVariable("CurrentTrackMetadata", metaData);
+        batch.set("CurrentTrack", "1");
+        batch.set("CurrentTrackURI", uri);
+        batch.set("CurrentTrackMetadata", metaData);
 
-        serviceAVT->SetStateVariable("AbsoluteTimePosition", "NOT_IMPLEMENTED");
+        batch.set("AbsoluteTimePosition", "NOT_IMPLEMENTED");
     }
 
     return ret ? NPT_SUCCESS : NPT_FAILURE;
 }
 
+NPT_Result MediaRenderer::OnSetNextAVTransportURI(PLT_ActionReference& action)
+{
+    LOGV("action:%s, counter:%d", action->GetActionDesc().GetName().GetChars(), action.GetCounter());
+    NPT_String uri;
+    NPT_String metaData;
+    NPT_CHECK_WARNING(action->GetArgumentValue("NextURI", uri));
+    action->GetArgumentValue("NextURIMetaData", metaData);
+
+    Command* message = mCommandPool.obtain(Message::kSetNextAVTransportURI);
+    message->setString(uri.GetChars(), uri.GetLength());
+    post(message);
+
+    StateBatch batch(this);
+    batch.set("NextAVTransportURI", uri);
+    batch.set("NextAVTransportURIMetaData", metaData);
+    return NPT_SUCCESS;
+}
+
 NPT_Result MediaRenderer::OnSetPlayMode(PLT_ActionReference& action)
 {
-    LOGD();
+    LOGV();
     return NPT_SUCCESS;
 }
 
 // RenderingControl
 NPT_Result MediaRenderer::OnSetVolume(PLT_ActionReference& action)
 {
-    LOGD();
+    LOGV();
     return NPT_SUCCESS;
 }
 
 NPT_Result MediaRenderer::OnSetVolumeDB(PLT_ActionReference &action)
 {
-    LOGD();
+    LOGV();
     return NPT_SUCCESS;
 }
 
 NPT_Result MediaRenderer::OnGetVolumeDBRange(PLT_ActionReference &action)
 {
-    LOGD();
+    LOGV();
     return NPT_SUCCESS;
 }
 
 NPT_Result MediaRenderer::OnSetMute(PLT_ActionReference& action)
 {
-    LOGD();
+    LOGV();
     return NPT_SUCCESS;
 }
 
 bool MediaRenderer::threadLoop()
 {
-    LOGD();
+    LOGV();
     FATAL_IF(sJavaVM == NULL);
-    JNIEnv* jniEnv = NULL;
-
-    sJavaVM->AttachCurrentThread(&jniEnv, NULL);
+    JNIEnv* jniEnv = getJNIEnv();
+    FATAL_IF(jniEnv == NULL);
 
     while (!mThread->exitPending())
     {
-        std::shared_ptr<Message> message;
-        if (mMessageQueue.pop(message, 500))
+        Command* message = NULL;
+        if (!mMessageQueue.pop(message))
         {
-            LOGD("message:%d", message->type());
-            onMessage(jniEnv, message);
+            continue;
+        }
+
+        // everything that piled up while the last command ran is coalesced as one batch
+        mBatch.push_back(message);
+        while (mBatch.size() < mBatch.capacity() && mMessageQueue.tryPop(message))
+        {
+            mBatch.push_back(message);
+        }
+
+        coalesce(mBatch);
+
+        for (size_t i = 0; i < mBatch.size(); i++)
+        {
+            if (mBatch[i])
+            {
+                LOGV("message:%d", mBatch[i]->type());
+                mQueueDwell.record((uptimeNanos() - mBatch[i]->getInt64(Message::kEnqueueTime)) / 1000);
+                mMessageCounts[mBatch[i]->type()]++;
+                onMessage(jniEnv, mBatch[i]);
+                mBatch[i]->release();
+                if (jniEnv->ExceptionCheck())
+                {
+                    jniEnv->ExceptionDescribe();
+                    jniEnv->ExceptionClear();
+                }
+            }
         }
-        update();
-    }
 
-    if (jniEnv->ExceptionOccurred()) {
-        jniEnv->ExceptionClear();
+        mBatch.clear();
     }
 
-    sJavaVM->DetachCurrentThread();
+    // detached by the TLS destructor when the thread exits
     return false;
 }
 
-void MediaRenderer::onMessage(JNIEnv* jniEnv, std::shared_ptr<Message>& message)
+/*
+ * A newer seek or next URI replaces a pending one, play/pause collapse to the last of them, and
+ * a stop or a new transport URI drops every pending transport command queued before it.
+ */
+void MediaRenderer::coalesce(Batch& batch)
+{
+    const uint32_t playPause = (1 << Message::kStart) | (1 << Message::kPause);
+    const uint32_t transport = playPause | (1 << Message::kSeek) | (1 << Message::kStop) | (1 << Message::kNext);
+    size_t barrier = 0;
+
+    for (size_t i = 0; i < batch.size(); i++)
+    {
+        switch (batch[i]->type())
+        {
+            case Message::kSeek:
+            {
+                supersede(batch, barrier, i, 1 << Message::kSeek, mMergedCommands);
+                break;
+            }
+            case Message::kStart:
+            case Message::kPause:
+            {
+                supersede(batch, barrier, i, playPause, mMergedCommands);
+                break;
+            }
+            case Message::kSetNextAVTransportURI:
+            {
+                supersede(batch, 0, i, 1 << Message::kSetNextAVTransportURI, mMergedCommands);
+                break;
+            }
+            case Message::kStop:
+            case Message::kSetAVTransportURI:
+            {
+                supersede(batch, barrier, i, transport, mDroppedCommands);
+                barrier = i;
+                break;
+            }
+            default:
+            {
+                break;
+            }
+        }
+    }
+}
+
+void MediaRenderer::supersede(Batch& batch, size_t from, size_t to, uint32_t types, std::atomic<uint64_t>& counter)
+{
+    for (size_t i = from; i < to; i++)
+    {
+        if (batch[i] && (types & (1 << batch[i]->type())) != 0)
+        {
+            LOGV("superseded message:%d", batch[i]->type());
+            batch[i]->release();
+            batch[i] = NULL;
+            counter++;
+        }
+    }
+}
+
+void MediaRenderer::onMessage(JNIEnv* jniEnv, Command* message)
 {
     switch (message->type())
     {
         case Message::kSetAVTransportURI:
         {
-            LOGD("SetAVTransportURI");
-            std::string uri;
-            FATAL_IF(!message->getString(Message::kUrl, uri));
-            LOGD("%s", uri.c_str());
-            jboolean ret = jniEnv->CallBooleanMethod(sJMediaRender, sSetDataSource, jniEnv->NewStringUTF(uri.c_str()));
-            message->setBool(Message::kReply, ret);
-            message->postReply();
+            LOGV("SetAVTransportURI");
+            LOGV("%s", message->string());
+            // completed by nativeCompleteAction, possibly from inside the call below
+            int32_t token = mPendingActions.add(message);
+            jstring url = jniEnv->NewStringUTF(message->string());
+            jniEnv->CallVoidMethod(mPeer, sSetDataSource, url, token);
+            jniEnv->DeleteLocalRef(url);
+            break;
+        }
+        case Message::kSetNextAVTransportURI:
+        {
+            LOGV("kSetNextAVTransportURI, %s", message->string());
+            jstring url = jniEnv->NewStringUTF(message->string());
+            jniEnv->CallVoidMethod(mPeer, sSetNextDataSource, url);
+            jniEnv->DeleteLocalRef(url);
+            break;
+        }
+        case Message::kNext:
+        {
+            LOGV("kNext");
+            jniEnv->CallVoidMethod(mPeer, sNext);
             break;
         }
         case Message::kOnStateChanged:
         {
-            LOGD("kOnStateChanged");
-            int state = 0;
-            FATAL_IF(!message->getInt32(Message::kState, state));
-            OnStateChanged_l(state);
+            LOGV("kOnStateChanged");
+            OnStateChanged_l(jniEnv, message->getInt32(Message::kState), message->getInt32(Message::kDuration));
+            break;
+        }
+        case Message::kOnTrackChanged:
+        {
+            LOGV("kOnTrackChanged");
+            OnTrackChanged_l(message->string());
+            break;
+        }
+        case Message::kFollowPosition:
+        {
+            LOGV("kFollowPosition");
+            jniEnv->CallVoidMethod(mPeer, sFollowPosition, message->getInt32(Message::kLease));
             break;
         }
         case Message::kStop:
         {
-            LOGD("kStop");
-            jniEnv->CallVoidMethod(sJMediaRender, sStop);
+            LOGV("kStop");
+            jniEnv->CallVoidMethod(mPeer, sStop);
             break;
         }
         case Message::kStart:
         {
-            LOGD("kStart");
-            jniEnv->CallVoidMethod(sJMediaRender, sStart);
+            LOGV("kStart");
+            jniEnv->CallVoidMethod(mPeer, sStart);
             break;
         }
         case Message::kPause:
         {
-            LOGD("kPause");
-            jniEnv->CallVoidMethod(sJMediaRender, sPause);
+            LOGV("kPause");
+            jniEnv->CallVoidMethod(mPeer, sPause);
             break;
         }
         case Message::kSeek:
         {
-            int32_t target = 0;
-            message->getInt32(Message::kSeekTarget, target);
-            LOGD("kSeek, target:%d", target);
-            jniEnv->CallVoidMethod(sJMediaRender, sSeek, target);
+            int32_t target = message->getInt32(Message::kSeekTarget);
+            LOGV("kSeek, target:%d", target);
+            jniEnv->CallVoidMethod(mPeer, sSeek, target);
             break;
         }
         default:
@@ -397,92 +1037,609 @@ void MediaRenderer::onMessage(JNIEnv* jniEnv, std::shared_ptr<Message>& message)
     }
 }
 
-void MediaRenderer::update()
+void MediaRenderer::OnActionCompleted(int32_t token, bool success)
 {
-    if (isPlaying())
+    LOGV("token:%d, success:%d", token, success);
+    if (!mPendingActions.complete(token, success) || success)
     {
-        char * position = formatTime(getCurrentPosition());
-        PLT_Service* serviceAVT = NULL;
-        FindServiceByType("urn:schemas-upnp-org:service:AVTransport:1", serviceAVT);
-        // GetPositionInfo
-        FATAL_IF(serviceAVT == NULL);
-        serviceAVT->SetStateVariable("RelativeTimePosition", position);
-        safeFree(position);
+        return;
     }
-}
-
-bool MediaRenderer::isPlaying()
-{
-    JNIEnv* jniEnv = NULL;
-    sJavaVM->AttachCurrentThread(&jniEnv, NULL);
-    return jniEnv->CallBooleanMethod(sJMediaRender, sIsPlaying);
-}
 
-uint32_t MediaRenderer::getCurrentPosition()
-{
-    JNIEnv* jniEnv = NULL;
-    sJavaVM->AttachCurrentThread(&jniEnv, NULL);
-    return jniEnv->CallIntMethod(sJMediaRender, sGetCurrentPosition);
+    // the SOAP response may already have gone out as accepted
+    StateBatch batch(this);
+    batch.set("TransportStatus", "ERROR_OCCURRED");
 }
 
-uint32_t MediaRenderer::getDuration()
+// False if the looper is quitting and message was dropped, it is released either way.
+bool MediaRenderer::post(Command* message)
 {
-    JNIEnv* jniEnv = NULL;
-    sJavaVM->AttachCurrentThread(&jniEnv, NULL);
-    return jniEnv->CallIntMethod(sJMediaRender, sGetDuration);
+    if (mQuitting)
+    {
+        // nothing takes it off the queue any more, and a full one would block
+        message->release();
+        return false;
+    }
+    message->setInt64(Message::kEnqueueTime, uptimeNanos());
+    mMessageQueue.push(message);
+    return true;
 }
 
-void MediaRenderer::OnStateChanged_l(int state)
+void MediaRenderer::dump(char* buffer, size_t size)
 {
-    LOGD("changed to state:%d", state);
-    PLT_Service* serviceAVT;
-    FindServiceByType("urn:schemas-upnp-org:service:AVTransport:1", serviceAVT);
-    if (mPlayerState == state) {
-        return;
-    }
-
-    if (state == sPlayerState.idle) {
-        serviceAVT->SetStateVariable("TransportState", "NO_MEDIA_PRESENT");
-        serviceAVT->SetStateVariable("NumberOfTracks", "0");
-        serviceAVT->SetStateVariable("CurrentMediaDuration", "00:00:00");
-        serviceAVT->SetStateVariable("AVTransportURI", "");
-        serviceAVT->SetStateVariable("AVTransportURIMetadata", "");
-        serviceAVT->SetStateVariable("CurrentTrack", "0");
-        serviceAVT->SetStateVariable("CurrentTrackDuration", "00:00:00");
-        serviceAVT->SetStateVariable("CurrentTrackMetadata", "");
-        serviceAVT->SetStateVariable("CurrentTrackURI", "");
-        serviceAVT->SetStateVariable("RelativeTimePosition", "00:00:00");
-        serviceAVT->SetStateVariable("AbsoluteTimePosition", "00:00:00");
-        serviceAVT->SetStateVariable("RelativeCounterPosition", "-1"); // means NOT_IMPLEMENTED
-        serviceAVT->SetStateVariable("AbsoluteCounterPosition", "-1"); // means NOT_IMPLEMENTED
-        serviceAVT->SetStateVariable("TransportState", "NO_MEDIA_PRESENT");
-        serviceAVT->SetStateVariable("TransportStatus", "OK");
-        serviceAVT->SetStateVariable("TransportPlaySpeed", "1");
-    } else if (state == sPlayerState.paused) {
-        serviceAVT->SetStateVariable("TransportState", "PAUSED_PLAYBACK");
-    } else if (state == sPlayerState.playing) {
-        char* duration = formatTime(getDuration());
-        LOGD("duration:%s", duration);
+    static const char* const kTypeNames[Message::kTypeCount] =
+    {
+        "SetAVTransportURI", "Stop", "Start", "Pause", "Seek", "SetNextAVTransportURI", "Next",
+        "OnStateChanged", "OnTrackChanged", "FollowPosition", "Quit",
+    };
 
-        // GetMediaInfo
-        serviceAVT->SetStateVariable("CurrentMediaDuration", duration);
+    size_t length = 0;
+    int written = snprintf(buffer, size, "  coalesced commands: merged:%llu, dropped:%llu\n",
+                           (unsigned long long)mMergedCommands.load(),
+                           (unsigned long long)mDroppedCommands.load());
+    length += written > 0 ? written : 0;
 
-        // GetPositionInfo
-        serviceAVT->SetStateVariable("CurrentTrackDuration", duration);
+    if (length < size)
+    {
+        length += snprintf(buffer + length, size - length, "  native.soapAction: ");
+    }
+    if (length < size)
+    {
+        length += mActionTime.format(buffer + length, size - length, "us");
+    }
+    if (length < size)
+    {
+        length += snprintf(buffer + length, size - length, "\n  native.queueDwell: ");
+    }
+    if (length < size)
+    {
+        length += mQueueDwell.format(buffer + length, size - length, "us");
+    }
+    if (length < size)
+    {
+        length += snprintf(buffer + length, size - length, "\n  native.messages:");
+    }
+    for (int i = 0; i < Message::kTypeCount && length < size; i++)
+    {
+        length += snprintf(buffer + length, size - length, " %s:%llu", kTypeNames[i],
+                           (unsigned long long)mMessageCounts[i].load());
+    }
+    if (length < size)
+    {
+        length += snprintf(buffer + length, size - length, "\n");
+    }
+    if (length < size)
+    {
+        length += snprintf(buffer + length, size - length,
+                           "  avt state batches:%llu, variables changed:%llu, unchanged skipped:%llu\n",
+                           (unsigned long long)mStateBatches.load(),
+                           (unsigned long long)mStateChanged.load(),
+                           (unsigned long long)mStateSkipped.load());
+    }
+    if (length < size)
+    {
+        length += snprintf(buffer + length, size - length, "  seeks: time:%llu, byte:%llu, rejected:%llu\n",
+                           (unsigned long long)mTimeSeeks.load(),
+                           (unsigned long long)mByteSeeks.load(),
+                           (unsigned long long)mRejectedSeeks.load());
+    }
+    if (length < size)
+    {
+        mFollowers.dump(buffer + length, size - length);
+        length += strlen(buffer + length);
+    }
+    if (length < size)
+    {
+        mPendingActions.dump(buffer + length, size - length);
+    }
+}
+
+PLT_Service* MediaRenderer::avTransport()
+{
+    PLT_Service* service = mAVTransport.load(std::memory_order_acquire);
+    if (service == NULL &&
+        NPT_SUCCEEDED(FindServiceByType("urn:schemas-upnp-org:service:AVTransport:1", service)))
+    {
+        mAVTransport.store(service, std::memory_order_release);
+    }
+    return service;
+}
+
+void MediaRenderer::updatePosition(StateBatch& batch)
+{
+    char position[MediaTime::kMaxLength];
+    MediaTime::formatTime(position, sizeof(position), getCurrentPosition(), false);
+    batch.set("RelativeTimePosition", position);
+}
 
-        serviceAVT->SetStateVariable("TransportState", "PLAYING");
-        serviceAVT->SetStateVariable("TransportStatus", "OK");
-        serviceAVT->SetStateVariable("TransportPlaySpeed", "1");
-        safeFree(duration);
+int64_t MediaRenderer::timeOfByte(uint64_t offset)
+{
+    uint64_t size = mTrackSize.load();
+    uint32_t duration = 0;
+    {
+        AutoMutex lock(mPositionLock);
+        duration = mDuration;
+    }
+    if (size == 0 || duration == 0)
+    {
+        return -1;
+    }
+
+    return offset >= size ? duration : (int64_t)((double)offset / size * duration);
+}
+
+uint32_t MediaRenderer::getCurrentPosition()
+{
+    AutoMutex lock(mPositionLock);
+    if (mPositionState != sPlayerState.playing)
+    {
+        return mBasePosition;
+    }
+
+    int64_t position = mBasePosition + (uptimeMillis() - mBaseTime);
+    if (mDuration > 0 && position > mDuration)
+    {
+        return mDuration;
+    }
+
+    return (uint32_t)position;
+}
+
+void MediaRenderer::OnStateChanged_l(JNIEnv* env, int state, int duration)
+{
+    LOGV("changed to state:%d", state);
+    // already on the looper, so hand the lease over directly: posting it would block on our
+    // own queue once it is full, with nobody left to drain it
+    int32_t lease = mFollowers.refresh(uptimeMillis());
+    if (lease > 0)
+    {
+        env->CallVoidMethod(mPeer, sFollowPosition, lease);
+    }
+    StateBatch batch(this);
+    if (mPlayerState == state) {
+        // position discontinuity only, e.g. seek complete, or a gapless switch to the next track
+        if (state == sPlayerState.playing && duration != mTrackDuration)
+        {
+            updateDuration(batch, duration);
+        }
+        updatePosition(batch);
+        return;
+    }
+
+    if (state == sPlayerState.idle) {
+        batch.set("TransportState", "NO_MEDIA_PRESENT");
+        batch.set("NumberOfTracks", "0");
+        batch.set("CurrentMediaDuration", "00:00:00");
+        batch.set("AVTransportURI", "");
+        batch.set("AVTransportURIMetadata", "");
+        batch.set("CurrentTrack", "0");
+        batch.set("CurrentTrackDuration", "00:00:00");
+        batch.set("CurrentTrackMetadata", "");
+        batch.set("CurrentTrackURI", "");
+        batch.set("RelativeTimePosition", "00:00:00");
+        batch.set("AbsoluteTimePosition", "00:00:00");
+        batch.set("RelativeCounterPosition", "-1"); // means NOT_IMPLEMENTED
+        batch.set("AbsoluteCounterPosition", "-1"); // means NOT_IMPLEMENTED
+        batch.set("TransportStatus", "OK");
+        batch.set("TransportPlaySpeed", "1");
+    } else if (state == sPlayerState.paused) {
+        batch.set("TransportState", "PAUSED_PLAYBACK");
+        updatePosition(batch);
+    } else if (state == sPlayerState.playing) {
+        updateDuration(batch, duration);
+        updatePosition(batch);
+
+        batch.set("TransportState", "PLAYING");
+        batch.set("TransportStatus", "OK");
+        batch.set("TransportPlaySpeed", "1");
     } else if (state == sPlayerState.preparing) {
-        serviceAVT->SetStateVariable("TransportState", "TRANSITIONING");
+        batch.set("TransportState", "TRANSITIONING");
     } else {
         FATAL_IF(!"error state");
     }
 
+    if (state == sPlayerState.idle) {
+        mTrackDuration = -1;
+        mTrackSize.store(0);
+    }
     mPlayerState = state;
 }
 
+void MediaRenderer::updateDuration(StateBatch& batch, int duration)
+{
+    char mediaDuration[MediaTime::kMaxLength];
+    MediaTime::formatTime(mediaDuration, sizeof(mediaDuration), duration > 0 ? duration : 0, false);
+    LOGV("duration:%s", mediaDuration);
+
+    // GetMediaInfo
+    batch.set("CurrentMediaDuration", mediaDuration);
+
+    // GetPositionInfo
+    batch.set("CurrentTrackDuration", mediaDuration);
+    mTrackDuration = duration;
+}
+
+void MediaRenderer::OnTrackChanged_l(const char* url)
+{
+    LOGD("url:%s", url);
+    PLT_Service* serviceAVT = avTransport();
+    if (serviceAVT == NULL)
+    {
+        return;
+    }
+
+    // the queued next item is current now
+    NPT_String metaData;
+    serviceAVT->GetStateVariableValue("NextAVTransportURIMetaData", metaData);
+    mTrackSize.store(resourceSize(metaData.GetChars()));
+
+    StateBatch batch(this);
+    batch.set("AVTransportURI", url);
+    batch.set("AVTransportURIMetaData", metaData);
+    batch.set("CurrentTrackURI", url);
+    batch.set("CurrentTrackMetaData", metaData);
+    batch.set("NextAVTransportURI", "");
+    batch.set("NextAVTransportURIMetaData", "");
+    batch.set("RelativeTimePosition", "00:00:00");
+}
+
+MediaRenderer::StateBatch::StateBatch(MediaRenderer* mediaRender)
+    :mMediaRender(mediaRender),
+     mCount(0)
+{
+}
+
+MediaRenderer::StateBatch::~StateBatch()
+{
+    commit();
+}
+
+void MediaRenderer::StateBatch::set(const char* name, const char* value)
+{
+    for (size_t i = 0; i < mCount; i++)
+    {
+        if (strcmp(mNames[i], name) == 0)
+        {
+            mValues[i] = value;
+            return;
+        }
+    }
+
+    if (mCount == kCapacity)
+    {
+        commit();
+    }
+    mNames[mCount] = name;
+    mValues[mCount] = value;
+    mCount++;
+}
+
+void MediaRenderer::StateBatch::commit()
+{
+    if (mCount == 0)
+    {
+        return;
+    }
+
+    PLT_Service* service = mMediaRender->avTransport();
+    if (service == NULL)
+    {
+        mCount = 0;
+        return;
+    }
+
+    AutoMutex lock(mMediaRender->mStateLock);
+    uint64_t changed = 0;
+    NPT_String current;
+    for (size_t i = 0; i < mCount; i++)
+    {
+        if (NPT_SUCCEEDED(service->GetStateVariableValue(mNames[i], current)) && current == mValues[i])
+        {
+            continue;
+        }
+        if (changed++ == 0)
+        {
+            service->PauseEventing(true);
+        }
+        service->SetStateVariable(mNames[i], mValues[i]);
+    }
+    if (changed > 0)
+    {
+        service->PauseEventing(false);
+        mMediaRender->mStateBatches++;
+        mMediaRender->mStateChanged += changed;
+    }
+    mMediaRender->mStateSkipped += mCount - changed;
+    mCount = 0;
+}
+
+MediaRenderer::PendingActions::PendingActions()
+    :mNextToken(1),
+     mInFlight(0),
+     mCompleted(0),
+     mFailed(0),
+     mExpired(0),
+     mLatencyCount(0)
+{
+    memset(mActions, 0, sizeof(mActions));
+    memset(mLatencies, 0, sizeof(mLatencies));
+}
+
+void MediaRenderer::PendingActions::begin()
+{
+    AutoMutex lock(mLock);
+    mInFlight++;
+}
+
+// An action begun but never handed to the looper.
+void MediaRenderer::PendingActions::cancel()
+{
+    AutoMutex lock(mLock);
+    mInFlight--;
+}
+
+void MediaRenderer::PendingActions::expire()
+{
+    AutoMutex lock(mLock);
+    mExpired++;
+}
+
+int32_t MediaRenderer::PendingActions::add(Command* message)
+{
+    message->retain();
+
+    Command* evicted = NULL;
+    int32_t token = 0;
+    {
+        AutoMutex lock(mLock);
+        token = mNextToken++;
+        if (mNextToken <= 0)
+        {
+            mNextToken = 1;
+        }
+
+        Command*& slot = mActions[token % kCapacity];
+        if (slot != NULL)
+        {
+            evicted = slot;
+            mInFlight--;
+            mFailed++;
+        }
+
+        message->setInt32(Message::kToken, token);
+        slot = message;
+    }
+
+    if (evicted != NULL)
+    {
+        LOGE("too many pending actions, failing token:%d", evicted->getInt32(Message::kToken));
+        evicted->setBool(false);
+        evicted->postReply();
+        evicted->release();
+    }
+
+    return token;
+}
+
+bool MediaRenderer::PendingActions::complete(int32_t token, bool success)
+{
+    Command* message = NULL;
+    {
+        AutoMutex lock(mLock);
+        Command*& slot = mActions[token % kCapacity];
+        if (slot == NULL || slot->getInt32(Message::kToken) != token)
+        {
+            LOGV("token:%d is no longer pending", token);
+            return false;
+        }
+
+        message = slot;
+        slot = NULL;
+        mInFlight--;
+        if (success)
+        {
+            mCompleted++;
+        }
+        else
+        {
+            mFailed++;
+        }
+
+        int64_t latency = uptimeMillis() - message->getInt64(Message::kStartTime);
+        mLatencies[mLatencyCount % kLatencySamples] = latency > 0 ? (uint32_t)latency : 0;
+        mLatencyCount++;
+    }
+
+    message->setBool(success);
+    message->postReply();
+    message->release();
+    return true;
+}
+
+void MediaRenderer::PendingActions::dump(char* buffer, size_t size)
+{
+    uint32_t sorted[kLatencySamples];
+    uint32_t count = 0;
+    uint32_t inFlight = 0;
+    uint64_t completed = 0;
+    uint64_t failed = 0;
+    uint64_t expired = 0;
+    {
+        AutoMutex lock(mLock);
+        count = mLatencyCount < kLatencySamples ? (uint32_t)mLatencyCount : (uint32_t)kLatencySamples;
+        memcpy(sorted, mLatencies, count * sizeof(sorted[0]));
+        inFlight = mInFlight;
+        completed = mCompleted;
+        failed = mFailed;
+        expired = mExpired;
+    }
+
+    std::sort(sorted, sorted + count);
+    snprintf(buffer, size,
+             "  SetAVTransportURI: in flight:%u, completed:%llu, failed:%llu, answered at deadline:%llu\n"
+             "  SetAVTransportURI latency(ms, last %u): p50:%u, p90:%u, p99:%u, max:%u\n",
+             inFlight, (unsigned long long)completed, (unsigned long long)failed, (unsigned long long)expired,
+             count, percentile(sorted, count, 50), percentile(sorted, count, 90), percentile(sorted, count, 99),
+             count > 0 ? sorted[count - 1] : 0);
+}
+
+uint32_t MediaRenderer::PendingActions::percentile(const uint32_t* sorted, uint32_t count, uint32_t percent)
+{
+    if (count == 0)
+    {
+        return 0;
+    }
+
+    uint32_t index = (count * percent + 99) / 100;
+    return sorted[index > 0 ? index - 1 : 0];
+}
+
+MediaRenderer::Followers::Followers()
+    :mHandedOut(0),
+     mPolls(0),
+     mLeases(0)
+{
+    memset(mExpiries, 0, sizeof(mExpiries));
+}
+
+int32_t MediaRenderer::Followers::poll(int64_t now)
+{
+    AutoMutex lock(mLock);
+    mPolls++;
+    return handOut_l(now + kPollLease, now);
+}
+
+int32_t MediaRenderer::Followers::subscribe(const NPT_String& sid, int32_t seconds, int64_t now)
+{
+    // an infinite or missing timeout is tracked for the longest lease Platinum grants
+    int64_t expiry = now + (seconds > 0 ? (int64_t)seconds * 1000 : 1800000);
+
+    AutoMutex lock(mLock);
+    int free = -1;
+    int i = 0;
+    for (; i < kCapacity; i++)
+    {
+        if (mExpiries[i] != 0 && mSids[i].Compare(sid, true) == 0)
+        {
+            break;
+        }
+        if (free < 0 && (mExpiries[i] == 0 || mExpiries[i] <= now))
+        {
+            free = i;
+        }
+    }
+    if (i == kCapacity)
+    {
+        if (free < 0)
+        {
+            // more subscribers than slots, the position is followed anyway
+            return handOut_l(now + kSubscriptionLease, now);
+        }
+        i = free;
+        mSids[i] = sid;
+    }
+    mExpiries[i] = expiry;
+    return handOut_l(now + kSubscriptionLease, now);
+}
+
+void MediaRenderer::Followers::unsubscribe(const NPT_String& sid)
+{
+    AutoMutex lock(mLock);
+    for (int i = 0; i < kCapacity; i++)
+    {
+        if (mExpiries[i] != 0 && mSids[i].Compare(sid, true) == 0)
+        {
+            mExpiries[i] = 0;
+            mSids[i] = "";
+        }
+    }
+}
+
+int32_t MediaRenderer::Followers::refresh(int64_t now)
+{
+    AutoMutex lock(mLock);
+    for (int i = 0; i < kCapacity; i++)
+    {
+        if (mExpiries[i] > now)
+        {
+            return handOut_l(now + kSubscriptionLease, now);
+        }
+    }
+    return 0;
+}
+
+int32_t MediaRenderer::Followers::handOut_l(int64_t until, int64_t now)
+{
+    if (mHandedOut - now >= (until - now) / 2)
+    {
+        return 0;
+    }
+    mHandedOut = until;
+    mLeases++;
+    return (int32_t)(until - now);
+}
+
+void MediaRenderer::Followers::dump(char* buffer, size_t size)
+{
+    int64_t now = uptimeMillis();
+    AutoMutex lock(mLock);
+    int subscribers = 0;
+    for (int i = 0; i < kCapacity; i++)
+    {
+        if (mExpiries[i] > now)
+        {
+            subscribers++;
+        }
+    }
+    snprintf(buffer, size, "  position followers: subscribers:%d, polls:%llu, leases:%llu, lease left:%lldms\n",
+             subscribers, (unsigned long long)mPolls, (unsigned long long)mLeases,
+             (long long)(mHandedOut > now ? mHandedOut - now : 0));
+}
+
+// off the looper only, see OnStateChanged_l
+void MediaRenderer::followPosition(int32_t lease)
+{
+    if (lease <= 0)
+    {
+        return;
+    }
+    Command* message = mCommandPool.obtain(Message::kFollowPosition);
+    message->setInt32(Message::kLease, lease);
+    post(message);
+}
+
+NPT_Result MediaRenderer::ProcessHttpSubscriberRequest(NPT_HttpRequest&              request,
+                                                       const NPT_HttpRequestContext& context,
+                                                       NPT_HttpResponse&             response)
+{
+    NPT_Result result = PLT_DeviceHost::ProcessHttpSubscriberRequest(request, context, response);
+    PLT_Service* service = avTransport();
+    if (NPT_FAILED(result) || response.GetStatusCode() != 200 || service == NULL ||
+        request.GetUrl().GetPath().Compare(service->GetEventSubURL(), true) != 0)
+    {
+        return result;
+    }
+
+    if (request.GetMethod().Compare("UNSUBSCRIBE") == 0)
+    {
+        const NPT_String* sid = PLT_UPnPMessageHelper::GetSID(request);
+        if (sid != NULL)
+        {
+            mFollowers.unsubscribe(*sid);
+        }
+        return result;
+    }
+
+    // SUBSCRIBE, new or renewal: the granted SID and timeout are in the response
+    const NPT_String* sid = PLT_UPnPMessageHelper::GetSID(response);
+    NPT_Int32 seconds = 0;
+    if (sid != NULL)
+    {
+        PLT_UPnPMessageHelper::GetTimeOut(response, seconds);
+        followPosition(mFollowers.subscribe(*sid, seconds, uptimeMillis()));
+    }
+    return result;
+}
+
 MediaRenderer::Looper::Looper(MediaRenderer* mediaRenderer)
     :mMediaRender(mediaRenderer)
 {
@@ -506,6 +1663,18 @@ bool MediaRenderer::Looper::threadLoop()
     return false;
 }
 
+/*
+ * The renderers hosted by the process, by the handle nativeCreate gave their Java peer. A call
+ * racing nativeDestroy finds nothing, one that got its reference first keeps the renderer alive.
+ */
+typedef HandleRegistry<PLT_DeviceHostReference, 8> RendererRegistry;
+static RendererRegistry sRenderers;
+
+static inline MediaRenderer* asMediaRenderer(PLT_DeviceHostReference& renderer)
+{
+    return (MediaRenderer*)renderer.AsPointer();
+}
+
 extern "C"
 {
 
@@ -517,9 +1686,15 @@ jint JNI_OnLoad(JavaVM* vm, void* reserved)
 
     const JNINativeMethod nativeMethods[] =
     {
-            {"nativeInit",     "(Ljava/lang/String;Ljava/lang/String;)V",           (void*)nativeInit},
-            {"nativeSetup",    "(Lcom/eevix/DLNAMediaRender;)V",  (void*)nativeSetup},
-            {"onStateChanged", "(I)V",                            (void*)onStateChanged},
+            {"nativeClassInit", "()V",                            (void*)nativeClassInit},
+            {"nativeCreate",   "(Lcom/eevix/RendererInstance;Ljava/lang/String;Ljava/lang/String;Z)J", (void*)nativeCreate},
+            {"nativeDestroy",  "(J)V",                            (void*)nativeDestroy},
+            {"nativeOnStateChanged", "(JIII)V",                   (void*)nativeOnStateChanged},
+            {"nativeOnTrackChanged", "(JLjava/lang/String;)V",    (void*)nativeOnTrackChanged},
+            {"nativeCompleteAction", "(JIZ)V",                    (void*)nativeCompleteAction},
+            {"nativeDump",     "(J)Ljava/lang/String;",           (void*)nativeDump},
+            {"nativeBenchmarkUpcalls", "(JI)Ljava/lang/String;",  (void*)nativeBenchmarkUpcalls},
+            {"nativeSetLogLevel", "(I)I",                         (void*)nativeSetLogLevel},
     };
 
     if (vm->GetEnv((void**) &env, JNI_VERSION_1_4) != JNI_OK)
@@ -528,10 +1703,12 @@ jint JNI_OnLoad(JavaVM* vm, void* reserved)
         return -1;
     }
 
-    jclass DLNAServiceClass = env->FindClass(sDLNAServiceClassName);
-    FATAL_IF(DLNAServiceClass == NULL);
+    jclass rendererClass = env->FindClass(sRendererClassName);
+    FATAL_IF(rendererClass == NULL);
 
-    if (0 > env->RegisterNatives(DLNAServiceClass, nativeMethods, sizeof(nativeMethods) / sizeof(nativeMethods[0])))
+    jint registered = env->RegisterNatives(rendererClass, nativeMethods, sizeof(nativeMethods) / sizeof(nativeMethods[0]));
+    env->DeleteLocalRef(rendererClass);
+    if (0 > registered)
     {
         return -1;
     }
@@ -539,86 +1716,274 @@ jint JNI_OnLoad(JavaVM* vm, void* reserved)
     return JNI_VERSION_1_4;
 }
 
-void nativeInit(JNIEnv* env, jclass DLNAMediaRenderClass, jstring friendlyName, jstring uuid)
+static void nativeClassInit(JNIEnv* env, jclass clazz)
 {
-    FATAL_IF(env == NULL || friendlyName == NULL || uuid == NULL);
     LOGD("env:%p", env);
-    LOGD("friendlyName:%s", env->GetStringUTFChars(friendlyName, NULL));
-    LOGD("uuid:%s", env->GetStringUTFChars(uuid, NULL));
+    /* configure NPT logging */
+#if 0 // enable log
+    NPT_String logConfig("plist:.level=ALL");
+    NPT_Result ret = NPT_GetSystemLogConfig(logConfig);
+    if (ret != NPT_SUCCESS)
+    {
+        LOGE("configure NPT log failed");
+    }
 
+    NPT_LogManager& loggerManager = NPT_LogManager::GetDefault();
+    loggerManager.Configure("plist:.level=ALL");
+    NPT_Logger* logger = NPT_LogManager::GetLogger("mylogger");
+    logger->AddHandler(&gLogHander);
+    LOGD("log level:%d IsEnabled:%d", logger->GetLevel(), loggerManager.IsEnabled());
+#endif
+
+    sSetDataSource = env->GetMethodID(clazz, "setDataSource", "(Ljava/lang/String;I)V");
+    FATAL_IF(sSetDataSource == NULL);
+
+    sSetNextDataSource = env->GetMethodID(clazz, "setNextDataSource", "(Ljava/lang/String;)V");
+    FATAL_IF(sSetNextDataSource == NULL);
+
+    sNext = env->GetMethodID(clazz, "next", "()V");
+    FATAL_IF(sNext == NULL);
+
+    sStop = env->GetMethodID(clazz, "stop", "()V");
+    FATAL_IF(sStop == NULL);
+
+    sStart = env->GetMethodID(clazz, "start", "()V");
+    FATAL_IF(sStart == NULL);
+
+    sPause = env->GetMethodID(clazz, "pause", "()V");
+    FATAL_IF(sPause == NULL);
+
+    sSeek = env->GetMethodID(clazz, "seek", "(I)V");
+    FATAL_IF(sSeek == NULL);
+
+    sGetPlaybackState = env->GetMethodID(clazz, "getPlaybackState", "([I)V");
+    FATAL_IF(sGetPlaybackState == NULL);
+    sFollowPosition = env->GetMethodID(clazz, "followPosition", "(I)V");
+    FATAL_IF(sFollowPosition == NULL);
+
+    jfieldID fieldId = env->GetStaticFieldID(clazz, "STATE_IDLE", "I");
+    sPlayerState.idle = env->GetStaticIntField(clazz, fieldId);
+
+    fieldId = env->GetStaticFieldID(clazz, "STATE_PREPARING", "I");
+    sPlayerState.preparing = env->GetStaticIntField(clazz, fieldId);
+
+    fieldId = env->GetStaticFieldID(clazz, "STATE_PAUSED", "I");
+    sPlayerState.paused = env->GetStaticIntField(clazz, fieldId);
+
+    fieldId = env->GetStaticFieldID(clazz, "STATE_PLAYING", "I");
+    sPlayerState.playing = env->GetStaticIntField(clazz, fieldId);
+}
+
+/*
+ * Creates a renderer announced as friendlyName/uuid that calls back into peer, and returns the
+ * handle the other natives take, 0 when the process hosts kCapacity renderers already. Every
+ * renderer has its own looper thread and device host; the SSDP stack is shared and started with
+ * the first of them. Without video the renderer only offers audio sink formats.
+ */
+static jlong nativeCreate(JNIEnv* env, jclass, jobject peer, jstring friendlyName, jstring uuid, jboolean video)
+{
+    FATAL_IF(env == NULL || peer == NULL || friendlyName == NULL || uuid == NULL);
+    FATAL_IF(sSetDataSource == NULL); // nativeClassInit first
+    ScopedUtfChars friendlyNameChars(env, friendlyName);
+    ScopedUtfChars uuidChars(env, uuid);
+    FATAL_IF(friendlyNameChars.c_str() == NULL || uuidChars.c_str() == NULL);
+    LOGD("friendlyName:%s, uuid:%s", friendlyNameChars.c_str(), uuidChars.c_str());
+
+    PLT_DeviceHostReference renderer(new MediaRenderer(env, peer, friendlyNameChars.c_str(), video, false, uuidChars.c_str()));
+    jlong handle = sRenderers.add(renderer);
+    if (handle == 0)
+    {
+        LOGE("can not host more than %d renderers", RendererRegistry::kCapacity);
+        return 0;
+    }
+
+    AutoMutex lock(sUPNPLock);
+    sUPNPService.AddDevice(renderer);
     if (!sUPNPService.IsRunning())
     {
-        /* configure NPT logging */
-#if 0 // enable log
-        NPT_String logConfig("plist:.level=ALL");
-        NPT_Result ret = NPT_GetSystemLogConfig(logConfig);
-        if (ret != NPT_SUCCESS)
+        sUPNPService.Start();
+        LOGD("UPNP is running");
+    }
+    return handle;
+}
+
+/*
+ * Takes the renderer off the network and stops its looper. It is deleted and its peer released
+ * once the last call holding it returns.
+ *
+ * The upcalls of the looper come back in through the functions below with a reference of their
+ * own. The one held here outlives all of them, so the last reference is never dropped on the
+ * looper, where the destructor could not wait for it to exit.
+ */
+static void nativeDestroy(JNIEnv* env, jclass, jlong handle)
+{
+    PLT_DeviceHostReference renderer = sRenderers.remove(handle);
+    LOGD("handle:%lld, found:%d", (long long)handle, !renderer.IsNull());
+    if (renderer.IsNull())
+    {
+        return;
+    }
+
+    {
+        AutoMutex lock(sUPNPLock);
+        sUPNPService.RemoveDevice(renderer);
+        if (sRenderers.size() == 0 && sUPNPService.IsRunning())
         {
-            LOGE("configure NPT log failed");
+            sUPNPService.Stop();
+            LOGD("UPNP is stopped");
         }
+    }
 
-        NPT_LogManager& loggerManager = NPT_LogManager::GetDefault();
-        loggerManager.Configure("plist:.level=ALL");
-        NPT_Logger* logger = NPT_LogManager::GetLogger("mylogger");
-        logger->AddHandler(&gLogHander);
-        LOGD("log level:%d IsEnabled:%d", logger->GetLevel(), loggerManager.IsEnabled());
-#endif
-        /* start media render */
-        FATAL_IF(!sMediaRender.IsNull());
-        sMediaRender = new MediaRenderer(env->GetStringUTFChars(friendlyName, NULL), false, env->GetStringUTFChars(uuid, NULL));
-        sUPNPService.AddDevice(sMediaRender);
-        sUPNPService.Start();
-        LOGD("UPNP is running");
+    asMediaRenderer(renderer)->quit();
+}
+
+static void nativeOnStateChanged(JNIEnv* env, jclass, jlong handle, jint state, jint position, jint duration)
+{
+    LOGV("handle:%lld, state:%d, position:%d, duration:%d", (long long)handle, state, position, duration);
+    PLT_DeviceHostReference renderer = sRenderers.get(handle);
+    if (!renderer.IsNull())
+    {
+        asMediaRenderer(renderer)->OnStateChanged(state, position, duration);
     }
 }
 
-static void nativeSetup(JNIEnv* env, jobject mediaRender)
+static void nativeOnTrackChanged(JNIEnv* env, jclass, jlong handle, jstring url)
 {
-    LOGD("env:%p", env);
-    sJMediaRender = env->NewGlobalRef(mediaRender);
-    FATAL_IF(sJMediaRender == NULL);
+    ScopedUtfChars chars(env, url);
+    PLT_DeviceHostReference renderer = sRenderers.get(handle);
+    if (chars.c_str() != NULL && !renderer.IsNull())
+    {
+        asMediaRenderer(renderer)->OnTrackChanged(chars.c_str());
+    }
+}
 
-    sSetDataSource = env->GetMethodID(env->GetObjectClass(mediaRender), "setDataSource", "(Ljava/lang/String;)Z");
-    FATAL_IF(sSetDataSource == NULL);
+static void nativeCompleteAction(JNIEnv* env, jclass, jlong handle, jint token, jboolean success)
+{
+    PLT_DeviceHostReference renderer = sRenderers.get(handle);
+    if (!renderer.IsNull())
+    {
+        asMediaRenderer(renderer)->OnActionCompleted(token, success);
+    }
+}
 
-    sIsPlaying = env->GetMethodID(env->GetObjectClass(mediaRender), "isPlaying", "()Z");
-    FATAL_IF(sIsPlaying == NULL);
+static jstring nativeDump(JNIEnv* env, jclass, jlong handle)
+{
+    char buffer[4096] = {0};
+    PLT_DeviceHostReference renderer = sRenderers.get(handle);
+    if (!renderer.IsNull())
+    {
+        asMediaRenderer(renderer)->dump(buffer, sizeof(buffer));
+    }
 
-    sGetCurrentPosition = env->GetMethodID(env->GetObjectClass(mediaRender), "getCurrentPosition", "()I");
-    FATAL_IF(sGetCurrentPosition == NULL);
+    return env->NewStringUTF(buffer);
+}
 
-    sGetDuration = env->GetMethodID(env->GetObjectClass(mediaRender), "getDuration", "()I");
-    FATAL_IF(sGetDuration == NULL);
+struct UpcallBenchmark
+{
+    MediaRenderer* mediaRenderer;
+    int32_t  iterations;
+    uint64_t legacy;    // ns per query
+    uint64_t bulk;
+    uint64_t model;
+    uint64_t sink;
+};
 
-    sStop = env->GetMethodID(env->GetObjectClass(mediaRender), "stop", "()V");
-    FATAL_IF(sStop == NULL);
+/*
+ * Cost of one state/position/duration query: the way the bridge used to do it (attach, class and
+ * method lookup, then one upcall per value), with a single bulk upcall on the TLS-cached env, and
+ * from the native position model that GetPositionInfo reads now. Runs on its own native thread
+ * so attaching is part of the measurement.
+ */
+static void* runUpcallBenchmark(void* arg)
+{
+    UpcallBenchmark* benchmark = (UpcallBenchmark*)arg;
+    JNIEnv* env = getJNIEnv();
+    if (env == NULL)
+    {
+        return NULL;
+    }
 
-    sStart = env->GetMethodID(env->GetObjectClass(mediaRender), "start", "()V");
-    FATAL_IF(sStop == NULL);
+    jintArray state = env->NewIntArray(3);
+    jint values[3] = {0};
 
-    sPause = env->GetMethodID(env->GetObjectClass(mediaRender), "pause", "()V");
-    FATAL_IF(sPause == NULL);
+    int64_t start = uptimeNanos();
+    for (int32_t i = 0; i < benchmark->iterations; i++)
+    {
+        for (int value = 0; value < 3; value++)
+        {
+            JNIEnv* legacyEnv = NULL;
+            sJavaVM->AttachCurrentThread(&legacyEnv, NULL);
+            jclass clazz = legacyEnv->GetObjectClass(benchmark->mediaRenderer->peer());
+            jmethodID method = legacyEnv->GetMethodID(clazz, "getPlaybackState", "([I)V");
+            legacyEnv->CallVoidMethod(benchmark->mediaRenderer->peer(), method, state);
+            legacyEnv->GetIntArrayRegion(state, value, 1, values + value);
+            legacyEnv->DeleteLocalRef(clazz);
+        }
+        benchmark->sink += values[1];
+    }
+    benchmark->legacy = (uptimeNanos() - start) / benchmark->iterations;
 
-    sSeek = env->GetMethodID(env->GetObjectClass(mediaRender), "seek", "(I)V");
-    FATAL_IF(sSeek == NULL);
+    start = uptimeNanos();
+    for (int32_t i = 0; i < benchmark->iterations; i++)
+    {
+        JNIEnv* cachedEnv = getJNIEnv();
+        cachedEnv->CallVoidMethod(benchmark->mediaRenderer->peer(), sGetPlaybackState, state);
+        cachedEnv->GetIntArrayRegion(state, 0, 3, values);
+        benchmark->sink += values[1];
+    }
+    benchmark->bulk = (uptimeNanos() - start) / benchmark->iterations;
 
-    jfieldID fieldId = env->GetStaticFieldID(env->GetObjectClass(mediaRender), "STATE_IDLE", "I");
-    sPlayerState.idle = env->GetStaticIntField(env->GetObjectClass(mediaRender), fieldId);
+    start = uptimeNanos();
+    for (int32_t i = 0; i < benchmark->iterations; i++)
+    {
+        benchmark->sink += benchmark->mediaRenderer->getCurrentPosition();
+    }
+    benchmark->model = (uptimeNanos() - start) / benchmark->iterations;
 
-    fieldId = env->GetStaticFieldID(env->GetObjectClass(mediaRender), "STATE_PREPARING", "I");
-    sPlayerState.preparing = env->GetStaticIntField(env->GetObjectClass(mediaRender), fieldId);
+    if (env->ExceptionCheck())
+    {
+        env->ExceptionDescribe();
+        env->ExceptionClear();
+    }
+    env->DeleteLocalRef(state);
+    return NULL; // detached by the TLS destructor
+}
 
-    fieldId = env->GetStaticFieldID(env->GetObjectClass(mediaRender), "STATE_PAUSED", "I");
-    sPlayerState.paused = env->GetStaticIntField(env->GetObjectClass(mediaRender), fieldId);
+static jstring nativeBenchmarkUpcalls(JNIEnv* env, jclass, jlong handle, jint iterations)
+{
+    PLT_DeviceHostReference renderer = sRenderers.get(handle);
+    if (renderer.IsNull())
+    {
+        return env->NewStringUTF("  upcall benchmark: no renderer\n");
+    }
 
-    fieldId = env->GetStaticFieldID(env->GetObjectClass(mediaRender), "STATE_PLAYING", "I");
-    sPlayerState.playing = env->GetStaticIntField(env->GetObjectClass(mediaRender), fieldId);
+    UpcallBenchmark benchmark = {asMediaRenderer(renderer), iterations > 0 ? iterations : 1, 0, 0, 0, 0};
+    pthread_t thread;
+    if (pthread_create(&thread, NULL, runUpcallBenchmark, &benchmark) != 0)
+    {
+        return env->NewStringUTF("  upcall benchmark: can not start thread\n");
+    }
+    pthread_join(thread, NULL);
+
+    char buffer[256] = {0};
+    snprintf(buffer, sizeof(buffer),
+             "  upcall benchmark, %d queries: attach+lookup x3:%lluns, cached env bulk:%lluns, position model:%lluns\n",
+             benchmark.iterations,
+             (unsigned long long)benchmark.legacy,
+             (unsigned long long)benchmark.bulk,
+             (unsigned long long)benchmark.model);
+    return env->NewStringUTF(buffer);
 }
 
-static void onStateChanged(JNIEnv* env, jobject jMediaRender, jint state)
+// Returns the previous level, a negative level only queries it.
+static jint nativeSetLogLevel(JNIEnv* env, jclass, jint level)
 {
-    LOGD("state:%d", state);
-    ((MediaRenderer*)(sMediaRender.AsPointer()))->OnStateChanged(state);
+    int previous = eevix::logLevel();
+    if (level >= 0)
+    {
+        eevix::setLogLevel(level);
+    }
+    return previous;
 }
 
 } // extern "C"
\ No newline at end of file
@@ -0,0 +1,137 @@
+#ifndef EEVIX_COMMAND_H
+#define EEVIX_COMMAND_H
+
+#include <stdint.h>
+#include <semaphore.h>
+#include <atomic>
+#include "Mutex.h"
+
+namespace eevix
+{
+
+class CommandPool;
+
+/*
+ * Fixed-layout command record for control paths.
+ *
+ * Parameters live in inline int32/int64/bool slots and a small-buffer string, the reply
+ * semaphore is created once per record, and records are recycled through their CommandPool,
+ * so a steady stream of commands does not touch the heap. Use KeyedData for anything that
+ * needs arbitrary keys or types.
+ */
+class Command
+{
+public:
+    enum
+    {
+        kInt32Slots       = 4,
+        kInt64Slots       = 2,
+        kInlineStringSize = 256,
+    };
+
+    inline int32_t type() const
+    {
+        return mType;
+    }
+
+    inline void setInt32(uint32_t slot, int32_t value)
+    {
+        mInt32[slot] = value;
+    }
+
+    inline int32_t getInt32(uint32_t slot) const
+    {
+        return mInt32[slot];
+    }
+
+    inline void setInt64(uint32_t slot, int64_t value)
+    {
+        mInt64[slot] = value;
+    }
+
+    inline int64_t getInt64(uint32_t slot) const
+    {
+        return mInt64[slot];
+    }
+
+    inline void setBool(bool value)
+    {
+        mBool = value;
+    }
+
+    inline bool getBool() const
+    {
+        return mBool;
+    }
+
+    void setString(const char* string, uint32_t size);
+
+    inline const char* string() const
+    {
+        return mString;
+    }
+
+    inline uint32_t stringLength() const
+    {
+        return mStringLength;
+    }
+
+    void retain();
+    void release();
+
+    void waitReply();
+    // Returns false if no reply was posted within timeout ms.
+    bool waitReply(uint32_t timeout);
+    void postReply();
+
+private:
+    friend class CommandPool;
+    explicit Command(CommandPool* pool);
+    ~Command();
+    Command(const Command&);
+    Command& operator=(const Command&);
+    void reset(int32_t type);
+
+    int32_t              mType;
+    int32_t              mInt32[kInt32Slots];
+    int64_t              mInt64[kInt64Slots];
+    bool                 mBool;
+    char*                mString;       // mInlineString or mHeapString
+    uint32_t             mStringLength;
+    char                 mInlineString[kInlineStringSize];
+    char*                mHeapString;   // grown for strings that do not fit inline, kept across recycles
+    uint32_t             mHeapCapacity;
+    sem_t                mSemaphore;
+    std::atomic<int32_t> mReferences;
+    CommandPool*         mPool;
+    Command*             mNextFree;
+    Command*             mNextRecord;
+};
+
+class CommandPool
+{
+public:
+    explicit CommandPool(uint32_t preallocated = 16);
+    ~CommandPool();
+
+    // Returns a record holding one reference, release() hands it back to the pool.
+    Command* obtain(int32_t type);
+
+    // Number of records created since construction, including the preallocated ones.
+    uint32_t records();
+
+private:
+    friend class Command;
+    CommandPool(const CommandPool&);
+    CommandPool& operator=(const CommandPool&);
+    Command* create();
+    void recycle(Command* command);
+
+    Mutex    mLock;
+    Command* mFree;
+    Command* mRecords;
+    uint32_t mRecordCount;
+};
+
+} // namespace eevix
+#endif // EEVIX_COMMAND_H
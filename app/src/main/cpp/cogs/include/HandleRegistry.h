@@ -0,0 +1,110 @@
+#ifndef EEVIX_HANDLE_REGISTRY_H
+#define EEVIX_HANDLE_REGISTRY_H
+
+#include <stdint.h>
+#include "Mutex.h"
+
+namespace eevix
+{
+/*
+ * Up to Capacity references to objects handed out to another runtime, by an opaque handle.
+ *
+ * A handle packs a slot with a generation bumped every time the slot is reused, so a call racing
+ * remove(), or carrying the handle of an earlier object, finds nothing rather than another
+ * object. get() hands out a reference, the object outlives the call holding it even if it is
+ * removed meanwhile.
+ *
+ * Ref is a reference counted pointer whose default value is empty, NPT_Reference or
+ * std::shared_ptr for instance, and Capacity at most 256. Handles are positive, 0 is never one.
+ */
+template<typename Ref, int Capacity>
+class HandleRegistry
+{
+public:
+    enum
+    {
+        kCapacity = Capacity,
+    };
+
+    HandleRegistry()
+    {
+        for (int i = 0; i < kCapacity; i++)
+        {
+            mUsed[i] = false;
+            mGenerations[i] = 1;
+        }
+    }
+
+    // returns 0 when all slots are taken
+    int64_t add(const Ref& ref)
+    {
+        AutoMutex lock(mLock);
+        for (int i = 0; i < kCapacity; i++)
+        {
+            if (!mUsed[i])
+            {
+                mUsed[i] = true;
+                mRefs[i] = ref;
+                return ((int64_t)mGenerations[i] << 8) | i;
+            }
+        }
+        return 0;
+    }
+
+    Ref get(int64_t handle)
+    {
+        AutoMutex lock(mLock);
+        int32_t i = slot(handle);
+        return i >= 0 ? mRefs[i] : Ref();
+    }
+
+    Ref remove(int64_t handle)
+    {
+        AutoMutex lock(mLock);
+        int32_t i = slot(handle);
+        if (i < 0)
+        {
+            return Ref();
+        }
+
+        Ref ref = mRefs[i];
+        mRefs[i] = Ref();
+        mUsed[i] = false;
+        mGenerations[i]++;
+        return ref;
+    }
+
+    uint32_t size()
+    {
+        AutoMutex lock(mLock);
+        uint32_t size = 0;
+        for (int i = 0; i < kCapacity; i++)
+        {
+            size += mUsed[i] ? 1 : 0;
+        }
+        return size;
+    }
+
+private:
+    HandleRegistry(const HandleRegistry&);
+    HandleRegistry& operator=(const HandleRegistry&);
+
+    // called with mLock held
+    int32_t slot(int64_t handle)
+    {
+        int32_t i = (int32_t)(handle & 0xff);
+        if (handle <= 0 || i >= kCapacity || !mUsed[i] || (int64_t)mGenerations[i] != (handle >> 8))
+        {
+            return -1;
+        }
+        return i;
+    }
+
+    Mutex    mLock;
+    bool     mUsed[Capacity];
+    Ref      mRefs[Capacity];
+    uint32_t mGenerations[Capacity];
+};
+}
+
+#endif // EEVIX_HANDLE_REGISTRY_H
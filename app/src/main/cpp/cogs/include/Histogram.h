@@ -0,0 +1,57 @@
+#ifndef EEVIX_HISTOGRAM_H
+#define EEVIX_HISTOGRAM_H
+
+#include <stddef.h>
+#include <stdint.h>
+#include <atomic>
+
+namespace eevix
+{
+
+/*
+ * Log-linear histogram in the spirit of HdrHistogram.
+ *
+ * Values below kSubBuckets are counted exactly, larger ones fall into one of kSubBuckets linear
+ * sub-buckets of their power of two, so any reported value is within 1/kSubBuckets of the
+ * recorded one. record() is a handful of relaxed atomic operations and never allocates; any
+ * thread may read while others record. The layout matches LatencyHistogram on the Java side.
+ */
+class Histogram
+{
+public:
+    enum
+    {
+        kSubBucketBits = 4,
+        kSubBuckets    = 1 << kSubBucketBits,
+        kBuckets       = kSubBuckets + (64 - kSubBucketBits) * kSubBuckets,
+    };
+
+    Histogram();
+
+    void record(uint64_t value);
+    void reset();
+
+    uint64_t count() const;
+    uint64_t max() const;
+    uint64_t mean() const;
+    // Upper bound of the bucket holding the given percentile (0-100], 0 when empty.
+    uint64_t percentile(double percent) const;
+
+    // Appends "count:N mean:N p50:N p90:N p99:N max:N" followed by unit after each value.
+    int format(char* buffer, size_t size, const char* unit) const;
+
+    static uint32_t bucketOf(uint64_t value);
+    static uint64_t upperBoundOf(uint32_t bucket);
+
+private:
+    Histogram(const Histogram&);
+    Histogram& operator=(const Histogram&);
+
+    std::atomic<uint64_t> mCounts[kBuckets];
+    std::atomic<uint64_t> mCount;
+    std::atomic<uint64_t> mSum;
+    std::atomic<uint64_t> mMax;
+};
+
+} // namespace eevix
+#endif // EEVIX_HISTOGRAM_H
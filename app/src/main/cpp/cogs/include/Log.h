@@ -1,15 +1,67 @@
 #ifndef EEVIX_LOG_H
 #define EEVIX_LOG_H
 
+#include <atomic>
+
 #ifndef LOG_TAG
 #define LOG_TAG ""
 #endif
 
+/*
+ * Levels share the values of the android log priorities.
+ *
+ * A call is compiled in only at or above LOG_MIN_LEVEL, which drops LOGV and LOGD from release
+ * (NDEBUG) builds, and it formats only at or above the runtime level, so a disabled LOGV costs a
+ * relaxed load and a compare. The runtime level is process wide and starts at LOG_LEVEL_DEBUG.
+ */
+#define LOG_LEVEL_VERBOSE                    2
+#define LOG_LEVEL_DEBUG                      3
+#define LOG_LEVEL_INFO                       4
+#define LOG_LEVEL_WARN                       5
+#define LOG_LEVEL_ERROR                      6
+#define LOG_LEVEL_SILENT                     8
+
+#ifndef LOG_MIN_LEVEL
+#ifdef NDEBUG
+#define LOG_MIN_LEVEL                        LOG_LEVEL_INFO
+#else
+#define LOG_MIN_LEVEL                        LOG_LEVEL_VERBOSE
+#endif
+#endif
+
+namespace eevix
+{
+extern std::atomic<int> gLogLevel;
+
+inline bool isLoggable(int level)
+{
+    return level >= LOG_MIN_LEVEL && level >= gLogLevel.load(std::memory_order_relaxed);
+}
+
+inline void setLogLevel(int level)
+{
+    gLogLevel.store(level, std::memory_order_relaxed);
+}
+
+inline int logLevel()
+{
+    return gLogLevel.load(std::memory_order_relaxed);
+}
+}
+
+#define LOG_IF(level, print)                 do \
+                                             { \
+                                                 if (eevix::isLoggable(level)) \
+                                                 { \
+                                                     print; \
+                                                 } \
+                                             } \
+                                             while (0)
+
 #if defined ANDROID
 #include <android/log.h>
 
-#define LOGD(fmt, args...)                   __android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, "[%s][%d] " fmt, __FUNCTION__, __LINE__, ##args)
-#define LOGE(fmt, args...)                   __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, "[%s][%d] " fmt, __FUNCTION__, __LINE__, ##args)
+#define LOG_PRINT(level, fmt, args...)       LOG_IF(level, __android_log_print(level, LOG_TAG, "[%s][%d] " fmt, __FUNCTION__, __LINE__, ##args))
 #define FATAL_IF(condition)                  do \
                                              { \
                                                  if (condition) \
@@ -19,13 +71,18 @@
                                              } \
                                              while (0)
 
-#elif defined WIN32
+#else // WIN32 and Linux hosts
 #include <stdio.h>
 
-#define LOGD(fmt, args...)                 printf(LOG_TAG " [%s][%d] " fmt "\n", __FUNCTION__, __LINE__, ##args)
-#define LOGE(fmt, args...)                 printf(LOG_TAG " [%s][%d] " fmt "\n", __FUNCTION__, __LINE__, ##args)
+#define LOG_PRINT(level, fmt, args...)       LOG_IF(level, printf(LOG_TAG " [%s][%d] " fmt "\n", __FUNCTION__, __LINE__, ##args))
 #define FATAL_IF(condition)
 
-#endif // defined WIN32
+#endif // defined ANDROID
+
+#define LOGV(fmt, args...)                   LOG_PRINT(LOG_LEVEL_VERBOSE, fmt, ##args)
+#define LOGD(fmt, args...)                   LOG_PRINT(LOG_LEVEL_DEBUG, fmt, ##args)
+#define LOGI(fmt, args...)                   LOG_PRINT(LOG_LEVEL_INFO, fmt, ##args)
+#define LOGW(fmt, args...)                   LOG_PRINT(LOG_LEVEL_WARN, fmt, ##args)
+#define LOGE(fmt, args...)                   LOG_PRINT(LOG_LEVEL_ERROR, fmt, ##args)
 
 #endif // EEVIX_LOG_H
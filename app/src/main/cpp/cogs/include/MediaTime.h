@@ -0,0 +1,61 @@
+#ifndef EEVIX_MEDIATIME_H
+#define EEVIX_MEDIATIME_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+namespace eevix
+{
+
+/*
+ * UPnP AVTransport seek modes, seek targets and time values.
+ *
+ * Times are "[+|-]H+:MM:SS[.F+]" or "[+|-]H+:MM:SS[.F0/F1]", in milliseconds once parsed;
+ * minutes and seconds may come with a single digit, as some control points send them. Counters
+ * and byte offsets are unsigned decimals. Parsers read exactly length bytes, reject anything
+ * else, trailing garbage and overflow included, and leave the output untouched when they do.
+ * Nothing here allocates or depends on the locale.
+ */
+class MediaTime
+{
+public:
+    enum Unit
+    {
+        kUnknown,
+        kTrackNr,   // TRACK_NR, 1-based track number
+        kRelTime,   // REL_TIME, time from the start of the track
+        kAbsTime,   // ABS_TIME, time from the start of the medium
+        kRelCount,  // REL_COUNT
+        kAbsCount,  // ABS_COUNT
+        kRelByte,   // X_DLNA_REL_BYTE, byte offset into the resource
+    };
+
+    enum
+    {
+        // formatTime output for any int64_t with its NUL, "-2562047788015:12:55.808"
+        kMaxLength = 32,
+    };
+
+    // Seek mode names are matched ignoring case.
+    static Unit parseUnit(const char* text, size_t length);
+    static const char* unitName(Unit unit);
+    static bool isTime(Unit unit);
+
+    static bool parseTime(const char* text, size_t length, int64_t* millis);
+    static bool parseCounter(const char* text, size_t length, uint64_t* value);
+
+    // A Seek target of unit: ms for the time units, the count or byte offset for the others.
+    static bool parseTarget(Unit unit, const char* text, size_t length, int64_t* value);
+
+    /*
+     * Writes millis as "HH:MM:SS", with ".mmm" when fraction is set, hours take as many digits
+     * as they need. Returns the length written without the NUL, -1 if it does not fit in size.
+     */
+    static int formatTime(char* buffer, size_t size, int64_t millis, bool fraction);
+
+private:
+    MediaTime();
+};
+
+} // namespace eevix
+#endif // EEVIX_MEDIATIME_H
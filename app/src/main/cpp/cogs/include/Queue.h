@@ -1,91 +1,336 @@
 #ifndef EEVIX_QUEUE_H
 #define EEVIX_QUEUE_H
 
-#include <vector>
+#include <stdint.h>
+#include <stddef.h>
+#include <time.h>
+#include <atomic>
 #include "Mutex.h"
 #include "Condition.h"
 
 namespace eevix
 {
+/*
+ * Bounded multi-producer/single-consumer ring buffer.
+ *
+ * Every slot carries a sequence number (Vyukov style), producers claim slots with a CAS on
+ * mTail and the consumer releases them with a CAS on mHead, so push and pop are lock-free and
+ * O(1). mLock is only taken to park a consumer on an empty queue or a producer on a full one,
+ * and a waiter is signalled only when one is actually parked.
+ *
+ * When the queue is full the overflow policy decides what push does:
+ *   kBlock      - wait until the consumer frees a slot.
+ *   kDropOldest - discard the oldest pending item.
+ *   kCoalesce   - take the oldest pending item out and let the coalescer fold it into the
+ *                 incoming one, which is then queued (drop-oldest if no coalescer is set).
+ */
 template<typename T>
 class Queue
 {
 public:
-    Queue(){};
-    ~Queue(){};
+    enum OverflowPolicy
+    {
+        kBlock,
+        kDropOldest,
+        kCoalesce,
+    };
+
+    typedef void (*Coalescer)(const T& oldest, T& incoming);
+
+    static const uint32_t kDefaultCapacity = 64;
+
+    explicit Queue(uint32_t capacity = kDefaultCapacity, OverflowPolicy policy = kBlock, Coalescer coalescer = NULL):
+        mPolicy(policy),
+        mCoalescer(coalescer),
+        mConsumerWaiters(0),
+        mProducerWaiters(0),
+        mDropped(0),
+        mCoalesced(0)
+    {
+        uint32_t size = 2;
+        while (size < capacity)
+        {
+            size <<= 1;
+        }
+
+        mMask = size - 1;
+        mSlots = new Slot[size];
+        for (uint32_t i = 0; i < size; i++)
+        {
+            mSlots[i].mSequence.store(i, std::memory_order_relaxed);
+        }
+
+        mHead.store(0, std::memory_order_relaxed);
+        mTail.store(0, std::memory_order_relaxed);
+    }
+
+    ~Queue()
+    {
+        delete[] mSlots;
+    }
 
     bool push(const T& item)
     {
-        AutoMutex lock(mLock);
-        mVector.push_back(item);
-        mCondition.boardCast();
+        if (!tryPush(item))
+        {
+            switch (mPolicy)
+            {
+                case kBlock:
+                {
+                    pushBlocking(item);
+                    break;
+                }
+                case kDropOldest:
+                case kCoalesce:
+                {
+                    pushOverflow(item);
+                    break;
+                }
+            }
+        }
+
+        wakeConsumer();
         return true;
     }
 
     bool pop(T& item)
     {
-        AutoMutex lock(mLock);
-        while (mVector.empty())
+        if (!tryPop(item))
         {
-            mCondition.wait(mLock);
+            AutoMutex lock(mLock);
+            mConsumerWaiters.fetch_add(1);
+            while (!tryPop(item))
+            {
+                mNotEmpty.wait(mLock);
+            }
+            mConsumerWaiters.fetch_sub(1);
         }
 
-        if (!mVector.empty())
+        wakeProducer();
+        return true;
+    }
+
+    bool pop(T& item, uint64_t timeout)
+    {
+        if (!tryPop(item))
         {
-            item = mVector[0];
-            mVector.erase(mVector.begin());
-            return true;
+            int64_t deadline = now() + (int64_t)timeout;
+            AutoMutex lock(mLock);
+            mConsumerWaiters.fetch_add(1);
+            bool popped = false;
+            while (!(popped = tryPop(item)))
+            {
+                int64_t remaining = deadline - now();
+                if (remaining <= 0)
+                {
+                    break;
+                }
+                mNotEmpty.wait(mLock, remaining);
+            }
+            mConsumerWaiters.fetch_sub(1);
+
+            if (!popped)
+            {
+                return false;
+            }
         }
 
-        return false;
+        wakeProducer();
+        return true;
     }
 
-    bool pop(T& item, uint64_t timeout)
+    bool pop(T* item)
     {
-        AutoMutex lock(mLock);
-        if (mVector.empty())
+        return pop(*item);
+    }
+
+    bool tryPop(T& item)
+    {
+        size_t position = mHead.load(std::memory_order_relaxed);
+        for (;;)
         {
-            mCondition.wait(mLock, timeout);
+            Slot& slot = mSlots[position & mMask];
+            size_t sequence = slot.mSequence.load(std::memory_order_acquire);
+            intptr_t diff = (intptr_t)sequence - (intptr_t)(position + 1);
+            if (diff == 0)
+            {
+                if (mHead.compare_exchange_weak(position, position + 1, std::memory_order_relaxed))
+                {
+                    item = slot.mItem;
+                    slot.mItem = T();
+                    slot.mSequence.store(position + mMask + 1, std::memory_order_release);
+                    return true;
+                }
+            }
+            else if (diff < 0)
+            {
+                return false;
+            }
+            else
+            {
+                position = mHead.load(std::memory_order_relaxed);
+            }
         }
+    }
+
+    void clear()
+    {
+        T item;
+        while (tryPop(item));
+        wakeProducer();
+    }
 
-        if (!mVector.empty())
+    uint32_t capacity() const
+    {
+        return mMask + 1;
+    }
+
+    uint32_t size() const
+    {
+        size_t tail = mTail.load(std::memory_order_acquire);
+        size_t head = mHead.load(std::memory_order_acquire);
+        return tail > head ? (uint32_t)(tail - head) : 0;
+    }
+
+    uint64_t dropped() const
+    {
+        return mDropped.load(std::memory_order_relaxed);
+    }
+
+    uint64_t coalesced() const
+    {
+        return mCoalesced.load(std::memory_order_relaxed);
+    }
+
+private:
+    struct Slot
+    {
+        std::atomic<size_t> mSequence;
+        T                   mItem;
+    };
+
+    // Keeps the producer and consumer indexes on separate cache lines.
+    struct Index
+    {
+        std::atomic<size_t> mValue;
+        char                mPadding[64 - sizeof(std::atomic<size_t>)];
+
+        size_t load(std::memory_order order) const { return mValue.load(order); }
+        void store(size_t value, std::memory_order order) { mValue.store(value, order); }
+        bool compare_exchange_weak(size_t& expected, size_t desired, std::memory_order order)
         {
-            item = mVector[0];
-            mVector.erase(mVector.begin());
-            return true;
+            return mValue.compare_exchange_weak(expected, desired, order);
         }
+    };
 
-        return false;
+    Queue(const Queue&);
+    Queue& operator=(const Queue&);
+
+    bool tryPush(const T& item)
+    {
+        size_t position = mTail.load(std::memory_order_relaxed);
+        for (;;)
+        {
+            Slot& slot = mSlots[position & mMask];
+            size_t sequence = slot.mSequence.load(std::memory_order_acquire);
+            intptr_t diff = (intptr_t)sequence - (intptr_t)position;
+            if (diff == 0)
+            {
+                if (mTail.compare_exchange_weak(position, position + 1, std::memory_order_relaxed))
+                {
+                    slot.mItem = item;
+                    slot.mSequence.store(position + 1, std::memory_order_release);
+                    return true;
+                }
+            }
+            else if (diff < 0)
+            {
+                return false;
+            }
+            else
+            {
+                position = mTail.load(std::memory_order_relaxed);
+            }
+        }
     }
 
-    bool pop(T* item)
+    void pushBlocking(const T& item)
     {
         AutoMutex lock(mLock);
-        while (mVector.empty())
+        mProducerWaiters.fetch_add(1);
+        while (!tryPush(item))
         {
-            mCondition.wait(mLock);
+            mNotFull.wait(mLock);
+        }
+        mProducerWaiters.fetch_sub(1);
+    }
+
+    void pushOverflow(const T& item)
+    {
+        T incoming = item;
+        T oldest;
+        while (!tryPush(incoming))
+        {
+            if (!tryPop(oldest))
+            {
+                continue;
+            }
+
+            if (mPolicy == kCoalesce && mCoalescer != NULL)
+            {
+                mCoalescer(oldest, incoming);
+                mCoalesced.fetch_add(1, std::memory_order_relaxed);
+            }
+            else
+            {
+                mDropped.fetch_add(1, std::memory_order_relaxed);
+            }
         }
+    }
 
-        if (!mVector.empty())
+    // The seq_cst fence pairs with the fetch_add of a parking thread: either the waiter sees
+    // the new slot state on its re-check or we see it parked and signal it under mLock.
+    void wakeConsumer()
+    {
+        std::atomic_thread_fence(std::memory_order_seq_cst);
+        if (mConsumerWaiters.load(std::memory_order_relaxed) > 0)
         {
-            *item = mVector[0];
-            mVector.erase(mVector.begin());
-            return true;
+            AutoMutex lock(mLock);
+            mNotEmpty.singal();
         }
+    }
 
-        return false;
+    void wakeProducer()
+    {
+        std::atomic_thread_fence(std::memory_order_seq_cst);
+        if (mProducerWaiters.load(std::memory_order_relaxed) > 0)
+        {
+            AutoMutex lock(mLock);
+            mNotFull.singal();
+        }
     }
 
-    void clear()
+    static int64_t now()
     {
-        AutoMutex lock(mLock);
-        mVector.clear();
-        mVector.capacity();
+        struct timespec ts;
+        clock_gettime(CLOCK_MONOTONIC, &ts);
+        return (int64_t)ts.tv_sec * 1000 + ts.tv_nsec / 1000000;
     }
+
 private:
-    std::vector<T> mVector;
-    Mutex          mLock;
-    Condition      mCondition;
+    Slot*                 mSlots;
+    size_t                mMask;
+    const OverflowPolicy  mPolicy;
+    const Coalescer       mCoalescer;
+    Index                 mHead;
+    Index                 mTail;
+    std::atomic<int32_t>  mConsumerWaiters;
+    std::atomic<int32_t>  mProducerWaiters;
+    std::atomic<uint64_t> mDropped;
+    std::atomic<uint64_t> mCoalesced;
+    Mutex                 mLock;
+    Condition             mNotEmpty;
+    Condition             mNotFull;
 };
 
 }
@@ -0,0 +1,177 @@
+#include <errno.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include "Command.h"
+#include "Log.h"
+
+namespace eevix
+{
+Command::Command(CommandPool* pool):
+    mType(0),
+    mBool(false),
+    mString(mInlineString),
+    mStringLength(0),
+    mHeapString(NULL),
+    mHeapCapacity(0),
+    mReferences(0),
+    mPool(pool),
+    mNextFree(NULL),
+    mNextRecord(NULL)
+{
+    mInlineString[0] = '\0';
+    sem_init(&mSemaphore, 0, 0);
+}
+
+Command::~Command()
+{
+    sem_destroy(&mSemaphore);
+    if (mHeapString != NULL)
+    {
+        free(mHeapString);
+        mHeapString = NULL;
+    }
+}
+
+void Command::reset(int32_t type)
+{
+    mType = type;
+    memset(mInt32, 0, sizeof(mInt32));
+    memset(mInt64, 0, sizeof(mInt64));
+    mBool = false;
+    setString("", 0);
+    while (sem_trywait(&mSemaphore) == 0); // a reply nobody waited for
+    mReferences.store(1);
+}
+
+void Command::setString(const char* string, uint32_t size)
+{
+    char* buffer = mInlineString;
+    if (size >= kInlineStringSize)
+    {
+        if (size >= mHeapCapacity)
+        {
+            char* heapString = (char*)realloc(mHeapString, size + 1);
+            FATAL_IF(heapString == NULL);
+            mHeapString = heapString;
+            mHeapCapacity = size + 1;
+        }
+        buffer = mHeapString;
+    }
+
+    memcpy(buffer, string, size);
+    buffer[size] = '\0';
+    mString = buffer;
+    mStringLength = size;
+}
+
+void Command::retain()
+{
+    mReferences.fetch_add(1);
+}
+
+void Command::release()
+{
+    if (mReferences.fetch_sub(1) == 1)
+    {
+        mPool->recycle(this);
+    }
+}
+
+void Command::waitReply()
+{
+    while (sem_wait(&mSemaphore) != 0);
+}
+
+bool Command::waitReply(uint32_t timeout)
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_REALTIME, &ts);
+    ts.tv_sec  += timeout / 1000;
+    ts.tv_nsec += timeout % 1000 * 1000000;
+    if (ts.tv_nsec >= 1000000000)
+    {
+        ts.tv_nsec -= 1000000000;
+        ts.tv_sec  += 1;
+    }
+
+    int ret = 0;
+    while ((ret = sem_timedwait(&mSemaphore, &ts)) != 0 && errno == EINTR);
+    return ret == 0;
+}
+
+void Command::postReply()
+{
+    sem_post(&mSemaphore);
+}
+
+CommandPool::CommandPool(uint32_t preallocated):
+    mFree(NULL),
+    mRecords(NULL),
+    mRecordCount(0)
+{
+    AutoMutex lock(mLock);
+    for (uint32_t i = 0; i < preallocated; i++)
+    {
+        Command* command = create();
+        command->mNextFree = mFree;
+        mFree = command;
+    }
+}
+
+CommandPool::~CommandPool()
+{
+    AutoMutex lock(mLock);
+    while (mRecords != NULL)
+    {
+        Command* command = mRecords;
+        mRecords = command->mNextRecord;
+        delete command;
+    }
+    mFree = NULL;
+}
+
+Command* CommandPool::obtain(int32_t type)
+{
+    Command* command = NULL;
+    {
+        AutoMutex lock(mLock);
+        if (mFree != NULL)
+        {
+            command = mFree;
+            mFree = command->mNextFree;
+        }
+        else
+        {
+            command = create();
+        }
+    }
+
+    command->mNextFree = NULL;
+    command->reset(type);
+    return command;
+}
+
+uint32_t CommandPool::records()
+{
+    AutoMutex lock(mLock);
+    return mRecordCount;
+}
+
+Command* CommandPool::create()
+{
+    Command* command = new Command(this);
+    command->mNextRecord = mRecords;
+    mRecords = command;
+    mRecordCount++;
+    return command;
+}
+
+void CommandPool::recycle(Command* command)
+{
+    AutoMutex lock(mLock);
+    command->mNextFree = mFree;
+    mFree = command;
+}
+
+} // namespace eevix
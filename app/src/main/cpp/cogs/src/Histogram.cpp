@@ -0,0 +1,121 @@
+#include <stdio.h>
+#include "Histogram.h"
+
+namespace eevix
+{
+Histogram::Histogram()
+{
+    reset();
+}
+
+void Histogram::record(uint64_t value)
+{
+    mCounts[bucketOf(value)].fetch_add(1, std::memory_order_relaxed);
+    mCount.fetch_add(1, std::memory_order_relaxed);
+    mSum.fetch_add(value, std::memory_order_relaxed);
+
+    uint64_t max = mMax.load(std::memory_order_relaxed);
+    while (value > max && !mMax.compare_exchange_weak(max, value, std::memory_order_relaxed))
+    {
+    }
+}
+
+void Histogram::reset()
+{
+    for (uint32_t i = 0; i < kBuckets; i++)
+    {
+        mCounts[i].store(0, std::memory_order_relaxed);
+    }
+    mCount.store(0, std::memory_order_relaxed);
+    mSum.store(0, std::memory_order_relaxed);
+    mMax.store(0, std::memory_order_relaxed);
+}
+
+uint64_t Histogram::count() const
+{
+    return mCount.load(std::memory_order_relaxed);
+}
+
+uint64_t Histogram::max() const
+{
+    return mMax.load(std::memory_order_relaxed);
+}
+
+uint64_t Histogram::mean() const
+{
+    uint64_t count = mCount.load(std::memory_order_relaxed);
+    return count == 0 ? 0 : mSum.load(std::memory_order_relaxed) / count;
+}
+
+uint64_t Histogram::percentile(double percent) const
+{
+    uint64_t total = 0;
+    for (uint32_t i = 0; i < kBuckets; i++)
+    {
+        total += mCounts[i].load(std::memory_order_relaxed);
+    }
+
+    if (total == 0)
+    {
+        return 0;
+    }
+
+    uint64_t rank = (uint64_t)(percent / 100.0 * total + 0.5);
+    if (rank < 1)
+    {
+        rank = 1;
+    }
+
+    uint64_t seen = 0;
+    for (uint32_t i = 0; i < kBuckets; i++)
+    {
+        seen += mCounts[i].load(std::memory_order_relaxed);
+        if (seen >= rank)
+        {
+            uint64_t bound = upperBoundOf(i);
+            uint64_t max = mMax.load(std::memory_order_relaxed);
+            return bound < max ? bound : max;
+        }
+    }
+
+    return mMax.load(std::memory_order_relaxed);
+}
+
+int Histogram::format(char* buffer, size_t size, const char* unit) const
+{
+    return snprintf(buffer, size, "count:%llu mean:%llu%s p50:%llu%s p90:%llu%s p99:%llu%s max:%llu%s",
+                    (unsigned long long)count(),
+                    (unsigned long long)mean(), unit,
+                    (unsigned long long)percentile(50), unit,
+                    (unsigned long long)percentile(90), unit,
+                    (unsigned long long)percentile(99), unit,
+                    (unsigned long long)max(), unit);
+}
+
+uint32_t Histogram::bucketOf(uint64_t value)
+{
+    if (value < kSubBuckets)
+    {
+        return (uint32_t)value;
+    }
+
+    uint32_t magnitude = 63 - __builtin_clzll(value); // >= kSubBucketBits
+    uint32_t shift = magnitude - kSubBucketBits;
+    uint32_t subBucket = (uint32_t)(value >> shift) & (kSubBuckets - 1);
+    return kSubBuckets + shift * kSubBuckets + subBucket;
+}
+
+uint64_t Histogram::upperBoundOf(uint32_t bucket)
+{
+    if (bucket < kSubBuckets)
+    {
+        return bucket;
+    }
+
+    uint32_t shift = (bucket - kSubBuckets) / kSubBuckets;
+    uint64_t subBucket = (bucket - kSubBuckets) % kSubBuckets;
+    uint64_t lower = (kSubBuckets + subBucket) << shift;
+    return lower + ((uint64_t)1 << shift) - 1;
+}
+
+} // namespace eevix
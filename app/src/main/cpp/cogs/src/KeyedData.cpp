@@ -3,7 +3,7 @@
 //
 
 
-#ifdef WIN32
+#ifndef ANDROID
 #include <memory>
 #include <cstring>
 #endif
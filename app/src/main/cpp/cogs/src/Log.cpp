@@ -0,0 +1,6 @@
+#include "Log.h"
+
+namespace eevix
+{
+std::atomic<int> gLogLevel(LOG_LEVEL_DEBUG);
+}
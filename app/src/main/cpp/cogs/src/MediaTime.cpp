@@ -0,0 +1,291 @@
+#include "MediaTime.h"
+
+namespace eevix
+{
+namespace
+{
+const uint64_t kInt64Max    = 9223372036854775807ULL;
+const uint64_t kMaxHours    = kInt64Max / 3600000; // the rest of a time is checked on the sum
+const uint32_t kMaxFraction = 9;                   // digits kept of F0 and F1
+
+struct UnitName
+{
+    MediaTime::Unit unit;
+    const char*     name;
+    size_t          length;
+};
+
+const UnitName kUnitNames[] =
+{
+    {MediaTime::kTrackNr,  "TRACK_NR",        8},
+    {MediaTime::kRelTime,  "REL_TIME",        8},
+    {MediaTime::kAbsTime,  "ABS_TIME",        8},
+    {MediaTime::kRelCount, "REL_COUNT",       9},
+    {MediaTime::kAbsCount, "ABS_COUNT",       9},
+    {MediaTime::kRelByte,  "X_DLNA_REL_BYTE", 15},
+};
+
+inline bool isDigit(char c)
+{
+    return c >= '0' && c <= '9';
+}
+
+inline char upper(char c)
+{
+    return c >= 'a' && c <= 'z' ? c - 'a' + 'A' : c;
+}
+
+/*
+ * Reads at least one and at most maxDigits decimal digits from text[*pos], advancing *pos past
+ * them. Fails without advancing on no digits, more than maxDigits, or a value above limit.
+ */
+bool readNumber(const char* text, size_t length, size_t* pos, uint32_t maxDigits, uint64_t limit, uint64_t* value)
+{
+    size_t i = *pos;
+    uint64_t number = 0;
+    while (i < length && isDigit(text[i]))
+    {
+        uint64_t digit = text[i] - '0';
+        if (i - *pos == maxDigits || number > (limit - digit) / 10)
+        {
+            return false;
+        }
+        number = number * 10 + digit;
+        i++;
+    }
+
+    if (i == *pos)
+    {
+        return false;
+    }
+    *pos = i;
+    *value = number;
+    return true;
+}
+
+/*
+ * The ms of a fraction after its '.': the first three digits of F+, or F0/F1 rounded to the
+ * nearest ms. Any number of F+ digits is accepted, the ones past the ms are dropped.
+ */
+bool readFraction(const char* text, size_t length, size_t* pos, uint64_t* millis)
+{
+    size_t i = *pos;
+    uint64_t numerator = 0;
+    uint64_t scaled = 0;
+    while (i < length && isDigit(text[i]))
+    {
+        uint32_t digits = i - *pos;
+        if (digits < kMaxFraction)
+        {
+            numerator = numerator * 10 + (text[i] - '0');
+        }
+        if (digits < 3)
+        {
+            scaled = scaled * 10 + (text[i] - '0');
+        }
+        i++;
+    }
+
+    uint32_t digits = i - *pos;
+    if (digits == 0)
+    {
+        return false;
+    }
+    for (uint32_t d = digits; d < 3; d++)
+    {
+        scaled *= 10;
+    }
+
+    if (i < length && text[i] == '/')
+    {
+        i++;
+        uint64_t denominator = 0;
+        if (digits > kMaxFraction ||
+            !readNumber(text, length, &i, kMaxFraction, kInt64Max, &denominator) ||
+            numerator >= denominator)
+        {
+            return false;
+        }
+        scaled = (numerator * 1000 + denominator / 2) / denominator;
+    }
+
+    *pos = i;
+    *millis = scaled;
+    return true;
+}
+}
+
+MediaTime::Unit MediaTime::parseUnit(const char* text, size_t length)
+{
+    for (size_t n = 0; n < sizeof(kUnitNames) / sizeof(kUnitNames[0]); n++)
+    {
+        const UnitName& name = kUnitNames[n];
+        if (name.length != length)
+        {
+            continue;
+        }
+
+        size_t i = 0;
+        while (i < length && upper(text[i]) == name.name[i])
+        {
+            i++;
+        }
+        if (i == length)
+        {
+            return name.unit;
+        }
+    }
+
+    return kUnknown;
+}
+
+const char* MediaTime::unitName(Unit unit)
+{
+    for (size_t n = 0; n < sizeof(kUnitNames) / sizeof(kUnitNames[0]); n++)
+    {
+        if (kUnitNames[n].unit == unit)
+        {
+            return kUnitNames[n].name;
+        }
+    }
+
+    return "UNKNOWN";
+}
+
+bool MediaTime::isTime(Unit unit)
+{
+    return unit == kRelTime || unit == kAbsTime;
+}
+
+bool MediaTime::parseTime(const char* text, size_t length, int64_t* millis)
+{
+    size_t i = 0;
+    bool negative = false;
+    if (i < length && (text[i] == '+' || text[i] == '-'))
+    {
+        negative = text[i] == '-';
+        i++;
+    }
+
+    uint64_t hours = 0;
+    uint64_t minutes = 0;
+    uint64_t seconds = 0;
+    uint64_t fraction = 0;
+    if (!readNumber(text, length, &i, 20, kMaxHours, &hours) ||
+        i >= length || text[i++] != ':' ||
+        !readNumber(text, length, &i, 2, 59, &minutes) ||
+        i >= length || text[i++] != ':' ||
+        !readNumber(text, length, &i, 2, 59, &seconds))
+    {
+        return false;
+    }
+    if (i < length && text[i] == '.')
+    {
+        i++;
+        if (!readFraction(text, length, &i, &fraction))
+        {
+            return false;
+        }
+    }
+    if (i != length)
+    {
+        return false;
+    }
+
+    uint64_t total = hours * 3600000 + minutes * 60000 + seconds * 1000 + fraction;
+    if (total > kInt64Max)
+    {
+        return false;
+    }
+    *millis = negative ? -(int64_t)total : (int64_t)total;
+    return true;
+}
+
+bool MediaTime::parseCounter(const char* text, size_t length, uint64_t* value)
+{
+    size_t i = 0;
+    uint64_t number = 0;
+    if (!readNumber(text, length, &i, 20, UINT64_MAX, &number) || i != length)
+    {
+        return false;
+    }
+
+    *value = number;
+    return true;
+}
+
+bool MediaTime::parseTarget(Unit unit, const char* text, size_t length, int64_t* value)
+{
+    if (isTime(unit))
+    {
+        return parseTime(text, length, value);
+    }
+    if (unit == kUnknown)
+    {
+        return false;
+    }
+
+    uint64_t counter = 0;
+    if (!parseCounter(text, length, &counter) || counter > kInt64Max)
+    {
+        return false;
+    }
+    *value = (int64_t)counter;
+    return true;
+}
+
+int MediaTime::formatTime(char* buffer, size_t size, int64_t millis, bool fraction)
+{
+    // the magnitude of INT64_MIN only fits unsigned
+    uint64_t magnitude = millis < 0 ? 0 - (uint64_t)millis : (uint64_t)millis;
+    uint64_t seconds = magnitude / 1000;
+    uint64_t hours = seconds / 3600;
+
+    char hourDigits[20];
+    uint32_t hourLength = 0;
+    do
+    {
+        hourDigits[hourLength++] = '0' + hours % 10;
+        hours /= 10;
+    } while (hours != 0);
+    while (hourLength < 2)
+    {
+        hourDigits[hourLength++] = '0';
+    }
+
+    size_t length = (millis < 0 ? 1 : 0) + hourLength + 6 + (fraction ? 4 : 0);
+    if (buffer == NULL || length >= size)
+    {
+        return -1;
+    }
+
+    char* p = buffer;
+    if (millis < 0)
+    {
+        *p++ = '-';
+    }
+    while (hourLength > 0)
+    {
+        *p++ = hourDigits[--hourLength];
+    }
+    uint32_t minute = seconds / 60 % 60;
+    uint32_t second = seconds % 60;
+    *p++ = ':';
+    *p++ = '0' + minute / 10;
+    *p++ = '0' + minute % 10;
+    *p++ = ':';
+    *p++ = '0' + second / 10;
+    *p++ = '0' + second % 10;
+    if (fraction)
+    {
+        uint32_t ms = magnitude % 1000;
+        *p++ = '.';
+        *p++ = '0' + ms / 100;
+        *p++ = '0' + ms / 10 % 10;
+        *p++ = '0' + ms % 10;
+    }
+    *p = '\0';
+    return (int)length;
+}
+
+} // namespace eevix
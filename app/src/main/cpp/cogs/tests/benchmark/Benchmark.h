@@ -0,0 +1,30 @@
+#ifndef EEVIX_BENCHMARK_H
+#define EEVIX_BENCHMARK_H
+
+#include <stdint.h>
+
+/*
+ * Plain timing harness for cogs hot paths.
+ *
+ * BENCHMARK(name) registers a body that runs `iterations` operations; main.cpp times it and
+ * counts the operator new calls it makes, so results read as ops/sec and allocations/op.
+ */
+namespace benchmark
+{
+typedef void (*Body)(uint64_t iterations);
+
+struct Registration
+{
+    Registration(const char* name, Body body);
+};
+
+// Keeps the optimizer from discarding results.
+void consume(uint64_t value);
+}
+
+#define BENCHMARK(name) \
+    static void name(uint64_t iterations); \
+    static benchmark::Registration name##Registration(#name, name); \
+    static void name(uint64_t iterations)
+
+#endif // EEVIX_BENCHMARK_H
@@ -0,0 +1,113 @@
+#include <semaphore.h>
+#include <memory>
+#include <string>
+#include "Command.h"
+#include "KeyedData.h"
+#include "Queue.h"
+#include "Benchmark.h"
+
+using eevix::Command;
+using eevix::CommandPool;
+using eevix::KeyedData;
+using eevix::Queue;
+
+namespace
+{
+const char kUrl[] = "http://192.168.1.10:8200/MediaItems/1234.mkv";
+
+enum ParameterKeys
+{
+    kUrl_,
+    kState,
+    kSeekTarget,
+};
+
+// The renderer message as it was before the pooled command record.
+class KeyedMessage : public KeyedData
+{
+public:
+    explicit KeyedMessage(int type) : mType(type)
+    {
+        sem_init(&mSemaphore, 0, 0);
+    }
+    ~KeyedMessage()
+    {
+        sem_destroy(&mSemaphore);
+    }
+    int type() const
+    {
+        return mType;
+    }
+private:
+    int   mType;
+    sem_t mSemaphore;
+};
+}
+
+BENCHMARK(keyedDataSeekCommand)
+{
+    Queue<std::shared_ptr<KeyedMessage> > queue;
+    for (uint64_t i = 0; i < iterations; i++)
+    {
+        std::shared_ptr<KeyedMessage> message = std::make_shared<KeyedMessage>(4);
+        message->setInt32(kSeekTarget, (int32_t)i);
+        queue.push(message);
+
+        std::shared_ptr<KeyedMessage> received;
+        queue.pop(received);
+        int32_t target = 0;
+        received->getInt32(kSeekTarget, target);
+        benchmark::consume(target + received->type());
+    }
+}
+
+BENCHMARK(pooledSeekCommand)
+{
+    static CommandPool pool;
+    Queue<Command*> queue;
+    for (uint64_t i = 0; i < iterations; i++)
+    {
+        Command* command = pool.obtain(4);
+        command->setInt32(0, (int32_t)i);
+        queue.push(command);
+
+        Command* received = NULL;
+        queue.pop(received);
+        benchmark::consume(received->getInt32(0) + received->type());
+        received->release();
+    }
+}
+
+BENCHMARK(keyedDataSetUriCommand)
+{
+    Queue<std::shared_ptr<KeyedMessage> > queue;
+    for (uint64_t i = 0; i < iterations; i++)
+    {
+        std::shared_ptr<KeyedMessage> message = std::make_shared<KeyedMessage>(0);
+        message->setString(kUrl_, kUrl, sizeof(kUrl) - 1);
+        queue.push(message);
+
+        std::shared_ptr<KeyedMessage> received;
+        queue.pop(received);
+        std::string url;
+        received->getString(kUrl_, url);
+        benchmark::consume(url.length());
+    }
+}
+
+BENCHMARK(pooledSetUriCommand)
+{
+    static CommandPool pool;
+    Queue<Command*> queue;
+    for (uint64_t i = 0; i < iterations; i++)
+    {
+        Command* command = pool.obtain(0);
+        command->setString(kUrl, sizeof(kUrl) - 1);
+        queue.push(command);
+
+        Command* received = NULL;
+        queue.pop(received);
+        benchmark::consume(received->stringLength() + received->string()[0]);
+        received->release();
+    }
+}
@@ -0,0 +1,65 @@
+#include <stdio.h>
+#include "Log.h"
+#include "Benchmark.h"
+
+namespace
+{
+const char kUrl[] = "http://192.168.1.10:8200/MediaItems/1234.mkv";
+
+// Restores the runtime level when a benchmark returns.
+class ScopedLogLevel
+{
+public:
+    explicit ScopedLogLevel(int level) : mSaved(eevix::logLevel())
+    {
+        eevix::setLogLevel(level);
+    }
+    ~ScopedLogLevel()
+    {
+        eevix::setLogLevel(mSaved);
+    }
+private:
+    int mSaved;
+};
+}
+
+// What every message and action paid before the level check: the formatting of the line.
+BENCHMARK(logFormatSeekMessage)
+{
+    char line[256];
+    for (uint64_t i = 0; i < iterations; i++)
+    {
+        int length = snprintf(line, sizeof(line), "[%s][%d] kSeek, target:%d", __FUNCTION__, __LINE__, (int)i);
+        benchmark::consume(length);
+    }
+}
+
+BENCHMARK(logFormatSetUriMessage)
+{
+    char line[256];
+    for (uint64_t i = 0; i < iterations; i++)
+    {
+        int length = snprintf(line, sizeof(line), "[%s][%d] kSetAVTransportURI, %s", __FUNCTION__, __LINE__, kUrl);
+        benchmark::consume(length);
+    }
+}
+
+BENCHMARK(logGatedSeekMessage)
+{
+    ScopedLogLevel level(LOG_LEVEL_INFO);
+    for (uint64_t i = 0; i < iterations; i++)
+    {
+        LOGV("kSeek, target:%d", (int)i);
+        benchmark::consume(i);
+    }
+}
+
+BENCHMARK(logGatedSetUriMessage)
+{
+    ScopedLogLevel level(LOG_LEVEL_INFO);
+    for (uint64_t i = 0; i < iterations; i++)
+    {
+        LOGV("kSetAVTransportURI, %s", kUrl);
+        benchmark::consume(i);
+    }
+}
@@ -0,0 +1,82 @@
+#include <stdio.h>
+#include <stdlib.h>
+#include "MediaTime.h"
+#include "Benchmark.h"
+
+using eevix::MediaTime;
+
+namespace
+{
+struct Target
+{
+    const char* text;
+    size_t      length;
+};
+
+#define TARGET(text) {text, sizeof(text) - 1}
+
+const Target kTargets[] = {TARGET("00:00:00"), TARGET("0:01:30"), TARGET("01:02:03"), TARGET("12:34:56")};
+const Target kFractionTargets[] =
+{
+    TARGET("00:00:00.500"), TARGET("0:01:30.25"), TARGET("01:02:03.1/3"), TARGET("12:34:56.999")
+};
+const size_t kTargetCount = sizeof(kTargets) / sizeof(kTargets[0]);
+}
+
+// How OnSeek used to read a Seek target, whole seconds only.
+BENCHMARK(seekTargetSscanf)
+{
+    for (uint64_t i = 0; i < iterations; i++)
+    {
+        unsigned hour = 0;
+        unsigned minute = 0;
+        unsigned second = 0;
+        sscanf(kTargets[i % kTargetCount].text, "%u:%u:%u", &hour, &minute, &second);
+        benchmark::consume(hour * 3600000 + minute * 60000 + second * 1000);
+    }
+}
+
+BENCHMARK(seekTargetMediaTime)
+{
+    for (uint64_t i = 0; i < iterations; i++)
+    {
+        const Target& target = kTargets[i % kTargetCount];
+        int64_t millis = 0;
+        MediaTime::parseTime(target.text, target.length, &millis);
+        benchmark::consume(millis);
+    }
+}
+
+BENCHMARK(seekTargetMediaTimeFraction)
+{
+    for (uint64_t i = 0; i < iterations; i++)
+    {
+        const Target& target = kFractionTargets[i % kTargetCount];
+        int64_t millis = 0;
+        MediaTime::parseTime(target.text, target.length, &millis);
+        benchmark::consume(millis);
+    }
+}
+
+// How RelativeTimePosition and the durations used to be formatted, a heap string per update.
+BENCHMARK(positionAsprintf)
+{
+    for (uint64_t i = 0; i < iterations; i++)
+    {
+        char* text = NULL;
+        uint32_t time = (uint32_t)i;
+        int length = asprintf(&text, "%02u:%02u:%02u", time / 3600, time / 60 % 60, time % 60);
+        benchmark::consume(length);
+        free(text);
+    }
+}
+
+BENCHMARK(positionMediaTime)
+{
+    char text[MediaTime::kMaxLength];
+    for (uint64_t i = 0; i < iterations; i++)
+    {
+        int length = MediaTime::formatTime(text, sizeof(text), (int64_t)i * 1000, false);
+        benchmark::consume(length);
+    }
+}
@@ -0,0 +1,95 @@
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <atomic>
+#include <new>
+#include "Benchmark.h"
+
+namespace
+{
+const uint32_t kMaxBenchmarks = 64;
+const uint64_t kIterations = 1000000;
+
+struct Entry
+{
+    const char*     name;
+    benchmark::Body body;
+};
+
+Entry                 sEntries[kMaxBenchmarks];
+uint32_t              sEntryCount = 0;
+std::atomic<uint64_t> sAllocations(0);
+volatile uint64_t     sSink = 0;
+
+int64_t nowNanos()
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t)ts.tv_sec * 1000000000 + ts.tv_nsec;
+}
+}
+
+void* operator new(size_t size)
+{
+    sAllocations.fetch_add(1, std::memory_order_relaxed);
+    void* p = malloc(size == 0 ? 1 : size);
+    if (p == NULL)
+    {
+        throw std::bad_alloc();
+    }
+    return p;
+}
+
+void operator delete(void* p) noexcept
+{
+    free(p);
+}
+
+namespace benchmark
+{
+Registration::Registration(const char* name, Body body)
+{
+    if (sEntryCount < kMaxBenchmarks)
+    {
+        sEntries[sEntryCount].name = name;
+        sEntries[sEntryCount].body = body;
+        sEntryCount++;
+    }
+}
+
+void consume(uint64_t value)
+{
+    sSink = sSink + value;
+}
+}
+
+int main(int argc, char** argv)
+{
+    const char* filter = argc > 1 ? argv[1] : NULL;
+    printf("%-40s %14s %12s %12s\n", "benchmark", "ops/sec", "ns/op", "allocs/op");
+
+    for (uint32_t i = 0; i < sEntryCount; i++)
+    {
+        if (filter != NULL && strstr(sEntries[i].name, filter) == NULL)
+        {
+            continue;
+        }
+
+        sEntries[i].body(kIterations / 10); // warm up pools and caches
+
+        uint64_t allocations = sAllocations.load();
+        int64_t start = nowNanos();
+        sEntries[i].body(kIterations);
+        int64_t elapsed = nowNanos() - start;
+        allocations = sAllocations.load() - allocations;
+
+        printf("%-40s %14.0f %12.1f %12.3f\n",
+               sEntries[i].name,
+               kIterations * 1e9 / (elapsed > 0 ? elapsed : 1),
+               (double)elapsed / kIterations,
+               (double)allocations / kIterations);
+    }
+
+    return 0;
+}
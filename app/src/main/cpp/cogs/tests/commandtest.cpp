@@ -0,0 +1,104 @@
+#include <string.h>
+#include <string>
+#include "Command.h"
+#include "gtest/gtest.h"
+
+using eevix::Command;
+using eevix::CommandPool;
+
+TEST(command, recycledRecordIsReset)
+{
+    CommandPool pool(1);
+    Command* command = pool.obtain(3);
+    command->setInt32(0, 42);
+    command->setInt64(1, 1LL << 40);
+    command->setBool(true);
+    command->setString("http://host/a", 13);
+    command->release();
+
+    Command* recycled = pool.obtain(5);
+    EXPECT_TRUE(recycled == command);
+    EXPECT_EQ(recycled->type(), 5);
+    EXPECT_EQ(recycled->getInt32(0), 0);
+    EXPECT_EQ(recycled->getInt64(1), 0);
+    EXPECT_FALSE(recycled->getBool());
+    EXPECT_EQ(recycled->stringLength(), 0u);
+    EXPECT_STREQ(recycled->string(), "");
+    recycled->release();
+    EXPECT_EQ(pool.records(), 1u);
+}
+
+TEST(command, poolGrowsOnlyWhenEmpty)
+{
+    CommandPool pool(2);
+    Command* first = pool.obtain(0);
+    Command* second = pool.obtain(0);
+    Command* third = pool.obtain(0);
+    EXPECT_EQ(pool.records(), 3u);
+    first->release();
+    second->release();
+    third->release();
+
+    for (int i = 0; i < 100; i++)
+    {
+        pool.obtain(0)->release();
+    }
+    EXPECT_EQ(pool.records(), 3u);
+}
+
+TEST(command, lastReferenceRecycles)
+{
+    CommandPool pool(1);
+    Command* command = pool.obtain(0);
+    command->retain();
+    command->release();
+    Command* other = pool.obtain(0);
+    EXPECT_TRUE(other != command);
+    command->release();
+    other->release();
+    EXPECT_EQ(pool.records(), 2u);
+}
+
+TEST(command, longStringsSpillToReusedHeapBuffer)
+{
+    CommandPool pool(1);
+    std::string url(Command::kInlineStringSize * 2, 'u');
+    Command* command = pool.obtain(0);
+    command->setString(url.c_str(), (uint32_t)url.length());
+    EXPECT_EQ(command->stringLength(), (uint32_t)url.length());
+    EXPECT_EQ(url, std::string(command->string()));
+
+    command->setString("short", 5);
+    EXPECT_STREQ(command->string(), "short");
+
+    command->setString(url.c_str(), (uint32_t)url.length() - 1);
+    EXPECT_EQ(strlen(command->string()), url.length() - 1);
+    command->release();
+}
+
+TEST(command, replyIsDeliveredOnce)
+{
+    CommandPool pool(1);
+    Command* command = pool.obtain(0);
+    command->setBool(true);
+    command->postReply();
+    command->waitReply();
+    EXPECT_TRUE(command->getBool());
+
+    command->postReply(); // never waited for
+    command->release();
+    command = pool.obtain(0);
+    command->postReply();
+    command->waitReply();
+    command->release();
+}
+
+TEST(command, timedReplyWaitExpires)
+{
+    CommandPool pool(1);
+    Command* command = pool.obtain(0);
+    EXPECT_FALSE(command->waitReply(20));
+    command->postReply();
+    EXPECT_TRUE(command->waitReply(20));
+    command->release();
+}
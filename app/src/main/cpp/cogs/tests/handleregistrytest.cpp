@@ -0,0 +1,83 @@
+#include <memory>
+#include "HandleRegistry.h"
+#include "gtest/gtest.h"
+
+using eevix::HandleRegistry;
+
+namespace
+{
+typedef HandleRegistry<std::shared_ptr<int>, 4> Registry;
+}
+
+TEST(handleRegistry, getFindsWhatWasAdded)
+{
+    Registry registry;
+    std::shared_ptr<int> first = std::make_shared<int>(1);
+    std::shared_ptr<int> second = std::make_shared<int>(2);
+    int64_t firstHandle = registry.add(first);
+    int64_t secondHandle = registry.add(second);
+    EXPECT_GT(firstHandle, 0);
+    EXPECT_GT(secondHandle, 0);
+    EXPECT_NE(firstHandle, secondHandle);
+    EXPECT_EQ(registry.get(firstHandle), first);
+    EXPECT_EQ(registry.get(secondHandle), second);
+    EXPECT_EQ(registry.size(), 2u);
+    EXPECT_FALSE(registry.get(0));
+    EXPECT_FALSE(registry.get(-1));
+}
+
+TEST(handleRegistry, addFailsWhenFull)
+{
+    Registry registry;
+    for (int i = 0; i < Registry::kCapacity; i++)
+    {
+        EXPECT_GT(registry.add(std::make_shared<int>(i)), 0);
+    }
+    EXPECT_EQ(registry.add(std::make_shared<int>(Registry::kCapacity)), 0);
+    EXPECT_EQ(registry.size(), (uint32_t)Registry::kCapacity);
+}
+
+TEST(handleRegistry, removedHandleFindsNothing)
+{
+    Registry registry;
+    int64_t handle = registry.add(std::make_shared<int>(1));
+    EXPECT_TRUE(registry.remove(handle));
+    EXPECT_FALSE(registry.get(handle));
+    EXPECT_FALSE(registry.remove(handle));
+    EXPECT_EQ(registry.size(), 0u);
+}
+
+// the slot is reused for the next object, the earlier handle must not reach it
+TEST(handleRegistry, staleHandleDoesNotFindTheNextObject)
+{
+    Registry registry;
+    int64_t stale = registry.add(std::make_shared<int>(1));
+    registry.remove(stale);
+    std::shared_ptr<int> next = std::make_shared<int>(2);
+    int64_t handle = registry.add(next);
+    EXPECT_EQ(handle & 0xff, stale & 0xff);
+    EXPECT_NE(handle, stale);
+    EXPECT_FALSE(registry.get(stale));
+    EXPECT_FALSE(registry.remove(stale));
+    EXPECT_EQ(registry.get(handle), next);
+}
+
+// a call holding a reference keeps the object alive past remove(), and the registry drops its own
+TEST(handleRegistry, referenceOutlivesRemove)
+{
+    Registry registry;
+    std::weak_ptr<int> watch;
+    std::shared_ptr<int> held;
+    {
+        std::shared_ptr<int> object = std::make_shared<int>(1);
+        watch = object;
+        int64_t handle = registry.add(object);
+        held = registry.get(handle);
+        registry.remove(handle);
+    }
+    EXPECT_FALSE(watch.expired());
+    EXPECT_EQ(*held, 1);
+
+    held.reset();
+    EXPECT_TRUE(watch.expired());
+}
@@ -0,0 +1,76 @@
+#include <stdint.h>
+#include <string.h>
+#include <thread>
+#include <vector>
+#include "Histogram.h"
+#include "gtest/gtest.h"
+
+using eevix::Histogram;
+
+TEST(histogram, smallValuesAreExact)
+{
+    Histogram histogram;
+    for (uint64_t value = 0; value < Histogram::kSubBuckets; value++)
+    {
+        EXPECT_EQ(Histogram::upperBoundOf(Histogram::bucketOf(value)), value);
+    }
+}
+
+TEST(histogram, bucketsBoundTheRelativeError)
+{
+    for (uint64_t value = 1; value < (1ULL << 40); value = value * 3 + 1)
+    {
+        uint64_t bound = Histogram::upperBoundOf(Histogram::bucketOf(value));
+        EXPECT_GE(bound, value);
+        EXPECT_LE(bound - value, value / Histogram::kSubBuckets);
+    }
+    EXPECT_LT(Histogram::bucketOf(UINT64_MAX), (uint32_t)Histogram::kBuckets);
+    EXPECT_EQ(Histogram::upperBoundOf(Histogram::bucketOf(UINT64_MAX)), UINT64_MAX);
+}
+
+TEST(histogram, percentilesOfAUniformRange)
+{
+    Histogram histogram;
+    EXPECT_EQ(histogram.percentile(50), 0u);
+    for (uint64_t value = 1; value <= 1000; value++)
+    {
+        histogram.record(value);
+    }
+
+    EXPECT_EQ(histogram.count(), 1000u);
+    EXPECT_EQ(histogram.max(), 1000u);
+    EXPECT_EQ(histogram.mean(), 500u);
+    EXPECT_NEAR((double)histogram.percentile(50), 500, 500 / Histogram::kSubBuckets);
+    EXPECT_NEAR((double)histogram.percentile(99), 990, 990 / Histogram::kSubBuckets);
+    EXPECT_EQ(histogram.percentile(100), 1000u);
+
+    char buffer[128];
+    histogram.format(buffer, sizeof(buffer), "us");
+    EXPECT_EQ(strncmp(buffer, "count:1000 mean:500us p50:", 26), 0);
+
+    histogram.reset();
+    EXPECT_EQ(histogram.count(), 0u);
+    EXPECT_EQ(histogram.max(), 0u);
+}
+
+TEST(histogram, concurrentRecordsAreAllCounted)
+{
+    Histogram histogram;
+    std::vector<std::thread> threads;
+    for (int t = 0; t < 4; t++)
+    {
+        threads.push_back(std::thread([&histogram, t]() {
+            for (uint64_t i = 0; i < 100000; i++)
+            {
+                histogram.record(i * (t + 1));
+            }
+        }));
+    }
+    for (size_t t = 0; t < threads.size(); t++)
+    {
+        threads[t].join();
+    }
+
+    EXPECT_EQ(histogram.count(), 400000u);
+    EXPECT_EQ(histogram.max(), 99999u * 4);
+}
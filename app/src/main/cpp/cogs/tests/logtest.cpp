@@ -0,0 +1,36 @@
+#include "Log.h"
+#include "gtest/gtest.h"
+
+namespace
+{
+int sEvaluations = 0;
+
+int evaluate()
+{
+    return ++sEvaluations;
+}
+}
+
+TEST(log, runtimeLevelGatesFormatting)
+{
+    int level = eevix::logLevel();
+    sEvaluations = 0;
+
+    eevix::setLogLevel(LOG_LEVEL_ERROR);
+    LOGV("verbose:%d", evaluate());
+    LOGD("debug:%d", evaluate());
+    LOGI("info:%d", evaluate());
+    EXPECT_EQ(sEvaluations, 0);
+    EXPECT_FALSE(eevix::isLoggable(LOG_LEVEL_WARN));
+    EXPECT_TRUE(eevix::isLoggable(LOG_LEVEL_ERROR));
+
+    eevix::setLogLevel(LOG_LEVEL_SILENT);
+    LOGE("error:%d", evaluate());
+    EXPECT_EQ(sEvaluations, 0);
+
+    eevix::setLogLevel(LOG_LEVEL_VERBOSE);
+    LOGV("verbose:%d", evaluate());
+    EXPECT_EQ(sEvaluations, LOG_MIN_LEVEL <= LOG_LEVEL_VERBOSE ? 1 : 0);
+
+    eevix::setLogLevel(level);
+}
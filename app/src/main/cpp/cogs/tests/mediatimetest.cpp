@@ -0,0 +1,257 @@
+#include <stdint.h>
+#include <string.h>
+#include <algorithm>
+#include <random>
+#include <string>
+#include "MediaTime.h"
+#include "gtest/gtest.h"
+
+using eevix::MediaTime;
+
+namespace
+{
+bool parseTime(const char* text, int64_t* millis)
+{
+    return MediaTime::parseTime(text, strlen(text), millis);
+}
+
+bool parseCounter(const char* text, uint64_t* value)
+{
+    return MediaTime::parseCounter(text, strlen(text), value);
+}
+
+std::string format(int64_t millis, bool fraction)
+{
+    char buffer[MediaTime::kMaxLength];
+    int length = MediaTime::formatTime(buffer, sizeof(buffer), millis, fraction);
+    return length < 0 ? "" : std::string(buffer, length);
+}
+}
+
+TEST(mediatime, parsesTimes)
+{
+    struct
+    {
+        const char* text;
+        int64_t     millis;
+    } cases[] =
+    {
+        {"00:00:00",          0},
+        {"0:00:00",           0},
+        {"01:02:03",          3723000},
+        {"1:2:3",             3723000},
+        {"100:00:00",         360000000},
+        {"+0:00:01",          1000},
+        {"-0:00:01",          -1000},
+        {"0:00:01.5",         1500},
+        {"0:00:01.05",        1050},
+        {"0:00:01.250",       1250},
+        {"0:00:01.2509",      1250},            // F+ past the ms is dropped
+        {"0:00:01.1/3",       1333},
+        {"0:00:01.2/3",       1667},
+        {"0:00:00.0/1",       0},
+        {"0:59:59.999",       3599999},
+        {"2562047788015:12:55.807", INT64_MAX},
+        {"-2562047788015:12:55.807", -INT64_MAX},
+    };
+
+    for (size_t i = 0; i < sizeof(cases) / sizeof(cases[0]); i++)
+    {
+        int64_t millis = -42;
+        EXPECT_TRUE(parseTime(cases[i].text, &millis)) << cases[i].text;
+        EXPECT_EQ(millis, cases[i].millis) << cases[i].text;
+    }
+}
+
+TEST(mediatime, rejectsMalformedTimes)
+{
+    const char* cases[] =
+    {
+        "", ":", "::", "0", "0:00", "00:00:", ":00:00", "0::00", "0:00:00:00",
+        "0:60:00", "0:00:60", "0:000:00", "0:00:000", "a:00:00", " 0:00:00", "0:00:00 ",
+        "0:00:00.", "0:00:00.a", "0:00:00..5", "0:00:00.5.", "+-0:00:00", "--0:00:00", "0:+1:00",
+        "0:00:00.3/3", "0:00:00.1/0", "0:00:00.1/", "0:00:00./2", "0:00:00.1/2/3",
+        "0:00:00.1234567890/12345678901",
+        "NOT_IMPLEMENTED",
+        "2562047788015:12:55.808",          // past INT64_MAX ms
+        "2562047788016:00:00",
+        "99999999999999999999:00:00",
+        "123456789012345678901:00:00",
+    };
+
+    for (size_t i = 0; i < sizeof(cases) / sizeof(cases[0]); i++)
+    {
+        int64_t millis = -42;
+        EXPECT_FALSE(parseTime(cases[i], &millis)) << cases[i];
+        EXPECT_EQ(millis, -42) << cases[i];
+    }
+}
+
+TEST(mediatime, readsOnlyTheGivenLength)
+{
+    const char text[] = "01:02:03.456789";
+    int64_t millis = 0;
+    EXPECT_TRUE(MediaTime::parseTime(text, 8, &millis));
+    EXPECT_EQ(millis, 3723000);
+    EXPECT_TRUE(MediaTime::parseTime(text, 10, &millis));
+    EXPECT_EQ(millis, 3723400);
+    EXPECT_TRUE(MediaTime::parseTime(text, 7, &millis));
+    EXPECT_EQ(millis, 3720000);
+    EXPECT_FALSE(MediaTime::parseTime(text, 6, &millis));
+    EXPECT_FALSE(MediaTime::parseTime(text, 0, &millis));
+
+    // a NUL inside the length is a character like any other
+    const char nul[] = "0:00:01\0";
+    EXPECT_FALSE(MediaTime::parseTime(nul, sizeof(nul) - 1, &millis));
+}
+
+TEST(mediatime, parsesCounters)
+{
+    uint64_t value = 0;
+    EXPECT_TRUE(parseCounter("0", &value));
+    EXPECT_EQ(value, 0u);
+    EXPECT_TRUE(parseCounter("1048576", &value));
+    EXPECT_EQ(value, 1048576u);
+    EXPECT_TRUE(parseCounter("18446744073709551615", &value));
+    EXPECT_EQ(value, UINT64_MAX);
+
+    const char* rejected[] = {"", "-1", "+1", "1.0", "1 ", "0x10", "18446744073709551616", "99999999999999999999"};
+    for (size_t i = 0; i < sizeof(rejected) / sizeof(rejected[0]); i++)
+    {
+        value = 42;
+        EXPECT_FALSE(parseCounter(rejected[i], &value)) << rejected[i];
+        EXPECT_EQ(value, 42u) << rejected[i];
+    }
+}
+
+TEST(mediatime, parsesUnitsAndTargets)
+{
+    EXPECT_EQ(MediaTime::parseUnit("REL_TIME", 8), MediaTime::kRelTime);
+    EXPECT_EQ(MediaTime::parseUnit("abs_time", 8), MediaTime::kAbsTime);
+    EXPECT_EQ(MediaTime::parseUnit("X_DLNA_REL_BYTE", 15), MediaTime::kRelByte);
+    EXPECT_EQ(MediaTime::parseUnit("TRACK_NR", 8), MediaTime::kTrackNr);
+    EXPECT_EQ(MediaTime::parseUnit("REL_TIME", 7), MediaTime::kUnknown);
+    EXPECT_EQ(MediaTime::parseUnit("REL_TIMES", 9), MediaTime::kUnknown);
+    EXPECT_EQ(MediaTime::parseUnit("FRAME", 5), MediaTime::kUnknown);
+    EXPECT_EQ(MediaTime::parseUnit("", 0), MediaTime::kUnknown);
+    EXPECT_STREQ(MediaTime::unitName(MediaTime::kRelByte), "X_DLNA_REL_BYTE");
+
+    int64_t value = 0;
+    EXPECT_TRUE(MediaTime::parseTarget(MediaTime::kRelTime, "0:01:00.5", 9, &value));
+    EXPECT_EQ(value, 60500);
+    EXPECT_TRUE(MediaTime::parseTarget(MediaTime::kRelByte, "123456789", 9, &value));
+    EXPECT_EQ(value, 123456789);
+    EXPECT_FALSE(MediaTime::parseTarget(MediaTime::kRelByte, "0:01:00", 7, &value));
+    EXPECT_FALSE(MediaTime::parseTarget(MediaTime::kRelTime, "60000", 5, &value));
+    EXPECT_FALSE(MediaTime::parseTarget(MediaTime::kRelByte, "9223372036854775808", 19, &value));
+    EXPECT_FALSE(MediaTime::parseTarget(MediaTime::kUnknown, "1", 1, &value));
+}
+
+TEST(mediatime, formatsTimes)
+{
+    EXPECT_EQ(format(0, false), "00:00:00");
+    EXPECT_EQ(format(999, false), "00:00:00");
+    EXPECT_EQ(format(3723456, false), "01:02:03");
+    EXPECT_EQ(format(3723456, true), "01:02:03.456");
+    EXPECT_EQ(format(360000000, false), "100:00:00");
+    EXPECT_EQ(format(-1500, true), "-00:00:01.500");
+    EXPECT_EQ(format(INT64_MIN, true), "-2562047788015:12:55.808");
+
+    // what fits, exactly
+    char buffer[MediaTime::kMaxLength];
+    EXPECT_EQ(MediaTime::formatTime(buffer, 9, 3723456, false), 8);
+    EXPECT_STREQ(buffer, "01:02:03");
+    EXPECT_EQ(MediaTime::formatTime(buffer, 8, 3723456, false), -1);
+    EXPECT_EQ(MediaTime::formatTime(buffer, 0, 0, false), -1);
+    EXPECT_EQ(MediaTime::formatTime(NULL, 16, 0, false), -1);
+}
+
+TEST(mediatime, formattedTimesParseBack)
+{
+    std::mt19937_64 random(20190606);
+    for (int i = 0; i < 200000; i++)
+    {
+        int64_t millis;
+        switch (i % 4)
+        {
+            case 0:  millis = (int64_t)random(); break;                       // anywhere in range
+            case 1:  millis = (int64_t)(random() % 86400000); break;          // within a day
+            case 2:  millis = -(int64_t)(random() % 86400000); break;
+            default: millis = INT64_MAX - (int64_t)(random() % 10000); break; // at the edge
+        }
+
+        std::string exact = format(millis, true);
+        int64_t parsed = 0;
+        ASSERT_TRUE(parseTime(exact.c_str(), &parsed)) << exact;
+        ASSERT_EQ(parsed, millis) << exact;
+
+        std::string seconds = format(millis, false);
+        ASSERT_TRUE(parseTime(seconds.c_str(), &parsed)) << seconds;
+        ASSERT_EQ(parsed, millis / 1000 * 1000) << seconds;
+    }
+
+    int64_t parsed = 0;
+    EXPECT_TRUE(parseTime(format(INT64_MIN + 1, true).c_str(), &parsed));
+    EXPECT_EQ(parsed, INT64_MIN + 1);
+}
+
+// Random strings over the characters a time is made of: nothing crashes, and what parses is a
+// well-formed time that formats to the same value.
+TEST(mediatime, fuzzedTimes)
+{
+    const char alphabet[] = "0123456789::::....//+-9 x";
+    std::mt19937_64 random(20190607);
+    char text[32];
+    int accepted = 0;
+    for (int i = 0; i < 1000000; i++)
+    {
+        size_t length = random() % sizeof(text);
+        for (size_t n = 0; n < length; n++)
+        {
+            text[n] = alphabet[random() % (sizeof(alphabet) - 1)];
+        }
+
+        int64_t millis = 0;
+        if (!MediaTime::parseTime(text, length, &millis))
+        {
+            continue;
+        }
+
+        accepted++;
+        std::string input(text, length);
+        ASSERT_EQ(std::count(input.begin(), input.end(), ':'), 2) << input;
+        ASSERT_EQ(input.find_first_not_of("0123456789:./+-"), std::string::npos) << input;
+
+        int64_t again = 0;
+        std::string formatted = format(millis, true);
+        ASSERT_TRUE(parseTime(formatted.c_str(), &again)) << input;
+        ASSERT_EQ(again, millis) << input;
+    }
+    EXPECT_GT(accepted, 0);
+}
+
+// Valid times with one byte changed, inserted or removed: the parser either rejects them or
+// reads a value within the range a time can have.
+TEST(mediatime, mutatedTimes)
+{
+    const char* seeds[] = {"01:02:03", "0:00:01.5", "12:34:56.1/3", "-100:59:59.999", "+0:0:0"};
+    std::mt19937_64 random(20190608);
+    for (int i = 0; i < 300000; i++)
+    {
+        std::string text = seeds[random() % (sizeof(seeds) / sizeof(seeds[0]))];
+        size_t at = random() % (text.size() + 1);
+        char byte = (char)(random() % 256);
+        switch (random() % 3)
+        {
+            case 0:  if (at < text.size()) text[at] = byte; break;
+            case 1:  text.insert(at, 1, byte); break;
+            default: if (at < text.size()) text.erase(at, 1); break;
+        }
+
+        int64_t millis = 0;
+        if (MediaTime::parseTime(text.data(), text.size(), &millis))
+        {
+            ASSERT_LT(millis < 0 ? -millis : millis, (int64_t)10000 * 3600000) << text;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+#include <unistd.h>
+#include <pthread.h>
+#include <atomic>
+#include <vector>
+#include "Queue.h"
+#include "gtest/gtest.h"
+
+using eevix::Queue;
+
+namespace
+{
+const uint32_t kProducers = 4;
+const uint32_t kItemsPerProducer = 100000;
+
+struct StressContext
+{
+    Queue<uint64_t>*       queue;
+    uint32_t               producer;
+    std::atomic<uint32_t>* finished;
+};
+
+void* produce(void* userData)
+{
+    StressContext* context = (StressContext*)userData;
+    for (uint32_t i = 0; i < kItemsPerProducer; i++)
+    {
+        context->queue->push(((uint64_t)context->producer << 32) | i);
+    }
+    if (context->finished != NULL)
+    {
+        context->finished->fetch_add(1);
+    }
+    return NULL;
+}
+
+void sum(const uint64_t& oldest, uint64_t& incoming)
+{
+    incoming += oldest;
+}
+}
+
+TEST(queue, popsInFifoOrderAcrossWrapAround)
+{
+    Queue<int> queue(4);
+    EXPECT_EQ(queue.capacity(), 4u);
+
+    int item = 0;
+    for (int round = 0; round < 10; round++)
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            EXPECT_TRUE(queue.push(round * 10 + i));
+        }
+        EXPECT_EQ(queue.size(), 3u);
+        for (int i = 0; i < 3; i++)
+        {
+            EXPECT_TRUE(queue.pop(item));
+            EXPECT_EQ(item, round * 10 + i);
+        }
+    }
+    EXPECT_FALSE(queue.tryPop(item));
+}
+
+TEST(queue, capacityIsRoundedUpToPowerOfTwo)
+{
+    Queue<int> queue(33);
+    EXPECT_EQ(queue.capacity(), 64u);
+}
+
+TEST(queue, popTimesOutWhenEmpty)
+{
+    Queue<int> queue;
+    int item = 0;
+    struct timespec start, end;
+    clock_gettime(CLOCK_MONOTONIC, &start);
+    EXPECT_FALSE(queue.pop(item, 50));
+    clock_gettime(CLOCK_MONOTONIC, &end);
+    int64_t elapsed = (end.tv_sec - start.tv_sec) * 1000 + (end.tv_nsec - start.tv_nsec) / 1000000;
+    EXPECT_GE(elapsed, 45);
+}
+
+TEST(queue, dropOldestKeepsNewestItems)
+{
+    Queue<int> queue(4, Queue<int>::kDropOldest);
+    for (int i = 0; i < 10; i++)
+    {
+        EXPECT_TRUE(queue.push(i));
+    }
+
+    EXPECT_EQ(queue.dropped(), 6u);
+    int item = 0;
+    for (int i = 6; i < 10; i++)
+    {
+        EXPECT_TRUE(queue.tryPop(item));
+        EXPECT_EQ(item, i);
+    }
+    EXPECT_FALSE(queue.tryPop(item));
+}
+
+TEST(queue, coalesceFoldsOldestIntoIncoming)
+{
+    Queue<uint64_t> queue(4, Queue<uint64_t>::kCoalesce, sum);
+    uint64_t expected = 0;
+    for (uint64_t i = 1; i <= 100; i++)
+    {
+        queue.push(i);
+        expected += i;
+    }
+
+    EXPECT_EQ(queue.coalesced(), 96u);
+    EXPECT_EQ(queue.dropped(), 0u);
+    uint64_t total = 0;
+    uint64_t item = 0;
+    while (queue.tryPop(item))
+    {
+        total += item;
+    }
+    EXPECT_EQ(total, expected);
+}
+
+TEST(queue, multipleProducersSingleConsumer)
+{
+    Queue<uint64_t> queue(16);
+    StressContext contexts[kProducers];
+    pthread_t threads[kProducers];
+    for (uint32_t i = 0; i < kProducers; i++)
+    {
+        contexts[i].queue = &queue;
+        contexts[i].producer = i;
+        contexts[i].finished = NULL;
+        pthread_create(&threads[i], NULL, produce, &contexts[i]);
+    }
+
+    std::vector<uint32_t> next(kProducers, 0);
+    uint64_t item = 0;
+    for (uint32_t received = 0; received < kProducers * kItemsPerProducer; received++)
+    {
+        ASSERT_TRUE(queue.pop(item, 5000));
+        uint32_t producer = (uint32_t)(item >> 32);
+        uint32_t sequence = (uint32_t)item;
+        ASSERT_LT(producer, kProducers);
+        ASSERT_EQ(sequence, next[producer]);
+        next[producer]++;
+    }
+
+    for (uint32_t i = 0; i < kProducers; i++)
+    {
+        pthread_join(threads[i], NULL);
+        EXPECT_EQ(next[i], kItemsPerProducer);
+    }
+    EXPECT_FALSE(queue.tryPop(item));
+    EXPECT_EQ(queue.dropped(), 0u);
+}
+
+TEST(queue, dropOldestUnderContentionNeverBlocks)
+{
+    Queue<uint64_t> queue(8, Queue<uint64_t>::kDropOldest);
+    std::atomic<uint32_t> finished(0);
+    StressContext contexts[kProducers];
+    pthread_t threads[kProducers];
+    for (uint32_t i = 0; i < kProducers; i++)
+    {
+        contexts[i].queue = &queue;
+        contexts[i].producer = i;
+        contexts[i].finished = &finished;
+        pthread_create(&threads[i], NULL, produce, &contexts[i]);
+    }
+
+    uint64_t received = 0;
+    uint64_t item = 0;
+    std::vector<int64_t> last(kProducers, -1);
+    bool done = false;
+    while (!done)
+    {
+        done = finished.load() == kProducers;
+        while (queue.tryPop(item))
+        {
+            uint32_t producer = (uint32_t)(item >> 32);
+            int64_t sequence = (uint32_t)item;
+            EXPECT_GT(sequence, last[producer]);
+            last[producer] = sequence;
+            received++;
+        }
+    }
+
+    for (uint32_t i = 0; i < kProducers; i++)
+    {
+        pthread_join(threads[i], NULL);
+    }
+
+    EXPECT_EQ(received + queue.dropped(), (uint64_t)kProducers * kItemsPerProducer);
+}
+
+TEST(queue, blockedProducerResumesAfterPop)
+{
+    Queue<uint64_t> queue(2);
+    StressContext context = {&queue, 0, NULL};
+    pthread_t thread;
+    pthread_create(&thread, NULL, produce, &context);
+
+    usleep(20000);
+    EXPECT_EQ(queue.size(), 2u);
+
+    uint64_t item = 0;
+    for (uint32_t i = 0; i < kItemsPerProducer; i++)
+    {
+        ASSERT_TRUE(queue.pop(item, 5000));
+        ASSERT_EQ(item, (uint64_t)i);
+    }
+    pthread_join(thread, NULL);
+}
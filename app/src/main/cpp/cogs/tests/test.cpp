@@ -3,10 +3,10 @@
 
 int main(int argc, char** argv)
 {
-    YLOGD("test start");
+    LOGD("test start");
     testing::GTEST_FLAG(color) = "yes";
     testing::InitGoogleTest(&argc, argv);
-    RUN_ALL_TESTS();
-    YLOGD("test end");
-    return 0;
+    int result = RUN_ALL_TESTS();
+    LOGD("test end:%d", result);
+    return result;
 }
@@ -1,11 +1,11 @@
-#include <windows.h>
+#include <unistd.h>
 #include "Thread.h"
 #include "Log.h"
 #include "gtest/gtest.h"
 
 TEST(thread, runNomally)
 {
-    class ThreadTester : public yoghurt::Thread
+    class ThreadTester : public eevix::Thread
     {
     public:
         ThreadTester():mRan(false), mReadyCount(0) {}
@@ -36,7 +36,7 @@ TEST(thread, runNomally)
 
 TEST(thread, readyToRunReturnFalse)
 {
-    class ThreadTester : public yoghurt::Thread
+    class ThreadTester : public eevix::Thread
     {
     public:
         ThreadTester():mReadied(false), mRan(false) {}
@@ -61,7 +61,7 @@ TEST(thread, readyToRunReturnFalse)
     EXPECT_TRUE(tester->run("test"));
     while (!tester->mReadied)
     {
-        Sleep(5);
+        usleep(5000);
     }
     EXPECT_TRUE(tester->mReadied);
     EXPECT_FALSE(tester->mRan);
@@ -2,81 +2,87 @@ package com.eevix;
 
 import android.app.Service;
 import android.content.Intent;
-import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
 import android.os.IBinder;
-import android.util.Log;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
-import static android.content.Intent.ACTION_VIEW;
-import static android.content.Intent.FLAG_ACTIVITY_NEW_TASK;
-
 public class DLNAMediaRender extends Service {
     private static final String TAG = "DLNAMediaRender";
-    private static final int STATE_IDLE = PlaybackController.STATE_IDLE;
-    private static final int STATE_PREPARING = PlaybackController.STATE_PREPARING;
-    private static final int STATE_PAUSED = PlaybackController.STATE_PAUSED;
-    private static final int STATE_PLAYING = PlaybackController.STATE_PLAYING;
-    private PlaybackController mPlaybackController = null;
-
-    private static native void nativeInit(String friendlyName, String uuid);
-    private native void nativeSetup(DLNAMediaRender dlnaMediaRender);
-    private native void onStateChanged(int state);
-
-    static {
-        System.loadLibrary("dlnamediarender");
-        nativeInit(Build.MANUFACTURER + "-" + Build.MODEL, UUID.randomUUID().toString());
-    }
-
+    private static final Logger sLog = Logger.get(TAG);
+    private static final int UPCALL_BENCHMARK_ITERATIONS = 10000;
+    private static final String NATIVE_LOG_TAG = "EevixMediaRender";
+    // one per renderer for the life of the process, so control points see the same devices
+    // again when the service is recreated
+    private static final List<String> sUuids = new ArrayList<String>();
+    private final List<RendererInstance> mRenderers = new ArrayList<RendererInstance>();
+
+    /**
+     * Binder of the primary renderer, the one PlaybackActivity shows.
+     */
     class PlaybackControllerRegister extends Binder {
         void registerPlayerBackController(PlaybackController controller) {
-            Log.d(TAG, "PlaybackController controller:" + controller);
-            synchronized (DLNAMediaRender.this) {
-                mPlaybackController = controller;
-
-                if (mPlaybackController != null) {
-                    mPlaybackController.setStateChangedListener(new PlaybackController.StateChangedListener() {
-                        @Override
-                        public void onStateChanged(int state) {
-                            Log.d(TAG, "state:" + state);
-                            DLNAMediaRender.this.onStateChanged(state);
-                        }
-                    });
-                }
-
-                DLNAMediaRender.this.notify();
+            sLog.d("PlaybackController controller:{}", controller);
+            RendererInstance primary = primary();
+            if (primary != null) {
+                primary.register(controller);
             }
         }
+
+        /**
+         * The engine kept alive by the service in warm renderer mode, PlaybackActivity attaches
+         * to it instead of registering a controller of its own. null in cold mode.
+         */
+        PlayerEngine getWarmEngine() {
+            RendererInstance primary = primary();
+            return primary != null ? primary.getWarmEngine() : null;
+        }
     }
 
     @Override
     public void onCreate() {
-        Log.d(TAG, "onCreate");
+        sLog.d("onCreate");
         super.onCreate();
-        nativeSetup(this);
+        int count = Math.max(1, getResources().getInteger(R.integer.renderer_instances));
+        boolean warm = getResources().getBoolean(R.bool.warm_renderer);
+        String name = Build.MANUFACTURER + "-" + Build.MODEL;
+        for (int i = 0; i < count; i++) {
+            // only the primary renderer has PlaybackActivity to fall back on, and a surface
+            PlayerEngine warmEngine = warm || i > 0 ? PlayerEngineFactory.create(this) : null;
+            RendererInstance renderer = new RendererInstance(this, i, i == 0 ? name : name + " (" + (i + 1) + ")",
+                                                             warmEngine);
+            if (!renderer.publish(uuid(i))) {
+                renderer.release();
+                break;
+            }
+            mRenderers.add(renderer);
+        }
     }
 
     @Override
     public IBinder onBind(Intent intent) {
-        Log.d(TAG, "onBind:" + intent.toString());
+        sLog.d("onBind:{}", intent);
         return new PlaybackControllerRegister();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        Log.d(TAG, "onStartCommand:" + (intent == null ? "null" : intent) + ", flags:" + flags + ", startId:" + startId);
+        sLog.d("onStartCommand:{}, flags:{}, startId:{}", intent, flags, startId);
         return super.onStartCommand(intent, flags, startId);
     }
 
     @Override
     public boolean onUnbind(Intent intent) {
-        Log.d(TAG, "onUnbind:" + (intent == null ? "null" : intent));
+        sLog.d("onUnbind:{}", intent);
         super.onUnbind(intent);
-        synchronized (this) {
-            mPlaybackController = null;
-            onStateChanged(STATE_IDLE);
+        RendererInstance primary = primary();
+        if (primary != null) {
+            primary.unregister();
         }
         return true;
     }
@@ -84,78 +90,54 @@ public class DLNAMediaRender extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        Log.d(TAG, "onDestroy");
-    }
-
-    private synchronized boolean setDataSource(String url) {
-        Log.d(TAG, "setDataSource url:" + url);
-        if (mPlaybackController == null) {
-            Log.d(TAG, "startActivity");
-            Intent intent = new Intent(ACTION_VIEW, Uri.parse(url), this, PlaybackActivity.class);
-            intent.setFlags(FLAG_ACTIVITY_NEW_TASK);
-            intent.putExtra("from", "DLNAMediaRender");
-            startActivity(intent);
-        } else {
-            mPlaybackController.setDataSource(url);
+        sLog.d("onDestroy");
+        for (RendererInstance renderer : mRenderers) {
+            renderer.release();
         }
-
-        if (mPlaybackController == null) {
-            try {
-                wait(5000);
-            } catch (Exception ex) {
-                Log.d(TAG, "onAction caught exception:" + ex);
-                return false;
-            }
-        }
-
-        return mPlaybackController != null;
+        mRenderers.clear();
     }
 
-    private synchronized boolean isPlaying() {
-        if (mPlaybackController == null) {
-            return false;
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("DLNAMediaRender:");
+        boolean benchmark = args != null && args.length > 0 && args[0].equals("benchmark");
+        if (args != null && args.length == 3 && args[0].equals("log")) {
+            setLogLevel(writer, args[1], args[2]);
         }
-
-        return mPlaybackController.isPlaying();
-    }
-
-    private synchronized int getCurrentPosition() {
-        if (mPlaybackController == null) {
-            return 0;
+        writer.println("  log levels: " + Logger.levels() + ", " + NATIVE_LOG_TAG + ":"
+                + Logger.levelName(RendererInstance.nativeSetLogLevel(-1)));
+        writer.println("  first frame: " + FirstFrameTrace.current().lastResult());
+        for (RendererInstance renderer : mRenderers) {
+            renderer.dump(writer, benchmark, UPCALL_BENCHMARK_ITERATIONS);
         }
-
-        return mPlaybackController.getCurrentPosition();
     }
 
-    private synchronized int getDuration() {
-        if (mPlaybackController == null) {
-            return 0;
-        }
-
-        return mPlaybackController.getDuration();
+    private RendererInstance primary() {
+        return mRenderers.isEmpty() ? null : mRenderers.get(0);
     }
 
-    private synchronized void start() {
-        if (mPlaybackController != null) {
-            mPlaybackController.start();
+    private static synchronized String uuid(int index) {
+        while (sUuids.size() <= index) {
+            sUuids.add(UUID.randomUUID().toString());
         }
+        return sUuids.get(index);
     }
 
-    private synchronized void stop() {
-        if (mPlaybackController != null) {
-            mPlaybackController.stop();
+    /** dumpsys ... log <tag|*> <VERBOSE|DEBUG|INFO|WARN|ERROR|SILENT> */
+    private static void setLogLevel(PrintWriter writer, String tag, String name) {
+        int level = Logger.parseLevel(name);
+        if (level < 0) {
+            writer.println("  unknown log level:" + name);
+            return;
         }
-    }
 
-    private synchronized void pause() {
-        if (mPlaybackController != null) {
-            mPlaybackController.pause();
+        boolean known = Logger.setLevel(tag, level);
+        if (tag.equals("*") || tag.equals(NATIVE_LOG_TAG)) {
+            RendererInstance.nativeSetLogLevel(level);
+            known = true;
         }
-    }
-
-    private synchronized void seek(int millisecond) {
-        if (mPlaybackController != null) {
-            mPlaybackController.seek(millisecond);
+        if (!known) {
+            writer.println("  unknown log tag:" + tag);
         }
     }
 }
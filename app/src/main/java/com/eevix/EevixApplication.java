@@ -0,0 +1,18 @@
+package com.eevix;
+
+import android.app.Application;
+import android.util.Log;
+
+public class EevixApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // core logs to logcat, tags start at INFO in release builds
+        Logger.configure(new Logger.Sink() {
+            @Override
+            public void println(int level, String tag, String message) {
+                Log.println(level, tag, message);
+            }
+        }, BuildConfig.DEBUG ? Logger.DEBUG : Logger.INFO);
+    }
+}
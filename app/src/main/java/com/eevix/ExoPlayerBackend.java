@@ -0,0 +1,382 @@
+package com.eevix;
+
+import android.content.Context;
+import android.net.Uri;
+import android.view.SurfaceHolder;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Player.EventListener;
+import com.google.android.exoplayer2.SeekParameters;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.source.ExtractorMediaSource;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.dash.DashMediaSource;
+import com.google.android.exoplayer2.source.dash.DefaultDashChunkSource;
+import com.google.android.exoplayer2.source.hls.HlsMediaSource;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.util.Util;
+import com.google.android.exoplayer2.video.VideoListener;
+
+import java.util.ArrayDeque;
+
+/**
+ * {@link MediaBackend} over ExoPlayer, with the buffering MediaPlayer does not let us tune.
+ *
+ * Each Player wraps a SimpleExoPlayer and maps its states onto the MediaPlayer state machine the
+ * engine expects. Released players go back to a small pool instead of being torn down, so the
+ * next item starts on an instance whose renderers, playback thread and buffer allocator already
+ * exist. ExoPlayer calls back on the thread that created the instance, players must be created
+ * on a thread with a Looper (the engine's player thread).
+ */
+final class ExoPlayerBackend implements MediaBackend {
+    private static final String TAG = "ExoPlayerBackend";
+    private static final Logger sLog = Logger.get(TAG);
+    private static final int POOL_SIZE = 2; // the current item and a preloaded next one
+    private static final int STATE_BUFFERING = com.google.android.exoplayer2.Player.STATE_BUFFERING;
+    private static final int STATE_READY = com.google.android.exoplayer2.Player.STATE_READY;
+    private static final int STATE_ENDED = com.google.android.exoplayer2.Player.STATE_ENDED;
+
+    private final Context mContext;
+    private final Buffering mBuffering;
+    private final DataSource.Factory mDataSourceFactory;
+    private final ArrayDeque<SimpleExoPlayer> mPool = new ArrayDeque<SimpleExoPlayer>(POOL_SIZE);
+    private int mCreated = 0;
+    private int mReused = 0;
+
+    /** Buffer thresholds of the LoadControl, in ms of media. */
+    static final class Buffering {
+        final int minBuffer;        // keep at least this much buffered while loading
+        final int maxBuffer;        // stop loading above this
+        final int startBuffer;      // buffered before playback starts or resumes after a seek
+        final int rebufferBuffer;   // buffered before playback resumes after a stall
+
+        Buffering(int minBuffer, int maxBuffer, int startBuffer, int rebufferBuffer) {
+            this.minBuffer = minBuffer;
+            this.maxBuffer = maxBuffer;
+            this.startBuffer = startBuffer;
+            this.rebufferBuffer = rebufferBuffer;
+        }
+
+        static Buffering fromResources(Context context) {
+            return new Buffering(context.getResources().getInteger(R.integer.exo_min_buffer),
+                                 context.getResources().getInteger(R.integer.exo_max_buffer),
+                                 context.getResources().getInteger(R.integer.exo_start_buffer),
+                                 context.getResources().getInteger(R.integer.exo_rebuffer_buffer));
+        }
+
+        @Override
+        public String toString() {
+            return "min:" + minBuffer + "ms, max:" + maxBuffer + "ms, start:" + startBuffer
+                    + "ms, rebuffer:" + rebufferBuffer + "ms";
+        }
+    }
+
+    ExoPlayerBackend(Context context, Buffering buffering) {
+        mContext = context.getApplicationContext();
+        mBuffering = buffering;
+        mDataSourceFactory = new DefaultDataSourceFactory(mContext, Util.getUserAgent(mContext, "eevix"));
+        sLog.d("buffering:{}", buffering);
+    }
+
+    @Override
+    public Player createPlayer(Listener listener) {
+        SimpleExoPlayer exoPlayer;
+        synchronized (mPool) {
+            exoPlayer = mPool.pollFirst();
+            if (exoPlayer != null) {
+                mReused++;
+            } else {
+                mCreated++;
+            }
+        }
+        if (exoPlayer == null) {
+            LoadControl loadControl = new DefaultLoadControl.Builder()
+                    .setBufferDurationsMs(mBuffering.minBuffer, mBuffering.maxBuffer,
+                                          mBuffering.startBuffer, mBuffering.rebufferBuffer)
+                    .createDefaultLoadControl();
+            exoPlayer = ExoPlayerFactory.newSimpleInstance(mContext, new DefaultRenderersFactory(mContext),
+                                                           new DefaultTrackSelector(), loadControl);
+        }
+        return new ExoPlayerWrapper(exoPlayer, listener);
+    }
+
+    @Override
+    public void release() {
+        synchronized (mPool) {
+            for (SimpleExoPlayer exoPlayer : mPool) {
+                exoPlayer.release();
+            }
+            mPool.clear();
+        }
+    }
+
+    /**
+     * The source for uri by its extension: HLS playlists and DASH manifests, which CachingProxy
+     * passes through untouched, get their adaptive source, anything else is a progressive file.
+     */
+    private MediaSource createMediaSource(Uri uri) {
+        switch (Util.inferContentType(uri)) {
+            case C.TYPE_HLS:
+                return new HlsMediaSource.Factory(mDataSourceFactory).createMediaSource(uri);
+            case C.TYPE_DASH:
+                return new DashMediaSource.Factory(new DefaultDashChunkSource.Factory(mDataSourceFactory),
+                                                   mDataSourceFactory).createMediaSource(uri);
+            default:
+                return new ExtractorMediaSource.Factory(mDataSourceFactory).createMediaSource(uri);
+        }
+    }
+
+    private void recycle(SimpleExoPlayer exoPlayer) {
+        synchronized (mPool) {
+            if (mPool.size() < POOL_SIZE) {
+                mPool.addLast(exoPlayer);
+                return;
+            }
+        }
+        exoPlayer.release();
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mPool) {
+            return "created:" + mCreated + ", reused:" + mReused + ", pooled:" + mPool.size();
+        }
+    }
+
+    private final class ExoPlayerWrapper implements Player, EventListener, VideoListener {
+        private final SimpleExoPlayer mExoPlayer;
+        private final Listener mListener;
+        private Uri mUri = null;
+        private SurfaceHolder mDisplay = null;
+        private ExoPlayerWrapper mNext = null;
+        private boolean mPrepared = false;
+        private boolean mSeeking = false;
+        private boolean mSeekRendering = false; // seek processed, its first frame not rendered yet
+        private boolean mStalled = false;
+        private boolean mEnded = false;         // completion or error reported, until the next prepare or seek
+        private boolean mReleased = false;
+        private int mVideoWidth = 0;
+        private int mVideoHeight = 0;
+
+        ExoPlayerWrapper(SimpleExoPlayer exoPlayer, Listener listener) {
+            mExoPlayer = exoPlayer;
+            mListener = listener;
+            mExoPlayer.addListener(this);
+            mExoPlayer.addVideoListener(this);
+        }
+
+        @Override
+        public void setDataSource(String url) {
+            mUri = Uri.parse(url);
+        }
+
+        @Override
+        public void setDisplay(Object display) {
+            if (mDisplay != null) {
+                mDisplay.setKeepScreenOn(false);
+            }
+            mDisplay = (SurfaceHolder) display;
+            if (mDisplay != null) {
+                mExoPlayer.setVideoSurfaceHolder(mDisplay);
+                mDisplay.setKeepScreenOn(true);
+            } else {
+                mExoPlayer.clearVideoSurface();
+                if (mSeekRendering) {
+                    // nothing left to render the frame into
+                    completeSeek();
+                }
+            }
+        }
+
+        @Override
+        public void prepareAsync() {
+            mPrepared = false;
+            mEnded = false;
+            mExoPlayer.setPlayWhenReady(false);
+            mExoPlayer.prepare(createMediaSource(mUri));
+        }
+
+        @Override
+        public void start() {
+            mExoPlayer.setPlayWhenReady(true);
+        }
+
+        @Override
+        public void pause() {
+            mExoPlayer.setPlayWhenReady(false);
+        }
+
+        @Override
+        public void stop() {
+            mExoPlayer.setPlayWhenReady(false);
+            mExoPlayer.stop();
+            mPrepared = false;
+            mSeeking = false;
+            mSeekRendering = false;
+        }
+
+        @Override
+        public void release() {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+            mSeeking = false;
+            mSeekRendering = false;
+            setDisplay(null);
+            mExoPlayer.removeListener(this);
+            mExoPlayer.removeVideoListener(this);
+            mExoPlayer.stop(true);
+            mExoPlayer.setSeekParameters(SeekParameters.DEFAULT);
+            recycle(mExoPlayer);
+        }
+
+        @Override
+        public void seekTo(int millisecond) {
+            seek(millisecond, SeekParameters.EXACT);
+        }
+
+        @Override
+        public void seekToSync(int millisecond) {
+            seek(millisecond, SeekParameters.CLOSEST_SYNC);
+        }
+
+        private void seek(int millisecond, SeekParameters parameters) {
+            mSeeking = true;
+            mSeekRendering = false;
+            mEnded = false;
+            mExoPlayer.setSeekParameters(parameters);
+            mExoPlayer.seekTo(millisecond);
+        }
+
+        /** ExoPlayer has no player chaining, the next player is started when this one ends. */
+        @Override
+        public void setNextPlayer(Player next) {
+            mNext = (ExoPlayerWrapper) next;
+        }
+
+        @Override
+        public boolean isPlaying() {
+            int state = mExoPlayer.getPlaybackState();
+            return mExoPlayer.getPlayWhenReady() && (state == STATE_READY || state == STATE_BUFFERING);
+        }
+
+        @Override
+        public int getCurrentPosition() {
+            return (int) mExoPlayer.getCurrentPosition();
+        }
+
+        @Override
+        public int getDuration() {
+            long duration = mExoPlayer.getDuration();
+            return duration == C.TIME_UNSET ? -1 : (int) duration;
+        }
+
+        @Override
+        public int getVideoWidth() {
+            return mVideoWidth;
+        }
+
+        @Override
+        public int getVideoHeight() {
+            return mVideoHeight;
+        }
+
+        @Override
+        public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+            switch (playbackState) {
+                case STATE_READY:
+                    if (!mPrepared) {
+                        mPrepared = true;
+                        mListener.onPrepared(this);
+                    } else if (mStalled) {
+                        mStalled = false;
+                        mListener.onInfo(this, INFO_BUFFERING_END);
+                    }
+                    break;
+                case STATE_BUFFERING:
+                    if (mPrepared && !mSeeking && !mStalled) {
+                        mStalled = true;
+                        mListener.onInfo(this, INFO_BUFFERING_START);
+                    }
+                    break;
+                case STATE_ENDED:
+                    // reported again with every playWhenReady change, a stop() after the end included
+                    if (mEnded) {
+                        break;
+                    }
+                    mEnded = true;
+                    if (mSeeking) {
+                        // sought past the last frame, there is no frame to wait for
+                        completeSeek();
+                    }
+                    if (mNext != null) {
+                        mNext.start();
+                    }
+                    mListener.onCompletion(this);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * ExoPlayer reports the seek before the frame at the new position is decoded. MediaPlayer
+         * completes a seek once that frame is up, so with video on a surface the completion is
+         * held until it is rendered, and seek latency means the same on both backends.
+         */
+        @Override
+        public void onSeekProcessed() {
+            if (!mSeeking) {
+                return;
+            }
+            if (mDisplay != null && mVideoWidth > 0) {
+                mSeekRendering = true;
+            } else {
+                completeSeek();
+            }
+        }
+
+        private void completeSeek() {
+            mSeeking = false;
+            mSeekRendering = false;
+            mListener.onSeekComplete(this);
+        }
+
+        @Override
+        public void onPlayerError(ExoPlaybackException error) {
+            sLog.e("onPlayerError:", error);
+            if (mEnded) {
+                return;
+            }
+            mEnded = true;
+            mSeeking = false;
+            mSeekRendering = false;
+            mListener.onError(this);
+        }
+
+        @Override
+        public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees, float pixelWidthHeightRatio) {
+            // non-square pixels are folded into the width, as MediaPlayer reports the display size
+            mVideoWidth = pixelWidthHeightRatio > 0 ? Math.round(width * pixelWidthHeightRatio) : width;
+            mVideoHeight = height;
+            mListener.onVideoSizeChanged(this, mVideoWidth, mVideoHeight);
+        }
+
+        @Override
+        public void onRenderedFirstFrame() {
+            if (mSeekRendering) {
+                completeSeek();
+            } else {
+                mListener.onInfo(this, INFO_RENDERING_START);
+            }
+        }
+    }
+}
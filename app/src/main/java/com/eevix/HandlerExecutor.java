@@ -0,0 +1,76 @@
+package com.eevix;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+/**
+ * {@link SerialExecutor} on an android.os.Handler, over the main looper or a thread of its own.
+ */
+final class HandlerExecutor implements SerialExecutor {
+    private final Handler mHandler;
+    private final HandlerThread mThread; // null when the looper belongs to someone else
+    private volatile Target mTarget = null;
+
+    /** An executor on a new HandlerThread, stopped by quit. */
+    static HandlerExecutor startThread(String name) {
+        HandlerThread thread = new HandlerThread(name);
+        thread.start();
+        return new HandlerExecutor(thread.getLooper(), thread);
+    }
+
+    /** An executor on the main thread, quit only drops its messages. */
+    static HandlerExecutor mainThread() {
+        return new HandlerExecutor(Looper.getMainLooper(), null);
+    }
+
+    private HandlerExecutor(Looper looper, HandlerThread thread) {
+        mThread = thread;
+        mHandler = new Handler(looper, new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                Target target = mTarget;
+                if (target != null) {
+                    target.handleMessage(msg.what, msg.arg1, msg.arg2, msg.obj, SystemClock.uptimeMillis() - msg.getWhen());
+                }
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public void setTarget(Target target) {
+        mTarget = target;
+    }
+
+    @Override
+    public void send(int what, int arg1, int arg2, Object obj) {
+        mHandler.obtainMessage(what, arg1, arg2, obj).sendToTarget();
+    }
+
+    @Override
+    public void sendDelayed(int what, long delay) {
+        mHandler.sendEmptyMessageDelayed(what, delay);
+    }
+
+    @Override
+    public boolean hasMessages(int what) {
+        return mHandler.hasMessages(what);
+    }
+
+    @Override
+    public void removeMessages(int what) {
+        mHandler.removeMessages(what);
+    }
+
+    @Override
+    public void quit() {
+        if (mThread != null) {
+            mThread.quitSafely();
+        } else {
+            mHandler.removeCallbacksAndMessages(null);
+        }
+    }
+}
@@ -2,10 +2,10 @@ package com.eevix;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.graphics.drawable.Drawable;
 import android.support.annotation.UiThread;
 import android.support.v4.content.ContextCompat;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.View;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
@@ -14,6 +14,7 @@ import android.widget.TextView;
 
 public class MediaControllerBar extends LinearLayout implements SeekBar.OnSeekBarChangeListener {
     private static final String TAG = "MediaControllerBar";
+    private static final Logger sLog = Logger.get(TAG);
     private ImageButton mPlayButton = null;
     private SeekBar mSeekBar = null;
     private TextView mPositionView = null;
@@ -21,11 +22,19 @@ public class MediaControllerBar extends LinearLayout implements SeekBar.OnSeekBa
     private boolean mIsPlaying = false;
     private boolean mIsTouchingSeekBar = false;
     private int mTouchedProgress = 0;
+    private Drawable mPlayDrawable = null;
+    private Drawable mPauseDrawable = null;
+    // the position is redrawn on every tick, the text only when its second changes
+    private final TimeFormatter mPositionTime = new TimeFormatter();
+    private final TimeFormatter mDurationTime = new TimeFormatter();
     private OnPlaybackControlListener mListener = null;
 
     public interface OnPlaybackControlListener {
         void onPlay(boolean play);
+        /** The user settled on position, seek there precisely. */
         void onSeek(int position);
+        /** The user is dragging through position, a preview is enough. Called for every move. */
+        void onScrub(int position);
     }
 
     public MediaControllerBar(Context context) {
@@ -48,9 +57,11 @@ public class MediaControllerBar extends LinearLayout implements SeekBar.OnSeekBa
 
     @UiThread
     void reset() {
-        mPlayButton.setImageDrawable(ContextCompat.getDrawable(getContext(), android.R.drawable.ic_media_play));
+        mPlayButton.setImageDrawable(mPlayDrawable);
         mDurationView.setText(R.string.NoTime);
         mPositionView.setText(R.string.NoTime);
+        mDurationTime.reset();
+        mPositionTime.reset();
         mSeekBar.setProgress(0);
         mSeekBar.setMax(0);
         mIsPlaying = false;
@@ -58,12 +69,15 @@ public class MediaControllerBar extends LinearLayout implements SeekBar.OnSeekBa
 
     @UiThread
     void setDuration(int duration) {
-        Log.d(TAG, "setDuration:" + duration + "ms");
+        sLog.d("setDuration:{}ms", duration);
         if (duration > 0) {
-            mDurationView.setText(millisecondsToTime(duration));
+            if (mDurationTime.format(duration)) {
+                mDurationView.setText(mDurationTime.chars(), 0, mDurationTime.length());
+            }
             mSeekBar.setMax(duration);
         } else {
             mDurationView.setText(R.string.NoTime);
+            mDurationTime.reset();
             mSeekBar.setMax(0);
         }
     }
@@ -77,41 +91,48 @@ public class MediaControllerBar extends LinearLayout implements SeekBar.OnSeekBa
 
     @UiThread
     void setIsPlaying(boolean isPlaying) {
-        Log.d(TAG, "setIsPlaying:" + isPlaying);
+        sLog.d("setIsPlaying:{}", isPlaying);
         mIsPlaying = isPlaying;
-
-        if (mIsPlaying) {
-            mPlayButton.setImageDrawable(ContextCompat.getDrawable(getContext(), android.R.drawable.ic_media_pause));
-        } else {
-            mPlayButton.setImageDrawable(ContextCompat.getDrawable(getContext(), android.R.drawable.ic_media_play));
-        }
+        mPlayButton.setImageDrawable(mIsPlaying ? mPauseDrawable : mPlayDrawable);
     }
 
     @Override
     protected void onAttachedToWindow() {
-        Log.d(TAG, "onAttachedToWindow");
+        sLog.d("onAttachedToWindow");
         super.onAttachedToWindow();
         initViews();
     }
 
     @Override
     public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-        mPositionView.setText(millisecondsToTime(progress));
-        if (fromUser) {
+        if (mPositionTime.format(progress)) {
+            // the char[] overload wraps the array in the TextView's reused CharWrapper, no String per tick
+            mPositionView.setText(mPositionTime.chars(), 0, mPositionTime.length());
+        }
+        if (!fromUser) {
+            return;
+        }
+        if (mIsTouchingSeekBar) {
             mTouchedProgress = progress;
+            if (mListener != null) {
+                mListener.onScrub(progress);
+            }
+        } else if (mListener != null) {
+            // a key press, there is no drag to commit
+            mListener.onSeek(progress);
         }
     }
 
     @Override
     public void onStartTrackingTouch(SeekBar seekBar) {
-        Log.d(TAG, "onStartTrackingTouch");
+        sLog.d("onStartTrackingTouch");
         mIsTouchingSeekBar = true;
         mTouchedProgress = mSeekBar.getProgress();
     }
 
     @Override
     public void onStopTrackingTouch(SeekBar seekBar) {
-        Log.d(TAG, "onStopTrackingTouch");
+        sLog.d("onStopTrackingTouch");
         mIsTouchingSeekBar = false;
         if (mListener != null) {
             mListener.onSeek(mTouchedProgress);
@@ -119,6 +140,8 @@ public class MediaControllerBar extends LinearLayout implements SeekBar.OnSeekBa
     }
 
     private void initViews() {
+        mPlayDrawable = ContextCompat.getDrawable(getContext(), android.R.drawable.ic_media_play);
+        mPauseDrawable = ContextCompat.getDrawable(getContext(), android.R.drawable.ic_media_pause);
         mPositionView = findViewById(R.id.position);
         mDurationView = findViewById(R.id.duration);
         mSeekBar = findViewById(R.id.seekBar);
@@ -134,8 +157,4 @@ public class MediaControllerBar extends LinearLayout implements SeekBar.OnSeekBa
             }
         });
     }
-
-    private String millisecondsToTime(int milliseconds) {
-        return String.format("%02d:%02d:%02d", milliseconds / 1000 / 3600, milliseconds / 1000 / 60 % 60, milliseconds / 1000 % 60);
-    }
 }
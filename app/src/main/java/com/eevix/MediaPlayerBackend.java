@@ -0,0 +1,167 @@
+package com.eevix;
+
+import android.media.MediaPlayer;
+import android.os.Build;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+
+/**
+ * {@link MediaBackend} over android.media.MediaPlayer.
+ */
+final class MediaPlayerBackend implements MediaBackend {
+    @Override
+    public Player createPlayer(Listener listener) {
+        return new AndroidPlayer(listener);
+    }
+
+    @Override
+    public void release() {
+        // every MediaPlayer is released with its Player
+    }
+
+    private static final class AndroidPlayer implements Player,
+                                                        MediaPlayer.OnPreparedListener,
+                                                        MediaPlayer.OnCompletionListener,
+                                                        MediaPlayer.OnErrorListener,
+                                                        MediaPlayer.OnSeekCompleteListener,
+                                                        MediaPlayer.OnVideoSizeChangedListener,
+                                                        MediaPlayer.OnInfoListener {
+        private final MediaPlayer mMediaPlayer = new MediaPlayer();
+        private final Listener mListener;
+
+        AndroidPlayer(Listener listener) {
+            mListener = listener;
+            mMediaPlayer.setOnPreparedListener(this);
+            mMediaPlayer.setOnCompletionListener(this);
+            mMediaPlayer.setOnErrorListener(this);
+            mMediaPlayer.setOnSeekCompleteListener(this);
+            mMediaPlayer.setOnVideoSizeChangedListener(this);
+            mMediaPlayer.setOnInfoListener(this);
+        }
+
+        @Override
+        public void setDataSource(String url) throws IOException {
+            mMediaPlayer.setDataSource(url);
+        }
+
+        @Override
+        public void setDisplay(Object display) {
+            mMediaPlayer.setDisplay((SurfaceHolder) display);
+            mMediaPlayer.setScreenOnWhilePlaying(true);
+        }
+
+        @Override
+        public void prepareAsync() {
+            mMediaPlayer.prepareAsync();
+        }
+
+        @Override
+        public void start() {
+            mMediaPlayer.start();
+        }
+
+        @Override
+        public void pause() {
+            mMediaPlayer.pause();
+        }
+
+        @Override
+        public void stop() {
+            mMediaPlayer.stop();
+        }
+
+        @Override
+        public void release() {
+            mMediaPlayer.release();
+        }
+
+        @Override
+        public void seekTo(int millisecond) {
+            mMediaPlayer.seekTo(millisecond);
+        }
+
+        @Override
+        public void seekToSync(int millisecond) {
+            if (Build.VERSION.SDK_INT >= 26) {
+                mMediaPlayer.seekTo(millisecond, MediaPlayer.SEEK_CLOSEST_SYNC);
+            } else {
+                mMediaPlayer.seekTo(millisecond);
+            }
+        }
+
+        @Override
+        public void setNextPlayer(Player next) {
+            mMediaPlayer.setNextMediaPlayer(next == null ? null : ((AndroidPlayer) next).mMediaPlayer);
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return mMediaPlayer.isPlaying();
+        }
+
+        @Override
+        public int getCurrentPosition() {
+            return mMediaPlayer.getCurrentPosition();
+        }
+
+        @Override
+        public int getDuration() {
+            return mMediaPlayer.getDuration();
+        }
+
+        @Override
+        public int getVideoWidth() {
+            return mMediaPlayer.getVideoWidth();
+        }
+
+        @Override
+        public int getVideoHeight() {
+            return mMediaPlayer.getVideoHeight();
+        }
+
+        @Override
+        public void onPrepared(MediaPlayer mp) {
+            mListener.onPrepared(this);
+        }
+
+        @Override
+        public void onCompletion(MediaPlayer mp) {
+            mListener.onCompletion(this);
+        }
+
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            mListener.onError(this);
+            return true; // handled, no onCompletion follows
+        }
+
+        @Override
+        public void onSeekComplete(MediaPlayer mp) {
+            mListener.onSeekComplete(this);
+        }
+
+        @Override
+        public void onVideoSizeChanged(MediaPlayer mp, int width, int height) {
+            mListener.onVideoSizeChanged(this, width, height);
+        }
+
+        @Override
+        public boolean onInfo(MediaPlayer mp, int what, int extra) {
+            switch (what) {
+                case MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START:
+                    mListener.onInfo(this, INFO_RENDERING_START);
+                    break;
+                case MediaPlayer.MEDIA_INFO_BUFFERING_START:
+                    mListener.onInfo(this, INFO_BUFFERING_START);
+                    break;
+                case MediaPlayer.MEDIA_INFO_BUFFERING_END:
+                    mListener.onInfo(this, INFO_BUFFERING_END);
+                    break;
+                default:
+                    break;
+            }
+            return false;
+        }
+    }
+}
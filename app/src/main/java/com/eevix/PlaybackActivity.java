@@ -4,14 +4,10 @@ import android.app.Activity;
 import android.content.ComponentName;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.media.MediaPlayer;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.os.Message;
-import android.os.StrictMode;
-import android.util.Log;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -19,137 +15,26 @@ import android.view.View;
 
 public class PlaybackActivity extends Activity {
     private static final String TAG = "PlaybackActivity";
+    private static final Logger sLog = Logger.get(TAG);
     private static final int mMediaControllerBarVisibleTime = 5000; // ms
-    private String          mUrl;
-    private int             mLastPosition = 0;
+    static final String EXTRA_FROM = "from";
+    static final String EXTRA_WARM = "warm";
+    static final String EXTRA_BACKEND = "backend";  // mediaplayer or exoplayer for the sessions that follow
     private SurfaceView     mSurfaceView;
+    private SurfaceHolder   mSurfaceHolder = null;
     private View            mDisplayLayout;
-    private MediaPlayer     mMediaPlayer;
     private Handler         mMainHandler;
-    private Handler         mPlayerHandler;
-    private HandlerThread   mPlayerHandlerThread;
-    private MediaPlayerListener mMediaPlayerListener;
     private MediaControllerBar mMediaControllerBar;
-    private boolean         mSurfaceValid = false;
-    private int             mVideoWidth = 0;
-    private int             mVideoHeight = 0;
+    private final VideoLayout mVideoLayout = new VideoLayout();
+    private int             mSurfaceReallocations = 0;   // surfaceChanged calls this session
     private DLNAMediaRender.PlaybackControllerRegister mPlaybackControllerRegister;
     private DLNAMediaRenderConnection mDLNAMediaRenderConnection = null;
-    private Controller      mController = new Controller();
-    private PlayerState     mState = PlayerState.IDLE;
-
-    enum PlayerState {
-        IDLE,
-        PREPARING,
-        PLAYING,
-        PAUSED,
-    }
-
-    private class Controller implements PlaybackController {
-        private StateChangedListener mStateChangedListener = null;
-
-        @Override
-        public void setDataSource(String url) {
-            Log.d(TAG, "Controller: setDataSource:" + url);
-            mPlayerHandler.obtainMessage(MessageType.SET_DATA_SOURCE.value(), url).sendToTarget();
-        }
-
-        @Override
-        public void start() {
-            Log.d(TAG, "Controller: start");
-            mPlayerHandler.sendEmptyMessage(MessageType.START.value());
-        }
-
-        @Override
-        public void pause() {
-            Log.d(TAG, "Controller: pause");
-            mPlayerHandler.sendEmptyMessage(MessageType.PAUSE.value());
-        }
-
-        @Override
-        public void resume() {
-            Log.d(TAG, "Controller: resume");
-            mPlayerHandler.sendEmptyMessage(MessageType.START.value());
-        }
-
-        @Override
-        public void stop() {
-            Log.d(TAG, "Controller: stop");
-            mPlayerHandler.sendEmptyMessage(MessageType.STOP.value());
-        }
-
-        @Override
-        public void seek(int millisecond) {
-            Log.d(TAG, "Controller: seek:" + millisecond);
-            mPlayerHandler.removeMessages(MessageType.UPDATE.value());
-            mPlayerHandler.obtainMessage(MessageType.SEEK.value(), millisecond, 0).sendToTarget();
-            mMainHandler.removeMessages(MessageType.UPDATE.value());
-        }
-
-        @Override
-        public int getCurrentPosition() {
-            MessageReply<Integer> reply = new MessageReply<>();
-            mPlayerHandler.obtainMessage(MessageType.GET_CURRENT_POSITION.value(), reply).sendToTarget();
-            reply.waitReply();
-            return reply.getData();
-        }
-
-        @Override
-        public int getDuration() {
-            MessageReply<Integer> reply = new MessageReply<>();
-            mPlayerHandler.obtainMessage(MessageType.GET_DURATION.value(), reply).sendToTarget();
-            reply.waitReply();
-            Log.d(TAG, "Controller: getDuration:" + reply.getData());
-            return reply.getData();
-        }
-
-        @Override
-        public boolean isPlaying() {
-            MessageReply<PlayerState> reply = new MessageReply<>();
-            mPlayerHandler.obtainMessage(MessageType.QUERY_STATE.value(), reply).sendToTarget();
-            reply.waitReply();
-            return reply.getData() == PlayerState.PLAYING;
-        }
-
-        @Override
-        public int getState() {
-            MessageReply<PlayerState> reply = new MessageReply<>();
-            mPlayerHandler.obtainMessage(MessageType.QUERY_STATE.value(), reply).sendToTarget();
-            reply.waitReply();
-            return convertState(reply.getData());
-        }
-
-        @Override
-        public void setStateChangedListener(StateChangedListener listener) {
-            mStateChangedListener = listener;
-        }
-
-        void changeState(int state) {
-            Log.d(TAG, "Controller: changeState:" + state);
-            StateChangedListener listener = mStateChangedListener;
-            if (listener != null) {
-                listener.onStateChanged(state);
-            }
-        }
-    }
+    private PlayerEngine    mEngine = null;
+    private boolean         mOwnsEngine = false;
+    private final EngineListener mEngineListener = new EngineListener();
+    private static final int VIDEO_LAYOUT_DEBOUNCE = 100; // ms, layout passes and rendition switches settle
 
     private enum MessageType {
-        SET_DATA_SOURCE,
-        START,
-        PAUSE,
-        STOP,
-        SEEK,
-        GET_CURRENT_POSITION,
-        GET_DURATION,
-        QUERY_STATE,
-        PREPARED,
-        COMPLETED,
-        SURFACE_CREATED,
-        SURFACE_DESTROYED,
-        PAUSED,
-        STARTED,
-        STOPPED,
-        UPDATE,
         UPDATE_VIDEO_SIZE,
         SHOW_CONTROLLER_BAR,
         HIDE_CONTROLLER_BAR;
@@ -170,109 +55,140 @@ public class PlaybackActivity extends Activity {
     private class SurfaceHolderCallback implements SurfaceHolder.Callback {
         @Override
         public void surfaceCreated(SurfaceHolder holder) {
-            Log.d(TAG, "SurfaceHolderCallback: surfaceCreated");
-            mPlayerHandler.sendEmptyMessage(MessageType.SURFACE_CREATED.value());
+            sLog.d("SurfaceHolderCallback: surfaceCreated");
+            mSurfaceHolder = holder;
+            if (mEngine != null) {
+                mEngine.setDisplay(holder);
+            }
         }
 
         @Override
         public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-            Log.d(TAG, "SurfaceHolderCallback: surfaceChanged, width:" + width + ", height:" + height);
+            sLog.d("SurfaceHolderCallback: surfaceChanged, width:{}, height:{}", width, height);
+            mSurfaceReallocations++;
         }
 
         @Override
         public void surfaceDestroyed(SurfaceHolder holder) {
-            Log.d(TAG, "SurfaceHolderCallback: surfaceDestroyed");
-            mPlayerHandler.sendEmptyMessage(MessageType.SURFACE_DESTROYED.value());
+            sLog.d("SurfaceHolderCallback: surfaceDestroyed");
+            mSurfaceHolder = null;
+            if (mEngine != null) {
+                mEngine.setDisplay(null);
+            }
         }
     }
 
-    private class MediaPlayerListener implements MediaPlayer.OnPreparedListener,
-                                            MediaPlayer.OnCompletionListener,
-                                            MediaPlayer.OnSeekCompleteListener,
-                                            MediaPlayer.OnVideoSizeChangedListener {
+    private class EngineListener implements PlayerEngine.Listener {
+        @Override
+        public void onStarted(int duration) {
+            mMediaControllerBar.setIsPlaying(true);
+            sLog.v("duration:{}", duration);
+            if (duration >= 0) {
+                mMediaControllerBar.setDuration(duration);
+            }
+        }
+
         @Override
-        public void onCompletion(MediaPlayer mp) {
-            Log.d(TAG, "MediaPlayerListener: onCompletion");
-            mPlayerHandler.sendEmptyMessage(MessageType.COMPLETED.value());
+        public void onPaused() {
+            mMediaControllerBar.setIsPlaying(false);
         }
 
         @Override
-        public void onPrepared(MediaPlayer mp) {
-            Log.d(TAG, "MediaPlayerListener: onPrepared");
-            mPlayerHandler.obtainMessage(MessageType.PREPARED.value(), mp).sendToTarget();
+        public void onStopped() {
+            mMediaControllerBar.reset();
+            sLog.d("session video layout:{}, surface reallocations:{}", mVideoLayout, mSurfaceReallocations);
+            mVideoLayout.setVideoSize(0, 0);
+            mVideoLayout.reset();
+            mSurfaceReallocations = 0;
         }
 
         @Override
-        public void onSeekComplete(MediaPlayer mp) {
-            Log.d(TAG, "MediaPlayerListener: onSeekComplete");
-            mPlayerHandler.sendEmptyMessage(MessageType.UPDATE.value());
-            mPlayerHandler.sendEmptyMessage(MessageType.START.value());
+        public void onProgress(int position) {
+            if (position >= 0) {
+                mMediaControllerBar.setCurrentPosition(position);
+            }
         }
 
         @Override
-        public void onVideoSizeChanged(MediaPlayer mp, int width, int height) {
-            Log.d(TAG, "MediaPlayerListener: onVideoSizeChanged, width:" + width + ", height:" + height);
-            Message message = mMainHandler.obtainMessage(MessageType.UPDATE_VIDEO_SIZE.value());
-            Bundle bundle = new Bundle();
-            bundle.putInt("video-width", width);
-            bundle.putInt("video-height", height);
-            message.setData(bundle);
-            message.sendToTarget();
+        public void onVideoSizeChanged(int width, int height) {
+            mVideoLayout.setVideoSize(width, height);
+            scheduleVideoLayout();
         }
     }
 
     private class PlaybackControlListener implements MediaControllerBar.OnPlaybackControlListener {
         @Override
         public void onPlay(boolean play) {
-            Log.d(TAG, "PlaybackControlListener: onPlay:" + play);
+            sLog.d("PlaybackControlListener: onPlay:{}", play);
+            if (mEngine == null) {
+                return;
+            }
+
             if (play) {
-                mController.start();
+                mEngine.start();
             } else {
-                mController.pause();
+                mEngine.pause();
             }
         }
 
         @Override
         public void onSeek(int position) {
-            Log.d(TAG, "PlaybackControlListener: onSeek:" + position);
-            mController.seek(position);
+            sLog.d("PlaybackControlListener: onSeek:{}", position);
+            if (mEngine != null) {
+                mEngine.seek(position);
+            }
+        }
+
+        @Override
+        public void onScrub(int position) {
+            if (mEngine != null) {
+                mEngine.scrub(position);
+            }
         }
     }
 
     private class DLNAMediaRenderConnection implements ServiceConnection {
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
-            Log.d(TAG, "DLNAMediaRenderConnection: onServiceConnected, name:" + name + ", service:" + service);
+            sLog.d("DLNAMediaRenderConnection: onServiceConnected, name:{}, service:{}", name, service);
             if (service instanceof DLNAMediaRender.PlaybackControllerRegister) {
                 mPlaybackControllerRegister = (DLNAMediaRender.PlaybackControllerRegister) service;
-                mPlaybackControllerRegister.registerPlayerBackController(mController);
+                PlayerEngine warmEngine = mPlaybackControllerRegister.getWarmEngine();
+                if (warmEngine != null) {
+                    attachEngine(warmEngine, false);
+                } else {
+                    if (mEngine == null || !mOwnsEngine) {
+                        attachEngine(PlayerEngineFactory.create(PlaybackActivity.this), true);
+                    }
+                    mPlaybackControllerRegister.registerPlayerBackController(mEngine);
+                }
+                FirstFrameTrace.current().mark(FirstFrameTrace.HOP_CONTROLLER_READY);
             }
         }
 
         @Override
         public void onServiceDisconnected(ComponentName name) {
-            Log.d(TAG, "DLNAMediaRenderConnection: onServiceDisconnected, name:" + name);
-            mController.setStateChangedListener(null);
-            mController.stop();
+            sLog.d("DLNAMediaRenderConnection: onServiceDisconnected, name:{}", name);
+            stopEngine();
         }
 
         @Override
         public void onBindingDied(ComponentName name) {
-            Log.d(TAG, "DLNAMediaRenderConnection: onBindingDied, name:" + name);
-            mController.setStateChangedListener(null);
-            mController.stop();
+            sLog.d("DLNAMediaRenderConnection: onBindingDied, name:{}", name);
+            stopEngine();
         }
 
         @Override
         public void onNullBinding(ComponentName name) {
-            Log.d(TAG, "DLNAMediaRenderConnection: onNullBinding, name:" + name);
+            sLog.d("DLNAMediaRenderConnection: onNullBinding, name:{}", name);
         }
     }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        Log.d(TAG, "onCreate");
+        sLog.d("onCreate");
         super.onCreate(savedInstanceState);
+        FirstFrameTrace.current().mark(FirstFrameTrace.HOP_ACTIVITY_CREATED);
         setContentView(R.layout.activity_playback);
         mSurfaceView = findViewById(R.id.surface_view);
         mDisplayLayout = findViewById(R.id.display_layout);
@@ -280,8 +196,9 @@ public class PlaybackActivity extends Activity {
             @Override
             public void onLayoutChange(View v, int left, int top, int right, int bottom, int oldLeft, int oldTop, int oldRight, int oldBottom) {
                 if (left != oldLeft || top != oldTop || right != oldRight || bottom != oldBottom) {
-                    Log.d(TAG, "onLayoutChange view:" + v + ", left:" + left + ", top:" + top + ", right:" + right + ", bottom:" + bottom);
-                    mMainHandler.sendEmptyMessage(MessageType.UPDATE_VIDEO_SIZE.value());
+                    sLog.d("onLayoutChange view:{}, {}x{}", v, right - left, bottom - top);
+                    mVideoLayout.setContainerSize(right - left, bottom - top);
+                    scheduleVideoLayout();
                 }
             }
         });
@@ -295,18 +212,8 @@ public class PlaybackActivity extends Activity {
             }
         });
         mSurfaceView.getHolder().addCallback(new SurfaceHolderCallback());
-        mMediaPlayerListener = new MediaPlayerListener();
-        mPlayerHandlerThread = new HandlerThread("playerThread");
         mMainHandler.sendEmptyMessageDelayed(MessageType.HIDE_CONTROLLER_BAR.value(), mMediaControllerBarVisibleTime);
 
-        mPlayerHandlerThread.start();
-        mPlayerHandler = new Handler(mPlayerHandlerThread.getLooper()) {
-            @Override
-            public void handleMessage(Message msg) {
-                super.handleMessage(msg);
-                handlePlayerThreadMessage(msg);
-            }
-        };
         onIntent(getIntent());
         setIntent(null);
     }
@@ -317,7 +224,9 @@ public class PlaybackActivity extends Activity {
             mMainHandler.removeMessages(MessageType.HIDE_CONTROLLER_BAR.value());
 
             if (mMediaControllerBar.getVisibility() != View.VISIBLE) {
-                mPlayerHandler.sendEmptyMessage(MessageType.UPDATE.value());
+                if (mEngine != null) {
+                    mEngine.requestProgress();
+                }
                 mMediaControllerBar.setVisibility(View.VISIBLE);
                 return true;
             }
@@ -330,57 +239,57 @@ public class PlaybackActivity extends Activity {
 
     @Override
     protected void onStart() {
-        Log.d(TAG, "onStart");
+        sLog.d("onStart");
         super.onStart();
     }
 
     @Override
     protected void onPause() {
-        Log.d(TAG, "onPause");
+        sLog.d("onPause");
         super.onPause();
 
-        if (mDLNAMediaRenderConnection != null) {
-            unbindService(mDLNAMediaRenderConnection);
-            mController.setStateChangedListener(null);
-            mDLNAMediaRenderConnection = null;
+        // with a detach timeout the engine pauses and keeps its player once the surface is gone,
+        // the binding stays so the control point keeps controlling it until onRestart or onDestroy
+        if (mEngine != null && mEngine.getDetachTimeout() > 0) {
+            return;
         }
 
-        if (mPlayerHandler != null) {
-            mPlayerHandler.sendEmptyMessage(MessageType.STOP.value());
-        }
+        unbindRenderer();
+        stopEngine();
     }
 
     @Override
     protected void onStop() {
-        Log.d(TAG, "onStop");
+        sLog.d("onStop");
         super.onStop();
     }
 
     @Override
     protected void onRestart() {
-        Log.d(TAG, "onRestart");
+        sLog.d("onRestart");
         super.onRestart();
-        mController.start();
+        if (mEngine != null) {
+            mEngine.start();
+        }
     }
 
     @Override
     protected void onDestroy() {
-        Log.d(TAG, "onDestroy");
+        sLog.d("onDestroy");
         super.onDestroy();
-        if (mPlayerHandlerThread != null) {
-            mPlayerHandlerThread.quitSafely();
-        }
+        unbindRenderer();
+        detachEngine();
     }
 
     @Override
     protected void onResume() {
-        Log.d(TAG, "onResume");
+        sLog.d("onResume");
         super.onResume();
     }
 
     @Override
     protected void onNewIntent(Intent intent) {
-        Log.d(TAG, "onNewIntent:" + intent.toString());
+        sLog.d("onNewIntent:{}", intent);
         super.onNewIntent(intent);
         onIntent(intent);
     }
@@ -389,274 +298,128 @@ public class PlaybackActivity extends Activity {
         if (intent == null) {
             return;
         }
-        Log.d(TAG, "onIntent:" + intent);
+        sLog.d("onIntent:{}", intent);
         String action = intent.getAction();
         String data = intent.getDataString();
-        String from = intent.getStringExtra("from");
+        String from = intent.getStringExtra(EXTRA_FROM);
 
-        if (from !=null && from.equals("DLNAMediaRender")) {
+        // a warm cast is already decoding in the service's engine, it is attached once bound
+        if (!intent.getBooleanExtra(EXTRA_WARM, false) && (mEngine == null || !mOwnsEngine)) {
+            attachEngine(PlayerEngineFactory.create(this), true);
+        }
+
+        if (from !=null && from.equals("DLNAMediaRender") && mDLNAMediaRenderConnection == null) {
             Intent intent2 = new Intent();
             mDLNAMediaRenderConnection = new DLNAMediaRenderConnection();
             intent2.setClass(this, DLNAMediaRender.class);
             if (!bindService(intent2, mDLNAMediaRenderConnection, BIND_AUTO_CREATE)) {
-                Log.e(TAG, "bindService failed");
+                sLog.e("bindService failed");
                 mDLNAMediaRenderConnection = null;
             }
         }
 
-        if (action != null && action.equals(Intent.ACTION_VIEW)) {
-            mController.setDataSource(data);
+        if (intent.hasExtra(EXTRA_BACKEND) && mEngine != null) {
+            mEngine.getBackends().force(intent.getStringExtra(EXTRA_BACKEND));
+        }
+
+        if (action != null && action.equals(Intent.ACTION_VIEW) && mEngine != null) {
+            mEngine.setDataSource(data);
         }
     }
 
-    private boolean handleMainThreadMessage(Message msg) {
-        MessageType message = MessageType.valueOf(msg.what);
-        if (message == null) {
-            return false;
+    private void unbindRenderer() {
+        if (mDLNAMediaRenderConnection != null) {
+            unbindService(mDLNAMediaRenderConnection);
+            mDLNAMediaRenderConnection = null;
         }
+    }
 
-        if (message != MessageType.UPDATE) {
-            Log.d(TAG, "handleMainThreadMessage:" + message);
+    /**
+     * Switches the UI and surface over to engine. An engine this activity created is released
+     * with it, the warm engine of the service is only detached.
+     */
+    private void attachEngine(PlayerEngine engine, boolean owned) {
+        if (engine == mEngine) {
+            return;
         }
 
-        switch (message) {
-            case PAUSED: {
-                mMediaControllerBar.setIsPlaying(false);
-                break;
-            }
-            case STARTED: {
-                mMediaControllerBar.setIsPlaying(true);
-                Bundle bundle = msg.getData();
-                if (bundle.containsKey("duration")) {
-                    int duration = bundle.getInt("duration");
-                    Log.d(TAG, "duration:" + duration);
-                    if (duration >= 0) {
-                        mMediaControllerBar.setDuration(duration);
-                    }
-                }
-                break;
-            }
-            case STOPPED: {
-                mMediaControllerBar.reset();
-                mVideoWidth = 0;
-                mVideoHeight = 0;
-                break;
-            }
-            case UPDATE: {
-                Bundle bundle = msg.getData();
-                if (bundle.containsKey("position")) {
-                    int position = bundle.getInt("position");
-                    if (position >= 0) {
-                        mMediaControllerBar.setCurrentPosition(position);
-                    }
-                }
-                break;
-            }
-            case UPDATE_VIDEO_SIZE: {
-                Bundle bundle = msg.getData();
+        detachEngine();
+        mEngine = engine;
+        mOwnsEngine = owned;
+        mEngine.setListener(mEngineListener);
+        if (mSurfaceHolder != null) {
+            mEngine.setDisplay(mSurfaceHolder);
+        }
+        if (mMediaControllerBar.getVisibility() == View.VISIBLE) {
+            mEngine.requestProgress();
+        }
+    }
 
-                if (bundle.containsKey("video-width") && bundle.containsKey("video-height")) {
-                    mVideoWidth = bundle.getInt("video-width");
-                    mVideoHeight = bundle.getInt("video-height");
-                }
+    private void detachEngine() {
+        if (mEngine == null) {
+            return;
+        }
 
-                Log.d(TAG, "mVideoWidth:" + mVideoWidth + ", mVideoHeight:" + mVideoHeight);
+        if (mOwnsEngine) {
+            mEngine.release();
+        } else {
+            mEngine.setListener(null);
+            mEngine.setDisplay(null);
+        }
+        mEngine = null;
+        mOwnsEngine = false;
+    }
 
-                if (mVideoWidth <= 0 || mVideoHeight <= 0) {
-                    mSurfaceView.getHolder().setSizeFromLayout();
-                } else if (mVideoWidth * mDisplayLayout.getMeasuredHeight() > mVideoHeight * mDisplayLayout.getMeasuredWidth()) {
-                    mSurfaceView.getHolder().setFixedSize(mDisplayLayout.getMeasuredWidth(), mDisplayLayout.getMeasuredWidth() * mVideoHeight * 100 / mVideoWidth / 100);
-                } else {
-                    mSurfaceView.getHolder().setFixedSize(mDisplayLayout.getMeasuredHeight() * mVideoWidth * 100 / mVideoHeight / 100, mDisplayLayout.getMeasuredHeight());
-                }
+    private void stopEngine() {
+        if (mEngine == null) {
+            return;
+        }
 
-                break;
-            }
-            case HIDE_CONTROLLER_BAR: {
-                mMediaControllerBar.setVisibility(View.GONE);
-                mPlayerHandler.removeMessages(MessageType.UPDATE.value());
-                break;
-            }
-            default: {
-                break;
-            }
+        if (mOwnsEngine) {
+            mEngine.setStateChangedListener(null);
         }
+        mEngine.stop();
+    }
 
-        return true;
+    /**
+     * Applies the video layout once the sizes have settled: the first time at once, then after
+     * VIDEO_LAYOUT_DEBOUNCE ms without another change.
+     */
+    private void scheduleVideoLayout() {
+        mMainHandler.removeMessages(MessageType.UPDATE_VIDEO_SIZE.value());
+        if (mVideoLayout.resizes() == 0) {
+            mMainHandler.sendEmptyMessage(MessageType.UPDATE_VIDEO_SIZE.value());
+        } else {
+            mMainHandler.sendEmptyMessageDelayed(MessageType.UPDATE_VIDEO_SIZE.value(), VIDEO_LAYOUT_DEBOUNCE);
+        }
     }
 
-    private void handlePlayerThreadMessage(Message msg) {
+    private boolean handleMainThreadMessage(Message msg) {
         MessageType message = MessageType.valueOf(msg.what);
         if (message == null) {
-            return;
+            return false;
         }
 
-        if (message != MessageType.UPDATE
-            && message != MessageType.GET_CURRENT_POSITION
-            && message != MessageType.QUERY_STATE) {
-            Log.d(TAG, "handlePlayerThreadMessage:" + message);
-        }
+        sLog.v("handleMainThreadMessage:{}", message);
 
         switch (message) {
-            case SET_DATA_SOURCE: {
-                if (msg.obj instanceof String) {
-                    play((String)msg.obj);
-                    mLastPosition = 0;
-                }
-                break;
-            }
-            case START: {
-                if (mMediaPlayer != null && mState == PlayerState.PAUSED) {
-                    try {
-                        mMediaPlayer.start();
-                        mMainHandler.sendEmptyMessage(MessageType.STARTED.value());
-                        mPlayerHandler.sendEmptyMessage(MessageType.UPDATE.value());
-                        changeState(PlayerState.PLAYING);
-                    } catch (Exception exception) {
-                        Log.e(TAG, "exception:", exception);
-                    }
-                } else if (mUrl != null && mState == PlayerState.IDLE) {
-                    play(mUrl);
-                }
-                break;
-            }
-            case PAUSE: {
-                try {
-                    if (mState == PlayerState.PLAYING && mMediaPlayer != null) {
-                        mMediaPlayer.pause();
-                        mMainHandler.sendEmptyMessage(MessageType.PAUSED.value());
-                        changeState(PlayerState.PAUSED);
-                    }
-                } catch (Exception exception) {
-                    Log.e(TAG, "exception:", exception);
-                }
-                break;
-            }
-            case STOP: {
-                if (mState == PlayerState.PLAYING || mState == PlayerState.PAUSED) {
-                    mMediaPlayer.pause();
-                    mLastPosition = mMediaPlayer.getCurrentPosition();
-                    Log.d(TAG, "got last position:" + mLastPosition);
-                }
-                stop();
-                mMainHandler.sendEmptyMessage(MessageType.STOPPED.value());
-                mMainHandler.removeMessages(MessageType.UPDATE.value());
-                break;
-            }
-            case SEEK: {
-                try {
-                    if (mMediaPlayer != null && (mState == PlayerState.PLAYING || mState == PlayerState.PAUSED)) {
-                        mMediaPlayer.seekTo(msg.arg1);
-                    }
-                } catch (Exception exception) {
-                    Log.e(TAG, "exception:", exception);
-                }
-                break;
-            }
-            case GET_CURRENT_POSITION: {
-                int position = 0;
-                if (mMediaPlayer != null) {
-                    position = mMediaPlayer.getCurrentPosition();
-                }
-
-                MessageReply<Integer> reply = ((MessageReply<Integer>) msg.obj);
-                reply.setData(position);
-                reply.notifyReply();
-                break;
-            }
-            case GET_DURATION: {
-                int duration = 0;
-                if (mMediaPlayer != null) {
-                    duration = mMediaPlayer.getDuration();
-                }
-
-                MessageReply<Integer> reply = ((MessageReply<Integer>) msg.obj);
-                reply.setData(duration);
-                Log.d(TAG, "GET_DURATION duration:" + duration);
-                reply.notifyReply();
-                break;
-            }
-            case QUERY_STATE: {
-                MessageReply<PlayerState> reply = ((MessageReply<PlayerState>) msg.obj);
-                reply.setData(mState);
-                reply.notifyReply();
-                break;
-            }
-            case PREPARED: {
-                if (mMediaPlayer != msg.obj || mMediaPlayer == null) {
+            case UPDATE_VIDEO_SIZE: {
+                if (!mVideoLayout.update()) {
                     break;
                 }
-                try {
-                    if (mLastPosition > 0 && mLastPosition < mMediaPlayer.getDuration()) {
-                        Log.d(TAG, "seekTo last position:" + mLastPosition);
-                        mMediaPlayer.seekTo(mLastPosition);
-                    }
-                    mMediaPlayer.start();
-                    Log.e(TAG, "mMediaPlayer.start()");
-                    changeState(PlayerState.PLAYING);
-                    Message message1 = mMainHandler.obtainMessage(MessageType.STARTED.value());
-                    Bundle bundle = new Bundle();
-                    bundle.putInt("duration", mMediaPlayer.getDuration());
-                    bundle.putInt("video-width", mMediaPlayer.getVideoWidth());
-                    bundle.putInt("video-height", mMediaPlayer.getVideoHeight());
-                    message1.setData(bundle);
-                    message1.sendToTarget();
-                    mPlayerHandler.sendEmptyMessage(MessageType.UPDATE.value());
-                } catch (Exception exception) {
-                    Log.e(TAG, "exception:", exception);
-                }
-                break;
-            }
-            case COMPLETED: {
-                stop();
-                mLastPosition = 0;
-                Log.d(TAG, "reset last position:" + mLastPosition);
-                mMainHandler.sendEmptyMessage(MessageType.STOPPED.value());
-                mMainHandler.removeMessages(MessageType.UPDATE.value());
-                break;
-            }
-            case SURFACE_CREATED: {
-                mSurfaceValid = true;
-                if (mMediaPlayer != null) {
-                    Log.e(TAG, "mMediaPlayer.setDisplay()");
-                    mMediaPlayer.setDisplay(mSurfaceView.getHolder());
-                    mMediaPlayer.setScreenOnWhilePlaying(true);
-                }
-                break;
-            }
-            case SURFACE_DESTROYED: {
-                mSurfaceValid = false;
-                if (mState == PlayerState.PLAYING) {
-                    mMediaPlayer.pause();
-                    mLastPosition = mMediaPlayer.getCurrentPosition();
-                    Log.d(TAG, "got last position:" + mLastPosition);
-                }
-                stop();
-                mMainHandler.removeMessages(MessageType.UPDATE.value());
-                break;
-            }
-            case UPDATE: {
-                if (mMediaPlayer != null) {
-                    if (mMediaPlayer.isPlaying()) {
-                        Message message1 = mMainHandler.obtainMessage(MessageType.UPDATE.value());
-                        Bundle bundle = new Bundle();
-                        bundle.putInt("position", mMediaPlayer.getCurrentPosition());
-                        message1.setData(bundle);
-                        message1.sendToTarget();
-                        mPlayerHandler.removeMessages(MessageType.UPDATE.value());
-                        mPlayerHandler.sendEmptyMessageDelayed(MessageType.UPDATE.value(), 500);
-                    }
+                sLog.d("video layout:{}", mVideoLayout);
+                if (mVideoLayout.fromLayout()) {
+                    mSurfaceView.getHolder().setSizeFromLayout();
+                } else {
+                    mSurfaceView.getHolder().setFixedSize(mVideoLayout.width(), mVideoLayout.height());
                 }
+
                 break;
             }
-            case UPDATE_VIDEO_SIZE: {
-                if (mMediaPlayer != null && mMediaPlayer.isPlaying()) {
-                    Message message1 = mMainHandler.obtainMessage(MessageType.UPDATE_VIDEO_SIZE.value());
-                    Bundle bundle = new Bundle();
-                    bundle.putInt("video-width", mMediaPlayer.getVideoWidth());
-                    bundle.putInt("video-height", mMediaPlayer.getVideoHeight());
-                    message1.setData(bundle);
-                    message1.sendToTarget();
+            case HIDE_CONTROLLER_BAR: {
+                mMediaControllerBar.setVisibility(View.GONE);
+                if (mEngine != null) {
+                    mEngine.cancelProgress();
                 }
                 break;
             }
@@ -664,65 +427,7 @@ public class PlaybackActivity extends Activity {
                 break;
             }
         }
-    }
-
-    private void play(String path) {
-        if (path == null || path.isEmpty()) {
-            return;
-        }
-
-        Log.d(TAG, path);
-        /* stop playback first*/
-        stop();
 
-        mMediaPlayer = new MediaPlayer();
-        mMediaPlayer.setOnPreparedListener(mMediaPlayerListener);
-        mMediaPlayer.setOnCompletionListener(mMediaPlayerListener);
-        mMediaPlayer.setOnSeekCompleteListener(mMediaPlayerListener);
-        mMediaPlayer.setOnVideoSizeChangedListener(mMediaPlayerListener);
-
-        try {
-            Log.e(TAG, "mMediaPlayer.setDataSource(" + path + ")");
-            mMediaPlayer.setDataSource(path);
-            if (mSurfaceValid) {
-                Log.e(TAG, "mMediaPlayer.setDisplay()");
-                mMediaPlayer.setDisplay(mSurfaceView.getHolder());
-                mMediaPlayer.setScreenOnWhilePlaying(true);
-            }
-            Log.e(TAG, "mMediaPlayer.prepareAsync()");
-            mMediaPlayer.prepareAsync();
-            changeState(PlayerState.PREPARING);
-        } catch (Exception exception) {
-            Log.e(TAG, "exception:" + exception);
-            mMediaPlayer.release();
-        }
-
-        mUrl = path;
-    }
-
-    private void stop() {
-        if (mMediaPlayer != null) {
-            mMediaPlayer.stop();
-            mMediaPlayer.release();
-            mMediaPlayer = null;
-        }
-
-        changeState(PlayerState.IDLE);
-    }
-
-    private void changeState(PlayerState state) {
-        Log.d(TAG, "state:" + state);
-        mState = state;
-        mController.changeState(convertState(state));
-    }
-
-    private int convertState(PlayerState state) {
-        switch (state) {
-            case PLAYING: return PlaybackController.STATE_PLAYING;
-            case IDLE: return PlaybackController.STATE_IDLE;
-            case PREPARING: return PlaybackController.STATE_PREPARING;
-            case PAUSED: return PlaybackController.STATE_PAUSED;
-            default: throw new IllegalArgumentException();
-        }
+        return true;
     }
-}
\ No newline at end of file
+}
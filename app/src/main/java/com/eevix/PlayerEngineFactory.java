@@ -0,0 +1,38 @@
+package com.eevix;
+
+import android.content.Context;
+
+import java.io.File;
+
+/**
+ * Builds the {@link PlayerEngine}s of the app: MediaPlayer or ExoPlayer per session on a player
+ * HandlerThread, UI updates on the main thread.
+ */
+final class PlayerEngineFactory {
+    static final String BACKEND_MEDIA_PLAYER = "mediaplayer";
+    static final String BACKEND_EXO_PLAYER = "exoplayer";
+
+    private PlayerEngineFactory() {
+    }
+
+    /** An engine reading remote media through the shared caching proxy when it is enabled. */
+    static PlayerEngine create(Context context) {
+        CachingProxy proxy = null;
+        if (context.getResources().getBoolean(R.bool.caching_proxy)) {
+            proxy = CachingProxy.shared(context.getCacheDir());
+        }
+        int exoPlayerPercent = context.getResources().getInteger(R.integer.exoplayer_percent);
+        BackendSelector backends = new BackendSelector()
+                .add(BACKEND_MEDIA_PLAYER, new MediaPlayerBackend(), 100 - exoPlayerPercent)
+                .add(BACKEND_EXO_PLAYER, new ExoPlayerBackend(context, ExoPlayerBackend.Buffering.fromResources(context)),
+                     exoPlayerPercent);
+        PlayerEngine engine = new PlayerEngine(backends,
+                                               HandlerExecutor.startThread("playerThread"),
+                                               HandlerExecutor.mainThread(),
+                                               proxy,
+                                               ResumePositionStore.shared(new File(context.getFilesDir(), "resume_positions")));
+        engine.setDetachTimeout(context.getResources().getInteger(R.integer.surface_detach_timeout));
+        engine.setBackgroundAudio(context.getResources().getBoolean(R.bool.background_audio));
+        return engine;
+    }
+}
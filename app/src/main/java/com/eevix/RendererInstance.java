@@ -0,0 +1,238 @@
+package com.eevix;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+import java.io.PrintWriter;
+
+import static android.content.Intent.ACTION_VIEW;
+import static android.content.Intent.FLAG_ACTIVITY_NEW_TASK;
+
+/**
+ * One AVTransport renderer on the network: its native device, looper and handle, and the
+ * controller its commands go to.
+ *
+ * DLNAMediaRender hosts one or more of them in the process, all sharing the native UPnP stack.
+ * The primary renderer is the one PlaybackActivity shows, started on SetAVTransportURI; the
+ * others always play on a warm engine of their own. Those have no surface, so they announce
+ * themselves as audio renderers and only offer audio formats to control points.
+ */
+final class RendererInstance {
+    private static final String TAG = "RendererInstance";
+    private static final Logger sLog = Logger.get(TAG);
+    // read by the native side, see nativeClassInit
+    private static final int STATE_IDLE = PlaybackController.STATE_IDLE;
+    private static final int STATE_PREPARING = PlaybackController.STATE_PREPARING;
+    private static final int STATE_PAUSED = PlaybackController.STATE_PAUSED;
+    private static final int STATE_PLAYING = PlaybackController.STATE_PLAYING;
+    private static final long PENDING_ACTION_TIMEOUT = 5000; // ms
+    private final Context mContext;
+    private final int mIndex;
+    private final String mFriendlyName;
+    private final ControllerDispatcher mDispatcher;
+    private volatile PlayerEngine mWarmEngine = null;
+    private volatile long mHandle = 0;
+
+    private static native void nativeClassInit();
+    private static native long nativeCreate(RendererInstance peer, String friendlyName, String uuid, boolean video);
+    private static native void nativeDestroy(long handle);
+    private static native void nativeOnStateChanged(long handle, int state, int position, int duration);
+    private static native void nativeOnTrackChanged(long handle, String url);
+    private static native void nativeCompleteAction(long handle, int token, boolean success);
+    private static native String nativeDump(long handle);
+    private static native String nativeBenchmarkUpcalls(long handle, int iterations);
+    static native int nativeSetLogLevel(int level);
+
+    static {
+        System.loadLibrary("dlnamediarender");
+        nativeClassInit();
+    }
+
+    private final PlaybackController.StateChangedListener mStateChangedListener = new PlaybackController.StateChangedListener() {
+        @Override
+        public void onStateChanged(int state, int position, int duration) {
+            sLog.v("state:{}, position:{}, duration:{}", state, position, duration);
+            nativeOnStateChanged(mHandle, state, position, duration);
+        }
+
+        @Override
+        public void onTrackChanged(String url) {
+            sLog.d("track changed:{}", url);
+            nativeOnTrackChanged(mHandle, url);
+        }
+    };
+
+    /**
+     * A renderer announced as friendlyName with uuid, playing on warmEngine when it is not null.
+     * It is on the network once publish returns.
+     */
+    RendererInstance(Context context, int index, String friendlyName, PlayerEngine warmEngine) {
+        mContext = context;
+        mIndex = index;
+        mFriendlyName = friendlyName;
+        mDispatcher = new ControllerDispatcher(HandlerExecutor.mainThread(), PENDING_ACTION_TIMEOUT,
+                                               new ControllerDispatcher.ExpiryListener() {
+            @Override
+            public void onExpired(ControllerDispatcher.Registration registration) {
+                sLog.d("PlaybackActivity did not register in time, action:{}", registration.token);
+                nativeCompleteAction(mHandle, registration.token, false);
+            }
+        });
+        if (warmEngine != null) {
+            warmEngine.setStateChangedListener(mStateChangedListener);
+            mWarmEngine = warmEngine;
+            mDispatcher.register(warmEngine);
+        }
+    }
+
+    boolean publish(String uuid) {
+        mHandle = nativeCreate(this, mFriendlyName, uuid, isPrimary());
+        sLog.d("publish:{}, uuid:{}", mFriendlyName, uuid);
+        return mHandle != 0;
+    }
+
+    /** Takes the renderer off the network and releases its engine. */
+    void release() {
+        sLog.d("release:{}", mFriendlyName);
+        long handle = mHandle;
+        mHandle = 0;
+        nativeDestroy(handle);
+        mDispatcher.reset(null);
+        PlayerEngine warmEngine = mWarmEngine;
+        mWarmEngine = null;
+        if (warmEngine != null) {
+            warmEngine.release();
+        }
+    }
+
+    boolean isPrimary() {
+        return mIndex == 0;
+    }
+
+    PlayerEngine getWarmEngine() {
+        return mWarmEngine;
+    }
+
+    /** Registers the controller of PlaybackActivity, null when it goes away. */
+    void register(PlaybackController controller) {
+        sLog.d("register:{}", controller);
+        if (controller != null) {
+            controller.setStateChangedListener(mStateChangedListener);
+        }
+
+        ControllerDispatcher.Registration registration = mDispatcher.register(controller);
+        if (registration != null && controller != null) {
+            nativeCompleteAction(mHandle, registration.token, true);
+        }
+    }
+
+    /** Falls back to the warm engine once PlaybackActivity unbinds. */
+    void unregister() {
+        if (mDispatcher.reset(mWarmEngine)) {
+            nativeOnStateChanged(mHandle, STATE_IDLE, 0, 0);
+        }
+    }
+
+    void dump(PrintWriter writer, boolean benchmark, int iterations) {
+        writer.println("  renderer " + mIndex + ": " + mFriendlyName + ", handle:" + Long.toHexString(mHandle));
+        writer.print(nativeDump(mHandle));
+        if (benchmark) {
+            writer.print(nativeBenchmarkUpcalls(mHandle, iterations));
+        }
+        writer.println("  warm renderer: " + (mWarmEngine != null));
+
+        PlaybackController controller = mDispatcher.get();
+        if (controller != null) {
+            controller.dump(writer);
+        }
+    }
+
+    /**
+     * Called from the native looper for SetAVTransportURI, must not block it. The action
+     * identified by token is completed through nativeCompleteAction, right away when a
+     * controller is registered, otherwise once PlaybackActivity has started and registered.
+     * With a warm engine the engine is always registered, so decoding starts here and
+     * PlaybackActivity is only started to show it.
+     */
+    private void setDataSource(String url, int token) {
+        sLog.d("setDataSource url:{}, token:{}", url, token);
+        PlayerEngine warmEngine = mWarmEngine;
+        if (isPrimary()) {
+            FirstFrameTrace.current().begin(warmEngine != null);
+        }
+        PlaybackController controller = mDispatcher.get();
+        if (controller != null) {
+            controller.setDataSource(url);
+            nativeCompleteAction(mHandle, token, true);
+            if (isPrimary() && warmEngine != null && !warmEngine.hasListener()) {
+                sLog.d("startActivity, warm");
+                Intent intent = new Intent(mContext, PlaybackActivity.class);
+                intent.setFlags(FLAG_ACTIVITY_NEW_TASK);
+                intent.putExtra(PlaybackActivity.EXTRA_FROM, "DLNAMediaRender");
+                intent.putExtra(PlaybackActivity.EXTRA_WARM, true);
+                mContext.startActivity(intent);
+            }
+            return;
+        }
+
+        // an earlier cold start is still running, the new intent takes over its url
+        ControllerDispatcher.Registration registration = new ControllerDispatcher.Registration(token);
+        ControllerDispatcher.Registration superseded = mDispatcher.expectRegistration(registration);
+        if (superseded != null) {
+            nativeCompleteAction(mHandle, superseded.token, true);
+        }
+
+        controller = mDispatcher.get();
+        if (controller != null && mDispatcher.expire(registration)) {
+            // registered between the check above and expectRegistration
+            controller.setDataSource(url);
+            nativeCompleteAction(mHandle, token, true);
+            return;
+        }
+
+        sLog.d("startActivity");
+        Intent intent = new Intent(ACTION_VIEW, Uri.parse(url), mContext, PlaybackActivity.class);
+        intent.setFlags(FLAG_ACTIVITY_NEW_TASK);
+        intent.putExtra(PlaybackActivity.EXTRA_FROM, "DLNAMediaRender");
+        mContext.startActivity(intent);
+    }
+
+    private void setNextDataSource(String url) {
+        sLog.d("setNextDataSource url:{}", url);
+        mDispatcher.setNextDataSource(url);
+    }
+
+    private void next() {
+        mDispatcher.skipToNext();
+    }
+
+    private void start() {
+        mDispatcher.start();
+    }
+
+    private void stop() {
+        mDispatcher.stop();
+    }
+
+    private void pause() {
+        mDispatcher.pause();
+    }
+
+    private void seek(int millisecond) {
+        mDispatcher.seek(millisecond);
+    }
+
+    /** A control point polls GetPositionInfo or is subscribed to AVTransport events. */
+    private void followPosition(int lease) {
+        mDispatcher.followPosition(lease);
+    }
+
+    /**
+     * Fills state with the controller's state, position and duration in one upcall. The renderer
+     * itself is fed by onStateChanged, this is the bulk query measured by nativeBenchmarkUpcalls.
+     */
+    private void getPlaybackState(int[] state) {
+        mDispatcher.getPlaybackState(state);
+    }
+}
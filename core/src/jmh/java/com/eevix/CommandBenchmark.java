@@ -0,0 +1,58 @@
+package com.eevix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of transport commands forwarded by the dispatcher, from one to many caller threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CommandBenchmark {
+    private static final String URL = "http://192.168.1.10:8200/MediaItems/1234.mkv";
+
+    @State(Scope.Thread)
+    public static class Caller {
+        int next = 0;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void command1(ControlPlaneState plane, Caller caller) {
+        command(plane.dispatcher, caller.next++);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void command4(ControlPlaneState plane, Caller caller) {
+        command(plane.dispatcher, caller.next++);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void commandMax(ControlPlaneState plane, Caller caller) {
+        command(plane.dispatcher, caller.next++);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void nextDataSource4(ControlPlaneState plane) {
+        plane.dispatcher.setNextDataSource(URL);
+    }
+
+    private static void command(ControllerDispatcher dispatcher, int i) {
+        switch (i & 3) {
+            case 0: dispatcher.start(); break;
+            case 1: dispatcher.seek(i); break;
+            case 2: dispatcher.pause(); break;
+            default: dispatcher.stop(); break;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.eevix;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A dispatcher with a registered controller that answers queries from a snapshot and counts
+ * commands, the shape of PlayerEngine without the player thread behind it.
+ */
+@State(Scope.Benchmark)
+public class ControlPlaneState {
+    final ThreadExecutor timer = new ThreadExecutor("registrationTimer");
+    final ControllerDispatcher dispatcher = new ControllerDispatcher(timer, 5000, null); // no cold starts here
+    final SnapshotController controller = new SnapshotController();
+    final SnapshotController other = new SnapshotController();
+
+    static final class SnapshotController implements PlaybackController {
+        final PlaybackSnapshotHolder holder = new PlaybackSnapshotHolder();
+        final AtomicLong commands = new AtomicLong();
+
+        @Override
+        public void setDataSource(String url) {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void setNextDataSource(String url) {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void skipToNext() {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void start() {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void pause() {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void resume() {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void stop() {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void seek(int millisecond) {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void scrub(int millisecond) {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void followPosition(int lease) {
+        }
+
+        @Override
+        public int getCurrentPosition() {
+            return holder.getCurrentPosition();
+        }
+
+        @Override
+        public int getDuration() {
+            return holder.getDuration();
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return holder.isPlaying();
+        }
+
+        @Override
+        public int getState() {
+            return holder.getState();
+        }
+
+        @Override
+        public void setStateChangedListener(StateChangedListener listener) {
+        }
+
+        @Override
+        public void dump(PrintWriter writer) {
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        controller.holder.publish(PlaybackController.STATE_PLAYING, 1000, 3600000, 1920, 1080);
+        other.holder.publish(PlaybackController.STATE_PAUSED, 2000, 3600000, 1920, 1080);
+        dispatcher.register(controller);
+    }
+
+    @TearDown
+    public void tearDown() {
+        timer.quit();
+    }
+}
@@ -0,0 +1,44 @@
+package com.eevix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Debug logging of one renderer command with the tag above DEBUG: the messages concatenated
+ * before the level check, as Log.d(TAG, ...) did, against the {@link Logger} templates that are
+ * only filled in once enabled. gc.alloc.rate.norm should read 0 for the latter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LoggerBenchmark {
+    private static final String URL = "http://192.168.1.10:8200/MediaItems/1234.mkv";
+
+    @State(Scope.Thread)
+    public static class Command {
+        final Logger logger = Logger.get("LoggerBenchmark");
+        int token = 0;
+
+        public Command() {
+            Logger.setLevel("LoggerBenchmark", Logger.INFO);
+        }
+    }
+
+    @Benchmark
+    public int concatenated(Command command) {
+        int token = command.token++;
+        return ("seek:" + token).length() + ("setDataSource url:" + URL + ", token:" + token).length();
+    }
+
+    @Benchmark
+    public void gated(Command command) {
+        int token = command.token++;
+        command.logger.d("seek:{}", token);
+        command.logger.d("setDataSource url:{}, token:{}", URL, token);
+    }
+}
@@ -0,0 +1,75 @@
+package com.eevix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of a query answered through a {@link MessageReply} by a single player thread, the
+ * handoff queries used before they read the published snapshot. Compare with QueryBenchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageReplyBenchmark {
+    @State(Scope.Benchmark)
+    public static class PlayerThread {
+        final LinkedBlockingQueue<MessageReply<Integer>> queue = new LinkedBlockingQueue<MessageReply<Integer>>();
+        final PlaybackSnapshotHolder holder = new PlaybackSnapshotHolder();
+        Thread thread;
+
+        @Setup
+        public void setUp() {
+            holder.publish(PlaybackController.STATE_PLAYING, 1000, 3600000, 1920, 1080);
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            MessageReply<Integer> reply = queue.take();
+                            reply.setData(holder.getCurrentPosition());
+                            reply.notifyReply();
+                        }
+                    } catch (InterruptedException exception) {
+                        // torn down
+                    }
+                }
+            }, "player");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            thread.interrupt();
+            thread.join();
+        }
+
+        int query() {
+            MessageReply<Integer> reply = new MessageReply<Integer>();
+            queue.add(reply);
+            reply.waitReply();
+            return reply.getData();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int reply1(PlayerThread player) {
+        return player.query();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int reply4(PlayerThread player) {
+        return player.query();
+    }
+}
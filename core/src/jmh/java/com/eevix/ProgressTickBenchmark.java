@@ -0,0 +1,37 @@
+package com.eevix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Position text of one progress tick, each op a new second: String.format as the controller bar
+ * used to, against the reused {@link TimeFormatter}. gc.alloc.rate.norm should read 0 for the
+ * latter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProgressTickBenchmark {
+    @State(Scope.Thread)
+    public static class Tick {
+        final TimeFormatter formatter = new TimeFormatter();
+        int position = 0;   // ms
+    }
+
+    @Benchmark
+    public int stringFormat(Tick tick) {
+        int second = (tick.position += 1000) / 1000;
+        return String.format("%02d:%02d:%02d", second / 3600, second / 60 % 60, second % 60).length();
+    }
+
+    @Benchmark
+    public int timeFormatter(Tick tick) {
+        tick.formatter.format(tick.position += 1000);
+        return tick.formatter.chars()[tick.formatter.length() - 1];
+    }
+}
@@ -0,0 +1,83 @@
+package com.eevix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the renderer's state query (GetTransportInfo, GetPositionInfo) through the dispatcher,
+ * alone and against concurrent commands and controller swaps.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QueryBenchmark {
+    private static final PlayerState[] STATES = PlayerState.values();
+
+    @State(Scope.Thread)
+    public static class Caller {
+        final int[] state = new int[3];
+        int next = 0;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int query1(ControlPlaneState plane, Caller caller) {
+        plane.dispatcher.getPlaybackState(caller.state);
+        return caller.state[1];
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int query4(ControlPlaneState plane, Caller caller) {
+        plane.dispatcher.getPlaybackState(caller.state);
+        return caller.state[1];
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int queryMax(ControlPlaneState plane, Caller caller) {
+        plane.dispatcher.getPlaybackState(caller.state);
+        return caller.state[1];
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public int contendedQuery(ControlPlaneState plane, Caller caller) {
+        plane.dispatcher.getPlaybackState(caller.state);
+        return caller.state[1];
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public void contendedCommand(ControlPlaneState plane, Caller caller) {
+        plane.dispatcher.seek(caller.next++);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void contendedRegister(ControlPlaneState plane, Caller caller) {
+        // an activity registering and unbinding, swapping the controller under the callers
+        if ((caller.next++ & 1) == 0) {
+            plane.dispatcher.register(plane.other);
+        } else {
+            plane.dispatcher.reset(plane.controller);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int convertState(Caller caller) {
+        return PlayerState.convertState(STATES[caller.next++ & 3]);
+    }
+}
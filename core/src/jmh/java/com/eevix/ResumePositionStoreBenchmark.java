@@ -0,0 +1,79 @@
+package com.eevix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ResumePositionStore} holding 100k entries: lookup by key and by url, and update, whose
+ * time includes the compactions the appended records trigger.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResumePositionStoreBenchmark {
+    private static final int ENTRIES = 100000;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @State(Scope.Thread)
+    public static class Store {
+        final String[] urls = new String[ENTRIES];
+        final long[] keys = new long[ENTRIES];
+        File directory;
+        ResumePositionStore store;
+        int next = 0;
+
+        @Setup
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("resume").toFile();
+            store = new ResumePositionStore(new File(directory, "positions"), ENTRIES, DAY);
+            for (int i = 0; i < ENTRIES; i++) {
+                urls[i] = "http://192.168.1.2:8200/MediaItems/" + i + ".mp4";
+                keys[i] = ResumePositionStore.hash(urls[i]);
+                store.put(keys[i], i + 1, 3600000, System.currentTimeMillis());
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+
+        int next() {
+            int i = next;
+            next = i + 1 == ENTRIES ? 0 : i + 1;
+            return i;
+        }
+    }
+
+    @Benchmark
+    public int lookup(Store store) {
+        return store.store.get(store.keys[store.next()], System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public int lookupByUrl(Store store) {
+        return store.store.get(store.urls[store.next()]);
+    }
+
+    @Benchmark
+    public void update(Store store) {
+        int i = store.next();
+        store.store.put(store.keys[i], i + 2, 3600000, System.currentTimeMillis());
+    }
+}
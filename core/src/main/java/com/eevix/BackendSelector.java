@@ -0,0 +1,124 @@
+package com.eevix;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The media backends a {@link PlayerEngine} can play on, and which one each session gets.
+ *
+ * A session starts with setDataSource and keeps its backend for the items chained after it, so a
+ * preloaded next player always matches the current one. Backends are picked at random in
+ * proportion to their weights, or forced by name, and startup time and rebuffering are kept per
+ * backend so an A/B split can be read from the dump.
+ */
+public final class BackendSelector {
+    private final List<Backend> mBackends = new ArrayList<Backend>();
+    private final Random mRandom;
+    private volatile String mForced = null;
+
+    /** A backend and what its sessions measured. */
+    static final class Backend {
+        final String name;
+        final MediaBackend backend;
+        final int weight;
+        final AtomicLong sessions = new AtomicLong();
+        final LatencyHistogram startup = new LatencyHistogram();  // us, prepareAsync to playing
+        final LatencyHistogram rebuffer = new LatencyHistogram(); // us, buffering start to end
+        final AtomicLong playing = new AtomicLong();               // us spent playing
+
+        Backend(String name, MediaBackend backend, int weight) {
+            this.name = name;
+            this.backend = backend;
+            this.weight = weight;
+        }
+
+        /** Time stalled per time playing, in per mille. */
+        long rebufferRatio() {
+            long playing = this.playing.get();
+            return playing == 0 ? 0 : rebuffer.sum() * 1000 / playing;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": sessions:" + sessions.get() + ", rebuffer ratio:" + rebufferRatio() + "/1000"
+                    + ", playing:" + playing.get() / 1000 + "ms";
+        }
+    }
+
+    public BackendSelector() {
+        this(new Random());
+    }
+
+    BackendSelector(Random random) {
+        mRandom = random;
+    }
+
+    /** A selector with backend as its only choice. */
+    public static BackendSelector single(String name, MediaBackend backend) {
+        return new BackendSelector().add(name, backend, 1);
+    }
+
+    /** Adds a backend picked for weight out of the total weight of sessions, 0 only when forced. */
+    public BackendSelector add(String name, MediaBackend backend, int weight) {
+        synchronized (mBackends) {
+            mBackends.add(new Backend(name, backend, Math.max(0, weight)));
+        }
+        return this;
+    }
+
+    /** Plays the following sessions on the backend called name, null goes back to the weights. */
+    public void force(String name) {
+        mForced = name;
+    }
+
+    Backend select() {
+        synchronized (mBackends) {
+            String forced = mForced;
+            int total = 0;
+            for (Backend backend : mBackends) {
+                if (backend.name.equals(forced)) {
+                    backend.sessions.incrementAndGet();
+                    return backend;
+                }
+                total += backend.weight;
+            }
+
+            Backend selected = mBackends.get(0);
+            if (total > 0) {
+                int pick = mRandom.nextInt(total);
+                for (Backend backend : mBackends) {
+                    if (pick < backend.weight) {
+                        selected = backend;
+                        break;
+                    }
+                    pick -= backend.weight;
+                }
+            }
+            selected.sessions.incrementAndGet();
+            return selected;
+        }
+    }
+
+    /** Releases what the backends keep between players, on the thread that created them. */
+    void release() {
+        synchronized (mBackends) {
+            for (Backend backend : mBackends) {
+                backend.backend.release();
+            }
+        }
+    }
+
+    void dump(PrintWriter writer, String prefix) {
+        synchronized (mBackends) {
+            writer.println(prefix + "backends: forced:" + mForced);
+            for (Backend backend : mBackends) {
+                writer.println(prefix + "  " + backend);
+                writer.println(prefix + "  " + backend.name + ".startup: " + backend.startup.format("us"));
+                writer.println(prefix + "  " + backend.name + ".rebuffer: " + backend.rebuffer.format("us"));
+            }
+        }
+    }
+}
@@ -0,0 +1,705 @@
+package com.eevix;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loopback HTTP proxy that MediaPlayer reads remote media through.
+ *
+ * The origin is fetched in fixed-size segments with range requests and every segment is kept in
+ * a {@link SegmentCache}, so re-prepares and backward seeks are served locally. Serving a segment
+ * schedules the following read-ahead segments in the background; read-ahead left behind by a seek
+ * is dropped before it reaches the origin. Origins that do not honour range requests are relayed
+ * as they are, without caching. The proxy remembers the last {@link #MAX_URLS} urls, the segments
+ * of older ones are evicted with them.
+ */
+public final class CachingProxy {
+    static final int SEGMENT_SIZE = 256 * 1024;
+    static final int READ_AHEAD = 32; // segments
+    static final long MAX_CACHE_BYTES = 128L * 1024 * 1024;
+    static final int MAX_URLS = 64;
+    private static final int CONNECT_TIMEOUT = 10000; // ms
+    private static final int READ_TIMEOUT = 15000; // ms
+    private static final int MAX_HEADER_SIZE = 8192;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static CachingProxy sShared = null;
+
+    private final SegmentCache mCache;
+    private final int mSegmentSize;
+    private final int mReadAhead;
+    private final ServerSocketChannel mServer;
+    private final ExecutorService mClientExecutor;
+    private final ExecutorService mReadAheadExecutor;
+    private final Map<String, String> mIds = new LinkedHashMap<String, String>(16, 0.75f, true);   // url -> id, LRU
+    private final Map<String, String> mUrls = new ConcurrentHashMap<String, String>();  // id -> url
+    private final Map<String, MediaInfo> mInfos = new ConcurrentHashMap<String, MediaInfo>();
+    private final Map<SegmentCache.Key, Fetch> mFetches = new HashMap<SegmentCache.Key, Fetch>();
+    private final Map<String, Long> mReadAheadFrom = new HashMap<String, Long>();  // url -> window start, under mFetches
+    private long mNextId = 1;
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mServedBytes = new AtomicLong();
+    private final AtomicLong mOriginBytes = new AtomicLong();
+    private final AtomicLong mCachedBytes = new AtomicLong();
+    private final AtomicLong mRelayedBytes = new AtomicLong();
+    private volatile boolean mRunning = false;
+    private Thread mAcceptThread = null;
+
+    private static final class MediaInfo {
+        final long length;
+        final String contentType;
+        final boolean seekable;
+
+        MediaInfo(long length, String contentType, boolean seekable) {
+            this.length = length;
+            this.contentType = contentType;
+            this.seekable = seekable;
+        }
+    }
+
+    /**
+     * A segment download that other readers of the same segment wait for. A queued read-ahead one
+     * is not started until a thread claims it under mFetches, the pool or a reader that needs it.
+     */
+    private static final class Fetch {
+        final CountDownLatch done = new CountDownLatch(1);
+        boolean started;
+        ByteBuffer buffer;
+        IOException error;
+    }
+
+    private static final class NotSeekableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NotSeekableException(String url) {
+            super("range requests not supported by " + url);
+        }
+    }
+
+    private static final class Request {
+        String method;
+        String path;
+        String range;
+    }
+
+    /**
+     * The proxy shared by all engines of the process, started on first use.
+     * Returns null if it could not be started, callers then play the original url.
+     */
+    public static synchronized CachingProxy shared(File cacheDirectory) {
+        if (sShared == null) {
+            try {
+                CachingProxy proxy = new CachingProxy(new File(cacheDirectory, "media"), MAX_CACHE_BYTES, SEGMENT_SIZE, READ_AHEAD);
+                proxy.start();
+                sShared = proxy;
+            } catch (IOException exception) {
+                return null;
+            }
+        }
+        return sShared;
+    }
+
+    CachingProxy(File directory, long maxBytes, int segmentSize, int readAhead) throws IOException {
+        mCache = new SegmentCache(directory, segmentSize, maxBytes);
+        mSegmentSize = segmentSize;
+        mReadAhead = readAhead;
+        mServer = ServerSocketChannel.open();
+        mServer.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        mClientExecutor = Executors.newCachedThreadPool(threadFactory("proxyClient"));
+        mReadAheadExecutor = Executors.newFixedThreadPool(2, threadFactory("proxyReadAhead"));
+    }
+
+    synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+
+        mRunning = true;
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "proxyAccept");
+        mAcceptThread.setDaemon(true);
+        mAcceptThread.start();
+    }
+
+    synchronized void stop() {
+        mRunning = false;
+        try {
+            mServer.close();
+        } catch (IOException exception) {
+            // Empty
+        }
+        mClientExecutor.shutdownNow();
+        mReadAheadExecutor.shutdownNow();
+    }
+
+    /**
+     * The url to hand to MediaPlayer for url. Adaptive streaming playlists are returned as they
+     * are, since their relative segment urls would not resolve against the proxy.
+     */
+    String proxyUrl(String url) {
+        if (url == null || !url.toLowerCase(Locale.US).startsWith("http://")) {
+            return url;
+        }
+
+        String path = url.toLowerCase(Locale.US);
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        if (path.endsWith(".m3u8") || path.endsWith(".mpd")) {
+            return url;
+        }
+
+        String id;
+        synchronized (mIds) {
+            id = mIds.get(url);
+            if (id == null) {
+                id = Long.toString(mNextId++);
+                mIds.put(url, id);
+                mUrls.put(id, url);
+                evictUrls();
+            }
+        }
+        return "http://127.0.0.1:" + mServer.socket().getLocalPort() + "/" + id;
+    }
+
+    /** Forgets the least recently used urls beyond MAX_URLS, their segments included. Holds mIds. */
+    private void evictUrls() {
+        Iterator<Map.Entry<String, String>> iterator = mIds.entrySet().iterator();
+        while (mIds.size() > MAX_URLS) {
+            Map.Entry<String, String> eldest = iterator.next();
+            iterator.remove();
+            mUrls.remove(eldest.getValue());
+            mInfos.remove(eldest.getKey());
+            synchronized (mFetches) {
+                mReadAheadFrom.remove(eldest.getKey());
+            }
+            mCache.remove(eldest.getKey());
+        }
+    }
+
+    /** The url behind a proxy id, null if unknown or evicted. */
+    private String urlOf(String id) {
+        synchronized (mIds) {
+            String url = mUrls.get(id);
+            if (url != null) {
+                mIds.get(url); // most recently used
+            }
+            return url;
+        }
+    }
+
+    /** Share of segment lookups that were served from the cache. */
+    double hitRatio() {
+        long hits = mCache.hits();
+        long lookups = hits + mCache.misses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /** Bytes handed to the player from segments that were already cached, without waiting on the origin. */
+    long bytesSaved() {
+        return mCachedBytes.get();
+    }
+
+    long servedBytes() {
+        return mServedBytes.get();
+    }
+
+    long originBytes() {
+        return mOriginBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "requests:%d, hit ratio:%.2f, served:%d, origin:%d, saved:%d, relayed:%d, cached:%d segments/%d bytes, evicted:%d",
+                mRequests.get(), hitRatio(), mServedBytes.get(), mOriginBytes.get(), bytesSaved(),
+                mRelayedBytes.get(), mCache.segments(), mCache.bytes(), mCache.evictions());
+    }
+
+    private void acceptLoop() {
+        while (mRunning) {
+            try {
+                final SocketChannel client = mServer.accept();
+                mClientExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                });
+            } catch (IOException exception) {
+                if (!mRunning) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        boolean headersSent = false;
+        try {
+            Request request = readRequest(client.socket().getInputStream());
+            mRequests.incrementAndGet();
+            String url = request == null ? null : urlOf(request.path);
+            if (url == null) {
+                writeStatus(client, 404, "Not Found", null);
+                return;
+            }
+
+            // the first request for a url downloads segment 0 to learn the length
+            ByteBuffer probe = null;
+            MediaInfo info = mInfos.get(url);
+            if (info == null) {
+                probe = probe(url);
+                info = mInfos.get(url);
+                if (info == null) {
+                    // evicted while probing
+                    writeStatus(client, 404, "Not Found", null);
+                    return;
+                }
+            }
+            if (!info.seekable) {
+                headersSent = true;
+                relay(client, url, request);
+                return;
+            }
+
+            long start = 0;
+            long end = info.length - 1;
+            if (request.range != null) {
+                long[] range = parseRange(request.range, info.length);
+                if (range == null) {
+                    writeStatus(client, 416, "Range Not Satisfiable", "Content-Range: bytes */" + info.length + "\r\n");
+                    return;
+                }
+                start = range[0];
+                end = range[1];
+            }
+
+            StringBuilder headers = new StringBuilder();
+            headers.append(request.range != null ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+            if (info.contentType != null) {
+                headers.append("Content-Type: ").append(info.contentType).append("\r\n");
+            }
+            headers.append("Accept-Ranges: bytes\r\n");
+            if (request.range != null) {
+                headers.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(info.length).append("\r\n");
+            }
+            headers.append("Content-Length: ").append(end - start + 1).append("\r\n");
+            headers.append("Connection: close\r\n\r\n");
+            write(client, headers.toString());
+            headersSent = true;
+
+            if (request.method.equals("HEAD")) {
+                return;
+            }
+
+            long position = start;
+            while (position <= end) {
+                long index = position / mSegmentSize;
+                ByteBuffer buffer = index == 0 && probe != null ? probe : mCache.get(url, index);
+                boolean cached = buffer != null && buffer != probe;
+                if (buffer == null) {
+                    buffer = fetch(url, index);
+                }
+                readAhead(url, index + 1, info);
+
+                int offset = (int) (position - index * mSegmentSize);
+                int count = (int) Math.min(buffer.limit() - offset, end - position + 1);
+                buffer.limit(offset + count);
+                buffer.position(offset);
+                while (buffer.hasRemaining()) {
+                    client.write(buffer);
+                }
+                position += count;
+                mServedBytes.addAndGet(count);
+                if (cached) {
+                    mCachedBytes.addAndGet(count);
+                }
+            }
+        } catch (IOException exception) {
+            // the player closes connections when it seeks, an origin failure ends the response
+            if (!headersSent) {
+                try {
+                    writeStatus(client, 502, "Bad Gateway", null);
+                } catch (IOException ignored) {
+                    // Empty
+                }
+            }
+        } finally {
+            try {
+                client.close();
+            } catch (IOException exception) {
+                // Empty
+            }
+        }
+    }
+
+    /** The first segment of url, null if the origin does not serve ranges. Records its MediaInfo. */
+    private ByteBuffer probe(String url) throws IOException {
+        try {
+            return fetch(url, 0);
+        } catch (NotSeekableException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Downloads a segment, or waits for the download already in flight for it. A read-ahead one
+     * still queued is taken over rather than waited for behind the rest of the queue.
+     */
+    private ByteBuffer fetch(String url, long index) throws IOException {
+        SegmentCache.Key key = new SegmentCache.Key(url, index);
+        Fetch fetch;
+        boolean owner = false;
+        synchronized (mFetches) {
+            fetch = mFetches.get(key);
+            if (fetch == null && !mCache.contains(url, index)) {
+                fetch = new Fetch();
+                mFetches.put(key, fetch);
+            }
+            if (fetch != null && !fetch.started) {
+                fetch.started = true;
+                owner = true;
+            }
+        }
+
+        if (fetch == null) {
+            // committed before the lock was taken
+            ByteBuffer buffer = mCache.get(url, index);
+            if (buffer != null) {
+                return buffer;
+            }
+            return fetch(url, index);
+        }
+
+        if (owner) {
+            complete(key, fetch);
+        } else {
+            try {
+                fetch.done.await();
+            } catch (InterruptedException exception) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        if (fetch.error != null) {
+            throw fetch.error;
+        }
+        return fetch.buffer.duplicate();
+    }
+
+    /** Queues the read-ahead window of url starting at from, which supersedes any earlier one. */
+    private void readAhead(String url, long from, MediaInfo info) {
+        synchronized (mFetches) {
+            mReadAheadFrom.put(url, from);
+        }
+
+        for (long index = from; index < from + mReadAhead && index * mSegmentSize < info.length; index++) {
+            final SegmentCache.Key key = new SegmentCache.Key(url, index);
+            final Fetch fetch;
+            synchronized (mFetches) {
+                if (mFetches.containsKey(key) || mCache.contains(url, index)) {
+                    continue;
+                }
+                fetch = new Fetch();
+                mFetches.put(key, fetch);
+            }
+
+            mReadAheadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (claim(key, fetch)) {
+                        complete(key, fetch);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Whether the pool is to download a queued read-ahead segment: not if a reader took it over,
+     * and not if a seek moved the window of its url away, in which case it is dropped.
+     */
+    private boolean claim(SegmentCache.Key key, Fetch fetch) {
+        synchronized (mFetches) {
+            if (fetch.started) {
+                return false;
+            }
+
+            Long from = mReadAheadFrom.get(key.url);
+            if (from == null || key.index < from || key.index >= from + mReadAhead) {
+                // nobody waits on a fetch that was never started
+                mFetches.remove(key);
+                fetch.error = new InterruptedIOException("read-ahead of segment " + key.index + " superseded");
+                fetch.done.countDown();
+                return false;
+            }
+
+            fetch.started = true;
+            return true;
+        }
+    }
+
+    private void complete(SegmentCache.Key key, Fetch fetch) {
+        try {
+            fetch.buffer = download(key.url, key.index);
+        } catch (IOException exception) {
+            fetch.error = exception;
+        } finally {
+            synchronized (mFetches) {
+                mFetches.remove(key);
+            }
+            fetch.done.countDown();
+        }
+    }
+
+    private ByteBuffer download(String url, long index) throws IOException {
+        MediaInfo info = mInfos.get(url);
+        long start = index * mSegmentSize;
+        long end = start + mSegmentSize - 1;
+        if (info != null) {
+            if (start >= info.length) {
+                throw new EOFException("segment " + index + " beyond " + info.length);
+            }
+            end = Math.min(end, info.length - 1);
+        }
+
+        HttpURLConnection connection = open(url);
+        try {
+            connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+            int code = connection.getResponseCode();
+            long total = code == HttpURLConnection.HTTP_PARTIAL ? parseTotal(connection.getHeaderField("Content-Range")) : -1;
+            if (total < 0) {
+                if (info == null) {
+                    putInfo(url, new MediaInfo(-1, connection.getContentType(), false));
+                }
+                throw new NotSeekableException(url);
+            }
+
+            if (info == null) {
+                putInfo(url, new MediaInfo(total, connection.getContentType(), true));
+                end = Math.min(end, total - 1);
+            }
+
+            SegmentCache.Segment segment = mCache.allocate(url, index, (int) (end - start + 1));
+            try {
+                ReadableByteChannel channel = Channels.newChannel(connection.getInputStream());
+                while (segment.buffer.hasRemaining()) {
+                    if (channel.read(segment.buffer) < 0) {
+                        throw new EOFException("short segment " + index + " of " + url);
+                    }
+                }
+            } catch (IOException exception) {
+                mCache.discard(segment);
+                throw exception;
+            }
+
+            mOriginBytes.addAndGet(segment.buffer.capacity());
+            return mCache.commit(segment);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /** Records what the origin told about url, unless url was evicted meanwhile. */
+    private void putInfo(String url, MediaInfo info) {
+        synchronized (mIds) {
+            if (mIds.containsKey(url)) {
+                mInfos.put(url, info);
+            }
+        }
+    }
+
+    private void relay(SocketChannel client, String url, Request request) throws IOException {
+        HttpURLConnection connection = open(url);
+        try {
+            connection.setRequestMethod(request.method);
+            if (request.range != null) {
+                connection.setRequestProperty("Range", request.range);
+            }
+
+            int code = connection.getResponseCode();
+            StringBuilder headers = new StringBuilder();
+            headers.append("HTTP/1.1 ").append(code).append(' ').append(connection.getResponseMessage()).append("\r\n");
+            String[] names = {"Content-Type", "Content-Length", "Content-Range", "Accept-Ranges"};
+            for (String name : names) {
+                String value = connection.getHeaderField(name);
+                if (value != null) {
+                    headers.append(name).append(": ").append(value).append("\r\n");
+                }
+            }
+            headers.append("Connection: close\r\n\r\n");
+            write(client, headers.toString());
+
+            if (request.method.equals("HEAD")) {
+                return;
+            }
+
+            InputStream input = code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (input == null) {
+                return;
+            }
+            byte[] buffer = new byte[16 * 1024];
+            int count;
+            while ((count = input.read(buffer)) > 0) {
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+                while (data.hasRemaining()) {
+                    client.write(data);
+                }
+                mRelayedBytes.addAndGet(count);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        return connection;
+    }
+
+    private static Request readRequest(InputStream stream) throws IOException {
+        InputStream input = new BufferedInputStream(stream);
+        StringBuilder header = new StringBuilder();
+        int newlines = 0;
+        while (newlines < 2) {
+            int c = input.read();
+            if (c < 0 || header.length() > MAX_HEADER_SIZE) {
+                return null;
+            }
+            if (c == '\n') {
+                newlines++;
+            } else if (c != '\r') {
+                newlines = 0;
+            }
+            header.append((char) c);
+        }
+
+        String[] lines = header.toString().split("\r?\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length < 2 || !requestLine[1].startsWith("/")) {
+            return null;
+        }
+
+        Request request = new Request();
+        request.method = requestLine[0];
+        request.path = requestLine[1].substring(1);
+        int slash = request.path.indexOf('/');
+        if (slash >= 0) {
+            request.path = request.path.substring(0, slash);
+        }
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0 && lines[i].substring(0, colon).trim().equalsIgnoreCase("Range")) {
+                request.range = lines[i].substring(colon + 1).trim();
+            }
+        }
+        return request;
+    }
+
+    /** [first, last] of a single "bytes=" range clamped to length, null if unsatisfiable. */
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            return start <= end && start < length ? new long[] {start, end} : null;
+        } catch (NumberFormatException exception) {
+            return null;
+        }
+    }
+
+    /** Total length from a "bytes first-last/total" Content-Range, -1 if unknown. */
+    static long parseTotal(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException exception) {
+            return -1;
+        }
+    }
+
+    private static void writeStatus(SocketChannel client, int code, String reason, String headers) throws IOException {
+        write(client, "HTTP/1.1 " + code + " " + reason + "\r\n" + (headers == null ? "" : headers)
+                + "Content-Length: 0\r\nConnection: close\r\n\r\n");
+    }
+
+    private static void write(SocketChannel client, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(ASCII));
+        while (buffer.hasRemaining()) {
+            client.write(buffer);
+        }
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            private int mCount = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + mCount++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,34 @@
+package com.eevix;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts player commands that were coalesced away before they reached the player.
+ */
+final class CommandCounters {
+    private final AtomicLong mMerged = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    /** A pending command was replaced by a newer one of the same kind. */
+    void onMerged() {
+        mMerged.incrementAndGet();
+    }
+
+    /** A pending command was superseded by a stop or a new data source. */
+    void onDropped() {
+        mDropped.incrementAndGet();
+    }
+
+    long merged() {
+        return mMerged.get();
+    }
+
+    long dropped() {
+        return mDropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "merged:" + merged() + ", dropped:" + dropped();
+    }
+}
@@ -0,0 +1,191 @@
+package com.eevix;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Routes DLNAMediaRender's commands and queries to the registered {@link PlaybackController}.
+ *
+ * The controller is an atomically swapped reference, so commands and queries never take a lock
+ * and never wait on a cast start. A cold start that waits for PlaybackActivity to register is a
+ * separate {@link Registration}; it is completed by {@link #register}, or abandoned by
+ * {@link #expire} or once its timeout runs out on the executor, whichever comes first.
+ */
+public final class ControllerDispatcher {
+    private static final int EXPIRE = 0;
+    private final SerialExecutor mExecutor;
+    private final long mTimeout;
+    private final ExpiryListener mExpiryListener;
+    private final Queue<Registration> mExpiring = new ArrayDeque<Registration>(); // in the order their EXPIRE was sent
+    private final AtomicReference<PlaybackController> mController = new AtomicReference<PlaybackController>();
+    private final AtomicReference<Registration> mRegistration = new AtomicReference<Registration>();
+    private final AtomicReference<String> mPendingNextUrl = new AtomicReference<String>();
+
+    /** A cold start waiting for a controller, identified by the native action token. */
+    public static final class Registration {
+        public final int token;
+
+        public Registration(int token) {
+            this.token = token;
+        }
+    }
+
+    public interface ExpiryListener {
+        /** No controller registered within the timeout of registration, called on the executor. */
+        void onExpired(Registration registration);
+    }
+
+    /** Registrations expire timeout ms after they are expected, on executor. */
+    public ControllerDispatcher(SerialExecutor executor, long timeout, ExpiryListener listener) {
+        mExecutor = executor;
+        mTimeout = timeout;
+        mExpiryListener = listener;
+        mExecutor.setTarget(new SerialExecutor.Target() {
+            @Override
+            public void handleMessage(int what, int arg1, int arg2, Object obj, long queued) {
+                Registration registration;
+                synchronized (mExpiring) {
+                    registration = mExpiring.poll();
+                }
+                if (registration != null && expire(registration)) {
+                    mExpiryListener.onExpired(registration);
+                }
+            }
+        });
+    }
+
+    public PlaybackController get() {
+        return mController.get();
+    }
+
+    /**
+     * Makes controller current and hands it a next url queued while there was none.
+     * Returns the cold start this registration completes, null if there was none or controller
+     * is null.
+     */
+    public Registration register(PlaybackController controller) {
+        mController.set(controller);
+        if (controller == null) {
+            return null;
+        }
+
+        flushPendingNextUrl(controller);
+
+        return mRegistration.getAndSet(null);
+    }
+
+    /** Replaces the current controller with fallback, false if it already was the current one. */
+    public boolean reset(PlaybackController fallback) {
+        return mController.getAndSet(fallback) != fallback;
+    }
+
+    /**
+     * Starts waiting for a controller, until the timeout. Returns the cold start it supersedes,
+     * null if there was none.
+     */
+    public Registration expectRegistration(Registration registration) {
+        Registration superseded = mRegistration.getAndSet(registration);
+        synchronized (mExpiring) {
+            // every EXPIRE is delayed the same, they run in the order of the queue
+            mExpiring.add(registration);
+            mExecutor.sendDelayed(EXPIRE, mTimeout);
+        }
+        return superseded;
+    }
+
+    /** Gives up waiting for registration, false if it was already completed or superseded. */
+    public boolean expire(Registration registration) {
+        return mRegistration.compareAndSet(registration, null);
+    }
+
+    public void setDataSource(String url) {
+        PlaybackController controller = mController.get();
+        if (controller != null) {
+            controller.setDataSource(url);
+        }
+    }
+
+    /** Forwards url, or keeps it for the next controller to register. */
+    public void setNextDataSource(String url) {
+        PlaybackController controller = mController.get();
+        if (controller != null) {
+            controller.setNextDataSource(url);
+            return;
+        }
+
+        mPendingNextUrl.set(url);
+        // a controller that registered meanwhile may have looked before the url was queued
+        controller = mController.get();
+        if (controller != null) {
+            flushPendingNextUrl(controller);
+        }
+    }
+
+    public void skipToNext() {
+        PlaybackController controller = mController.get();
+        if (controller != null) {
+            controller.skipToNext();
+        }
+    }
+
+    public void start() {
+        PlaybackController controller = mController.get();
+        if (controller != null) {
+            controller.start();
+        }
+    }
+
+    public void pause() {
+        PlaybackController controller = mController.get();
+        if (controller != null) {
+            controller.pause();
+        }
+    }
+
+    public void stop() {
+        PlaybackController controller = mController.get();
+        if (controller != null) {
+            controller.stop();
+        }
+    }
+
+    public void seek(int millisecond) {
+        PlaybackController controller = mController.get();
+        if (controller != null) {
+            controller.seek(millisecond);
+        }
+    }
+
+    public void followPosition(int lease) {
+        PlaybackController controller = mController.get();
+        if (controller != null) {
+            controller.followPosition(lease);
+        }
+    }
+
+    /** Fills state with state, position and duration, idle when no controller is registered. */
+    public void getPlaybackState(int[] state) {
+        PlaybackController controller = mController.get();
+        if (controller != null) {
+            state[0] = controller.getState();
+            state[1] = controller.getCurrentPosition();
+            state[2] = controller.getDuration();
+        } else {
+            state[0] = PlaybackController.STATE_IDLE;
+            state[1] = 0;
+            state[2] = 0;
+        }
+    }
+
+    private void flushPendingNextUrl(PlaybackController controller) {
+        if (controller == null) {
+            return;
+        }
+
+        String url = mPendingNextUrl.getAndSet(null);
+        if (url != null) {
+            controller.setNextDataSource(url);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.eevix;
+
+/**
+ * Time-to-first-frame of a cast start, broken down by hop.
+ * A trace begins when DLNAMediaRender receives the url and ends at the first rendered video frame;
+ * hops that are reached before {@link #begin} or after the first frame are ignored.
+ */
+public final class FirstFrameTrace {
+    public static final int HOP_REQUEST = 0;           // DLNAMediaRender.setDataSource
+    public static final int HOP_ACTIVITY_CREATED = 1;  // PlaybackActivity.onCreate
+    public static final int HOP_CONTROLLER_READY = 2;  // controller registered (cold) or warm engine attached
+    public static final int HOP_DATA_SOURCE = 3;       // MediaPlayer.prepareAsync issued
+    public static final int HOP_PREPARED = 4;
+    public static final int HOP_SURFACE_ATTACHED = 5;
+    public static final int HOP_FIRST_FRAME = 6;
+    private static final int HOP_COUNT = 7;
+    private static final String[] HOP_NAMES = {
+            "request", "activity", "controller", "dataSource", "prepared", "surface", "firstFrame"};
+
+    private static final FirstFrameTrace sCurrent = new FirstFrameTrace();
+
+    private final long[] mTimes = new long[HOP_COUNT]; // ns, 0 until the hop is reached
+    private boolean mTracing = false;
+    private boolean mWarm = false;
+    private String mLastResult = "none";
+
+    /** The trace of the cast being started in this process. */
+    public static FirstFrameTrace current() {
+        return sCurrent;
+    }
+
+    public synchronized void begin(boolean warm) {
+        for (int i = 0; i < HOP_COUNT; i++) {
+            mTimes[i] = 0;
+        }
+        mWarm = warm;
+        mTracing = true;
+        mTimes[HOP_REQUEST] = System.nanoTime();
+    }
+
+    public synchronized void mark(int hop) {
+        if (!mTracing || mTimes[hop] != 0) {
+            return;
+        }
+
+        mTimes[hop] = System.nanoTime();
+        if (hop == HOP_FIRST_FRAME) {
+            mTracing = false;
+            mLastResult = format();
+        }
+    }
+
+    /** Offset of hop from the request in ms, -1 if it has not been reached. */
+    synchronized long elapsedMillis(int hop) {
+        if (mTimes[hop] == 0) {
+            return -1;
+        }
+        return (mTimes[hop] - mTimes[HOP_REQUEST]) / 1000000;
+    }
+
+    /** Breakdown of the last completed trace. */
+    public synchronized String lastResult() {
+        return mLastResult;
+    }
+
+    private String format() {
+        StringBuilder builder = new StringBuilder(mWarm ? "warm" : "cold");
+        for (int i = HOP_REQUEST + 1; i < HOP_COUNT; i++) {
+            builder.append(", ").append(HOP_NAMES[i]).append(':');
+            if (mTimes[i] == 0) {
+                builder.append('-');
+            } else {
+                builder.append((mTimes[i] - mTimes[HOP_REQUEST]) / 1000000).append("ms");
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package com.eevix;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram in the spirit of HdrHistogram, with the bucket layout of the native
+ * eevix::Histogram so Java and native numbers compare directly.
+ *
+ * Values below SUB_BUCKETS are counted exactly, larger ones fall into one of SUB_BUCKETS linear
+ * sub-buckets of their power of two, so reported values are within 1/SUB_BUCKETS of the
+ * recorded ones. {@link #record} does not allocate and may be called from any thread.
+ */
+final class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        mCounts.incrementAndGet(bucketOf(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    long count() {
+        return mCount.get();
+    }
+
+    long sum() {
+        return mSum.get();
+    }
+
+    long max() {
+        return mMax.get();
+    }
+
+    long mean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /** Upper bound of the bucket holding the given percentile (0-100], 0 when empty. */
+    long percentile(double percent) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += mCounts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) (percent / 100.0 * total + 0.5));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /** "count:N mean:N p50:N p90:N p99:N max:N", unit appended to each value. */
+    String format(String unit) {
+        return String.format(Locale.US, "count:%d mean:%d%s p50:%d%s p90:%d%s p99:%d%s max:%d%s",
+                count(), mean(), unit, percentile(50), unit, percentile(90), unit,
+                percentile(99), unit, max(), unit);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,257 @@
+package com.eevix;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Level-gated logging for the package, one instance per tag.
+ *
+ * Messages are templates whose "{}" placeholders are filled in only once the level check passed,
+ * and the primitive overloads keep their arguments unboxed, so a call below the level of its tag
+ * allocates nothing. Lines go to the installed {@link Sink}: logcat in the app, stdout on the JVM.
+ * The app starts its tags at INFO in release builds, where R8 also strips the verbose and debug
+ * calls.
+ *
+ * The level of a tag can be changed at runtime:
+ *   adb shell dumpsys activity service com.eevix/.DLNAMediaRender log PlayerEngine VERBOSE
+ */
+public final class Logger {
+    // the android.util.Log priorities
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int SILENT = 8;
+    private static final String[] LEVEL_NAMES = {"VERBOSE", "DEBUG", "INFO", "WARN", "ERROR", "ASSERT", "SILENT"};
+    private static final Map<String, Logger> sLoggers = new HashMap<String, Logger>();
+    private static volatile Sink sSink = new Sink() {
+        @Override
+        public void println(int level, String tag, String message) {
+            System.out.println(levelName(level).charAt(0) + "/" + tag + ": " + message);
+        }
+    };
+    private static int sDefaultLevel = DEBUG;
+
+    private final String mTag;
+    private volatile int mLevel;
+
+    /** Where the lines that pass the level check are written. */
+    public interface Sink {
+        void println(int level, String tag, String message);
+    }
+
+    private Logger(String tag, int level) {
+        mTag = tag;
+        mLevel = level;
+    }
+
+    /** Installs sink and sets every tag, existing or not, to level. */
+    public static void configure(Sink sink, int level) {
+        synchronized (sLoggers) {
+            sSink = sink;
+            sDefaultLevel = level;
+            for (Logger logger : sLoggers.values()) {
+                logger.mLevel = level;
+            }
+        }
+    }
+
+    /** The logger of tag, created on first use. */
+    public static Logger get(String tag) {
+        synchronized (sLoggers) {
+            Logger logger = sLoggers.get(tag);
+            if (logger == null) {
+                logger = new Logger(tag, sDefaultLevel);
+                sLoggers.put(tag, logger);
+            }
+            return logger;
+        }
+    }
+
+    /** Sets the level of tag, or of every tag when tag is "*". False if tag is unknown. */
+    public static boolean setLevel(String tag, int level) {
+        synchronized (sLoggers) {
+            if (tag.equals("*")) {
+                for (Logger logger : sLoggers.values()) {
+                    logger.mLevel = level;
+                }
+                return true;
+            }
+
+            Logger logger = sLoggers.get(tag);
+            if (logger == null) {
+                return false;
+            }
+            logger.mLevel = level;
+            return true;
+        }
+    }
+
+    /** Level of a name such as "DEBUG", -1 if it is none. */
+    public static int parseLevel(String name) {
+        for (int i = 0; i < LEVEL_NAMES.length; i++) {
+            if (LEVEL_NAMES[i].equalsIgnoreCase(name)) {
+                return VERBOSE + i;
+            }
+        }
+        return -1;
+    }
+
+    public static String levelName(int level) {
+        int index = level - VERBOSE;
+        return index >= 0 && index < LEVEL_NAMES.length ? LEVEL_NAMES[index] : String.valueOf(level);
+    }
+
+    /** One "tag: level" entry per logger, for dumpsys. */
+    public static String levels() {
+        StringBuilder builder = new StringBuilder();
+        synchronized (sLoggers) {
+            for (Logger logger : sLoggers.values()) {
+                if (builder.length() > 0) {
+                    builder.append(", ");
+                }
+                builder.append(logger.mTag).append(':').append(levelName(logger.mLevel));
+            }
+        }
+        return builder.toString();
+    }
+
+    public int level() {
+        return mLevel;
+    }
+
+    public boolean isVerboseEnabled() {
+        return mLevel <= VERBOSE;
+    }
+
+    public boolean isDebugEnabled() {
+        return mLevel <= DEBUG;
+    }
+
+    public void v(String message) {
+        if (mLevel <= VERBOSE) {
+            sSink.println(VERBOSE, mTag, message);
+        }
+    }
+
+    public void v(String format, int arg) {
+        if (mLevel <= VERBOSE) {
+            sSink.println(VERBOSE, mTag, format(format, arg, null, null));
+        }
+    }
+
+    public void v(String format, Object arg) {
+        if (mLevel <= VERBOSE) {
+            sSink.println(VERBOSE, mTag, format(format, arg, null, null));
+        }
+    }
+
+    public void v(String format, int first, int second, int third) {
+        if (mLevel <= VERBOSE) {
+            sSink.println(VERBOSE, mTag, format(format, first, second, third));
+        }
+    }
+
+    public void d(String message) {
+        if (mLevel <= DEBUG) {
+            sSink.println(DEBUG, mTag, message);
+        }
+    }
+
+    public void d(String format, int arg) {
+        if (mLevel <= DEBUG) {
+            sSink.println(DEBUG, mTag, format(format, arg, null, null));
+        }
+    }
+
+    public void d(String format, long arg) {
+        if (mLevel <= DEBUG) {
+            sSink.println(DEBUG, mTag, format(format, arg, null, null));
+        }
+    }
+
+    public void d(String format, boolean arg) {
+        if (mLevel <= DEBUG) {
+            sSink.println(DEBUG, mTag, format(format, arg, null, null));
+        }
+    }
+
+    public void d(String format, Object arg) {
+        if (mLevel <= DEBUG) {
+            sSink.println(DEBUG, mTag, format(format, arg, null, null));
+        }
+    }
+
+    public void d(String format, int first, int second) {
+        if (mLevel <= DEBUG) {
+            sSink.println(DEBUG, mTag, format(format, first, second, null));
+        }
+    }
+
+    public void d(String format, Object first, int second) {
+        if (mLevel <= DEBUG) {
+            sSink.println(DEBUG, mTag, format(format, first, second, null));
+        }
+    }
+
+    public void d(String format, Object first, Object second) {
+        if (mLevel <= DEBUG) {
+            sSink.println(DEBUG, mTag, format(format, first, second, null));
+        }
+    }
+
+    public void d(String format, Object first, int second, int third) {
+        if (mLevel <= DEBUG) {
+            sSink.println(DEBUG, mTag, format(format, first, second, third));
+        }
+    }
+
+    public void i(String message) {
+        if (mLevel <= INFO) {
+            sSink.println(INFO, mTag, message);
+        }
+    }
+
+    public void i(String format, Object arg) {
+        if (mLevel <= INFO) {
+            sSink.println(INFO, mTag, format(format, arg, null, null));
+        }
+    }
+
+    public void e(String message) {
+        if (mLevel <= ERROR) {
+            sSink.println(ERROR, mTag, message);
+        }
+    }
+
+    public void e(String format, Object arg) {
+        if (mLevel <= ERROR) {
+            sSink.println(ERROR, mTag, format(format, arg, null, null));
+        }
+    }
+
+    public void e(String message, Throwable throwable) {
+        if (mLevel <= ERROR) {
+            StringWriter trace = new StringWriter();
+            throwable.printStackTrace(new PrintWriter(trace));
+            sSink.println(ERROR, mTag, message + '\n' + trace);
+        }
+    }
+
+    /** Replaces the first three "{}" of format with the arguments, in order. */
+    static String format(String format, Object first, Object second, Object third) {
+        StringBuilder builder = new StringBuilder(format.length() + 32);
+        Object[] args = {first, second, third};
+        int arg = 0;
+        int start = 0;
+        int placeholder;
+        while (arg < args.length && (placeholder = format.indexOf("{}", start)) >= 0) {
+            builder.append(format, start, placeholder).append(args[arg++]);
+            start = placeholder + 2;
+        }
+        return builder.append(format, start, format.length()).toString();
+    }
+}
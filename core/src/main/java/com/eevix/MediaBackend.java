@@ -0,0 +1,52 @@
+package com.eevix;
+
+import java.io.IOException;
+
+/**
+ * The media player a {@link PlayerEngine} drives, android.media.MediaPlayer on the device.
+ *
+ * Players follow the MediaPlayer state machine and report through their listener from any
+ * thread; the engine only posts the events to its own executor.
+ */
+public interface MediaBackend {
+    int INFO_RENDERING_START = 1;
+    int INFO_BUFFERING_START = 2;
+    int INFO_BUFFERING_END = 3;
+
+    interface Listener {
+        void onPrepared(Player player);
+        void onCompletion(Player player);
+        /** Playback failed, the player only takes release() from now on. */
+        void onError(Player player);
+        void onSeekComplete(Player player);
+        void onVideoSizeChanged(Player player, int width, int height);
+        /** One of the INFO_* events. */
+        void onInfo(Player player, int info);
+    }
+
+    interface Player {
+        void setDataSource(String url) throws IOException;
+        /** Renders into display, a SurfaceHolder on the device, and keeps the screen on while playing. */
+        void setDisplay(Object display);
+        void prepareAsync();
+        void start();
+        void pause();
+        void stop();
+        void release();
+        void seekTo(int millisecond);
+        /** Seeks to the sync frame closest to millisecond, cheaper than an exact seek, for scrubbing. */
+        void seekToSync(int millisecond);
+        /** Starts next, prepared, when this player completes; null cancels it. */
+        void setNextPlayer(Player next);
+        boolean isPlaying();
+        int getCurrentPosition();
+        int getDuration();
+        int getVideoWidth();
+        int getVideoHeight();
+    }
+
+    Player createPlayer(Listener listener);
+
+    /** Frees what the backend keeps between players; called by the engine when it is released. */
+    void release();
+}
@@ -2,19 +2,19 @@ package com.eevix;
 
 import java.util.concurrent.Semaphore;
 
-class MessageReply<T> {
+public class MessageReply<T> {
     private Semaphore mSemaphore= new Semaphore(0);
     private T mData = null;
 
-    void setData(T data) {
+    public void setData(T data) {
         mData = data;
     }
 
-    T getData() {
+    public T getData() {
         return mData;
     }
 
-    void waitReply() {
+    public void waitReply() {
         try {
             mSemaphore.acquire();
         } catch (Exception exception) {
@@ -22,7 +22,7 @@ class MessageReply<T> {
         }
     }
 
-    void notifyReply() {
+    public void notifyReply() {
         mSemaphore.release();
     }
 }
@@ -0,0 +1,40 @@
+package com.eevix;
+
+import java.io.PrintWriter;
+
+public interface PlaybackController {
+    int STATE_IDLE = 0;
+    int STATE_PREPARING = 1;
+    int STATE_PAUSED = 2;
+    int STATE_PLAYING = 3;
+    interface StateChangedListener {
+        void onStateChanged(int state, int position, int duration);
+        /** Playback moved on to the queued next item. */
+        void onTrackChanged(String url);
+    }
+    void setDataSource(String url);
+    /** Queues url to follow the current item without a gap, null clears the queue. */
+    void setNextDataSource(String url);
+    /** Moves on to the queued next item right away, does nothing if none is queued. */
+    void skipToNext();
+    void start();
+    void pause();
+    void resume();
+    void stop();
+    /** Seeks to exactly millisecond, resuming playback once there. */
+    void seek(int millisecond);
+    /**
+     * Seeks to the sync frame closest to millisecond, for a preview while the user drags the
+     * position. May be called for every move: scrubs are rate limited and only the latest target
+     * is kept. Playback is neither started nor paused; a {@link #seek} commits the position.
+     */
+    void scrub(int millisecond);
+    /** A control point follows the position for the next lease ms, keep its model of it fresh. */
+    void followPosition(int lease);
+    int getCurrentPosition();
+    int getDuration();
+    boolean isPlaying();
+    int getState();
+    void setStateChangedListener(StateChangedListener listener);
+    void dump(PrintWriter writer);
+}
@@ -0,0 +1,59 @@
+package com.eevix;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and per-message counters of the Java player path.
+ *
+ * Durations are recorded in microseconds. {@link #dump} prints one "name: values" line per
+ * metric in a fixed order and format, so dumps of different builds and devices can be diffed
+ * or parsed as they are.
+ */
+final class PlaybackMetrics {
+    final LatencyHistogram prepare = new LatencyHistogram();     // prepareAsync to onPrepared
+    final LatencyHistogram seek = new LatencyHistogram();        // seekTo to onSeekComplete, the frame at the new position
+    final LatencyHistogram seekSync = new LatencyHistogram();    // the same for the sync seeks of a scrub
+    final LatencyHistogram queueDwell = new LatencyHistogram();  // player handler, due time to dispatch
+    final LatencyHistogram rebuffer = new LatencyHistogram();    // buffering start to end
+    final LatencyHistogram resumeReattach = new LatencyHistogram(); // start to playing, player kept without surface
+    final LatencyHistogram resumeRebuild = new LatencyHistogram();  // start to playing, player released with surface
+
+    private final String[] mMessageNames;
+    private final AtomicLongArray mMessageCounts;
+
+    PlaybackMetrics(String[] messageNames) {
+        mMessageNames = messageNames;
+        mMessageCounts = new AtomicLongArray(messageNames.length);
+    }
+
+    void countMessage(int message) {
+        if (message >= 0 && message < mMessageNames.length) {
+            mMessageCounts.incrementAndGet(message);
+        }
+    }
+
+    long messageCount(int message) {
+        return mMessageCounts.get(message);
+    }
+
+    static long elapsedMicros(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + "java.prepare: " + prepare.format("us"));
+        writer.println(prefix + "java.seek: " + seek.format("us"));
+        writer.println(prefix + "java.seekSync: " + seekSync.format("us"));
+        writer.println(prefix + "java.queueDwell: " + queueDwell.format("us"));
+        writer.println(prefix + "java.rebuffer: " + rebuffer.format("us"));
+        writer.println(prefix + "java.resumeReattach: " + resumeReattach.format("us"));
+        writer.println(prefix + "java.resumeRebuild: " + resumeRebuild.format("us"));
+
+        StringBuilder messages = new StringBuilder(prefix).append("java.messages:");
+        for (int i = 0; i < mMessageNames.length; i++) {
+            messages.append(' ').append(mMessageNames[i]).append(':').append(mMessageCounts.get(i));
+        }
+        writer.println(messages);
+    }
+}
@@ -0,0 +1,53 @@
+package com.eevix;
+
+/**
+ * Immutable view of the player published by the player thread.
+ * Readers on any thread may keep a reference to it; a newer snapshot replaces it as a whole.
+ */
+public final class PlaybackSnapshot {
+    public static final PlaybackSnapshot IDLE = new PlaybackSnapshot(0, PlaybackController.STATE_IDLE, 0, 0, 0, 0, 0);
+
+    public final long version;
+    public final int state;
+    public final int position;     // ms, at timestamp
+    public final int duration;     // ms
+    public final int videoWidth;
+    public final int videoHeight;
+    public final long timestamp;   // ms, monotonic clock
+
+    public PlaybackSnapshot(long version, int state, int position, int duration, int videoWidth, int videoHeight, long timestamp) {
+        this.version = version;
+        this.state = state;
+        this.position = position;
+        this.duration = duration;
+        this.videoWidth = videoWidth;
+        this.videoHeight = videoHeight;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Position at the given monotonic time, extrapolated from the timestamp while playing.
+     */
+    public int positionAt(long now) {
+        if (state != PlaybackController.STATE_PLAYING || now <= timestamp) {
+            return position;
+        }
+
+        long extrapolated = position + (now - timestamp);
+        if (duration > 0 && extrapolated > duration) {
+            return duration;
+        }
+
+        return extrapolated > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) extrapolated;
+    }
+
+    public static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        return "PlaybackSnapshot{version:" + version + ", state:" + state + ", position:" + position
+                + ", duration:" + duration + ", video:" + videoWidth + "x" + videoHeight + ", timestamp:" + timestamp + "}";
+    }
+}
@@ -0,0 +1,36 @@
+package com.eevix;
+
+/**
+ * Single-writer holder of the latest {@link PlaybackSnapshot}.
+ * Only the player thread publishes; queries from other threads are wait-free and do not allocate.
+ */
+public final class PlaybackSnapshotHolder {
+    private volatile PlaybackSnapshot mSnapshot = PlaybackSnapshot.IDLE;
+
+    public PlaybackSnapshot get() {
+        return mSnapshot;
+    }
+
+    public PlaybackSnapshot publish(int state, int position, int duration, int videoWidth, int videoHeight) {
+        PlaybackSnapshot snapshot = new PlaybackSnapshot(mSnapshot.version + 1, state, position, duration,
+                                                         videoWidth, videoHeight, PlaybackSnapshot.now());
+        mSnapshot = snapshot;
+        return snapshot;
+    }
+
+    public int getState() {
+        return mSnapshot.state;
+    }
+
+    public boolean isPlaying() {
+        return mSnapshot.state == PlaybackController.STATE_PLAYING;
+    }
+
+    public int getCurrentPosition() {
+        return mSnapshot.positionAt(PlaybackSnapshot.now());
+    }
+
+    public int getDuration() {
+        return mSnapshot.duration;
+    }
+}
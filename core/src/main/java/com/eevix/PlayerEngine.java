@@ -0,0 +1,1067 @@
+package com.eevix;
+
+import java.io.PrintWriter;
+
+/**
+ * A media player and its state machine, driven from a dedicated thread.
+ *
+ * PlaybackActivity creates one for its own playback in cold mode. In warm renderer mode
+ * DLNAMediaRender keeps one alive with the service, so a cast starts decoding before any
+ * Activity exists; the Activity only attaches its surface and UI once it is up.
+ *
+ * The engine only knows the player through {@link MediaBackend} and its threads through
+ * {@link SerialExecutor}, so the same state machine runs on a HandlerThread over MediaPlayer on
+ * the device and over a fake backend on the JVM.
+ */
+public class PlayerEngine implements PlaybackController {
+    private static final String TAG = "PlayerEngine";
+    private static final Logger sLog = Logger.get(TAG);
+    private static final int PRELOAD_LEAD_TIME = 10000; // ms before the end of the current item
+    private static final int RESUME_END_MARGIN = 5000; // ms, stopping closer to the end counts as finished
+    private static final int SCRUB_INTERVAL = 100; // ms, at most one sync seek issued per interval
+    private String          mUrl;
+    private MediaBackend.Player mMediaPlayer;
+    private String          mNextUrl = null;
+    private MediaBackend.Player mNextPlayer = null;
+    private boolean         mNextPrepared = false;
+    private final BackendSelector mBackends;
+    private volatile BackendSelector.Backend mSession = null; // backend of the current session
+    private long            mPlayingSince = 0;  // ns, player thread only
+    private final SerialExecutor mMainExecutor;
+    private final SerialExecutor mPlayerExecutor;
+    private final MediaPlayerListener mMediaPlayerListener = new MediaPlayerListener();
+    private volatile Object mDisplay = null;
+    private boolean         mSurfaceValid = false;
+    private volatile int    mDetachTimeout = 0;         // ms a player outlives its surface, 0 releases it at once
+    private volatile boolean mBackgroundAudio = false;  // keep playing while detached
+    private boolean         mDetached = false;          // player alive without a surface, player thread only
+    private LatencyHistogram mResumeMetric = null;      // what the next resume after surface loss records into
+    private long            mResumeStart = 0;           // ns
+    private long            mLastResume = -1;           // us
+    private int             mDetachCount = 0;
+    private int             mReattachCount = 0;
+    private int             mIdleReleaseCount = 0;
+    private PlayerState     mState = PlayerState.IDLE;
+    private volatile StateChangedListener mStateChangedListener = null;
+    private volatile Listener mListener = null;
+    private final PlaybackSnapshotHolder mSnapshotHolder = new PlaybackSnapshotHolder();
+    private final CommandCounters mCommandCounters = new CommandCounters();
+    private final ProgressScheduler mProgress = new ProgressScheduler();
+    private final PlaybackMetrics mMetrics = new PlaybackMetrics(MessageType.names());
+    private long            mPrepareStart = 0;  // ns, player thread only
+    private long            mSeekStart = 0;     // ns, seek in flight since
+    private volatile boolean mSeekSync = false; // the seek in flight is a scrub, nothing resumes on completion
+    private int             mScrubTarget = -1;  // ms, latest scrub not issued yet, player thread only
+    private long            mRebufferStart = 0; // ns
+    private final CachingProxy mProxy;
+    private final ResumePositionStore mResumePositions;
+
+    /**
+     * UI updates, called on the main thread.
+     */
+    public interface Listener {
+        void onStarted(int duration);
+        void onPaused();
+        void onStopped();
+        void onProgress(int position);
+        void onVideoSizeChanged(int width, int height);
+    }
+
+    // pending commands made redundant by a newer command
+    private static final MessageType[] SUPERSEDED_BY_DATA_SOURCE = {
+            MessageType.SET_DATA_SOURCE, MessageType.START, MessageType.PAUSE, MessageType.SEEK, MessageType.SCRUB,
+            MessageType.STOP};
+    private static final MessageType[] SUPERSEDED_BY_STOP = {
+            MessageType.START, MessageType.PAUSE, MessageType.SEEK, MessageType.SCRUB, MessageType.STOP};
+    private static final MessageType[] SUPERSEDED_BY_PLAY_PAUSE = {MessageType.START, MessageType.PAUSE};
+    private static final MessageType[] SUPERSEDED_BY_SEEK = {MessageType.SEEK, MessageType.SCRUB};
+    private static final MessageType[] SUPERSEDED_BY_SCRUB = {MessageType.SCRUB};
+    private static final MessageType[] SUPERSEDED_BY_NEXT_DATA_SOURCE = {MessageType.SET_NEXT_DATA_SOURCE};
+
+    private enum MessageType {
+        SET_DATA_SOURCE,
+        SET_NEXT_DATA_SOURCE,
+        SKIP_TO_NEXT,
+        PRELOAD_NEXT,
+        START,
+        PAUSE,
+        STOP,
+        SEEK,
+        SCRUB,
+        SCRUB_NEXT,
+        SEEK_COMPLETED,
+        PROGRESS_FOLLOWERS,
+        PREPARED,
+        COMPLETED,
+        ERROR,
+        SURFACE_CREATED,
+        SURFACE_DESTROYED,
+        DETACH_TIMEOUT,
+        RELEASE,
+        PAUSED,
+        STARTED,
+        STOPPED,
+        UPDATE,
+        UPDATE_VIDEO_SIZE;
+
+        // values() hands out a fresh copy on every call, and valueOf runs for every message
+        private static final MessageType[] VALUES = values();
+
+        public int value() {
+            return ordinal();
+        }
+
+        public static MessageType valueOf(int value) {
+            if (value < 0 || value >= VALUES.length) {
+                return null;
+            }
+
+            return VALUES[value];
+        }
+
+        static String[] names() {
+            MessageType[] types = values();
+            String[] names = new String[types.length];
+            for (int i = 0; i < types.length; i++) {
+                names[i] = types[i].name();
+            }
+            return names;
+        }
+    }
+
+    private class MediaPlayerListener implements MediaBackend.Listener {
+        @Override
+        public void onCompletion(MediaBackend.Player mp) {
+            sLog.d("MediaPlayerListener: onCompletion");
+            mPlayerExecutor.send(MessageType.COMPLETED.value(), 0, 0, mp);
+        }
+
+        @Override
+        public void onError(MediaBackend.Player mp) {
+            sLog.d("MediaPlayerListener: onError");
+            mPlayerExecutor.send(MessageType.ERROR.value(), 0, 0, mp);
+        }
+
+        @Override
+        public void onPrepared(MediaBackend.Player mp) {
+            sLog.d("MediaPlayerListener: onPrepared");
+            mPlayerExecutor.send(MessageType.PREPARED.value(), 0, 0, mp);
+        }
+
+        @Override
+        public void onSeekComplete(MediaBackend.Player mp) {
+            sLog.d("MediaPlayerListener: onSeekComplete");
+            if (mPlayerExecutor.hasMessages(MessageType.SEEK.value())) {
+                // a newer seek is already pending, its completion resumes playback
+                mCommandCounters.onMerged();
+                return;
+            }
+
+            sendPlayer(MessageType.SEEK_COMPLETED);
+            if (mSeekSync) {
+                // a scrub only moves the frame on screen
+                return;
+            }
+            if (mPlayerExecutor.hasMessages(MessageType.START.value())) {
+                mCommandCounters.onMerged();
+            } else {
+                sendPlayer(MessageType.START);
+            }
+        }
+
+        @Override
+        public void onVideoSizeChanged(MediaBackend.Player mp, int width, int height) {
+            sLog.d("MediaPlayerListener: onVideoSizeChanged, width:{}, height:{}", width, height);
+            mMainExecutor.send(MessageType.UPDATE_VIDEO_SIZE.value(), width, height, null);
+        }
+
+        @Override
+        public void onInfo(MediaBackend.Player mp, int info) {
+            if (info == MediaBackend.INFO_RENDERING_START) {
+                sLog.d("MediaPlayerListener: onInfo, video rendering start");
+                FirstFrameTrace.current().mark(FirstFrameTrace.HOP_FIRST_FRAME);
+            } else if (info == MediaBackend.INFO_BUFFERING_START && mp == mMediaPlayer) {
+                mRebufferStart = System.nanoTime();
+            } else if (info == MediaBackend.INFO_BUFFERING_END && mRebufferStart != 0) {
+                long rebuffer = PlaybackMetrics.elapsedMicros(mRebufferStart);
+                mMetrics.rebuffer.record(rebuffer);
+                BackendSelector.Backend session = mSession;
+                if (session != null) {
+                    session.rebuffer.record(rebuffer);
+                }
+                mRebufferStart = 0;
+                if (mProgress.isRemoteActive(PlaybackSnapshot.now())) {
+                    // the stall put the position models of the control points ahead
+                    sendPlayer(MessageType.UPDATE);
+                }
+            }
+        }
+    }
+
+    /**
+     * An engine running its state machine on player and its listener on main. The engine owns
+     * player and quits it on release. proxy may be null to read media directly.
+     */
+    public PlayerEngine(MediaBackend backend, SerialExecutor player, SerialExecutor main,
+                        CachingProxy proxy, ResumePositionStore resumePositions) {
+        this(BackendSelector.single("default", backend), player, main, proxy, resumePositions);
+    }
+
+    /** An engine playing each session on one of backends, see {@link BackendSelector}. */
+    public PlayerEngine(BackendSelector backends, SerialExecutor player, SerialExecutor main,
+                        CachingProxy proxy, ResumePositionStore resumePositions) {
+        mBackends = backends;
+        mProxy = proxy;
+        mResumePositions = resumePositions;
+        mMainExecutor = main;
+        mMainExecutor.setTarget(new SerialExecutor.Target() {
+            @Override
+            public void handleMessage(int what, int arg1, int arg2, Object obj, long queued) {
+                handleMainThreadMessage(what, arg1, arg2);
+            }
+        });
+        mPlayerExecutor = player;
+        mPlayerExecutor.setTarget(new SerialExecutor.Target() {
+            @Override
+            public void handleMessage(int what, int arg1, int arg2, Object obj, long queued) {
+                mMetrics.queueDwell.record(queued * 1000);
+                mMetrics.countMessage(what);
+                handlePlayerThreadMessage(what, arg1, obj);
+            }
+        });
+    }
+
+    @Override
+    public void setDataSource(String url) {
+        sLog.d("setDataSource:{}", url);
+        supersede(SUPERSEDED_BY_DATA_SOURCE, true);
+        mPlayerExecutor.send(MessageType.SET_DATA_SOURCE.value(), 0, 0, url);
+    }
+
+    @Override
+    public void setNextDataSource(String url) {
+        sLog.d("setNextDataSource:{}", url);
+        supersede(SUPERSEDED_BY_NEXT_DATA_SOURCE, false);
+        mPlayerExecutor.send(MessageType.SET_NEXT_DATA_SOURCE.value(), 0, 0, url);
+    }
+
+    @Override
+    public void skipToNext() {
+        sLog.d("skipToNext");
+        sendPlayer(MessageType.SKIP_TO_NEXT);
+    }
+
+    @Override
+    public void start() {
+        sLog.d("start");
+        supersede(SUPERSEDED_BY_PLAY_PAUSE, false);
+        sendPlayer(MessageType.START);
+    }
+
+    @Override
+    public void pause() {
+        sLog.d("pause");
+        supersede(SUPERSEDED_BY_PLAY_PAUSE, false);
+        sendPlayer(MessageType.PAUSE);
+    }
+
+    @Override
+    public void resume() {
+        sLog.d("resume");
+        supersede(SUPERSEDED_BY_PLAY_PAUSE, false);
+        sendPlayer(MessageType.START);
+    }
+
+    @Override
+    public void stop() {
+        sLog.d("stop");
+        supersede(SUPERSEDED_BY_STOP, true);
+        sendPlayer(MessageType.STOP);
+    }
+
+    @Override
+    public void seek(int millisecond) {
+        sLog.d("seek:{}", millisecond);
+        mPlayerExecutor.removeMessages(MessageType.UPDATE.value());
+        supersede(SUPERSEDED_BY_SEEK, false);
+        mPlayerExecutor.send(MessageType.SEEK.value(), millisecond, 0, null);
+        mMainExecutor.removeMessages(MessageType.UPDATE.value());
+    }
+
+    @Override
+    public void scrub(int millisecond) {
+        sLog.v("scrub:{}", millisecond);
+        supersede(SUPERSEDED_BY_SCRUB, false);
+        mPlayerExecutor.send(MessageType.SCRUB.value(), millisecond, 0, null);
+    }
+
+    @Override
+    public void followPosition(int lease) {
+        if (mProgress.extendRemote(PlaybackSnapshot.now(), lease)) {
+            sendPlayer(MessageType.PROGRESS_FOLLOWERS);
+        }
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return mSnapshotHolder.getCurrentPosition();
+    }
+
+    @Override
+    public int getDuration() {
+        return mSnapshotHolder.getDuration();
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mSnapshotHolder.isPlaying();
+    }
+
+    @Override
+    public int getState() {
+        return mSnapshotHolder.getState();
+    }
+
+    @Override
+    public void setStateChangedListener(StateChangedListener listener) {
+        mStateChangedListener = listener;
+    }
+
+    @Override
+    public void dump(PrintWriter writer) {
+        writer.println("PlayerEngine:");
+        writer.println("  snapshot: " + mSnapshotHolder.get());
+        writer.println("  coalesced commands: " + mCommandCounters);
+        writer.println("  progress: " + mProgress);
+        BackendSelector.Backend session = mSession;
+        writer.println("  session backend: " + (session == null ? null : session.name));
+        mBackends.dump(writer, "  ");
+        mMetrics.dump(writer, "  ");
+        writer.println("  attached: " + (mListener != null) + ", surface: " + (mDisplay != null));
+        writer.println("  surface detach: timeout:" + mDetachTimeout + "ms, background audio:" + mBackgroundAudio
+                + ", detached:" + mDetachCount + ", reattached:" + mReattachCount
+                + ", released idle:" + mIdleReleaseCount + ", last resume:" + mLastResume + "us");
+        writer.println("  next: " + mNextUrl + ", preloaded: " + mNextPrepared);
+        writer.println("  proxy: " + mProxy);
+        writer.println("  resume positions: " + mResumePositions);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public boolean hasListener() {
+        return mListener != null;
+    }
+
+    /**
+     * Attaches the surface to render into, or detaches it when holder is null. Decoding does not
+     * wait for a surface, the display is set on the player as soon as both exist.
+     *
+     * Losing the surface releases the player unless a detach timeout is set, see
+     * {@link #setDetachTimeout}.
+     */
+    public void setDisplay(Object display) {
+        sLog.d("setDisplay:{}", display);
+        if (display != null) {
+            mDisplay = display;
+            sendPlayer(MessageType.SURFACE_CREATED);
+        } else if (mDisplay != null) {
+            mDisplay = null;
+            sendPlayer(MessageType.SURFACE_DESTROYED);
+        }
+    }
+
+    /**
+     * Keeps a playing or paused player alive for timeout ms after its surface goes away, so an
+     * app switch or screen off resumes on the same decoder and connection instead of preparing
+     * the item again. The player is paused while detached unless background audio is on. 0, the
+     * default, releases the player as soon as the surface is gone.
+     */
+    public void setDetachTimeout(int timeout) {
+        mDetachTimeout = Math.max(0, timeout);
+    }
+
+    public int getDetachTimeout() {
+        return mDetachTimeout;
+    }
+
+    public void setBackgroundAudio(boolean backgroundAudio) {
+        mBackgroundAudio = backgroundAudio;
+    }
+
+    public BackendSelector getBackends() {
+        return mBackends;
+    }
+
+    /**
+     * The progress bar is visible: the listener gets the position now and then on every whole
+     * second while playing.
+     */
+    public void requestProgress() {
+        mProgress.setUiVisible(true);
+        sendPlayer(MessageType.UPDATE);
+    }
+
+    /** The progress bar is hidden, position updates stop unless a control point follows them. */
+    public void cancelProgress() {
+        mProgress.setUiVisible(false);
+        mPlayerExecutor.removeMessages(MessageType.UPDATE.value());
+        sendPlayer(MessageType.PROGRESS_FOLLOWERS);
+    }
+
+    public void release() {
+        sLog.d("release");
+        mListener = null;
+        mStateChangedListener = null;
+        sendPlayer(MessageType.STOP);
+        sendPlayer(MessageType.RELEASE);
+        mPlayerExecutor.quit();
+    }
+
+    /**
+     * Removes pending commands that the command about to be posted makes redundant.
+     */
+    private synchronized void supersede(MessageType[] types, boolean drop) {
+        for (MessageType type : types) {
+            if (mPlayerExecutor.hasMessages(type.value())) {
+                mPlayerExecutor.removeMessages(type.value());
+                if (drop) {
+                    mCommandCounters.onDropped();
+                } else {
+                    mCommandCounters.onMerged();
+                }
+            }
+        }
+    }
+
+    private void sendPlayer(MessageType message) {
+        mPlayerExecutor.send(message.value(), 0, 0, null);
+    }
+
+    private void sendMain(MessageType message, int arg1, int arg2) {
+        mMainExecutor.send(message.value(), arg1, arg2, null);
+    }
+
+    private void notifyChanged(PlaybackSnapshot snapshot) {
+        sLog.v("notifyChanged:{}", snapshot);
+        StateChangedListener listener = mStateChangedListener;
+        if (listener != null) {
+            listener.onStateChanged(snapshot.state, snapshot.position, snapshot.duration);
+        }
+    }
+
+    private boolean handleMainThreadMessage(int what, int arg1, int arg2) {
+        MessageType message = MessageType.valueOf(what);
+        Listener listener = mListener;
+        if (message == null || listener == null) {
+            return false;
+        }
+
+        switch (message) {
+            case PAUSED: {
+                listener.onPaused();
+                break;
+            }
+            case STARTED: {
+                listener.onStarted(arg1);
+                break;
+            }
+            case STOPPED: {
+                listener.onStopped();
+                break;
+            }
+            case UPDATE: {
+                listener.onProgress(arg1);
+                break;
+            }
+            case UPDATE_VIDEO_SIZE: {
+                listener.onVideoSizeChanged(arg1, arg2);
+                break;
+            }
+            default: {
+                break;
+            }
+        }
+
+        return true;
+    }
+
+    private void handlePlayerThreadMessage(int what, int arg1, Object obj) {
+        MessageType message = MessageType.valueOf(what);
+        if (message == null) {
+            return;
+        }
+
+        if (message != MessageType.UPDATE) {
+            sLog.v("handlePlayerThreadMessage:{}", message);
+        }
+
+        switch (message) {
+            case SET_DATA_SOURCE: {
+                if (obj instanceof String) {
+                    mResumeMetric = null;
+                    mResumeStart = 0;
+                    saveResumePosition();
+                    play((String) obj, true);
+                }
+                break;
+            }
+            case SET_NEXT_DATA_SOURCE: {
+                releaseNextPlayer();
+                mNextUrl = obj instanceof String && !((String) obj).isEmpty() ? (String) obj : null;
+                schedulePreload();
+                break;
+            }
+            case SKIP_TO_NEXT: {
+                if (mNextUrl != null) {
+                    saveResumePosition();
+                    if (mMediaPlayer != null) {
+                        mMediaPlayer.setNextPlayer(null);
+                        mMediaPlayer.stop();
+                    }
+                    playNext();
+                }
+                break;
+            }
+            case PRELOAD_NEXT: {
+                preloadNext();
+                break;
+            }
+            case START: {
+                if (mMediaPlayer != null && mState == PlayerState.PAUSED) {
+                    beginResume();
+                    try {
+                        mMediaPlayer.start();
+                        sendMain(MessageType.STARTED, -1, 0);
+                        changeState(PlayerState.PLAYING);
+                        scheduleProgress();
+                        schedulePreload();
+                    } catch (Exception exception) {
+                        sLog.e("exception:", exception);
+                    }
+                } else if (mUrl != null && mState == PlayerState.IDLE) {
+                    beginResume();
+                    play(mUrl, false);
+                }
+                break;
+            }
+            case PAUSE: {
+                try {
+                    if (mState == PlayerState.PLAYING && mMediaPlayer != null) {
+                        mMediaPlayer.pause();
+                        sendMain(MessageType.PAUSED, 0, 0);
+                        changeState(PlayerState.PAUSED);
+                        scheduleProgress();
+                        saveResumePosition();
+                        mPlayerExecutor.removeMessages(MessageType.PRELOAD_NEXT.value());
+                    }
+                } catch (Exception exception) {
+                    sLog.e("exception:", exception);
+                }
+                break;
+            }
+            case STOP: {
+                if (mState == PlayerState.PLAYING || mState == PlayerState.PAUSED) {
+                    mMediaPlayer.pause();
+                    saveResumePosition();
+                    mResumePositions.flush();
+                }
+                stopPlayer();
+                sendMain(MessageType.STOPPED, 0, 0);
+                mMainExecutor.removeMessages(MessageType.UPDATE.value());
+                break;
+            }
+            case SEEK: {
+                // the commit of a scrub, whatever it still had pending is dropped
+                cancelScrub();
+                try {
+                    if (mMediaPlayer != null && (mState == PlayerState.PLAYING || mState == PlayerState.PAUSED)) {
+                        mSeekSync = false;
+                        mSeekStart = System.nanoTime();
+                        mMediaPlayer.seekTo(arg1);
+                    }
+                } catch (Exception exception) {
+                    sLog.e("exception:", exception);
+                }
+                break;
+            }
+            case SCRUB: {
+                if (mScrubTarget >= 0) {
+                    mCommandCounters.onMerged();
+                }
+                mScrubTarget = arg1;
+                if (mSeekStart == 0 && !mPlayerExecutor.hasMessages(MessageType.SCRUB_NEXT.value())) {
+                    issueScrub();
+                }
+                break;
+            }
+            case SCRUB_NEXT: {
+                if (mSeekStart == 0) {
+                    issueScrub();
+                }
+                break;
+            }
+            case SEEK_COMPLETED: {
+                if (mSeekStart != 0) {
+                    LatencyHistogram metric = mSeekSync ? mMetrics.seekSync : mMetrics.seek;
+                    metric.record(PlaybackMetrics.elapsedMicros(mSeekStart));
+                    mSeekStart = 0;
+                }
+                PlaybackSnapshot snapshot = publishSnapshot();
+                notifyChanged(snapshot);
+                if (mListener != null && mProgress.isUiVisible()) {
+                    sendMain(MessageType.UPDATE, snapshot.position, 0);
+                }
+                scheduleProgress();
+                schedulePreload();
+                if (!mPlayerExecutor.hasMessages(MessageType.SCRUB_NEXT.value())) {
+                    // the interval passed while the last sync seek was in flight
+                    issueScrub();
+                }
+                break;
+            }
+            case PROGRESS_FOLLOWERS: {
+                scheduleProgress();
+                break;
+            }
+            case PREPARED: {
+                if (mNextPlayer != null && mNextPlayer == obj) {
+                    onNextPrepared();
+                    break;
+                }
+                if (mMediaPlayer != obj || mMediaPlayer == null) {
+                    break;
+                }
+                if (mPrepareStart != 0) {
+                    long prepare = PlaybackMetrics.elapsedMicros(mPrepareStart);
+                    mMetrics.prepare.record(prepare);
+                    mSession.startup.record(prepare);
+                    mPrepareStart = 0;
+                }
+                FirstFrameTrace.current().mark(FirstFrameTrace.HOP_PREPARED);
+                try {
+                    int position = mResumePositions.get(mUrl);
+                    if (position > 0 && position < mMediaPlayer.getDuration()) {
+                        sLog.d("seekTo resume position:{}", position);
+                        mMediaPlayer.seekTo(position);
+                    }
+                    mMediaPlayer.start();
+                    sLog.d("mMediaPlayer.start()");
+                    changeState(PlayerState.PLAYING);
+                    sendMain(MessageType.STARTED, mMediaPlayer.getDuration(), 0);
+                    scheduleProgress();
+                    schedulePreload();
+                } catch (Exception exception) {
+                    sLog.e("exception:", exception);
+                }
+                break;
+            }
+            case COMPLETED: {
+                if (mMediaPlayer != obj || mMediaPlayer == null) {
+                    break;
+                }
+                mResumePositions.remove(mUrl);
+                if (mNextUrl != null) {
+                    playNext();
+                    break;
+                }
+                mResumeMetric = null;
+                mResumeStart = 0;
+                stopPlayer();
+                sendMain(MessageType.STOPPED, 0, 0);
+                mMainExecutor.removeMessages(MessageType.UPDATE.value());
+                break;
+            }
+            case ERROR: {
+                if (mNextPlayer != null && mNextPlayer == obj) {
+                    // the next item is opened again when its turn comes
+                    releaseNextPlayer();
+                    break;
+                }
+                if (mMediaPlayer != obj || mMediaPlayer == null) {
+                    break;
+                }
+                // the resume position is kept, and the failed player is not stopped, it would refuse
+                sLog.e("playback failed:{}", mUrl);
+                mMediaPlayer.release();
+                mMediaPlayer = null;
+                if (mNextUrl != null) {
+                    playNext();
+                    break;
+                }
+                mResumeMetric = null;
+                mResumeStart = 0;
+                stopPlayer();
+                sendMain(MessageType.STOPPED, 0, 0);
+                mMainExecutor.removeMessages(MessageType.UPDATE.value());
+                break;
+            }
+            case SURFACE_CREATED: {
+                mSurfaceValid = true;
+                mPlayerExecutor.removeMessages(MessageType.DETACH_TIMEOUT.value());
+                if (mDetached) {
+                    sLog.d("surface reattached");
+                    mDetached = false;
+                    mReattachCount++;
+                }
+                attachDisplay();
+                break;
+            }
+            case SURFACE_DESTROYED: {
+                mSurfaceValid = false;
+                if (mDetachTimeout > 0 && mMediaPlayer != null
+                        && (mState == PlayerState.PLAYING || mState == PlayerState.PAUSED)) {
+                    detachSurface();
+                } else {
+                    releaseForSurface();
+                }
+                break;
+            }
+            case RELEASE: {
+                stopPlayer();
+                mBackends.release();
+                break;
+            }
+            case DETACH_TIMEOUT: {
+                if (mDetached && !mSurfaceValid) {
+                    sLog.d("no surface for {}ms, releasing the player", mDetachTimeout);
+                    mIdleReleaseCount++;
+                    releaseForSurface();
+                }
+                break;
+            }
+            case UPDATE: {
+                long now = PlaybackSnapshot.now();
+                mProgress.onWakeup(now);
+                if (mMediaPlayer != null && mState != PlayerState.PREPARING) {
+                    PlaybackSnapshot snapshot = publishSnapshot();
+                    if (mListener != null && mProgress.isUiVisible()) {
+                        sendMain(MessageType.UPDATE, snapshot.position, 0);
+                    }
+                    if (mState == PlayerState.PLAYING && mProgress.isRemoteActive(now)) {
+                        notifyChanged(snapshot);
+                    }
+                    scheduleProgress();
+                }
+                break;
+            }
+            default: {
+                break;
+            }
+        }
+    }
+
+    /** Plays path from the start or its resume position, on a newly selected backend for a new session. */
+    private void play(String path, boolean newSession) {
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+
+        sLog.d(path);
+        /* stop playback first*/
+        stopPlayer();
+
+        if (newSession || mSession == null) {
+            mSession = mBackends.select();
+            sLog.d("session backend:{}", mSession.name);
+        }
+        mMediaPlayer = mSession.backend.createPlayer(mMediaPlayerListener);
+
+        try {
+            sLog.d("mMediaPlayer.setDataSource({})", path);
+            mMediaPlayer.setDataSource(dataSource(path));
+            attachDisplay();
+            sLog.d("mMediaPlayer.prepareAsync()");
+            mMediaPlayer.prepareAsync();
+            mPrepareStart = System.nanoTime();
+            mRebufferStart = 0;
+            FirstFrameTrace.current().mark(FirstFrameTrace.HOP_DATA_SOURCE);
+            changeState(PlayerState.PREPARING);
+        } catch (Exception exception) {
+            sLog.e("exception:", exception);
+            mMediaPlayer.release();
+            mMediaPlayer = null;
+        }
+
+        mUrl = path;
+    }
+
+    /**
+     * Makes the queued next item current. A preloaded player was already chained with
+     * setNextPlayer and only needs the display, anything else is prepared from scratch.
+     */
+    private void playNext() {
+        String url = mNextUrl;
+        mNextUrl = null;
+        notifyTrackChanged(url);
+
+        if (mNextPlayer == null || !mNextPrepared) {
+            sLog.d("next item was not preloaded");
+            releaseNextPlayer();
+            play(url, false);
+            return;
+        }
+
+        MediaBackend.Player previous = mMediaPlayer;
+        mMediaPlayer = mNextPlayer;
+        mNextPlayer = null;
+        mNextPrepared = false;
+        if (previous != null) {
+            previous.release();
+        }
+
+        mUrl = url;
+        attachDisplay();
+        try {
+            if (!mMediaPlayer.isPlaying()) {
+                mMediaPlayer.start();
+            }
+            changeState(PlayerState.PLAYING);
+            sendMain(MessageType.STARTED, mMediaPlayer.getDuration(), 0);
+            sendMain(MessageType.UPDATE_VIDEO_SIZE, mMediaPlayer.getVideoWidth(), mMediaPlayer.getVideoHeight());
+            scheduleProgress();
+        } catch (Exception exception) {
+            sLog.e("exception:", exception);
+        }
+    }
+
+    /**
+     * Issues the latest scrub target as a sync seek. One sync seek is in flight at a time and they
+     * are at least SCRUB_INTERVAL apart, targets that come in meanwhile replace each other.
+     */
+    private void issueScrub() {
+        int target = mScrubTarget;
+        if (target < 0 || mMediaPlayer == null || (mState != PlayerState.PLAYING && mState != PlayerState.PAUSED)) {
+            return;
+        }
+
+        mScrubTarget = -1;
+        try {
+            mSeekSync = true;
+            mSeekStart = System.nanoTime();
+            mMediaPlayer.seekToSync(target);
+            mPlayerExecutor.sendDelayed(MessageType.SCRUB_NEXT.value(), SCRUB_INTERVAL);
+        } catch (Exception exception) {
+            sLog.e("exception:", exception);
+            mSeekStart = 0;
+        }
+    }
+
+    private void cancelScrub() {
+        mScrubTarget = -1;
+        mPlayerExecutor.removeMessages(MessageType.SCRUB_NEXT.value());
+    }
+
+    /** Arms the next position UPDATE for whoever follows the position, see ProgressScheduler. */
+    private void scheduleProgress() {
+        mPlayerExecutor.removeMessages(MessageType.UPDATE.value());
+        if (mMediaPlayer == null || mState != PlayerState.PLAYING) {
+            return;
+        }
+
+        long delay = mProgress.nextDelay(PlaybackSnapshot.now(), mListener != null && mProgress.isUiVisible(),
+                                         mMediaPlayer.getCurrentPosition());
+        if (delay != ProgressScheduler.NONE) {
+            mPlayerExecutor.sendDelayed(MessageType.UPDATE.value(), delay);
+        }
+    }
+
+    /** Arms PRELOAD_NEXT to fire PRELOAD_LEAD_TIME before the current item ends. */
+    private void schedulePreload() {
+        mPlayerExecutor.removeMessages(MessageType.PRELOAD_NEXT.value());
+        if (mNextUrl == null || mNextPlayer != null || mMediaPlayer == null || mState != PlayerState.PLAYING) {
+            return;
+        }
+
+        int duration = mMediaPlayer.getDuration();
+        if (duration <= 0) {
+            return; // live stream, the next item is prepared on completion
+        }
+
+        long delay = Math.max(0, duration - mMediaPlayer.getCurrentPosition() - PRELOAD_LEAD_TIME);
+        sLog.d("preload next in {}ms", delay);
+        mPlayerExecutor.sendDelayed(MessageType.PRELOAD_NEXT.value(), delay);
+    }
+
+    private void preloadNext() {
+        if (mNextUrl == null || mNextPlayer != null) {
+            return;
+        }
+
+        sLog.d("preload next:{}", mNextUrl);
+        mNextPlayer = mSession.backend.createPlayer(mMediaPlayerListener);
+        try {
+            mNextPlayer.setDataSource(dataSource(mNextUrl));
+            mNextPlayer.prepareAsync();
+        } catch (Exception exception) {
+            sLog.e("exception:", exception);
+            releaseNextPlayer();
+        }
+    }
+
+    /**
+     * Remembers where the current item stopped so a later session resumes there. Stopping within
+     * RESUME_END_MARGIN of the end forgets the item instead.
+     */
+    private void saveResumePosition() {
+        if (mMediaPlayer == null || mUrl == null || (mState != PlayerState.PLAYING && mState != PlayerState.PAUSED)) {
+            return;
+        }
+
+        try {
+            int position = mMediaPlayer.getCurrentPosition();
+            int duration = mMediaPlayer.getDuration();
+            sLog.d("save resume position:{}, duration:{}", position, duration);
+            if (duration > 0 && position >= duration - RESUME_END_MARGIN) {
+                mResumePositions.remove(mUrl);
+            } else {
+                mResumePositions.put(mUrl, position, duration);
+            }
+        } catch (Exception exception) {
+            sLog.e("exception:", exception);
+        }
+    }
+
+    private String dataSource(String url) {
+        return mProxy == null ? url : mProxy.proxyUrl(url);
+    }
+
+    private void onNextPrepared() {
+        sLog.d("next prepared");
+        mNextPrepared = true;
+        if (mMediaPlayer == null) {
+            return;
+        }
+
+        try {
+            mMediaPlayer.setNextPlayer(mNextPlayer);
+        } catch (Exception exception) {
+            sLog.e("exception:", exception);
+        }
+    }
+
+    private void releaseNextPlayer() {
+        mPlayerExecutor.removeMessages(MessageType.PRELOAD_NEXT.value());
+        if (mNextPlayer != null) {
+            if (mMediaPlayer != null) {
+                mMediaPlayer.setNextPlayer(null);
+            }
+            mNextPlayer.release();
+            mNextPlayer = null;
+        }
+        mNextPrepared = false;
+    }
+
+    private void notifyTrackChanged(String url) {
+        sLog.d("notifyTrackChanged:{}", url);
+        StateChangedListener listener = mStateChangedListener;
+        if (listener != null) {
+            listener.onTrackChanged(url);
+        }
+    }
+
+    private void attachDisplay() {
+        Object display = mDisplay;
+        if (mMediaPlayer != null && mSurfaceValid && display != null) {
+            sLog.d("mMediaPlayer.setDisplay()");
+            mMediaPlayer.setDisplay(display);
+            FirstFrameTrace.current().mark(FirstFrameTrace.HOP_SURFACE_ATTACHED);
+        }
+    }
+
+    /**
+     * Takes the surface away from a playing or paused player and keeps the player, paused unless
+     * background audio is on, for mDetachTimeout ms before releasing it.
+     */
+    private void detachSurface() {
+        sLog.d("surface detached, player kept for {}ms", mDetachTimeout);
+        try {
+            mMediaPlayer.setDisplay(null);
+            if (mState == PlayerState.PLAYING && !mBackgroundAudio) {
+                mMediaPlayer.pause();
+                sendMain(MessageType.PAUSED, 0, 0);
+                changeState(PlayerState.PAUSED);
+                scheduleProgress();
+                mPlayerExecutor.removeMessages(MessageType.PRELOAD_NEXT.value());
+            }
+        } catch (Exception exception) {
+            sLog.e("exception:", exception);
+        }
+        saveResumePosition();
+        mDetached = true;
+        mDetachCount++;
+        mResumeMetric = mMetrics.resumeReattach;
+        mPlayerExecutor.removeMessages(MessageType.DETACH_TIMEOUT.value());
+        mPlayerExecutor.sendDelayed(MessageType.DETACH_TIMEOUT.value(), mDetachTimeout);
+    }
+
+    /** Releases the player with its surface, a later start prepares the item again where it was left. */
+    private void releaseForSurface() {
+        mDetached = false;
+        if (mState == PlayerState.PLAYING) {
+            mMediaPlayer.pause();
+            saveResumePosition();
+        }
+        if (mMediaPlayer != null && mUrl != null) {
+            mResumeMetric = mMetrics.resumeRebuild;
+        }
+        stopPlayer();
+        mMainExecutor.removeMessages(MessageType.UPDATE.value());
+    }
+
+    /** A start that picks up after surface loss, timed until the player plays again. */
+    private void beginResume() {
+        if (mResumeMetric != null) {
+            mResumeStart = System.nanoTime();
+        }
+    }
+
+    private void stopPlayer() {
+        releaseNextPlayer();
+        cancelScrub();
+        mSeekStart = 0;
+        mSeekSync = false;
+        mPlayerExecutor.removeMessages(MessageType.UPDATE.value());
+        if (mMediaPlayer != null) {
+            mMediaPlayer.stop();
+            mMediaPlayer.release();
+            mMediaPlayer = null;
+        }
+
+        changeState(PlayerState.IDLE);
+    }
+
+    private void changeState(PlayerState state) {
+        sLog.d("state:{}", state);
+        if (mState == PlayerState.PLAYING && state != PlayerState.PLAYING && mSession != null) {
+            mSession.playing.addAndGet(PlaybackMetrics.elapsedMicros(mPlayingSince));
+        } else if (mState != PlayerState.PLAYING && state == PlayerState.PLAYING) {
+            mPlayingSince = System.nanoTime();
+        }
+        mState = state;
+        if (state == PlayerState.PLAYING && mResumeMetric != null && mResumeStart != 0) {
+            mLastResume = PlaybackMetrics.elapsedMicros(mResumeStart);
+            mResumeMetric.record(mLastResume);
+            mResumeMetric = null;
+            mResumeStart = 0;
+        }
+        notifyChanged(publishSnapshot());
+    }
+
+    private PlaybackSnapshot publishSnapshot() {
+        int position = 0;
+        int duration = 0;
+        int videoWidth = 0;
+        int videoHeight = 0;
+
+        if (mMediaPlayer != null && (mState == PlayerState.PLAYING || mState == PlayerState.PAUSED)) {
+            position = mMediaPlayer.getCurrentPosition();
+            duration = mMediaPlayer.getDuration();
+            videoWidth = mMediaPlayer.getVideoWidth();
+            videoHeight = mMediaPlayer.getVideoHeight();
+        }
+
+        return mSnapshotHolder.publish(PlayerState.convertState(mState), position, duration, videoWidth, videoHeight);
+    }
+}
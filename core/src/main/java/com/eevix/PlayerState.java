@@ -0,0 +1,22 @@
+package com.eevix;
+
+/**
+ * State of a player engine, as opposed to the {@link PlaybackController} state it reports.
+ */
+public enum PlayerState {
+    IDLE(PlaybackController.STATE_IDLE),
+    PREPARING(PlaybackController.STATE_PREPARING),
+    PLAYING(PlaybackController.STATE_PLAYING),
+    PAUSED(PlaybackController.STATE_PAUSED);
+
+    private final int mControllerState;
+
+    PlayerState(int controllerState) {
+        mControllerState = controllerState;
+    }
+
+    /** The PlaybackController.STATE_* value reported for state. */
+    public static int convertState(PlayerState state) {
+        return state.mControllerState;
+    }
+}
@@ -0,0 +1,68 @@
+package com.eevix;
+
+/**
+ * When the player thread next wakes up to publish the position, decided by who follows it.
+ *
+ * A visible progress bar is updated just past each whole second of media time, so the seconds it
+ * shows turn over on time at one wakeup per second. Control points polling GetPositionInfo or
+ * subscribed to AVTransport events hold a lease, and while it runs the renderer's position model
+ * is re-based every REMOTE_INTERVAL against drift and stalls. Nobody following, or nothing
+ * playing, means no wakeups at all.
+ */
+final class ProgressScheduler {
+    static final long NONE = -1;
+    static final int SECOND_MARGIN = 10;        // ms past the second boundary
+    static final int REMOTE_INTERVAL = 5000;    // ms
+    private volatile boolean mUiVisible = false;
+    private long mRemoteUntil = 0;              // ms, monotonic
+    private final RateMeter mWakeups = new RateMeter();
+
+    void setUiVisible(boolean visible) {
+        mUiVisible = visible;
+    }
+
+    boolean isUiVisible() {
+        return mUiVisible;
+    }
+
+    /** Extends the remote lease to at least lease ms from now, true if none was running. */
+    synchronized boolean extendRemote(long now, long lease) {
+        boolean started = now >= mRemoteUntil;
+        mRemoteUntil = Math.max(mRemoteUntil, now + lease);
+        return started;
+    }
+
+    synchronized boolean isRemoteActive(long now) {
+        return now < mRemoteUntil;
+    }
+
+    /**
+     * ms until the next publish of a playing item at position, NONE when nobody follows it. ui
+     * is whether the progress bar is visible and attached.
+     */
+    long nextDelay(long now, boolean ui, int position) {
+        long delay = NONE;
+        if (ui) {
+            delay = 1000 - (position % 1000) + SECOND_MARGIN;
+        }
+        if (isRemoteActive(now) && (delay == NONE || delay > REMOTE_INTERVAL)) {
+            delay = REMOTE_INTERVAL;
+        }
+        return delay;
+    }
+
+    void onWakeup(long now) {
+        mWakeups.record(now);
+    }
+
+    int wakeupsPerMinute(long now) {
+        return mWakeups.perMinute(now);
+    }
+
+    @Override
+    public String toString() {
+        long now = PlaybackSnapshot.now();
+        return "ui:" + mUiVisible + ", remote:" + isRemoteActive(now) + ", wakeups/min:" + wakeupsPerMinute(now)
+                + ", wakeups:" + mWakeups.total();
+    }
+}
@@ -0,0 +1,39 @@
+package com.eevix;
+
+/**
+ * Counts events over the last minute in one-second buckets, without allocating.
+ */
+final class RateMeter {
+    private static final int BUCKETS = 60;
+    private final long[] mSeconds = new long[BUCKETS]; // second of the clock each bucket counts
+    private final int[] mCounts = new int[BUCKETS];
+    private long mTotal = 0;
+
+    /** One event at now, ms on a monotonic clock. */
+    synchronized void record(long now) {
+        long second = now / 1000;
+        int bucket = (int) (second % BUCKETS);
+        if (mSeconds[bucket] != second) {
+            mSeconds[bucket] = second;
+            mCounts[bucket] = 0;
+        }
+        mCounts[bucket]++;
+        mTotal++;
+    }
+
+    /** Events in the minute up to now. */
+    synchronized int perMinute(long now) {
+        long second = now / 1000;
+        int count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (mSeconds[i] <= second && second - mSeconds[i] < BUCKETS) {
+                count += mCounts[i];
+            }
+        }
+        return count;
+    }
+
+    synchronized long total() {
+        return mTotal;
+    }
+}
@@ -0,0 +1,362 @@
+package com.eevix;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Resume positions keyed by media url, persisted across sessions.
+ *
+ * Positions live in fixed-size records appended to a memory-mapped file. An update appends a new
+ * record and a primitive open-addressing index maps the url hash to its latest record, so a lookup
+ * is one probe plus one buffer read. When the file is full it is compacted into a fresh one that
+ * holds only the latest record of each url, dropping entries older than the age limit and the
+ * least recently updated ones beyond the count limit.
+ *
+ * The file is opened on first use, so the engine pays for loading it on its player thread. Any
+ * I/O failure disables the store and lookups return 0 from then on.
+ */
+public final class ResumePositionStore {
+    static final int MAX_ENTRIES = 1000;
+    static final long MAX_AGE = 90L * 24 * 60 * 60 * 1000; // ms
+    private static final int MAGIC = 0x52504f53; // "RPOS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;  // magic, version, record count, reserved
+    private static final int RECORD_SIZE = 24;  // key, position, duration, update time
+    private static final int COUNT_OFFSET = 8;
+    private static final int POSITION_OFFSET = 8;
+    private static final int DURATION_OFFSET = 12;
+    private static final int TIME_OFFSET = 16;
+    private static ResumePositionStore sShared = null;
+
+    private final File mFile;
+    private final int mMaxEntries;
+    private final long mMaxAge;
+    private final int mCapacity; // records in the file
+    private boolean mOpened = false;
+    private MappedByteBuffer mBuffer = null;
+    private LongIntMap mIndex = null;
+    private int mRecords = 0;
+    private int mCompactions = 0;
+
+    /** Open-addressing long to int map with linear probing; key 0 marks a free slot. */
+    private static final class LongIntMap {
+        private final long[] mKeys;
+        private final int[] mValues;
+        private final int mShift;
+        private int mSize = 0;
+
+        LongIntMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+            mKeys = new long[capacity];
+            mValues = new int[capacity];
+            mShift = 64 - Integer.numberOfTrailingZeros(capacity);
+        }
+
+        int get(long key) {
+            int i = find(key);
+            return i < 0 ? -1 : mValues[i];
+        }
+
+        void put(long key, int value) {
+            int mask = mKeys.length - 1;
+            int i = home(key);
+            while (mKeys[i] != 0 && mKeys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (mKeys[i] == 0) {
+                mKeys[i] = key;
+                mSize++;
+            }
+            mValues[i] = value;
+        }
+
+        void remove(long key) {
+            int i = find(key);
+            if (i < 0) {
+                return;
+            }
+
+            // shift the rest of the cluster back so no probe sequence is broken
+            int mask = mKeys.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (mKeys[j] == 0) {
+                    break;
+                }
+                int home = home(mKeys[j]);
+                boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+                if (!stays) {
+                    mKeys[i] = mKeys[j];
+                    mValues[i] = mValues[j];
+                    i = j;
+                }
+            }
+            mKeys[i] = 0;
+            mSize--;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        int slots() {
+            return mKeys.length;
+        }
+
+        long keyAt(int slot) {
+            return mKeys[slot];
+        }
+
+        int valueAt(int slot) {
+            return mValues[slot];
+        }
+
+        private int find(long key) {
+            int mask = mKeys.length - 1;
+            int i = home(key);
+            while (mKeys[i] != 0) {
+                if (mKeys[i] == key) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        private int home(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> mShift);
+        }
+    }
+
+    /** The store of the process, kept in file. */
+    public static synchronized ResumePositionStore shared(File file) {
+        if (sShared == null) {
+            sShared = new ResumePositionStore(file, MAX_ENTRIES, MAX_AGE);
+        }
+        return sShared;
+    }
+
+    ResumePositionStore(File file, int maxEntries, long maxAge) {
+        mFile = file;
+        mMaxEntries = maxEntries;
+        mMaxAge = maxAge;
+        mCapacity = Math.max(maxEntries, 8) * 2;
+    }
+
+    /** Saved position of url in ms, 0 if there is none. */
+    synchronized int get(String url) {
+        return get(hash(url), System.currentTimeMillis());
+    }
+
+    /** Saves position as the resume point of url, a position of 0 forgets it. */
+    synchronized void put(String url, int position, int duration) {
+        put(hash(url), position, duration, System.currentTimeMillis());
+    }
+
+    synchronized void remove(String url) {
+        put(hash(url), 0, 0, System.currentTimeMillis());
+    }
+
+    synchronized int get(long key, long now) {
+        if (!open()) {
+            return 0;
+        }
+
+        int record = mIndex.get(key);
+        if (record < 0) {
+            return 0;
+        }
+
+        int offset = HEADER_SIZE + record * RECORD_SIZE;
+        if (now - mBuffer.getLong(offset + TIME_OFFSET) > mMaxAge) {
+            return 0;
+        }
+        return mBuffer.getInt(offset + POSITION_OFFSET);
+    }
+
+    synchronized void put(long key, int position, int duration, long now) {
+        if (!open()) {
+            return;
+        }
+
+        if (position <= 0 && mIndex.get(key) < 0) {
+            return;
+        }
+
+        if (mRecords == mCapacity && !compact(now)) {
+            return;
+        }
+
+        int offset = HEADER_SIZE + mRecords * RECORD_SIZE;
+        mBuffer.putLong(offset, key);
+        mBuffer.putInt(offset + POSITION_OFFSET, Math.max(position, 0));
+        mBuffer.putInt(offset + DURATION_OFFSET, duration);
+        mBuffer.putLong(offset + TIME_OFFSET, now);
+        if (position > 0) {
+            mIndex.put(key, mRecords);
+        } else {
+            mIndex.remove(key);
+        }
+        mRecords++;
+        mBuffer.putInt(COUNT_OFFSET, mRecords); // only after the record is complete
+    }
+
+    synchronized int size() {
+        return open() ? mIndex.size() : 0;
+    }
+
+    synchronized int records() {
+        return mRecords;
+    }
+
+    synchronized int compactions() {
+        return mCompactions;
+    }
+
+    /** Flushes the mapped file to storage. */
+    synchronized void flush() {
+        if (mBuffer != null) {
+            mBuffer.force();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "entries:%d, records:%d/%d, compactions:%d%s",
+                mIndex == null ? 0 : mIndex.size(), mRecords, mCapacity, mCompactions,
+                mOpened && mBuffer == null ? ", disabled" : "");
+    }
+
+    /** 64-bit FNV-1a of the url. */
+    static long hash(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash; // 0 is the free slot of the index
+    }
+
+    private boolean open() {
+        if (mOpened) {
+            return mBuffer != null;
+        }
+
+        mOpened = true;
+        try {
+            mBuffer = map(mFile);
+        } catch (IOException exception) {
+            return false;
+        }
+
+        mIndex = new LongIntMap(mCapacity);
+        if (mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION) {
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putInt(4, VERSION);
+            mBuffer.putInt(COUNT_OFFSET, 0);
+            return true;
+        }
+
+        mRecords = Math.min(Math.max(mBuffer.getInt(COUNT_OFFSET), 0), mCapacity);
+        for (int record = 0; record < mRecords; record++) {
+            int offset = HEADER_SIZE + record * RECORD_SIZE;
+            long key = mBuffer.getLong(offset);
+            if (mBuffer.getInt(offset + POSITION_OFFSET) > 0) {
+                mIndex.put(key, record);
+            } else {
+                mIndex.remove(key);
+            }
+        }
+        return true;
+    }
+
+    private MappedByteBuffer map(File file) throws IOException {
+        long size = HEADER_SIZE + (long) mCapacity * RECORD_SIZE;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (randomAccessFile.length() != size) {
+                randomAccessFile.setLength(size);
+            }
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            randomAccessFile.close(); // the mapping stays valid
+        }
+    }
+
+    /**
+     * Rewrites the file with the latest record of each live entry, evicting by age and count.
+     * Leaves at least half of the file free since at most mMaxEntries records survive.
+     */
+    private boolean compact(long now) {
+        int live = mIndex.size();
+        long[] keys = new long[live];
+        int[] records = new int[live];
+        long[] times = new long[live];
+        int count = 0;
+        for (int slot = 0; slot < mIndex.slots(); slot++) {
+            long key = mIndex.keyAt(slot);
+            if (key == 0) {
+                continue;
+            }
+            int record = mIndex.valueAt(slot);
+            long time = mBuffer.getLong(HEADER_SIZE + record * RECORD_SIZE + TIME_OFFSET);
+            if (now - time > mMaxAge) {
+                continue;
+            }
+            keys[count] = key;
+            records[count] = record;
+            times[count] = time;
+            count++;
+        }
+
+        long cutoff = Long.MIN_VALUE;
+        if (count > mMaxEntries) {
+            long[] sorted = Arrays.copyOf(times, count);
+            Arrays.sort(sorted);
+            cutoff = sorted[count - mMaxEntries];
+        }
+
+        File temporary = new File(mFile.getPath() + ".tmp");
+        try {
+            MappedByteBuffer buffer = map(temporary);
+            LongIntMap index = new LongIntMap(mCapacity);
+            int written = 0;
+            for (int i = 0; i < count && written < mMaxEntries; i++) {
+                if (times[i] < cutoff) {
+                    continue;
+                }
+                int from = HEADER_SIZE + records[i] * RECORD_SIZE;
+                int to = HEADER_SIZE + written * RECORD_SIZE;
+                buffer.putLong(to, keys[i]);
+                buffer.putInt(to + POSITION_OFFSET, mBuffer.getInt(from + POSITION_OFFSET));
+                buffer.putInt(to + DURATION_OFFSET, mBuffer.getInt(from + DURATION_OFFSET));
+                buffer.putLong(to + TIME_OFFSET, times[i]);
+                index.put(keys[i], written++);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(COUNT_OFFSET, written);
+            buffer.force();
+            if (!temporary.renameTo(mFile)) {
+                throw new IOException("can not replace " + mFile);
+            }
+
+            mBuffer = buffer;
+            mIndex = index;
+            mRecords = written;
+            mCompactions++;
+            return true;
+        } catch (IOException exception) {
+            temporary.delete();
+            mBuffer = null;
+            mIndex = null;
+            return false;
+        }
+    }
+}
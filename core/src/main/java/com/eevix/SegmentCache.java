@@ -0,0 +1,188 @@
+package com.eevix;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded LRU cache of fixed-size media segments, each one kept in its own memory-mapped
+ * file under the cache directory. A segment is filled through the buffer returned by
+ * {@link #allocate} and becomes visible to {@link #get} only after {@link #commit}.
+ */
+final class SegmentCache {
+    private final File mDirectory;
+    private final int mSegmentSize;
+    private final long mMaxBytes;
+    private final LinkedHashMap<Key, Segment> mSegments = new LinkedHashMap<Key, Segment>(64, 0.75f, true);
+    private long mBytes = 0;
+    private long mNextFile = 0;
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    static final class Key {
+        final String url;
+        final long index;
+
+        Key(String url, long index) {
+            this.url = url;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) object;
+            return index == key.index && url.equals(key.url);
+        }
+
+        @Override
+        public int hashCode() {
+            return url.hashCode() * 31 + (int) (index ^ (index >>> 32));
+        }
+    }
+
+    /** A segment being filled, not visible to readers yet. */
+    static final class Segment {
+        final Key key;
+        final File file;
+        final MappedByteBuffer buffer;
+
+        Segment(Key key, File file, MappedByteBuffer buffer) {
+            this.key = key;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    SegmentCache(File directory, int segmentSize, long maxBytes) {
+        mDirectory = directory;
+        mSegmentSize = segmentSize;
+        mMaxBytes = maxBytes;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IllegalArgumentException("can not create " + directory);
+        }
+
+        // the index lives in memory only, segments of an earlier process are unreachable
+        File[] stale = mDirectory.listFiles();
+        if (stale != null) {
+            for (File file : stale) {
+                file.delete();
+            }
+        }
+    }
+
+    int segmentSize() {
+        return mSegmentSize;
+    }
+
+    /** Read-only view of a complete segment positioned at 0, or null on a miss. */
+    ByteBuffer get(String url, long index) {
+        Segment segment;
+        synchronized (this) {
+            segment = mSegments.get(new Key(url, index));
+        }
+
+        if (segment == null) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+
+        mHits.incrementAndGet();
+        return segment.buffer.asReadOnlyBuffer();
+    }
+
+    synchronized boolean contains(String url, long index) {
+        return mSegments.containsKey(new Key(url, index));
+    }
+
+    Segment allocate(String url, long index, int length) throws IOException {
+        File file;
+        synchronized (this) {
+            file = new File(mDirectory, "segment-" + mNextFile++);
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(length);
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            return new Segment(new Key(url, index), file, buffer);
+        } finally {
+            randomAccessFile.close(); // the mapping stays valid
+        }
+    }
+
+    /** Publishes a filled segment and evicts the least recently used ones beyond the size bound. */
+    ByteBuffer commit(Segment segment) {
+        segment.buffer.rewind();
+        synchronized (this) {
+            Segment previous = mSegments.put(segment.key, segment);
+            if (previous != null) {
+                mBytes -= previous.buffer.capacity();
+                previous.file.delete();
+            }
+            mBytes += segment.buffer.capacity();
+
+            Iterator<Map.Entry<Key, Segment>> iterator = mSegments.entrySet().iterator();
+            while (mBytes > mMaxBytes && iterator.hasNext()) {
+                Segment eldest = iterator.next().getValue();
+                if (eldest == segment) {
+                    continue;
+                }
+                iterator.remove();
+                mBytes -= eldest.buffer.capacity();
+                eldest.file.delete();
+                mEvictions.incrementAndGet();
+            }
+        }
+        return segment.buffer.asReadOnlyBuffer();
+    }
+
+    /** Evicts every segment of url. */
+    synchronized void remove(String url) {
+        Iterator<Segment> iterator = mSegments.values().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment.key.url.equals(url)) {
+                iterator.remove();
+                mBytes -= segment.buffer.capacity();
+                segment.file.delete();
+                mEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    /** Drops a segment that could not be filled. */
+    void discard(Segment segment) {
+        segment.file.delete();
+    }
+
+    synchronized long bytes() {
+        return mBytes;
+    }
+
+    synchronized int segments() {
+        return mSegments.size();
+    }
+
+    long hits() {
+        return mHits.get();
+    }
+
+    long misses() {
+        return mMisses.get();
+    }
+
+    long evictions() {
+        return mEvictions.get();
+    }
+}
@@ -0,0 +1,29 @@
+package com.eevix;
+
+/**
+ * A thread that runs messages one at a time, in the order they fall due.
+ *
+ * This is the part of android.os.Handler that {@link PlayerEngine} uses, so the engine runs on a
+ * HandlerThread on the device and on a plain thread, or a queue stepped by a test, on the JVM.
+ */
+public interface SerialExecutor {
+    /** Receiver of the messages of an executor, called on its thread. */
+    interface Target {
+        /** queued is how long the message waited past the time it was due, in ms. */
+        void handleMessage(int what, int arg1, int arg2, Object obj, long queued);
+    }
+
+    /** Sets the receiver of every message, before the first one is sent. */
+    void setTarget(Target target);
+
+    void send(int what, int arg1, int arg2, Object obj);
+
+    void sendDelayed(int what, long delay);
+
+    boolean hasMessages(int what);
+
+    void removeMessages(int what);
+
+    /** Runs the messages that are already due, drops the delayed ones and stops the thread. */
+    void quit();
+}
@@ -0,0 +1,185 @@
+package com.eevix;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * {@link SerialExecutor} on a plain Java thread, for running engines off-device.
+ *
+ * An exception thrown by the target stops the thread, as it would crash a HandlerThread, and is
+ * kept for {@link #failure}.
+ */
+public final class ThreadExecutor implements SerialExecutor {
+    private final Object mLock = new Object();
+    private final PriorityQueue<Entry> mQueue = new PriorityQueue<Entry>();
+    private final Thread mThread;
+    private volatile Target mTarget = null;
+    private volatile Throwable mFailure = null;
+    private boolean mQuitting = false;
+    private long mSequence = 0;
+
+    private static final class Entry implements Comparable<Entry> {
+        final int what;
+        final int arg1;
+        final int arg2;
+        final Object obj;
+        final long when;      // ms
+        final long sequence;  // keeps messages due at the same time in send order
+
+        Entry(int what, int arg1, int arg2, Object obj, long when, long sequence) {
+            this.what = what;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+            this.obj = obj;
+            this.when = when;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (when != other.when) {
+                return when < other.when ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    public ThreadExecutor(String name) {
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    @Override
+    public void setTarget(Target target) {
+        mTarget = target;
+    }
+
+    @Override
+    public void send(int what, int arg1, int arg2, Object obj) {
+        enqueue(what, arg1, arg2, obj, 0);
+    }
+
+    @Override
+    public void sendDelayed(int what, long delay) {
+        enqueue(what, 0, 0, null, delay);
+    }
+
+    @Override
+    public boolean hasMessages(int what) {
+        synchronized (mLock) {
+            for (Entry entry : mQueue) {
+                if (entry.what == what) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public void removeMessages(int what) {
+        synchronized (mLock) {
+            Iterator<Entry> iterator = mQueue.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().what == what) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void quit() {
+        synchronized (mLock) {
+            mQuitting = true;
+            long now = now();
+            Iterator<Entry> iterator = mQueue.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().when > now) {
+                    iterator.remove();
+                }
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /** Waits up to timeout ms for the thread to stop after quit, false if it is still running. */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        mThread.join(timeout);
+        return !mThread.isAlive();
+    }
+
+    /** What the target threw, null if nothing. */
+    public Throwable failure() {
+        return mFailure;
+    }
+
+    private void enqueue(int what, int arg1, int arg2, Object obj, long delay) {
+        synchronized (mLock) {
+            if (mQuitting) {
+                return;
+            }
+            mQueue.add(new Entry(what, arg1, arg2, obj, now() + delay, mSequence++));
+            mLock.notifyAll();
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            Entry entry;
+            synchronized (mLock) {
+                while (true) {
+                    entry = mQueue.peek();
+                    if (entry == null) {
+                        if (mQuitting) {
+                            return;
+                        }
+                        waitLocked(0);
+                        continue;
+                    }
+                    long wait = entry.when - now();
+                    if (wait <= 0) {
+                        mQueue.poll();
+                        break;
+                    }
+                    waitLocked(wait);
+                }
+            }
+
+            Target target = mTarget;
+            if (target == null) {
+                continue;
+            }
+            try {
+                target.handleMessage(entry.what, entry.arg1, entry.arg2, entry.obj, Math.max(0, now() - entry.when));
+            } catch (Throwable throwable) {
+                mFailure = throwable;
+                synchronized (mLock) {
+                    mQuitting = true;
+                    mQueue.clear();
+                }
+                return;
+            }
+        }
+    }
+
+    private void waitLocked(long timeout) {
+        try {
+            mLock.wait(timeout);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            mQuitting = true;
+            mQueue.clear();
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,66 @@
+package com.eevix;
+
+/**
+ * Formats a media time as HH:MM:SS into a reusable char array, for the views that redraw it on
+ * every progress tick. Nothing is allocated per call, and {@link #format} tells whether the
+ * displayed second changed, so the caller only pushes new text when there is some.
+ *
+ * Not thread safe, each view keeps its own.
+ */
+public final class TimeFormatter {
+    // hours take three digits past 99, Integer.MAX_VALUE ms is 596:31:23
+    private static final int MAX_LENGTH = 9;
+
+    private final char[] mChars = new char[MAX_LENGTH];
+    private int mLength = 0;
+    private int mSecond = -1;
+
+    /**
+     * Formats milliseconds, negative ones as 00:00:00. Returns false, leaving the text as it was,
+     * when they fall in the second already formatted.
+     */
+    public boolean format(int milliseconds) {
+        int second = milliseconds > 0 ? milliseconds / 1000 : 0;
+        if (second == mSecond) {
+            return false;
+        }
+        mSecond = second;
+
+        int hours = second / 3600;
+        int length = 0;
+        if (hours >= 100) {
+            mChars[length++] = (char) ('0' + hours / 100);
+        }
+        length = putTwoDigits(length, hours % 100);
+        mChars[length++] = ':';
+        length = putTwoDigits(length, second / 60 % 60);
+        mChars[length++] = ':';
+        mLength = putTwoDigits(length, second % 60);
+        return true;
+    }
+
+    /** Forgets the formatted second, so the next {@link #format} reports a change. */
+    public void reset() {
+        mSecond = -1;
+    }
+
+    /** The formatted text, valid for {@link #length} chars until the next {@link #format}. */
+    public char[] chars() {
+        return mChars;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+
+    private int putTwoDigits(int at, int value) {
+        mChars[at] = (char) ('0' + value / 10);
+        mChars[at + 1] = (char) ('0' + value % 10);
+        return at + 2;
+    }
+}
@@ -0,0 +1,103 @@
+package com.eevix;
+
+/**
+ * Aspect-fit of the video into its container, the rectangle the surface is sized to.
+ *
+ * Video and container sizes are fed in as they change; {@link #update} works out the target
+ * and only reports it when it differs from the one applied last, so a burst of layout passes or
+ * an adaptive stream switching between renditions of the same aspect ratio does not resize, and
+ * reallocate, the surface again. Main thread only.
+ */
+public final class VideoLayout {
+    private int mVideoWidth = 0;
+    private int mVideoHeight = 0;
+    private int mContainerWidth = 0;
+    private int mContainerHeight = 0;
+    private int mWidth = 0;     // applied target, 0x0 sizes the surface from its layout
+    private int mHeight = 0;
+    private boolean mApplied = false;
+    private int mResizes = 0;
+    private int mDeduped = 0;
+
+    public void setVideoSize(int width, int height) {
+        mVideoWidth = width;
+        mVideoHeight = height;
+    }
+
+    public void setContainerSize(int width, int height) {
+        mContainerWidth = width;
+        mContainerHeight = height;
+    }
+
+    /**
+     * Computes the target for the current sizes. Returns true, with the new target in
+     * {@link #width} and {@link #height}, when the surface has to be resized to it.
+     */
+    public boolean update() {
+        int width = 0;
+        int height = 0;
+        if (mVideoWidth > 0 && mVideoHeight > 0 && mContainerWidth > 0 && mContainerHeight > 0) {
+            if ((long) mVideoWidth * mContainerHeight > (long) mVideoHeight * mContainerWidth) {
+                // wider than the container, letterboxed
+                width = mContainerWidth;
+                height = scale(mContainerWidth, mVideoHeight, mVideoWidth);
+            } else {
+                // taller or the same ratio, pillarboxed
+                width = scale(mContainerHeight, mVideoWidth, mVideoHeight);
+                height = mContainerHeight;
+            }
+        }
+
+        if (mApplied && width == mWidth && height == mHeight) {
+            mDeduped++;
+            return false;
+        }
+        mWidth = width;
+        mHeight = height;
+        mApplied = true;
+        mResizes++;
+        return true;
+    }
+
+    /** Target width in pixels, 0 when the surface is sized from its layout. */
+    public int width() {
+        return mWidth;
+    }
+
+    public int height() {
+        return mHeight;
+    }
+
+    public boolean fromLayout() {
+        return mWidth == 0 || mHeight == 0;
+    }
+
+    /** Targets applied since {@link #reset}, each one a surface resize. */
+    public int resizes() {
+        return mResizes;
+    }
+
+    /** Updates that found the target unchanged. */
+    public int deduped() {
+        return mDeduped;
+    }
+
+    /** Starts a new session: counters cleared, the next update applies whatever it computes. */
+    public void reset() {
+        mApplied = false;
+        mResizes = 0;
+        mDeduped = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "video:" + mVideoWidth + "x" + mVideoHeight + ", container:" + mContainerWidth + "x" + mContainerHeight
+                + ", target:" + mWidth + "x" + mHeight + ", resizes:" + mResizes + ", deduped:" + mDeduped;
+    }
+
+    /** value * numerator / denominator rounded to the nearest pixel, at least 1. */
+    private static int scale(int value, int numerator, int denominator) {
+        long scaled = ((long) value * numerator + denominator / 2) / denominator;
+        return (int) Math.max(1, scaled);
+    }
+}
@@ -0,0 +1,54 @@
+package com.eevix;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BackendSelectorTest {
+    private static final int SESSIONS = 10000;
+
+    @Test
+    public void sessionsAreSplitByWeight() {
+        BackendSelector selector = new BackendSelector(new Random(1))
+                .add("mediaplayer", new FakeMediaBackend(null), 3)
+                .add("exoplayer", new FakeMediaBackend(null), 1);
+        int exo = 0;
+        for (int i = 0; i < SESSIONS; i++) {
+            if (selector.select().name.equals("exoplayer")) {
+                exo++;
+            }
+        }
+        assertEquals(SESSIONS / 4, exo, SESSIONS / 50);
+    }
+
+    @Test
+    public void forcedBackendOverridesTheWeights() {
+        BackendSelector selector = new BackendSelector(new Random(1))
+                .add("mediaplayer", new FakeMediaBackend(null), 1)
+                .add("exoplayer", new FakeMediaBackend(null), 0);
+        assertEquals("mediaplayer", selector.select().name);
+
+        selector.force("exoplayer");
+        assertEquals("exoplayer", selector.select().name);
+
+        // an unknown name falls back to the weights
+        selector.force("vlc");
+        assertEquals("mediaplayer", selector.select().name);
+        selector.force(null);
+        BackendSelector.Backend backend = selector.select();
+        assertEquals("mediaplayer", backend.name);
+        assertEquals(3, backend.sessions.get());
+    }
+
+    @Test
+    public void rebufferRatioIsStallTimePerPlayingTime() {
+        BackendSelector.Backend backend = BackendSelector.single("default", new FakeMediaBackend(null)).select();
+        assertEquals(0, backend.rebufferRatio());
+        backend.playing.addAndGet(60000000);
+        backend.rebuffer.record(1500000);
+        backend.rebuffer.record(1500000);
+        assertEquals(50, backend.rebufferRatio());
+    }
+}
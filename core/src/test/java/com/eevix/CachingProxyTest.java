@@ -0,0 +1,252 @@
+package com.eevix;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CachingProxyTest {
+    private static final int SEGMENT_SIZE = 4096;
+    private static final byte[] CONTENT = new byte[10 * SEGMENT_SIZE + 123];
+
+    private HttpServer mOrigin;
+    private ExecutorService mOriginExecutor;
+    private final Set<Integer> mRequestedSegments = Collections.synchronizedSet(new HashSet<Integer>());
+    private final CountDownLatch mGate = new CountDownLatch(1);
+    private File mDirectory;
+    private CachingProxy mProxy;
+
+    /**
+     * Stand-in origin serving CONTENT, honouring single byte ranges on /ranged and /gated only.
+     * /gated holds requests for segments 1 and 2 until mGate opens.
+     */
+    private class OriginHandler implements HttpHandler {
+        private final boolean mRanges;
+        private final boolean mGated;
+
+        OriginHandler(boolean ranges, boolean gated) {
+            mRanges = ranges;
+            mGated = gated;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int start = 0;
+            int end = CONTENT.length - 1;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (mRanges && range != null) {
+                long[] parsed = CachingProxy.parseRange(range, CONTENT.length);
+                start = (int) parsed[0];
+                end = (int) parsed[1];
+                int segment = start / SEGMENT_SIZE;
+                mRequestedSegments.add(segment);
+                if (mGated && (segment == 1 || segment == 2)) {
+                    try {
+                        mGate.await();
+                    } catch (InterruptedException exception) {
+                        throw new IOException(exception);
+                    }
+                }
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + CONTENT.length);
+            }
+            exchange.getResponseHeaders().add("Content-Type", "video/mp4");
+            exchange.sendResponseHeaders(range != null && mRanges ? 206 : 200, end - start + 1);
+            OutputStream body = exchange.getResponseBody();
+            body.write(CONTENT, start, end - start + 1);
+            body.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(7).nextBytes(CONTENT);
+        mOrigin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mOrigin.createContext("/ranged", new OriginHandler(true, false));
+        mOrigin.createContext("/plain", new OriginHandler(false, false));
+        mOrigin.createContext("/gated", new OriginHandler(true, true));
+        mOriginExecutor = Executors.newCachedThreadPool();
+        mOrigin.setExecutor(mOriginExecutor);
+        mOrigin.start();
+        mDirectory = Files.createTempDirectory("segments").toFile();
+        mProxy = new CachingProxy(mDirectory, 4 * SEGMENT_SIZE, SEGMENT_SIZE, 2);
+        mProxy.start();
+    }
+
+    @After
+    public void tearDown() {
+        mGate.countDown();
+        mProxy.stop();
+        mOrigin.stop(0);
+        mOriginExecutor.shutdownNow();
+    }
+
+    @Test
+    public void servesWholeAndRangedReads() throws IOException {
+        String url = mProxy.proxyUrl(origin("/ranged"));
+        assertNotEquals(origin("/ranged"), url);
+
+        assertArrayEquals(CONTENT, read(url, null, 200));
+        assertArrayEquals(Arrays.copyOfRange(CONTENT, 5000, 9001), read(url, "bytes=5000-9000", 206));
+        assertArrayEquals(Arrays.copyOfRange(CONTENT, CONTENT.length - 100, CONTENT.length), read(url, "bytes=-100", 206));
+        assertArrayEquals(Arrays.copyOfRange(CONTENT, 40000, CONTENT.length), read(url, "bytes=40000-", 206));
+    }
+
+    @Test
+    public void repeatedRangeIsServedFromCache() throws IOException {
+        String url = mProxy.proxyUrl(origin("/ranged"));
+        read(url, "bytes=100-200", 206);
+        awaitOriginBytes(3 * SEGMENT_SIZE); // the segment and its two read-ahead ones
+        double ratio = mProxy.hitRatio();
+        assertEquals(0, mProxy.bytesSaved());
+
+        assertArrayEquals(Arrays.copyOfRange(CONTENT, 100, 201), read(url, "bytes=100-200", 206));
+        assertEquals(3 * SEGMENT_SIZE, mProxy.originBytes());
+        assertTrue(mProxy.hitRatio() > ratio);
+        assertEquals(101, mProxy.bytesSaved());
+    }
+
+    @Test
+    public void cacheStaysWithinItsBound() throws IOException {
+        String url = mProxy.proxyUrl(origin("/ranged"));
+        assertArrayEquals(CONTENT, read(url, null, 200));
+
+        File[] files = mDirectory.listFiles();
+        assertTrue(files.length <= 4);
+        long bytes = 0;
+        for (File file : files) {
+            bytes += file.length();
+        }
+        assertTrue(bytes <= 4 * SEGMENT_SIZE);
+    }
+
+    @Test
+    public void seekTakesOverQueuedReadAheadAndDropsStaleOne() throws Exception {
+        mProxy.stop();
+        mProxy = new CachingProxy(mDirectory, 16 * SEGMENT_SIZE, SEGMENT_SIZE, 8);
+        mProxy.start();
+        String url = mProxy.proxyUrl(origin("/gated"));
+
+        // segments 1 and 2 hold both read-ahead threads, 3 to 8 stay queued behind them
+        read(url, "bytes=0-100", 206);
+        long at = 5 * SEGMENT_SIZE;
+        final String seek = "bytes=" + at + "-" + (at + 100);
+        final String proxied = url;
+        final byte[][] result = new byte[1][];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = read(proxied, seek, 206);
+                } catch (IOException exception) {
+                    // result stays null
+                }
+            }
+        });
+        reader.start();
+        reader.join(5000);
+        assertFalse("seek waited on the read-ahead queue", reader.isAlive());
+        assertArrayEquals(Arrays.copyOfRange(CONTENT, (int) at, (int) at + 101), result[0]);
+
+        // 3 and 4 fell behind the window of the seek, everything from 6 on is read ahead
+        mGate.countDown();
+        awaitOriginBytes(8 * SEGMENT_SIZE + CONTENT.length % SEGMENT_SIZE);
+        assertFalse(mRequestedSegments.contains(3));
+        assertFalse(mRequestedSegments.contains(4));
+    }
+
+    @Test
+    public void leastRecentlyUsedUrlsAreEvictedWithTheirSegments() throws IOException {
+        String first = mProxy.proxyUrl(origin("/ranged"));
+        read(first, "bytes=0-100", 206);
+        awaitOriginBytes(3 * SEGMENT_SIZE);
+        assertTrue(mDirectory.listFiles().length > 0);
+
+        String second = mProxy.proxyUrl(origin("/plain"));
+        for (int i = 0; i < CachingProxy.MAX_URLS - 1; i++) {
+            assertNotEquals(first, mProxy.proxyUrl(origin("/ranged?" + i)));
+        }
+        assertEquals(second, mProxy.proxyUrl(origin("/plain")));
+        HttpURLConnection connection = (HttpURLConnection) new URL(first).openConnection();
+        assertEquals(404, connection.getResponseCode());
+        connection.disconnect();
+        assertEquals(0, mDirectory.listFiles().length);
+        assertNotEquals(first, mProxy.proxyUrl(origin("/ranged")));
+    }
+
+    @Test
+    public void originWithoutRangesIsRelayed() throws IOException {
+        String url = mProxy.proxyUrl(origin("/plain"));
+        assertArrayEquals(CONTENT, read(url, null, 200));
+        assertEquals(0, mProxy.originBytes());
+        assertEquals(0, mDirectory.listFiles().length);
+    }
+
+    @Test
+    public void unsatisfiableRangeIsRejected() throws IOException {
+        String url = mProxy.proxyUrl(origin("/ranged"));
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestProperty("Range", "bytes=" + CONTENT.length + "-");
+        assertEquals(416, connection.getResponseCode());
+        connection.disconnect();
+    }
+
+    @Test
+    public void nonHttpUrlsAreNotProxied() {
+        assertEquals("/sdcard/movie.mp4", mProxy.proxyUrl("/sdcard/movie.mp4"));
+        assertEquals("http://host/live.m3u8?token=1", mProxy.proxyUrl("http://host/live.m3u8?token=1"));
+    }
+
+    private void awaitOriginBytes(long bytes) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mProxy.originBytes() < bytes && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertEquals(bytes, mProxy.originBytes());
+    }
+
+    private String origin(String path) {
+        return "http://127.0.0.1:" + mOrigin.getAddress().getPort() + path;
+    }
+
+    private static byte[] read(String url, String range, int expectedCode) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        assertEquals(expectedCode, connection.getResponseCode());
+        InputStream input = connection.getInputStream();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = input.read(buffer)) > 0) {
+            output.write(buffer, 0, count);
+        }
+        input.close();
+        connection.disconnect();
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,291 @@
+package com.eevix;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ControllerDispatcherTest {
+    private static final long TIMEOUT = 5000; // ms
+    private static final long REGISTRATION_TIMEOUT = 5000; // ms
+    private final ManualExecutor.Clock mClock = new ManualExecutor.Clock();
+    private final List<Integer> mExpired = new ArrayList<Integer>();
+
+    /** Controller whose setDataSource can be held to stand in for a slow cast start. */
+    private static class FakeController implements PlaybackController {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch entered = new CountDownLatch(1);
+        volatile boolean blockDataSource = false;
+        final AtomicInteger nextUrls = new AtomicInteger();
+        final AtomicInteger commands = new AtomicInteger();
+
+        @Override
+        public void setDataSource(String url) {
+            entered.countDown();
+            if (blockDataSource) {
+                try {
+                    release.await();
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void setNextDataSource(String url) {
+            nextUrls.incrementAndGet();
+        }
+
+        @Override
+        public void skipToNext() {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void start() {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void pause() {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void resume() {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void stop() {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void seek(int millisecond) {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void scrub(int millisecond) {
+            commands.incrementAndGet();
+        }
+
+        @Override
+        public void followPosition(int lease) {
+        }
+
+        @Override
+        public int getCurrentPosition() {
+            return 1000;
+        }
+
+        @Override
+        public int getDuration() {
+            return 60000;
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return true;
+        }
+
+        @Override
+        public int getState() {
+            return STATE_PLAYING;
+        }
+
+        @Override
+        public void setStateChangedListener(StateChangedListener listener) {
+        }
+
+        @Override
+        public void dump(PrintWriter writer) {
+        }
+    }
+
+    @Test
+    public void queriesAndUnbindDoNotWaitForASlowCastStart() throws Exception {
+        final ControllerDispatcher dispatcher = newDispatcher();
+        final FakeController slow = new FakeController();
+        slow.blockDataSource = true;
+        dispatcher.register(slow);
+
+        Thread caster = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.setDataSource("http://host/a.mp4");
+            }
+        });
+        caster.start();
+        assertTrue(slow.entered.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        int[] state = new int[3];
+        for (int i = 0; i < 100000; i++) {
+            dispatcher.getPlaybackState(state);
+        }
+        assertEquals(PlaybackController.STATE_PLAYING, state[0]);
+        assertEquals(1000, state[1]);
+        dispatcher.start();
+        dispatcher.seek(500);
+        assertTrue(dispatcher.reset(null));
+        dispatcher.getPlaybackState(state);
+        assertEquals(PlaybackController.STATE_IDLE, state[0]);
+
+        // all of the above ran while the cast start was still stuck
+        assertTrue(caster.isAlive());
+        slow.release.countDown();
+        caster.join(TIMEOUT);
+        assertFalse(caster.isAlive());
+    }
+
+    @Test
+    public void registrationCompletesTheColdStartBeforeItExpires() {
+        ControllerDispatcher dispatcher = newDispatcher();
+        ControllerDispatcher.Registration registration = new ControllerDispatcher.Registration(7);
+        assertNull(dispatcher.expectRegistration(registration));
+
+        mClock.advance(REGISTRATION_TIMEOUT - 1);
+        assertNull(dispatcher.register(null));
+        assertSame(registration, dispatcher.register(new FakeController()));
+        mClock.advance(REGISTRATION_TIMEOUT);
+        assertEquals(new ArrayList<Integer>(), mExpired);
+        assertFalse(dispatcher.expire(registration));
+    }
+
+    @Test
+    public void unregisteredColdStartExpiresOnTimeout() {
+        ControllerDispatcher dispatcher = newDispatcher();
+        dispatcher.expectRegistration(new ControllerDispatcher.Registration(7));
+
+        mClock.advance(REGISTRATION_TIMEOUT - 1);
+        assertEquals(new ArrayList<Integer>(), mExpired);
+        mClock.advance(1);
+        assertEquals(Arrays.asList(7), mExpired);
+        assertNull(dispatcher.register(new FakeController()));
+    }
+
+    @Test
+    public void supersededOrExpiredRegistrationIsNotCompleted() {
+        ControllerDispatcher dispatcher = newDispatcher();
+        ControllerDispatcher.Registration first = new ControllerDispatcher.Registration(1);
+        ControllerDispatcher.Registration second = new ControllerDispatcher.Registration(2);
+        ControllerDispatcher.Registration third = new ControllerDispatcher.Registration(3);
+        dispatcher.expectRegistration(first);
+        mClock.advance(1000);
+        assertSame(first, dispatcher.expectRegistration(second));
+        assertFalse(dispatcher.expire(first));
+
+        // the superseded one does not expire the one that replaced it
+        mClock.advance(REGISTRATION_TIMEOUT - 1000);
+        assertEquals(new ArrayList<Integer>(), mExpired);
+        mClock.advance(1000);
+        assertEquals(Arrays.asList(2), mExpired);
+        assertNull(dispatcher.register(new FakeController()));
+
+        // expired by the caller, the timeout finds nothing to report
+        dispatcher.expectRegistration(third);
+        assertTrue(dispatcher.expire(third));
+        mClock.advance(REGISTRATION_TIMEOUT);
+        assertEquals(Arrays.asList(2), mExpired);
+    }
+
+    @Test
+    public void nextUrlQueuedDuringRegistrationIsDeliveredOnce() throws Exception {
+        for (int i = 0; i < 2000; i++) {
+            final ControllerDispatcher dispatcher = newDispatcher();
+            final FakeController controller = new FakeController();
+            final CyclicBarrier barrier = new CyclicBarrier(2);
+            Thread registrar = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(barrier);
+                    dispatcher.register(controller);
+                }
+            });
+            registrar.start();
+            await(barrier);
+            dispatcher.setNextDataSource("http://host/next.mp4");
+            registrar.join(TIMEOUT);
+            assertEquals(1, controller.nextUrls.get());
+        }
+    }
+
+    @Test
+    public void concurrentCommandsQueriesAndUnbindComplete() throws Exception {
+        final ControllerDispatcher dispatcher = newDispatcher();
+        final FakeController warm = new FakeController();
+        final FakeController activity = new FakeController();
+        dispatcher.register(warm);
+
+        final int threads = 6;
+        final int iterations = 20000;
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int role = t % 3;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        await(barrier);
+                        int[] state = new int[3];
+                        for (int i = 0; i < iterations; i++) {
+                            if (role == 0) {
+                                dispatcher.start();
+                                dispatcher.seek(i);
+                                dispatcher.pause();
+                            } else if (role == 1) {
+                                dispatcher.getPlaybackState(state);
+                                assertTrue(state[0] == PlaybackController.STATE_IDLE || state[0] == PlaybackController.STATE_PLAYING);
+                            } else if (i % 2 == 0) {
+                                dispatcher.register(activity);
+                            } else {
+                                dispatcher.reset(warm);
+                            }
+                        }
+                    } catch (Throwable throwable) {
+                        failure.compareAndSet(null, throwable);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        for (Thread worker : workers) {
+            worker.join(TIMEOUT);
+            assertFalse("worker blocked", worker.isAlive());
+        }
+        assertNull(failure.get());
+        assertEquals(2 * iterations * 3, warm.commands.get() + activity.commands.get());
+    }
+
+    private ControllerDispatcher newDispatcher() {
+        return new ControllerDispatcher(new ManualExecutor(mClock), REGISTRATION_TIMEOUT,
+                                        new ControllerDispatcher.ExpiryListener() {
+            @Override
+            public void onExpired(ControllerDispatcher.Registration registration) {
+                mExpired.add(registration.token);
+            }
+        });
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (Exception exception) {
+            throw new AssertionError(exception);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.eevix;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link MediaBackend} that plays nothing but keeps to the MediaPlayer state machine.
+ *
+ * A call MediaPlayer would reject throws IllegalStateException and is recorded, so a test can
+ * check {@link #violations} even where the engine catches the exception. Events are delivered
+ * from inside the call that causes them; with holdPrepare set, players stay preparing until the
+ * test calls {@link FakePlayer#finishPrepare}. Urls starting with "fail:" cannot be opened, and
+ * {@link FakePlayer#fail} fails playback the way a decode or network error does.
+ */
+final class FakeMediaBackend implements MediaBackend {
+    static final int DURATION = 60000; // ms
+    static final int VIDEO_WIDTH = 1920;
+    static final int VIDEO_HEIGHT = 1080;
+
+    enum State {
+        IDLE, INITIALIZED, PREPARING, PREPARED, STARTED, PAUSED, STOPPED, COMPLETED, ERROR, RELEASED
+    }
+
+    private final ManualExecutor.Clock mClock; // null for wall time
+    private final List<FakePlayer> mPlayers = Collections.synchronizedList(new ArrayList<FakePlayer>());
+    private final List<String> mViolations = Collections.synchronizedList(new ArrayList<String>());
+    private volatile boolean mHoldPrepare = false;
+    private volatile boolean mReleased = false;
+
+    FakeMediaBackend(ManualExecutor.Clock clock) {
+        mClock = clock;
+    }
+
+    @Override
+    public Player createPlayer(Listener listener) {
+        FakePlayer player = new FakePlayer(listener);
+        mPlayers.add(player);
+        return player;
+    }
+
+    @Override
+    public void release() {
+        mReleased = true;
+    }
+
+    boolean released() {
+        return mReleased;
+    }
+
+    void setHoldPrepare(boolean hold) {
+        mHoldPrepare = hold;
+    }
+
+    List<FakePlayer> players() {
+        synchronized (mPlayers) {
+            return new ArrayList<FakePlayer>(mPlayers);
+        }
+    }
+
+    FakePlayer lastPlayer() {
+        synchronized (mPlayers) {
+            return mPlayers.isEmpty() ? null : mPlayers.get(mPlayers.size() - 1);
+        }
+    }
+
+    /** The players not released yet. */
+    int live() {
+        int live = 0;
+        for (FakePlayer player : players()) {
+            if (player.state() != State.RELEASED) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    List<String> violations() {
+        synchronized (mViolations) {
+            return new ArrayList<String>(mViolations);
+        }
+    }
+
+    private long now() {
+        return mClock != null ? mClock.now() : System.nanoTime() / 1000000;
+    }
+
+    final class FakePlayer implements Player {
+        private final Listener mListener;
+        private volatile State mState = State.IDLE;
+        private String mUrl = null;
+        private Object mDisplay = null;
+        private FakePlayer mNext = null;
+        private int mPosition = 0;      // ms, when paused or at mStartedAt
+        private long mStartedAt = 0;    // ms on the clock
+
+        FakePlayer(Listener listener) {
+            mListener = listener;
+        }
+
+        State state() {
+            return mState;
+        }
+
+        String url() {
+            return mUrl;
+        }
+
+        Object display() {
+            return mDisplay;
+        }
+
+        /** Ends the preparation held by holdPrepare. */
+        void finishPrepare() {
+            require("finishPrepare", State.PREPARING);
+            mState = State.PREPARED;
+            mListener.onVideoSizeChanged(this, VIDEO_WIDTH, VIDEO_HEIGHT);
+            mListener.onPrepared(this);
+        }
+
+        /** Plays to the end, starting the next player chained with setNextPlayer. */
+        void complete() {
+            require("complete", State.STARTED);
+            mPosition = DURATION;
+            mState = State.COMPLETED;
+            if (mNext != null && mNext.mState == State.PREPARED) {
+                mNext.start();
+            }
+            mListener.onCompletion(this);
+        }
+
+        /** Fails playback: the player goes to ERROR, where only release() is allowed. */
+        void fail() {
+            require("fail", State.PREPARING, State.PREPARED, State.STARTED, State.PAUSED, State.COMPLETED);
+            mPosition = getCurrentPosition();
+            mState = State.ERROR;
+            mListener.onError(this);
+        }
+
+        @Override
+        public void setDataSource(String url) throws IOException {
+            require("setDataSource", State.IDLE);
+            if (url == null || url.startsWith("fail:")) {
+                throw new IOException("cannot open " + url);
+            }
+            mUrl = url;
+            mState = State.INITIALIZED;
+        }
+
+        @Override
+        public void setDisplay(Object display) {
+            requireNotReleased("setDisplay");
+            mDisplay = display;
+        }
+
+        @Override
+        public void prepareAsync() {
+            require("prepareAsync", State.INITIALIZED, State.STOPPED);
+            mState = State.PREPARING;
+            if (!mHoldPrepare) {
+                finishPrepare();
+            }
+        }
+
+        @Override
+        public void start() {
+            require("start", State.PREPARED, State.STARTED, State.PAUSED, State.COMPLETED);
+            if (mState == State.COMPLETED) {
+                mPosition = 0;
+            } else if (mState == State.STARTED) {
+                return;
+            }
+            mStartedAt = now();
+            mState = State.STARTED;
+        }
+
+        @Override
+        public void pause() {
+            require("pause", State.STARTED, State.PAUSED, State.COMPLETED);
+            if (mState == State.STARTED) {
+                mPosition = getCurrentPosition();
+                mState = State.PAUSED;
+            }
+        }
+
+        @Override
+        public void stop() {
+            require("stop", State.PREPARING, State.PREPARED, State.STARTED, State.PAUSED, State.STOPPED, State.COMPLETED);
+            mPosition = getCurrentPosition();
+            mState = State.STOPPED;
+        }
+
+        @Override
+        public void release() {
+            mState = State.RELEASED;
+            mNext = null;
+        }
+
+        @Override
+        public void seekTo(int millisecond) {
+            require("seekTo", State.PREPARED, State.STARTED, State.PAUSED, State.COMPLETED);
+            mPosition = Math.max(0, Math.min(millisecond, DURATION));
+            mStartedAt = now();
+            mListener.onSeekComplete(this);
+        }
+
+        @Override
+        public void seekToSync(int millisecond) {
+            // a sync frame every second
+            seekTo(millisecond / 1000 * 1000);
+        }
+
+        @Override
+        public void setNextPlayer(Player next) {
+            requireNotReleased("setNextPlayer");
+            FakePlayer player = (FakePlayer) next;
+            if (player != null && (player == this || player.mState != State.PREPARED)) {
+                violation("setNextPlayer", player.mState);
+            }
+            mNext = player;
+        }
+
+        @Override
+        public boolean isPlaying() {
+            requireNotReleased("isPlaying");
+            return mState == State.STARTED;
+        }
+
+        @Override
+        public int getCurrentPosition() {
+            requireNotReleased("getCurrentPosition");
+            if (mState != State.STARTED) {
+                return mPosition;
+            }
+            return (int) Math.min(DURATION, mPosition + now() - mStartedAt);
+        }
+
+        @Override
+        public int getDuration() {
+            require("getDuration", State.PREPARED, State.STARTED, State.PAUSED, State.STOPPED, State.COMPLETED);
+            return DURATION;
+        }
+
+        @Override
+        public int getVideoWidth() {
+            requireNotReleased("getVideoWidth");
+            return VIDEO_WIDTH;
+        }
+
+        @Override
+        public int getVideoHeight() {
+            requireNotReleased("getVideoHeight");
+            return VIDEO_HEIGHT;
+        }
+
+        private void require(String call, State... states) {
+            for (State state : states) {
+                if (mState == state) {
+                    return;
+                }
+            }
+            violation(call, mState);
+        }
+
+        private void requireNotReleased(String call) {
+            if (mState == State.RELEASED) {
+                violation(call, mState);
+            }
+        }
+
+        private void violation(String call, State state) {
+            String violation = call + " in " + state + " (" + mUrl + ")";
+            mViolations.add(violation);
+            throw new IllegalStateException(violation);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.eevix;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FirstFrameTraceTest {
+    @Test
+    public void hopsOutsideATraceAreIgnored() {
+        FirstFrameTrace trace = new FirstFrameTrace();
+        trace.mark(FirstFrameTrace.HOP_PREPARED);
+        assertEquals(-1, trace.elapsedMillis(FirstFrameTrace.HOP_PREPARED));
+        assertEquals("none", trace.lastResult());
+    }
+
+    @Test
+    public void firstFrameCompletesTheBreakdown() throws InterruptedException {
+        FirstFrameTrace trace = new FirstFrameTrace();
+        trace.begin(true);
+        trace.mark(FirstFrameTrace.HOP_DATA_SOURCE);
+        Thread.sleep(20);
+        trace.mark(FirstFrameTrace.HOP_PREPARED);
+        trace.mark(FirstFrameTrace.HOP_PREPARED); // only the first time a hop is reached counts
+        trace.mark(FirstFrameTrace.HOP_FIRST_FRAME);
+
+        assertTrue(trace.elapsedMillis(FirstFrameTrace.HOP_PREPARED) >= 20);
+        assertEquals(-1, trace.elapsedMillis(FirstFrameTrace.HOP_ACTIVITY_CREATED));
+        String result = trace.lastResult();
+        assertTrue(result, result.startsWith("warm, activity:-, controller:-, dataSource:"));
+        assertTrue(result, result.contains("firstFrame:"));
+
+        long prepared = trace.elapsedMillis(FirstFrameTrace.HOP_PREPARED);
+        Thread.sleep(5);
+        trace.mark(FirstFrameTrace.HOP_SURFACE_ATTACHED); // after the first frame
+        assertEquals(-1, trace.elapsedMillis(FirstFrameTrace.HOP_SURFACE_ATTACHED));
+        assertEquals(prepared, trace.elapsedMillis(FirstFrameTrace.HOP_PREPARED));
+    }
+}
@@ -0,0 +1,90 @@
+package com.eevix;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void smallValuesAreExact() {
+        for (long value = 0; value < LatencyHistogram.SUB_BUCKETS; value++) {
+            assertEquals(value, LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(value)));
+        }
+    }
+
+    @Test
+    public void bucketsBoundTheRelativeError() {
+        for (long value = 1; value < (1L << 40); value = value * 3 + 1) {
+            long bound = LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(value));
+            assertTrue(bound >= value);
+            assertTrue(bound - value <= value / LatencyHistogram.SUB_BUCKETS);
+        }
+        assertTrue(LatencyHistogram.bucketOf(Long.MAX_VALUE) < LatencyHistogram.BUCKETS);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentilesOfAUniformRange() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(50));
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(1000, histogram.count());
+        assertEquals(1000, histogram.max());
+        assertEquals(500, histogram.mean());
+        assertEquals(500, histogram.percentile(50), 500 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(990, histogram.percentile(99), 990 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1000, histogram.percentile(100));
+        assertTrue(histogram.format("us").startsWith("count:1000 mean:500us p50:"));
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int factor = t + 1;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (long i = 0; i < 100000; i++) {
+                        histogram.record(i * factor);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(400000, histogram.count());
+        assertEquals(99999L * 4, histogram.max());
+    }
+
+    @Test
+    public void dumpHasOneLinePerStage() {
+        PlaybackMetrics metrics = new PlaybackMetrics(new String[] {"START", "PAUSE"});
+        metrics.prepare.record(1500);
+        metrics.countMessage(0);
+        metrics.countMessage(0);
+        metrics.countMessage(1);
+        metrics.countMessage(7); // unknown messages are ignored
+
+        StringWriter out = new StringWriter();
+        metrics.dump(new PrintWriter(out, true), "  ");
+        String dump = out.toString();
+        assertTrue(dump.contains("  java.prepare: count:1 mean:1500us"));
+        assertTrue(dump.contains("  java.seek: count:0"));
+        assertTrue(dump.contains("  java.messages: START:2 PAUSE:1"));
+        assertEquals(2, metrics.messageCount(0));
+    }
+}
@@ -0,0 +1,68 @@
+package com.eevix;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+
+public class LoggerTest {
+    private static final int COMMANDS = 100000;
+    private static final String URL = "http://192.168.1.10:8200/MediaItems/1234.mkv";
+
+    @Test
+    public void placeholdersAreFilledInOrder() {
+        assertEquals("seek:1500", Logger.format("seek:{}", 1500, null, null));
+        assertEquals("state:2, position:0, duration:60000",
+                Logger.format("state:{}, position:{}, duration:{}", 2, 0, 60000));
+        assertEquals("setDuration:10ms", Logger.format("setDuration:{}ms", 10, null, null));
+        assertEquals("no placeholder", Logger.format("no placeholder", 1, 2, 3));
+        assertEquals("url:null", Logger.format("url:{}", null, null, null));
+    }
+
+    @Test
+    public void levelsAreKeptPerTag() {
+        Logger first = Logger.get("LoggerTestFirst");
+        Logger second = Logger.get("LoggerTestSecond");
+        assertSame(first, Logger.get("LoggerTestFirst"));
+
+        assertTrue(Logger.setLevel("LoggerTestFirst", Logger.ERROR));
+        assertEquals(Logger.ERROR, first.level());
+        assertNotEquals(Logger.ERROR, second.level());
+        assertFalse(first.isDebugEnabled());
+        assertFalse(Logger.setLevel("LoggerTestUnknown", Logger.DEBUG));
+
+        assertEquals(Logger.VERBOSE, Logger.parseLevel("verbose"));
+        assertEquals(Logger.SILENT, Logger.parseLevel("SILENT"));
+        assertEquals(-1, Logger.parseLevel("LOUD"));
+        assertEquals("WARN", Logger.levelName(Logger.WARN));
+    }
+
+    @Test
+    public void disabledCallsDoNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+        Logger logger = Logger.get("LoggerTestDisabled");
+        Logger.setLevel("LoggerTestDisabled", Logger.INFO);
+        long threadId = Thread.currentThread().getId();
+
+        // warm up, then count the allocations of a second pass
+        long allocated = 0;
+        for (int round = 0; round < 2; round++) {
+            long start = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < COMMANDS; i++) {
+                logger.d("seek:{}", i);
+                logger.d("setDataSource url:{}, token:{}", URL, i);
+                logger.v("state:{}, position:{}, duration:{}", 2, i, 60000);
+            }
+            allocated = threads.getThreadAllocatedBytes(threadId) - start;
+        }
+
+        assertTrue(allocated < COMMANDS); // under a byte per command, counter noise only
+    }
+}
@@ -0,0 +1,164 @@
+package com.eevix;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * {@link SerialExecutor} stepped by the test on a virtual clock, no thread behind it.
+ *
+ * Executors sharing a {@link Clock} run in the order their messages fall due, as the player
+ * thread and the main thread would.
+ */
+final class ManualExecutor implements SerialExecutor {
+    private static final int MAX_STEPS = 1000000; // a message loop that never settles
+    private final Clock mClock;
+    private final List<Entry> mQueue = new ArrayList<Entry>();
+    private Target mTarget = null;
+    private boolean mQuitting = false;
+
+    static final class Clock {
+        private final List<ManualExecutor> mExecutors = new ArrayList<ManualExecutor>();
+        private long mNow = 0;
+        private long mSequence = 0;
+
+        long now() {
+            return mNow;
+        }
+
+        /** Runs every message due now, including the ones they send. */
+        void runUntilIdle() {
+            runUntil(mNow);
+        }
+
+        /** Moves the clock ms ahead, running every message due on the way. */
+        void advance(long ms) {
+            runUntil(mNow + ms);
+        }
+
+        private void runUntil(long time) {
+            for (int step = 0; step < MAX_STEPS; step++) {
+                ManualExecutor next = null;
+                Entry entry = null;
+                for (ManualExecutor executor : mExecutors) {
+                    Entry head = executor.head();
+                    if (head != null && head.when <= time && (entry == null || head.compareTo(entry) < 0)) {
+                        next = executor;
+                        entry = head;
+                    }
+                }
+                if (next == null) {
+                    mNow = time;
+                    return;
+                }
+                mNow = Math.max(mNow, entry.when);
+                next.run(entry);
+            }
+            throw new IllegalStateException("messages still pending after " + MAX_STEPS + " steps");
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final int what;
+        final int arg1;
+        final int arg2;
+        final Object obj;
+        final long when;
+        final long sequence;
+
+        Entry(int what, int arg1, int arg2, Object obj, long when, long sequence) {
+            this.what = what;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+            this.obj = obj;
+            this.when = when;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (when != other.when) {
+                return when < other.when ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    ManualExecutor(Clock clock) {
+        mClock = clock;
+        clock.mExecutors.add(this);
+    }
+
+    @Override
+    public void setTarget(Target target) {
+        mTarget = target;
+    }
+
+    @Override
+    public void send(int what, int arg1, int arg2, Object obj) {
+        enqueue(what, arg1, arg2, obj, 0);
+    }
+
+    @Override
+    public void sendDelayed(int what, long delay) {
+        enqueue(what, 0, 0, null, delay);
+    }
+
+    @Override
+    public boolean hasMessages(int what) {
+        for (Entry entry : mQueue) {
+            if (entry.what == what) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void removeMessages(int what) {
+        Iterator<Entry> iterator = mQueue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().what == what) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void quit() {
+        mQuitting = true;
+        Iterator<Entry> iterator = mQueue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().when > mClock.mNow) {
+                iterator.remove();
+            }
+        }
+    }
+
+    int pending() {
+        return mQueue.size();
+    }
+
+    private void enqueue(int what, int arg1, int arg2, Object obj, long delay) {
+        if (mQuitting) {
+            return;
+        }
+        Entry entry = new Entry(what, arg1, arg2, obj, mClock.mNow + delay, mClock.mSequence++);
+        int index = mQueue.size();
+        while (index > 0 && mQueue.get(index - 1).compareTo(entry) > 0) {
+            index--;
+        }
+        mQueue.add(index, entry);
+    }
+
+    private Entry head() {
+        return mQueue.isEmpty() ? null : mQueue.get(0);
+    }
+
+    private void run(Entry entry) {
+        mQueue.remove(0);
+        if (mTarget != null) {
+            mTarget.handleMessage(entry.what, entry.arg1, entry.arg2, entry.obj, mClock.mNow - entry.when);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.eevix;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MessageReplyTest {
+    @Test
+    public void replyIsHandedToTheWaiter() throws InterruptedException {
+        final MessageReply<Integer> reply = new MessageReply<Integer>();
+        Thread player = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reply.setData(1500);
+                reply.notifyReply();
+            }
+        });
+        player.start();
+        reply.waitReply();
+        assertEquals(Integer.valueOf(1500), reply.getData());
+        player.join();
+    }
+}
@@ -0,0 +1,121 @@
+package com.eevix;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PlaybackSnapshotTest {
+    private static final int QUERIES = 100000;
+
+    @Test
+    public void positionIsExtrapolatedOnlyWhilePlaying() {
+        PlaybackSnapshot playing = new PlaybackSnapshot(1, PlaybackController.STATE_PLAYING, 1000, 10000, 0, 0, 500);
+        assertEquals(1000, playing.positionAt(500));
+        assertEquals(1250, playing.positionAt(750));
+        assertEquals(1000, playing.positionAt(400));
+        assertEquals(10000, playing.positionAt(50000));
+
+        PlaybackSnapshot paused = new PlaybackSnapshot(2, PlaybackController.STATE_PAUSED, 1000, 10000, 0, 0, 500);
+        assertEquals(1000, paused.positionAt(750));
+    }
+
+    @Test
+    public void publishReplacesSnapshotWithNewerVersion() {
+        PlaybackSnapshotHolder holder = new PlaybackSnapshotHolder();
+        assertSame(PlaybackSnapshot.IDLE, holder.get());
+        assertFalse(holder.isPlaying());
+
+        PlaybackSnapshot first = holder.publish(PlaybackController.STATE_PLAYING, 0, 60000, 1920, 1080);
+        PlaybackSnapshot second = holder.publish(PlaybackController.STATE_PAUSED, 3000, 60000, 1920, 1080);
+
+        assertTrue(second.version > first.version);
+        assertSame(second, holder.get());
+        assertEquals(PlaybackController.STATE_PAUSED, holder.getState());
+        assertEquals(3000, holder.getCurrentPosition());
+        assertEquals(60000, holder.getDuration());
+    }
+
+    @Test
+    public void queriesDoNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        PlaybackSnapshotHolder holder = new PlaybackSnapshotHolder();
+        holder.publish(PlaybackController.STATE_PLAYING, 0, Integer.MAX_VALUE, 1920, 1080);
+        long threadId = Thread.currentThread().getId();
+
+        long sink = query(holder, QUERIES); // warm up
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        sink += query(holder, QUERIES);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(sink != 0);
+        assertTrue("allocated " + allocated + " bytes for " + QUERIES + " queries", allocated < QUERIES);
+    }
+
+    @Test
+    public void queriesDoNotWaitForBlockedPlayerThread() throws InterruptedException {
+        final PlaybackSnapshotHolder holder = new PlaybackSnapshotHolder();
+        final CountDownLatch published = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch answered = new CountDownLatch(1);
+        final long[] sum = new long[1];
+
+        Thread playerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                holder.publish(PlaybackController.STATE_PLAYING, 0, 60000, 1920, 1080);
+                // parked in a slow prepareAsync/seekTo/stop, holding what a locked holder would take
+                synchronized (holder) {
+                    published.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException exception) {
+                        // Empty
+                    }
+                }
+            }
+        }, "playerThread");
+        Thread queryThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sum[0] = query(holder, QUERIES);
+                answered.countDown();
+            }
+        }, "queryThread");
+
+        try {
+            playerThread.start();
+            assertTrue(published.await(5, TimeUnit.SECONDS));
+            queryThread.start();
+
+            // every query is answered while the player thread is still parked
+            assertTrue(answered.await(30, TimeUnit.SECONDS));
+            assertEquals(1, release.getCount());
+            assertTrue(playerThread.isAlive());
+            assertTrue(sum[0] > 0);
+            assertTrue(holder.isPlaying());
+            assertEquals(60000, holder.getDuration());
+        } finally {
+            release.countDown();
+            playerThread.join();
+            queryThread.join();
+        }
+    }
+
+    private static long query(PlaybackSnapshotHolder holder, int count) {
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += holder.getCurrentPosition() + holder.getDuration() + holder.getState() + (holder.isPlaying() ? 1 : 0);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,145 @@
+package com.eevix;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Random command sequences against the engine, the way a control point and the Activity drive it
+ * over many sessions. Every session has to end with all players released and no call MediaPlayer
+ * would have rejected.
+ */
+public class PlayerEngineSimulationTest {
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final int SESSIONS = 5000;
+    private static final int COMMANDS = 40;
+    private static final int THREADS = 4;
+
+    @BeforeClass
+    public static void silenceEngine() {
+        Logger.get("PlayerEngine");
+        Logger.setLevel("PlayerEngine", Logger.SILENT);
+    }
+
+    private static ResumePositionStore newStore() throws IOException {
+        return new ResumePositionStore(new File(Files.createTempDirectory("simulation").toFile(), "positions"), 100, DAY);
+    }
+
+    private static String url(Random random) {
+        int item = random.nextInt(20);
+        return (item == 0 ? "fail:" : "http://192.168.1.10:8200/MediaItems/") + item + ".mkv";
+    }
+
+    /** One random command, as a control point or the Activity would send it. */
+    private static void command(PlayerEngine engine, Random random, Object display) {
+        switch (random.nextInt(12)) {
+            case 0: engine.setDataSource(url(random)); break;
+            case 1: engine.setNextDataSource(random.nextInt(4) == 0 ? null : url(random)); break;
+            case 2: engine.skipToNext(); break;
+            case 3: engine.start(); break;
+            case 4: engine.pause(); break;
+            case 5: engine.resume(); break;
+            case 6: engine.stop(); break;
+            case 7: engine.seek(random.nextInt(FakeMediaBackend.DURATION + 10000)); break;
+            case 8: engine.setDisplay(random.nextBoolean() ? display : null); break;
+            case 9: engine.requestProgress(); break;
+            case 10: engine.scrub(random.nextInt(FakeMediaBackend.DURATION + 10000)); break;
+            default: engine.getCurrentPosition(); break;
+        }
+    }
+
+    @Test
+    public void randomSessionsReleaseEveryPlayer() throws IOException {
+        Random random = new Random(20190516);
+        ResumePositionStore resumePositions = newStore();
+        Object display = new Object();
+        long start = System.nanoTime();
+
+        for (int session = 0; session < SESSIONS; session++) {
+            ManualExecutor.Clock clock = new ManualExecutor.Clock();
+            FakeMediaBackend backend = new FakeMediaBackend(clock);
+            backend.setHoldPrepare(random.nextInt(4) == 0);
+            PlayerEngine engine = new PlayerEngine(backend, new ManualExecutor(clock), new ManualExecutor(clock),
+                                                   null, resumePositions);
+            engine.setDataSource(url(random));
+            for (int i = 0; i < COMMANDS; i++) {
+                command(engine, random, display);
+                switch (random.nextInt(6)) {
+                    case 0: {
+                        clock.advance(random.nextInt(20000));
+                        break;
+                    }
+                    case 1: {
+                        // player events racing the commands
+                        FakeMediaBackend.FakePlayer player = backend.lastPlayer();
+                        if (player != null && player.state() == FakeMediaBackend.State.PREPARING) {
+                            player.finishPrepare();
+                        } else if (player != null && player.state() == FakeMediaBackend.State.STARTED) {
+                            player.complete();
+                        }
+                        break;
+                    }
+                    case 2: {
+                        break; // leave it queued for the next command to supersede
+                    }
+                    default: {
+                        clock.runUntilIdle();
+                        break;
+                    }
+                }
+            }
+            engine.release();
+            clock.runUntilIdle();
+
+            assertEquals("session " + session, new ArrayList<String>(), backend.violations());
+            assertEquals("session " + session, 0, backend.live());
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("PlayerEngineSimulationTest: %d sessions in %.2fs, %.0f sessions/s",
+                                         SESSIONS, seconds, SESSIONS / seconds));
+    }
+
+    @Test
+    public void concurrentCallersOnRealThreads() throws Exception {
+        final FakeMediaBackend backend = new FakeMediaBackend(null);
+        ThreadExecutor player = new ThreadExecutor("player");
+        ThreadExecutor main = new ThreadExecutor("main");
+        final PlayerEngine engine = new PlayerEngine(backend, player, main, null, newStore());
+        final Object display = new Object();
+
+        Thread[] callers = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int seed = i;
+            callers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int command = 0; command < 2000; command++) {
+                        command(engine, random, display);
+                    }
+                }
+            }, "caller" + i);
+            callers[i].start();
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+
+        engine.release();
+        assertTrue(player.awaitTermination(10000));
+        main.quit();
+        assertTrue(main.awaitTermination(10000));
+        assertNull(player.failure());
+        assertNull(main.failure());
+        assertEquals(new ArrayList<String>(), backend.violations());
+        assertEquals(0, backend.live());
+    }
+}
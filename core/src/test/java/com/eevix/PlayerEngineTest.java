@@ -0,0 +1,511 @@
+package com.eevix;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PlayerEngineTest {
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final String URL = "http://192.168.1.10:8200/MediaItems/1234.mkv";
+    private static final String NEXT_URL = "http://192.168.1.10:8200/MediaItems/1235.mkv";
+    private final ManualExecutor.Clock mClock = new ManualExecutor.Clock();
+    private final FakeMediaBackend mBackend = new FakeMediaBackend(mClock);
+    private final RecordingListener mListener = new RecordingListener();
+    private final List<String> mTracks = new ArrayList<String>();
+    private final ManualExecutor mPlayerExecutor = new ManualExecutor(mClock);
+    private ResumePositionStore mResumePositions;
+    private PlayerEngine mEngine;
+
+    private static class RecordingListener implements PlayerEngine.Listener {
+        final List<String> events = new ArrayList<String>();
+        final List<Integer> positions = new ArrayList<Integer>();
+        int position = -1;
+
+        @Override
+        public void onStarted(int duration) {
+            events.add("started:" + duration);
+        }
+
+        @Override
+        public void onPaused() {
+            events.add("paused");
+        }
+
+        @Override
+        public void onStopped() {
+            events.add("stopped");
+        }
+
+        @Override
+        public void onProgress(int position) {
+            this.position = position;
+            positions.add(position);
+        }
+
+        @Override
+        public void onVideoSizeChanged(int width, int height) {
+            events.add("size:" + width + "x" + height);
+        }
+    }
+
+    @BeforeClass
+    public static void silenceEngine() {
+        Logger.get("PlayerEngine");
+        Logger.setLevel("PlayerEngine", Logger.SILENT);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        File file = new File(Files.createTempDirectory("engine").toFile(), "positions");
+        mResumePositions = new ResumePositionStore(file, 100, DAY);
+        mEngine = new PlayerEngine(mBackend, mPlayerExecutor, new ManualExecutor(mClock), null, mResumePositions);
+        mEngine.setListener(mListener);
+        mEngine.setStateChangedListener(new PlaybackController.StateChangedListener() {
+            @Override
+            public void onStateChanged(int state, int position, int duration) {
+            }
+
+            @Override
+            public void onTrackChanged(String url) {
+                mTracks.add(url);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.release();
+        mClock.runUntilIdle();
+        assertEquals(0, mBackend.live());
+        assertEquals(new ArrayList<String>(), mBackend.violations());
+    }
+
+    @Test
+    public void dataSourcePlaysOncePrepared() {
+        Object display = new Object();
+        mEngine.setDisplay(display);
+        mBackend.setHoldPrepare(true);
+        mEngine.setDataSource(URL);
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_PREPARING, mEngine.getState());
+        assertSame(display, mBackend.lastPlayer().display());
+
+        mBackend.lastPlayer().finishPrepare();
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_PLAYING, mEngine.getState());
+        assertEquals(FakeMediaBackend.DURATION, mEngine.getDuration());
+        assertEquals(FakeMediaBackend.State.STARTED, mBackend.lastPlayer().state());
+        assertTrue(mListener.events.contains("started:" + FakeMediaBackend.DURATION));
+        assertTrue(mListener.events.contains("size:1920x1080"));
+
+        mEngine.requestProgress();
+        mClock.advance(2000);
+        assertEquals(1000 + ProgressScheduler.SECOND_MARGIN, mListener.position);
+        assertEquals(2000, mBackend.lastPlayer().getCurrentPosition());
+    }
+
+    @Test
+    public void positionIsOnlyPublishedWhileFollowed() {
+        mEngine.setDataSource(URL);
+        mClock.runUntilIdle();
+        assertEquals(0, mPlayerExecutor.pending());
+        mClock.advance(10000);
+        assertTrue(mListener.positions.isEmpty());
+
+        // a visible progress bar gets the position now, then as each second turns over
+        mEngine.requestProgress();
+        mClock.advance(3100);
+        assertEquals(4, mListener.positions.size());
+        for (int i = 1; i < mListener.positions.size(); i++) {
+            assertEquals(ProgressScheduler.SECOND_MARGIN, mListener.positions.get(i) % 1000);
+        }
+
+        mEngine.cancelProgress();
+        mClock.runUntilIdle();
+        assertEquals(0, mPlayerExecutor.pending());
+
+        // a control point following the position keeps a slower tick while its lease runs
+        mEngine.followPosition(60000);
+        mClock.runUntilIdle();
+        assertEquals(1, mPlayerExecutor.pending());
+        mEngine.pause();
+        mClock.runUntilIdle();
+        assertEquals(0, mPlayerExecutor.pending());
+    }
+
+    @Test
+    public void pauseSeekAndResume() {
+        mEngine.setDataSource(URL);
+        mClock.runUntilIdle();
+        mEngine.pause();
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_PAUSED, mEngine.getState());
+        assertTrue(mListener.events.contains("paused"));
+
+        // a seek while paused resumes playback once it completes
+        mEngine.seek(30000);
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_PLAYING, mEngine.getState());
+        mClock.advance(1000);
+        assertEquals(31000, mBackend.lastPlayer().getCurrentPosition());
+
+        mEngine.stop();
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_IDLE, mEngine.getState());
+        assertEquals("stopped", mListener.events.get(mListener.events.size() - 1));
+    }
+
+    @Test
+    public void scrubbingSeeksToSyncFramesAndSeekCommits() {
+        mEngine.setDataSource(URL);
+        mClock.runUntilIdle();
+        mEngine.pause();
+        mClock.runUntilIdle();
+
+        // a scrub lands on the sync frame before its target and does not resume playback
+        mEngine.scrub(12345);
+        mClock.runUntilIdle();
+        assertEquals(12000, mBackend.lastPlayer().getCurrentPosition());
+        assertEquals(PlaybackController.STATE_PAUSED, mEngine.getState());
+
+        // moves within the interval only keep the latest target
+        mEngine.scrub(20500);
+        mClock.runUntilIdle();
+        mEngine.scrub(25500);
+        mClock.runUntilIdle();
+        assertEquals(12000, mBackend.lastPlayer().getCurrentPosition());
+        mClock.advance(100);
+        assertEquals(25000, mBackend.lastPlayer().getCurrentPosition());
+        mClock.advance(1000);
+        assertEquals(25000, mBackend.lastPlayer().getCurrentPosition());
+        assertEquals(PlaybackController.STATE_PAUSED, mEngine.getState());
+
+        // releasing the bar seeks exactly, the scrub still waiting for its turn is dropped
+        mEngine.scrub(40500);
+        mClock.runUntilIdle();
+        mEngine.scrub(45500);
+        mEngine.seek(31234);
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_PLAYING, mEngine.getState());
+        mClock.advance(1000);
+        assertEquals(32234, mBackend.lastPlayer().getCurrentPosition());
+    }
+
+    @Test
+    public void pendingCommandsAreSuperseded() {
+        mEngine.setDataSource("http://host/a.mp4");
+        mEngine.setDataSource("http://host/b.mp4");
+        mEngine.setDataSource(URL);
+        mEngine.seek(1000);
+        mEngine.seek(2000);
+        mClock.runUntilIdle();
+
+        assertEquals(1, mBackend.players().size());
+        assertEquals(URL, mBackend.lastPlayer().url());
+        assertEquals(PlaybackController.STATE_PLAYING, mEngine.getState());
+    }
+
+    @Test
+    public void stoppedItemResumesWhereItWasLeft() {
+        mEngine.setDataSource(URL);
+        mClock.runUntilIdle();
+        mEngine.seek(20000);
+        mClock.runUntilIdle();
+        mEngine.stop();
+        mClock.runUntilIdle();
+        assertEquals(20000, mResumePositions.get(URL));
+
+        mEngine.setDataSource(URL);
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_PLAYING, mEngine.getState());
+        assertEquals(20000, mBackend.lastPlayer().getCurrentPosition());
+
+        // playing to the end forgets the item
+        mBackend.lastPlayer().complete();
+        mClock.runUntilIdle();
+        assertEquals(0, mResumePositions.get(URL));
+        assertEquals(PlaybackController.STATE_IDLE, mEngine.getState());
+    }
+
+    @Test
+    public void failedDataSourceLeavesEngineIdle() {
+        mEngine.setDataSource("fail:" + URL);
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_IDLE, mEngine.getState());
+        assertEquals(0, mBackend.live());
+    }
+
+    @Test
+    public void playbackErrorStopsAndKeepsResumePosition() {
+        mEngine.setDataSource(URL);
+        mClock.runUntilIdle();
+        mEngine.seek(20000);
+        mClock.runUntilIdle();
+        mEngine.stop();
+        mClock.runUntilIdle();
+        mEngine.setDataSource(URL);
+        mClock.runUntilIdle();
+
+        FakeMediaBackend.FakePlayer player = mBackend.lastPlayer();
+        player.fail();
+        mClock.runUntilIdle();
+        assertEquals(FakeMediaBackend.State.RELEASED, player.state());
+        assertEquals(PlaybackController.STATE_IDLE, mEngine.getState());
+        assertTrue(mListener.events.contains("stopped"));
+        assertEquals(20000, mResumePositions.get(URL));
+    }
+
+    @Test
+    public void playbackErrorMovesToTheNextItem() {
+        mEngine.setDataSource(URL);
+        mEngine.setNextDataSource(NEXT_URL);
+        mClock.runUntilIdle();
+        mClock.advance(FakeMediaBackend.DURATION - 10000);
+        FakeMediaBackend.FakePlayer current = mBackend.players().get(0);
+        FakeMediaBackend.FakePlayer next = mBackend.lastPlayer();
+        assertEquals(FakeMediaBackend.State.PREPARED, next.state());
+
+        current.fail();
+        mClock.runUntilIdle();
+        assertEquals(FakeMediaBackend.State.RELEASED, current.state());
+        assertEquals(FakeMediaBackend.State.STARTED, next.state());
+        assertEquals(PlaybackController.STATE_PLAYING, mEngine.getState());
+        assertEquals(NEXT_URL, mTracks.get(0));
+    }
+
+    @Test
+    public void failedPreloadIsOpenedAgainAtItsTurn() {
+        mEngine.setDataSource(URL);
+        mEngine.setNextDataSource(NEXT_URL);
+        mClock.runUntilIdle();
+        mClock.advance(FakeMediaBackend.DURATION - 10000);
+        FakeMediaBackend.FakePlayer current = mBackend.players().get(0);
+        FakeMediaBackend.FakePlayer next = mBackend.lastPlayer();
+
+        next.fail();
+        mClock.runUntilIdle();
+        assertEquals(FakeMediaBackend.State.RELEASED, next.state());
+        assertEquals(FakeMediaBackend.State.STARTED, current.state());
+
+        current.complete();
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_PLAYING, mEngine.getState());
+        assertEquals(NEXT_URL, mBackend.lastPlayer().url());
+        assertEquals(FakeMediaBackend.State.STARTED, mBackend.lastPlayer().state());
+    }
+
+    @Test
+    public void nextItemIsPreloadedAndChained() {
+        mEngine.setDataSource(URL);
+        mEngine.setNextDataSource(NEXT_URL);
+        mClock.runUntilIdle();
+        assertEquals(1, mBackend.players().size());
+
+        // preloaded PRELOAD_LEAD_TIME before the end
+        mClock.advance(FakeMediaBackend.DURATION - 10000);
+        assertEquals(2, mBackend.players().size());
+        FakeMediaBackend.FakePlayer current = mBackend.players().get(0);
+        FakeMediaBackend.FakePlayer next = mBackend.lastPlayer();
+        assertEquals(NEXT_URL, next.url());
+        assertEquals(FakeMediaBackend.State.PREPARED, next.state());
+
+        current.complete();
+        mClock.runUntilIdle();
+        assertEquals(FakeMediaBackend.State.RELEASED, current.state());
+        assertEquals(FakeMediaBackend.State.STARTED, next.state());
+        assertEquals(PlaybackController.STATE_PLAYING, mEngine.getState());
+        assertEquals(1, mTracks.size());
+        assertEquals(NEXT_URL, mTracks.get(0));
+    }
+
+    @Test
+    public void skipToNextWithoutPreload() {
+        mEngine.setDataSource(URL);
+        mEngine.setNextDataSource(NEXT_URL);
+        mEngine.skipToNext();
+        mClock.runUntilIdle();
+
+        assertEquals(2, mBackend.players().size());
+        assertEquals(NEXT_URL, mBackend.lastPlayer().url());
+        assertEquals(FakeMediaBackend.State.STARTED, mBackend.lastPlayer().state());
+        assertEquals(1, mBackend.live());
+    }
+
+    @Test
+    public void surfaceLossStopsPlayback() {
+        Object display = new Object();
+        mEngine.setDisplay(display);
+        mEngine.setDataSource(URL);
+        mClock.runUntilIdle();
+        mClock.advance(5000);
+
+        mEngine.setDisplay(null);
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_IDLE, mEngine.getState());
+        assertEquals(5000, mResumePositions.get(URL));
+
+        mEngine.setDisplay(display);
+        mEngine.start();
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_PLAYING, mEngine.getState());
+        assertSame(display, mBackend.lastPlayer().display());
+    }
+
+    @Test
+    public void detachedSurfaceKeepsThePlayerUntilTimeout() {
+        Object display = new Object();
+        mEngine.setDetachTimeout(30000);
+        mEngine.setDisplay(display);
+        mEngine.setDataSource(URL);
+        mClock.runUntilIdle();
+        mClock.advance(5000);
+        FakeMediaBackend.FakePlayer player = mBackend.lastPlayer();
+
+        // an app switch: paused on the same player, the surface taken away
+        mEngine.setDisplay(null);
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_PAUSED, mEngine.getState());
+        assertNull(player.display());
+        assertEquals(5000, mResumePositions.get(URL));
+
+        mClock.advance(20000);
+        mEngine.setDisplay(display);
+        mEngine.start();
+        mClock.runUntilIdle();
+        assertSame(player, mBackend.lastPlayer());
+        assertSame(display, player.display());
+        assertEquals(FakeMediaBackend.State.STARTED, player.state());
+        assertEquals(1, mBackend.players().size());
+
+        // away for longer than the timeout: released, prepared again on return
+        mEngine.setDisplay(null);
+        mClock.advance(30000);
+        assertEquals(PlaybackController.STATE_IDLE, mEngine.getState());
+        assertEquals(0, mBackend.live());
+
+        mEngine.setDisplay(display);
+        mEngine.start();
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_PLAYING, mEngine.getState());
+        assertNotSame(player, mBackend.lastPlayer());
+        assertEquals(5000, mBackend.lastPlayer().getCurrentPosition());
+    }
+
+    @Test
+    public void detachedEngineStaysControlledUntilRestart() {
+        final List<Integer> states = new ArrayList<Integer>();
+        Object display = new Object();
+        mEngine.setStateChangedListener(new PlaybackController.StateChangedListener() {
+            @Override
+            public void onStateChanged(int state, int position, int duration) {
+                states.add(state);
+            }
+
+            @Override
+            public void onTrackChanged(String url) {
+            }
+        });
+        mEngine.setDetachTimeout(30000);
+        mEngine.setDisplay(display);
+        mEngine.setDataSource(URL);
+        mClock.runUntilIdle();
+        FakeMediaBackend.FakePlayer player = mBackend.lastPlayer();
+
+        // onPause: the surface goes, the renderer stays bound and the control point sees the pause
+        mEngine.setDisplay(null);
+        mClock.runUntilIdle();
+        assertEquals(Integer.valueOf(PlaybackController.STATE_PAUSED), states.get(states.size() - 1));
+
+        // the control point still drives the detached player
+        mEngine.seek(2000);
+        mClock.runUntilIdle();
+        assertEquals(2000, player.getCurrentPosition());
+
+        // onRestart starts before surfaceCreated hands the surface back
+        mEngine.start();
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_PLAYING, mEngine.getState());
+        assertEquals(Integer.valueOf(PlaybackController.STATE_PLAYING), states.get(states.size() - 1));
+        mEngine.setDisplay(display);
+        mClock.runUntilIdle();
+        assertSame(player, mBackend.lastPlayer());
+        assertSame(display, player.display());
+        assertEquals(1, mBackend.players().size());
+    }
+
+    @Test
+    public void backgroundAudioKeepsPlayingWhileDetached() {
+        mEngine.setDetachTimeout(30000);
+        mEngine.setBackgroundAudio(true);
+        mEngine.setDisplay(new Object());
+        mEngine.setDataSource(URL);
+        mClock.runUntilIdle();
+
+        mEngine.setDisplay(null);
+        mClock.advance(10000);
+        assertEquals(PlaybackController.STATE_PLAYING, mEngine.getState());
+        assertEquals(10000, mBackend.lastPlayer().getCurrentPosition());
+        assertNull(mBackend.lastPlayer().display());
+    }
+
+    @Test
+    public void sessionsKeepTheirBackend() {
+        FakeMediaBackend other = new FakeMediaBackend(mClock);
+        BackendSelector backends = new BackendSelector()
+                .add("default", mBackend, 1)
+                .add("other", other, 0);
+        PlayerEngine engine = new PlayerEngine(backends, new ManualExecutor(mClock), new ManualExecutor(mClock),
+                                               null, mResumePositions);
+        backends.force("other");
+        engine.setDataSource(URL);
+        engine.setNextDataSource(NEXT_URL);
+        mClock.advance(FakeMediaBackend.DURATION);
+        assertEquals(2, other.players().size());
+        assertEquals(0, mBackend.players().size());
+
+        // the next session is picked again, the running one is not moved
+        backends.force(null);
+        engine.setDataSource(URL);
+        mClock.runUntilIdle();
+        assertEquals(PlaybackController.STATE_PLAYING, engine.getState());
+        assertEquals(1, mBackend.players().size());
+        assertEquals(0, other.live());
+
+        engine.release();
+        mClock.runUntilIdle();
+        assertTrue(other.released());
+        assertEquals(new ArrayList<String>(), other.violations());
+    }
+
+    @Test
+    public void metricsArePerEngine() {
+        PlayerEngine other = new PlayerEngine(mBackend, new ManualExecutor(mClock), new ManualExecutor(mClock),
+                                              null, mResumePositions);
+        mEngine.setDataSource(URL);
+        mClock.runUntilIdle();
+        assertTrue(dump(mEngine).contains("  java.prepare: count:1 "));
+        assertTrue(dump(other).contains("  java.prepare: count:0 "));
+
+        other.release();
+        mClock.runUntilIdle();
+    }
+
+    private static String dump(PlayerEngine engine) {
+        StringWriter text = new StringWriter();
+        PrintWriter writer = new PrintWriter(text);
+        engine.dump(writer);
+        writer.flush();
+        return text.toString();
+    }
+}
@@ -0,0 +1,15 @@
+package com.eevix;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PlayerStateTest {
+    @Test
+    public void everyStateMapsToItsControllerState() {
+        assertEquals(PlaybackController.STATE_IDLE, PlayerState.convertState(PlayerState.IDLE));
+        assertEquals(PlaybackController.STATE_PREPARING, PlayerState.convertState(PlayerState.PREPARING));
+        assertEquals(PlaybackController.STATE_PLAYING, PlayerState.convertState(PlayerState.PLAYING));
+        assertEquals(PlaybackController.STATE_PAUSED, PlayerState.convertState(PlayerState.PAUSED));
+    }
+}
@@ -0,0 +1,49 @@
+package com.eevix;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProgressSchedulerTest {
+    private static final long NOW = 1000000;
+
+    @Test
+    public void nobodyFollowingMeansNoWakeup() {
+        ProgressScheduler scheduler = new ProgressScheduler();
+        assertEquals(ProgressScheduler.NONE, scheduler.nextDelay(NOW, false, 1234));
+    }
+
+    @Test
+    public void progressBarWakesUpPastEachWholeSecond() {
+        ProgressScheduler scheduler = new ProgressScheduler();
+        assertEquals(1000 - 234 + ProgressScheduler.SECOND_MARGIN, scheduler.nextDelay(NOW, true, 1234));
+        assertEquals(1000 + ProgressScheduler.SECOND_MARGIN, scheduler.nextDelay(NOW, true, 5000));
+        assertEquals(1 + ProgressScheduler.SECOND_MARGIN, scheduler.nextDelay(NOW, true, 5999));
+    }
+
+    @Test
+    public void remoteLeaseRunsOutOnItsOwn() {
+        ProgressScheduler scheduler = new ProgressScheduler();
+        assertTrue(scheduler.extendRemote(NOW, 10000));
+        assertFalse(scheduler.extendRemote(NOW + 1000, 5000));
+        assertEquals(ProgressScheduler.REMOTE_INTERVAL, scheduler.nextDelay(NOW, false, 0));
+        // the progress bar is the faster of the two
+        assertEquals(1000 + ProgressScheduler.SECOND_MARGIN, scheduler.nextDelay(NOW, true, 0));
+
+        assertTrue(scheduler.isRemoteActive(NOW + 9999));
+        assertEquals(ProgressScheduler.NONE, scheduler.nextDelay(NOW + 10000, false, 0));
+        assertTrue(scheduler.extendRemote(NOW + 10000, 5000));
+    }
+
+    @Test
+    public void wakeupsAreCountedOverTheLastMinute() {
+        RateMeter meter = new RateMeter();
+        for (int i = 0; i < 120; i++) {
+            meter.record(NOW + i * 1000);
+        }
+        assertEquals(60, meter.perMinute(NOW + 119 * 1000));
+        assertEquals(30, meter.perMinute(NOW + 149 * 1000));
+        assertEquals(0, meter.perMinute(NOW + 200 * 1000));
+        assertEquals(120, meter.total());
+    }
+}
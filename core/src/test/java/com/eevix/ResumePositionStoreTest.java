@@ -0,0 +1,110 @@
+package com.eevix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class ResumePositionStoreTest {
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(Files.createTempDirectory("resume").toFile(), "positions");
+    }
+
+    @Test
+    public void positionsSurviveReopening() {
+        ResumePositionStore store = new ResumePositionStore(mFile, 100, DAY);
+        store.put("http://host/a.mp4", 1000, 60000);
+        store.put("http://host/b.mp4", 2000, 60000);
+        store.put("http://host/a.mp4", 3000, 60000);
+        store.remove("http://host/b.mp4");
+        store.flush();
+
+        ResumePositionStore reopened = new ResumePositionStore(mFile, 100, DAY);
+        assertEquals(3000, reopened.get("http://host/a.mp4"));
+        assertEquals(0, reopened.get("http://host/b.mp4"));
+        assertEquals(0, reopened.get("http://host/c.mp4"));
+        assertEquals(1, reopened.size());
+    }
+
+    @Test
+    public void compactionKeepsLatestPositions() {
+        ResumePositionStore store = new ResumePositionStore(mFile, 10, DAY);
+        for (int i = 0; i < 1000; i++) {
+            store.put(i % 5 + 1, i + 1, 60000, 1000 + i);
+        }
+
+        assertTrue(store.compactions() > 0);
+        assertTrue(store.records() <= 20);
+        for (int key = 1; key <= 5; key++) {
+            assertEquals(995 + key, store.get(key, 2000));
+        }
+        assertEquals(16 + 20 * 24, mFile.length());
+    }
+
+    @Test
+    public void oldestEntriesAreEvictedBeyondTheCount() {
+        ResumePositionStore store = new ResumePositionStore(mFile, 10, DAY);
+        for (int key = 1; key <= 21; key++) {
+            store.put(key, key * 100, 60000, key);
+        }
+
+        assertEquals(1, store.compactions());
+        assertEquals(0, store.get(1, 100));
+        assertEquals(0, store.get(10, 100));
+        assertEquals(1100, store.get(11, 100));
+        assertEquals(2100, store.get(21, 100));
+        assertEquals(11, store.size());
+    }
+
+    @Test
+    public void expiredEntriesAreIgnoredAndDropped() {
+        ResumePositionStore store = new ResumePositionStore(mFile, 10, DAY);
+        store.put(1, 500, 60000, 0);
+        assertEquals(500, store.get(1, DAY));
+        assertEquals(0, store.get(1, DAY + 1));
+
+        for (int i = 0; i < 20; i++) {
+            store.put(2, i + 1, 60000, DAY + 1);
+        }
+        assertEquals(1, store.compactions());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void lookupAndUpdateAt100kEntries() {
+        final int entries = 100000;
+        ResumePositionStore store = new ResumePositionStore(mFile, entries, DAY);
+        long now = System.currentTimeMillis();
+        String[] urls = new String[entries];
+        long[] keys = new long[entries];
+        for (int i = 0; i < entries; i++) {
+            urls[i] = "http://192.168.1.2:8200/MediaItems/" + i + ".mp4";
+            keys[i] = ResumePositionStore.hash(urls[i]);
+            store.put(keys[i], i + 1, 3600000, now);
+        }
+        for (int i = 0; i < entries; i++) {
+            assertEquals(i + 1, store.get(keys[i], now));
+        }
+
+        // updates append records, the compaction the second pass triggers keeps every live entry
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < entries; i++) {
+                store.put(keys[i], i + 2 + round, 3600000, now);
+            }
+        }
+        assertEquals(1, store.compactions());
+        assertEquals(entries, store.size());
+        for (int i = 0; i < entries; i++) {
+            assertEquals(i + 3, store.get(keys[i], now));
+        }
+        assertEquals(entries + 2, store.get(urls[entries - 1]));
+    }
+}
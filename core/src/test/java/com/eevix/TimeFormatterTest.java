@@ -0,0 +1,71 @@
+package com.eevix;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+
+public class TimeFormatterTest {
+    private static final int TICKS = 100000;
+
+    @Test
+    public void formatsLikeStringFormat() {
+        TimeFormatter formatter = new TimeFormatter();
+        int[] times = {0, 999, 1000, 59999, 60000, 3599999, 3600000, 86399999, 359999999, 360000000,
+                Integer.MAX_VALUE};
+        for (int time : times) {
+            formatter.reset();
+            assertTrue(formatter.format(time));
+            assertEquals(String.format("%02d:%02d:%02d", time / 1000 / 3600, time / 1000 / 60 % 60, time / 1000 % 60),
+                    formatter.toString());
+        }
+
+        formatter.reset();
+        assertTrue(formatter.format(-500));
+        assertEquals("00:00:00", formatter.toString());
+    }
+
+    @Test
+    public void onlyReportsChangedSeconds() {
+        TimeFormatter formatter = new TimeFormatter();
+        assertTrue(formatter.format(1200));
+        assertFalse(formatter.format(1999));
+        assertEquals("00:00:01", formatter.toString());
+        assertTrue(formatter.format(2000));
+        assertTrue(formatter.format(1000)); // seeking back
+        assertEquals("00:00:01", formatter.toString());
+
+        formatter.reset();
+        assertTrue(formatter.format(1000));
+    }
+
+    @Test
+    public void ticksDoNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+        TimeFormatter formatter = new TimeFormatter();
+        long threadId = Thread.currentThread().getId();
+
+        // warm up, then count the allocations of a second pass; a tick is a new second every time
+        long allocated = 0;
+        long sink = 0;
+        for (int round = 0; round < 2; round++) {
+            long start = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < TICKS; i++) {
+                if (formatter.format(i * 1000)) {
+                    sink += formatter.chars()[formatter.length() - 1];
+                }
+            }
+            allocated = threads.getThreadAllocatedBytes(threadId) - start;
+        }
+
+        assertTrue(sink > 0);
+        assertTrue(allocated < TICKS); // under a byte per tick, counter noise only
+    }
+}
@@ -0,0 +1,74 @@
+package com.eevix;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VideoLayoutTest {
+    @Test
+    public void fitsTheVideoIntoTheContainer() {
+        VideoLayout layout = new VideoLayout();
+        layout.setContainerSize(1920, 1080);
+
+        layout.setVideoSize(1280, 720);
+        assertTrue(layout.update());
+        assertEquals(1920, layout.width());
+        assertEquals(1080, layout.height());
+
+        // 2.39:1 scope, letterboxed
+        layout.setVideoSize(1920, 804);
+        assertTrue(layout.update());
+        assertEquals(1920, layout.width());
+        assertEquals(804, layout.height());
+
+        // 4:3, pillarboxed
+        layout.setVideoSize(640, 480);
+        assertTrue(layout.update());
+        assertEquals(1440, layout.width());
+        assertEquals(1080, layout.height());
+
+        // rounded to the nearest pixel, not truncated
+        layout.setContainerSize(1000, 1000);
+        layout.setVideoSize(3, 2);
+        assertTrue(layout.update());
+        assertEquals(1000, layout.width());
+        assertEquals(667, layout.height());
+    }
+
+    @Test
+    public void unknownSizesFollowTheLayout() {
+        VideoLayout layout = new VideoLayout();
+        layout.setContainerSize(1920, 1080);
+        assertTrue(layout.update());
+        assertTrue(layout.fromLayout());
+
+        layout.setVideoSize(1920, 1080);
+        layout.setContainerSize(0, 0);
+        assertFalse(layout.update());
+        assertTrue(layout.fromLayout());
+    }
+
+    @Test
+    public void unchangedTargetsAreDeduplicated() {
+        VideoLayout layout = new VideoLayout();
+        layout.setContainerSize(1920, 1080);
+        layout.setVideoSize(1920, 1080);
+        assertTrue(layout.update());
+
+        // an adaptive stream stepping through renditions of the same aspect ratio
+        int[][] renditions = {{1280, 720}, {1024, 576}, {640, 360}, {1920, 1080}, {3840, 2160}};
+        for (int[] rendition : renditions) {
+            layout.setVideoSize(rendition[0], rendition[1]);
+            assertFalse(layout.update());
+        }
+        // a layout pass with the same bounds
+        layout.setContainerSize(1920, 1080);
+        assertFalse(layout.update());
+        assertEquals(1, layout.resizes());
+        assertEquals(6, layout.deduped());
+
+        layout.reset();
+        assertEquals(0, layout.resizes());
+        assertTrue(layout.update());
+    }
+}